@@ -27,6 +27,8 @@ import android.widget.TabHost;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.nio.ByteBuffer;
+
 /**
  * ChooseSongActivity is a tabbed view for choosing a song to play.
  * There are 3 tabs:
@@ -71,8 +73,8 @@ public class ChooseSongActivity extends TabActivity {
     }
 
     public void doOpenFile(FileUri file) {
-        byte[] data = file.getData(this);
-        if (data == null || data.length <= 6 || !MidiFile.hasMidiHeader(data)) {
+        ByteBuffer data = file.getBuffer(this);
+        if (data == null || data.remaining() <= 6 || !MidiFile.hasMidiHeader(data)) {
             ChooseSongActivity.showErrorDialog("Error: Unable to open song: " + file.toString(), this);
             return;
         }
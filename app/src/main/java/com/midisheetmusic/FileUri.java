@@ -15,6 +15,8 @@ package com.midisheetmusic;
 import android.content.*;
 import android.content.res.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 import android.net.*;
 import android.provider.*;
@@ -73,61 +75,87 @@ public class FileUri implements Comparator<FileUri> {
      *  If any IO error occurs, return null.
      */
     public byte[] getData(Activity activity) {
+        ByteBuffer buffer = getBuffer(activity);
+        if (buffer == null) {
+            return null;
+        }
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+
+    /** Return the file contents as a read-only ByteBuffer, reading the
+     *  file in a single pass.  Files in the internal/external storage,
+     *  and uncompressed files in the /assets directory, are memory-mapped
+     *  instead of copied.  Other content is read directly into a buffer.
+     *  If any IO error occurs, return null.
+     */
+    public ByteBuffer getBuffer(Activity activity) {
         try {
-            byte[] data;
-            int totallen, len, offset;
-        
-            // First, determine the file length
-            data = new byte[4096];
-            InputStream file;
             String uriString = uri.toString();
             if (uriString.startsWith("file:///android_asset/")) {
                 AssetManager asset = activity.getResources().getAssets();
                 String filepath = uriString.replace("file:///android_asset/", "");
-                file = asset.open(filepath);
+                AssetFileDescriptor fd;
+                try {
+                    fd = asset.openFd(filepath);
+                }
+                catch (FileNotFoundException e) {
+                    /* The asset is compressed, so it can't be mapped */
+                    return readStream(asset.open(filepath));
+                }
+                return mapFile(fd.createInputStream(),
+                               fd.getStartOffset(), fd.getLength());
             }
             else if (uriString.startsWith("content://")) {
                 ContentResolver resolver = activity.getContentResolver(); 
-                file = resolver.openInputStream(uri);
+                return readStream(resolver.openInputStream(uri));
             }
             else {
-                file = new FileInputStream(uri.getPath());
-            }
-            totallen = 0;
-            len = file.read(data, 0, 4096);
-            while (len > 0) {
-                totallen += len;
-                len = file.read(data, 0, 4096);
+                File file = new File(uri.getPath());
+                return mapFile(new FileInputStream(file), 0, file.length());
             }
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
+
+    /** Memory-map len bytes of the given file, starting at offset.
+     *  The file is closed afterwards (the mapping stays valid).
+     */
+    private static ByteBuffer
+    mapFile(FileInputStream file, long offset, long len) throws IOException {
+        try {
+            FileChannel channel = file.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, len);
+        }
+        finally {
             file.close();
-        
-            // Now read in the data
-            offset = 0;
-            data = new byte[totallen];
+        }
+    }
 
-            if (uriString.startsWith("file:///android_asset/")) {
-                AssetManager asset = activity.getResources().getAssets();
-                String filepath = uriString.replace("file:///android_asset/", "");
-                file = asset.open(filepath);
-            }
-            else if (uriString.startsWith("content://")) {
-                ContentResolver resolver = activity.getContentResolver(); 
-                file = resolver.openInputStream(uri);
-            }
-            else {
-                file = new FileInputStream(uri.getPath());
-            }
-            while (offset < totallen) {
-                len = file.read(data, offset, totallen - offset);
-                if (len <= 0) {
-                    throw new MidiFileException("Error reading midi file", offset);
+    /** Read the entire stream in a single pass, growing the buffer
+     *  as needed.  The stream is closed afterwards.
+     */
+    private static ByteBuffer readStream(InputStream file) throws IOException {
+        try {
+            byte[] data = new byte[Math.max(file.available() + 1, 4096)];
+            int totallen = 0;
+            while (true) {
+                if (totallen == data.length) {
+                    data = Arrays.copyOf(data, data.length * 2);
+                }
+                int len = file.read(data, totallen, data.length - totallen);
+                if (len < 0) {
+                    break;
                 }
-                offset += len;
+                totallen += len;
             }
-            return data;
+            return ByteBuffer.wrap(data, 0, totallen).slice().asReadOnlyBuffer();
         }
-        catch (Exception e) {
-            return null;
+        finally {
+            file.close();
         }
     }
 
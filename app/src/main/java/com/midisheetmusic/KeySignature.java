@@ -13,10 +13,15 @@
 package com.midisheetmusic;
 
 
+import java.util.ArrayList;
+
 import com.midisheetmusic.sheets.Accid;
 import com.midisheetmusic.sheets.AccidSymbol;
 import com.midisheetmusic.sheets.Clef;
 import com.midisheetmusic.sheets.WhiteNote;
+import com.midisheetmusic.collections.ListInt;
+
+import java.util.ArrayList;
 
 /** @class KeySignature
  * The KeySignature class represents a key signature, like G Major
@@ -471,6 +476,53 @@ public class KeySignature {
         return result;
     }
 
+    /** Update the keymap as if GetAccidental() was called for the
+     * notes [start, end), in order, without creating their chords.
+     * The keymap is reset at each new measure, so only the notes in
+     * the measure of the last note are needed.
+     */
+    public void SkipNotes(ArrayList<MidiNote> notes, int start, int end, int measurelen) {
+        if (end <= start) {
+            return;
+        }
+        int measure = notes.get(end-1).getStartTime() / measurelen;
+        int first = end - 1;
+        while (first > start && notes.get(first-1).getStartTime() / measurelen == measure) {
+            first--;
+        }
+        if (first > start) {
+            /* An earlier measure reset the keymap */
+            prevmeasure = -1;
+        }
+        for (int n = first; n < end; n++) {
+            GetAccidental(notes.get(n).getNumber(), measure);
+        }
+    }
+
+    /** Return a copy of this key signature, with the same keymap */
+    public KeySignature Copy() {
+        KeySignature key = new KeySignature(num_sharps, num_flats);
+        System.arraycopy(keymap, 0, key.keymap, 0, keymap.length);
+        key.prevmeasure = prevmeasure;
+        return key;
+    }
+
+    /** Return a copy of this key signature for each track, in the state
+     * left by calling GetAccidental() for the notes of the tracks before
+     * it, in order.  The chords of the tracks can then be created in any
+     * order, with the same accidentals as creating them track by track.
+     */
+    public KeySignature[] TrackKeys(ArrayList<ArrayList<MidiNote>> tracknotes, int measurelen) {
+        KeySignature key = Copy();
+        KeySignature[] result = new KeySignature[tracknotes.size()];
+        for (int track = 0; track < result.length; track++) {
+            result[track] = key.Copy();
+            ArrayList<MidiNote> notes = tracknotes.get(track);
+            key.SkipNotes(notes, 0, notes.size(), measurelen);
+        }
+        return result;
+    }
+
 
     /** Given a midi note number, return the white note (the
      * non-sharp/non-flat note) that should be used when displaying
@@ -562,8 +614,6 @@ public class KeySignature {
      * the song.
      */
     public static KeySignature Guess(ListInt notes) {
-        CreateAccidentalMaps();
-
         /* Get the frequency count of each note in the 12-note scale */
         int[] notecount = new int[12];
         for (int i = 0; i < notes.size(); i++) {
@@ -571,6 +621,31 @@ public class KeySignature {
             int notescale = (notenumber + 3) % 12;
             notecount[notescale] += 1;
         }
+        return Guess(notecount, notes.size());
+    }
+
+    /** Guess the key signature, given the notes in all the tracks.
+     * The notes are counted directly, without copying the note numbers
+     * into a list.
+     */
+    public static KeySignature Guess(ArrayList<MidiTrack> tracks) {
+        int[] notecount = new int[12];
+        int total = 0;
+        for (MidiTrack track : tracks) {
+            for (MidiNote note : track.getNotes()) {
+                int notescale = (note.getNumber() + 3) % 12;
+                notecount[notescale] += 1;
+            }
+            total += track.getNotes().size();
+        }
+        return Guess(notecount, total);
+    }
+
+    /** Guess the key signature, given the frequency count of each
+     * note in the 12-note scale, and the total number of notes.
+     */
+    private static KeySignature Guess(int[] notecount, int total) {
+        CreateAccidentalMaps();
 
         /* For each key signature, count the total number of accidentals
          * needed to display all the notes.  Choose the key signature
@@ -578,7 +653,7 @@ public class KeySignature {
          */
         int bestkey = 0;
         boolean is_best_sharp = true;
-        int smallest_accid_count = notes.size();
+        int smallest_accid_count = total;
         int key;
 
         for (key = 0; key < 6; key++) {
@@ -616,6 +691,12 @@ public class KeySignature {
         }
     }
 
+    /** Return the number of sharps in the key */
+    public int getNumSharps() { return num_sharps; }
+
+    /** Return the number of flats in the key */
+    public int getNumFlats() { return num_flats; }
+
     /** Return true if this key signature is equal to key signature k */
     public boolean equals(KeySignature k) {
         if (k.num_sharps == num_sharps && k.num_flats == num_flats)
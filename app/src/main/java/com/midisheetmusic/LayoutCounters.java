@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** @class LayoutCounters
+ * Counts the music symbols and staffs created while laying out the
+ * sheet music, and the staffs re-used from a released SheetMusic
+ * (see StaffList).  Only the staffs are re-used, and only when nothing
+ * but the colors changed (see LayoutStages): laying out the same song
+ * again then creates no symbols for the staffs that were in memory.
+ * Any other change creates all the symbols again.
+ *
+ * The layout runs on several threads, so the counts are atomic.
+ */
+public class LayoutCounters {
+    private static final AtomicLong symbols = new AtomicLong();      /** The symbols created */
+    private static final AtomicLong staffs = new AtomicLong();       /** The staffs created */
+    private static final AtomicLong reusedStaffs = new AtomicLong(); /** The staffs re-used */
+
+    public static void AddSymbols(int count) { symbols.addAndGet(count); }
+    public static void AddStaffs(int count) { staffs.addAndGet(count); }
+    public static void AddReusedStaffs(int count) { reusedStaffs.addAndGet(count); }
+
+    public static long getSymbols() { return symbols.get(); }
+    public static long getStaffs() { return staffs.get(); }
+    public static long getReusedStaffs() { return reusedStaffs.get(); }
+
+    /** Set all the counts back to zero */
+    public static void Reset() {
+        symbols.set(0);
+        staffs.set(0);
+        reusedStaffs.set(0);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic;
+
+import java.util.*;
+
+import com.midisheetmusic.sheets.StaffList;
+
+/** @class LayoutStages
+ * The sheet music is laid out in stages.  Each stage uses the result
+ * of the stage before it, and some of the MidiOptions:
+ *
+ * Notes    Select the tracks, round the start times and durations, and
+ *          combine the tracks into two staffs (MidiFile.QuantizeMidiNotes).
+ *          Uses: tracks, combineInterval, time, twoStaffs
+ *
+ * Shift    Shift the notes in time, and transpose them
+ *          (MidiFile.ShiftMidiNotes).
+ *          Uses: shifttime, transpose
+ *
+ * Symbols  Find the key signature, create the chords, rests, bars and
+ *          clefs, and vertically align them (SheetMusic.CreateLayout).
+ *          Uses: key, showNoteLetters, showLyrics
+ *
+ * Staffs   Split the aligned symbols into staffs, justify the staffs,
+ *          and create the beams.  The bar widths depend on showMeasures.
+ *          Uses: scrollVert, showMeasures
+ *
+ * Paint    Draw the staffs.
+ *          Uses: useColors, colorAccidentals, noteColors, shade1Color, shade2Color
+ *
+ * The other options (tempo, instruments, etc) do not change the sheet music.
+ *
+ * When the options change, only the stages using a changed option, and
+ * the stages after them, are done again.  The LayoutStages keeps the
+ * result of each stage, so that the next SheetMusic can re-use them.
+ * The results are never changed after they are stored, since the
+ * SheetMusic that created them may still be using them.  The staffs
+ * are only re-used once that SheetMusic is released (see StaffList).
+ */
+public class LayoutStages {
+
+    public static final int Notes   = 0;
+    public static final int Shift   = 1;
+    public static final int Symbols = 2;
+    public static final int Staffs  = 3;
+    public static final int Paint   = 4;
+
+    private MidiFile file;                  /** The midi file that was laid out */
+    private MidiOptions options;            /** A copy of the options used */
+    private ArrayList<MidiTrack> quantized; /** The result of the Notes stage, or null */
+    private ArrayList<MidiTrack> tracks;    /** The result of the Shift stage, or null */
+    private ScoreLayout layout;             /** The aligned symbols of the Symbols stage, or null */
+    private StaffList staffs;               /** The staffs of the Staffs stage, or null */
+
+    /** Create the stages for laying out the given file with the given
+     *  options.  The options must not be changed afterwards.
+     */
+    public LayoutStages(MidiFile file, MidiOptions options) {
+        this.file = file;
+        this.options = options;
+    }
+
+    public MidiOptions getOptions() { return options; }
+
+    public ArrayList<MidiTrack> getQuantized() { return quantized; }
+    public void setQuantized(ArrayList<MidiTrack> value) { quantized = value; }
+
+    public ArrayList<MidiTrack> getTracks() { return tracks; }
+    public void setTracks(ArrayList<MidiTrack> value) { tracks = value; }
+
+    /** The layout of the Symbols stage.  Only the notes, aligned
+     *  symbols, and lyrics of the layout are used by the next stage.
+     */
+    public ScoreLayout getLayout() { return layout; }
+    public void setLayout(ScoreLayout value) { layout = value; }
+
+    public StaffList getStaffs() { return staffs; }
+    public void setStaffs(StaffList value) { staffs = value; }
+
+    /** Return true if the two time signatures are the same (or both null) */
+    private static boolean SameTime(TimeSignature t1, TimeSignature t2) {
+        if (t1 == null || t2 == null) {
+            return t1 == t2;
+        }
+        return t1.getNumerator() == t2.getNumerator() &&
+               t1.getDenominator() == t2.getDenominator() &&
+               t1.getQuarter() == t2.getQuarter() &&
+               t1.getTempo() == t2.getTempo();
+    }
+
+    /** Return the first stage that uses an option that is different
+     *  in the two options.  Return Paint if only the colors are different,
+     *  and a larger value if nothing in the sheet music is different.
+     */
+    public static int FirstChangedStage(MidiOptions prev, MidiOptions next) {
+        if (!Arrays.equals(prev.tracks, next.tracks) ||
+            prev.combineInterval != next.combineInterval ||
+            !SameTime(prev.time, next.time) ||
+            prev.twoStaffs != next.twoStaffs) {
+            return Notes;
+        }
+        if (prev.shifttime != next.shifttime || prev.transpose != next.transpose) {
+            return Shift;
+        }
+        if (prev.key != next.key || prev.showNoteLetters != next.showNoteLetters ||
+            prev.showLyrics != next.showLyrics) {
+            return Symbols;
+        }
+        if (prev.scrollVert != next.scrollVert || prev.showMeasures != next.showMeasures) {
+            return Staffs;
+        }
+        if (prev.useColors != next.useColors ||
+            prev.colorAccidentals != next.colorAccidentals ||
+            !Arrays.equals(prev.noteColors, next.noteColors) ||
+            prev.shade1Color != next.shade1Color || prev.shade2Color != next.shade2Color) {
+            return Paint;
+        }
+        return Paint + 1;
+    }
+
+    /** Return the first stage that must be done to lay out the given
+     *  file with the given options, re-using these results.  This is the
+     *  first changed stage, or an earlier stage whose result is missing.
+     *  The result is at most Paint: if only the colors changed, or nothing
+     *  changed, the staffs are re-used and only painted again.
+     */
+    public int FirstStageToRedo(MidiFile newfile, MidiOptions newoptions) {
+        if (newfile != file) {
+            return Notes;
+        }
+        int stage = Math.min(Paint, FirstChangedStage(options, newoptions));
+        if (stage > Staffs && staffs == null) {
+            stage = Staffs;
+        }
+        if (stage > Symbols && layout == null) {
+            stage = Symbols;
+        }
+        if (stage > Shift && tracks == null) {
+            stage = Shift;
+        }
+        if (stage > Notes && quantized == null) {
+            stage = Notes;
+        }
+        return stage;
+    }
+}
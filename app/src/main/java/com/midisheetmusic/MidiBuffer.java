@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/** @class MidiBuffer
+ * A MidiBuffer holds a midi file created for playback (by
+ * MidiFile.ChangeSound), in memory.  The buffer is re-used: calling
+ * reset() empties it, but keeps the allocated array, so playing the
+ * same song again does not allocate a new array.
+ *
+ * Unlike ByteArrayOutputStream.toByteArray(), getData() returns the
+ * array without copying it.  Only the first size() bytes are valid.
+ *
+ * The Write methods below are used by MidiFile to encode the midi
+ * file directly into the buffer.  They are not synchronized, so the
+ * buffer should only be written by one thread at a time.
+ */
+public class MidiBuffer extends ByteArrayOutputStream {
+
+    public MidiBuffer(int capacity) {
+        super(capacity);
+    }
+
+    /** Return the data, without copying.  Only the first size() bytes are valid. */
+    public synchronized byte[] getData() {
+        return buf;
+    }
+
+    /** Make room for n more bytes, growing the array if needed */
+    private void ensureCapacity(int n) {
+        if (count + n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + n));
+        }
+    }
+
+    /** Add n bytes to the end of the buffer, and return the offset of
+     *  the first one.  The caller should fill them in, using getData().
+     */
+    public int Reserve(int n) {
+        ensureCapacity(n);
+        count += n;
+        return count - n;
+    }
+
+    /** Write a single byte */
+    public void WriteByte(int b) {
+        ensureCapacity(1);
+        buf[count++] = (byte)b;
+    }
+
+    /** Write a 2-byte integer */
+    public void WriteShort(int value) {
+        ensureCapacity(2);
+        buf[count++] = (byte)((value >> 8) & 0xFF);
+        buf[count++] = (byte)(value & 0xFF);
+    }
+
+    /** Write a 4-byte integer */
+    public void WriteInt(int value) {
+        ensureCapacity(4);
+        SetInt(count, value);
+        count += 4;
+    }
+
+    /** Change the 4-byte integer at the given offset */
+    public void SetInt(int offset, int value) {
+        buf[offset]   = (byte)((value >> 24) & 0xFF);
+        buf[offset+1] = (byte)((value >> 16) & 0xFF);
+        buf[offset+2] = (byte)((value >> 8) & 0xFF);
+        buf[offset+3] = (byte)(value & 0xFF);
+    }
+
+    /** Write a variable length integer, 7 bits per byte, with the
+     *  high bit set in every byte except the last.
+     */
+    public void WriteVarlen(int value) {
+        ensureCapacity(4);
+        int shift = 21;
+        while (shift > 0 && ((value >> shift) & 0x7F) == 0) {
+            shift -= 7;
+        }
+        while (shift > 0) {
+            buf[count++] = (byte)(((value >> shift) & 0x7F) | 0x80);
+            shift -= 7;
+        }
+        buf[count++] = (byte)(value & 0x7F);
+    }
+
+    /** Write the ASCII characters of the given string (such as "MThd") */
+    public void WriteAscii(String text) {
+        ensureCapacity(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            buf[count++] = (byte)text.charAt(i);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic;
+
+import android.media.MediaDataSource;
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+/** @class MidiDataSource
+ * A MediaDataSource that reads the midi file from memory, so the
+ * MediaPlayer can play the midi file without writing it to disk.
+ * The data must not change while the MediaPlayer is using it
+ * (until MediaPlayer.reset() is called).
+ */
+@RequiresApi(api = Build.VERSION_CODES.M)
+public class MidiDataSource extends MediaDataSource {
+    private byte[] data;   /** The midi file data */
+    private int length;    /** The number of valid bytes in data */
+
+    public MidiDataSource(byte[] data, int length) {
+        this.data = data;
+        this.length = length;
+    }
+
+    @Override
+    public int readAt(long position, byte[] buffer, int offset, int size) {
+        if (position >= length) {
+            return -1;
+        }
+        int count = (int)Math.min(size, length - position);
+        System.arraycopy(data, (int)position, buffer, offset, count);
+        return count;
+    }
+
+    @Override
+    public long getSize() {
+        return length;
+    }
+
+    @Override
+    public void close() {
+    }
+}
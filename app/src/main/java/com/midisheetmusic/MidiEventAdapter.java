@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic;
+
+import java.nio.ByteBuffer;
+
+/** @class MidiEventAdapter
+ * A MidiEventHandler that ignores every event.  Subclasses only
+ * override the events they are interested in (for example, only
+ * the tempo or the lyrics).
+ */
+public abstract class MidiEventAdapter implements MidiEventHandler {
+    public void StartFile(ByteBuffer data, int trackmode, int numtracks, int quarternote) {}
+    public void StartTrack(int tracknum) {}
+    public void EndTrack(int tracknum) {}
+
+    public void NoteOn(int time, byte channel, byte notenumber, byte velocity) {}
+    public void NoteOff(int time, byte channel, byte notenumber, byte velocity) {}
+    public void KeyPressure(int time, byte channel, byte notenumber, byte pressure) {}
+    public void ControlChange(int time, byte channel, byte controlnum, byte value) {}
+    public void ProgramChange(int time, byte channel, byte instrument) {}
+    public void ChannelPressure(int time, byte channel, byte pressure) {}
+    public void PitchBend(int time, byte channel, short bend) {}
+    public void SysexEvent(int time, byte eventflag, int offset, ByteBuffer value) {}
+    public void MetaEvent(int time, byte metaevent, int offset, ByteBuffer value) {}
+}
+
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/** @class MidiEventCollector
+ * The MidiEventCollector receives the Midi events as they are parsed,
+ * and stores the events of each track in a MidiEventTable.  This is
+ * needed for playback, where the events are modified and written back out.
+ *
+ * Each event is also passed on to another handler (if not null), so
+ * that the events and the MidiTracks can be created in a single pass.
+ */
+public class MidiEventCollector implements MidiEventHandler {
+    private MidiEventHandler next;     /** The handler to pass the events to */
+    private ByteBuffer data;           /** The midi file data */
+    private ArrayList<MidiEventTable> allevents; /** The events, one table per track */
+    private MidiEventTable events;     /** The events of the current track */
+    private int trackmode;             /** The track mode of the file */
+    private int quarternote;           /** The number of pulses per quarter note */
+
+    public MidiEventCollector(MidiEventHandler next) {
+        this.next = next;
+        allevents = new ArrayList<MidiEventTable>();
+    }
+
+    public ArrayList<MidiEventTable> getEvents() { return allevents; }
+    public int getTrackMode() { return trackmode; }
+    public int getQuarterNote() { return quarternote; }
+
+    public void StartFile(ByteBuffer data, int trackmode, int numtracks, int quarternote) {
+        this.data = data;
+        this.trackmode = trackmode;
+        this.quarternote = quarternote;
+        if (next != null) next.StartFile(data, trackmode, numtracks, quarternote);
+    }
+
+    public void StartTrack(int tracknum) {
+        events = new MidiEventTable(data, 20);
+        allevents.add(events);
+        if (next != null) next.StartTrack(tracknum);
+    }
+
+    public void EndTrack(int tracknum) {
+        if (next != null) next.EndTrack(tracknum);
+    }
+
+    public void NoteOn(int time, byte channel, byte notenumber, byte velocity) {
+        events.AddChannelEvent(time, MidiFile.EventNoteOn, channel, notenumber, velocity);
+        if (next != null) next.NoteOn(time, channel, notenumber, velocity);
+    }
+
+    public void NoteOff(int time, byte channel, byte notenumber, byte velocity) {
+        events.AddChannelEvent(time, MidiFile.EventNoteOff, channel, notenumber, velocity);
+        if (next != null) next.NoteOff(time, channel, notenumber, velocity);
+    }
+
+    public void KeyPressure(int time, byte channel, byte notenumber, byte pressure) {
+        events.AddChannelEvent(time, MidiFile.EventKeyPressure, channel, notenumber, pressure);
+        if (next != null) next.KeyPressure(time, channel, notenumber, pressure);
+    }
+
+    public void ControlChange(int time, byte channel, byte controlnum, byte value) {
+        events.AddChannelEvent(time, MidiFile.EventControlChange, channel, controlnum, value);
+        if (next != null) next.ControlChange(time, channel, controlnum, value);
+    }
+
+    public void ProgramChange(int time, byte channel, byte instrument) {
+        events.AddChannelEvent(time, MidiFile.EventProgramChange, channel, instrument, (byte)0);
+        if (next != null) next.ProgramChange(time, channel, instrument);
+    }
+
+    public void ChannelPressure(int time, byte channel, byte pressure) {
+        events.AddChannelEvent(time, MidiFile.EventChannelPressure, channel, pressure, (byte)0);
+        if (next != null) next.ChannelPressure(time, channel, pressure);
+    }
+
+    public void PitchBend(int time, byte channel, short bend) {
+        events.AddChannelEvent(time, MidiFile.EventPitchBend, channel,
+                               (byte)(bend >> 8), (byte)(bend & 0xFF));
+        if (next != null) next.PitchBend(time, channel, bend);
+    }
+
+    public void SysexEvent(int time, byte eventflag, int offset, ByteBuffer value) {
+        events.AddSysexEvent(time, eventflag, offset, value.remaining());
+        if (next != null) next.SysexEvent(time, eventflag, offset, value);
+    }
+
+    public void MetaEvent(int time, byte metaevent, int offset, ByteBuffer value) {
+        if (metaevent == MidiFile.MetaEventTempo) {
+            int tempo = ((value.get(0) & 0xFF) << 16) |
+                        ((value.get(1) & 0xFF) << 8) |
+                         (value.get(2) & 0xFF);
+            events.AddTempoEvent(time, tempo);
+        }
+        else {
+            events.AddMetaEvent(time, metaevent, offset, value.remaining());
+        }
+        if (next != null) next.MetaEvent(time, metaevent, offset, value);
+    }
+}
+
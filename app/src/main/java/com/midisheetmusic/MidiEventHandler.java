@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic;
+
+import java.nio.ByteBuffer;
+
+/** @interface MidiEventHandler
+ * Receives the events of a Midi file as they are parsed, without
+ * building a list of MidiEvents.  The methods are called by
+ * MidiFile.Parse() in file order:
+ *
+ *   StartFile
+ *   StartTrack, (events of track 0), EndTrack
+ *   StartTrack, (events of track 1), EndTrack
+ *   ...
+ *
+ * The time is the absolute start time of the event, in pulses.
+ * The note number, velocity, etc are the raw bytes from the file,
+ * the same as the bytes stored in a MidiEventTable.
+ *
+ * The value of sysex and meta events is a read-only view of the
+ * file data, starting at the given offset in the data passed to
+ * StartFile().  It is only valid as long as the file data is.
+ * Tempo and time signature meta events have already been checked
+ * to have the correct length.
+ */
+public interface MidiEventHandler {
+    public void StartFile(ByteBuffer data, int trackmode, int numtracks, int quarternote);
+    public void StartTrack(int tracknum);
+    public void EndTrack(int tracknum);
+
+    public void NoteOn(int time, byte channel, byte notenumber, byte velocity);
+    public void NoteOff(int time, byte channel, byte notenumber, byte velocity);
+    public void KeyPressure(int time, byte channel, byte notenumber, byte pressure);
+    public void ControlChange(int time, byte channel, byte controlnum, byte value);
+    public void ProgramChange(int time, byte channel, byte instrument);
+    public void ChannelPressure(int time, byte channel, byte pressure);
+    public void PitchBend(int time, byte channel, short bend);
+    public void SysexEvent(int time, byte eventflag, int offset, ByteBuffer value);
+    public void MetaEvent(int time, byte metaevent, int offset, ByteBuffer value);
+}
+
@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/** @class MidiEventTable
+ * The MidiEventTable stores the Midi events of a track, packed into
+ * parallel arrays (one column per field) instead of one object per event.
+ * Each event (row) has:
+ *
+ * time   - The absolute start time, in pulses
+ * status - The raw status byte.  For channel events, this is the
+ *          event flag plus the channel (e.g. 0x93 = NoteOn, channel 3).
+ *          For sysex and meta events, this is the event flag.
+ * data1  - NoteOn/NoteOff/KeyPressure: the note number
+ *          ControlChange: the controller number
+ *          ProgramChange: the instrument
+ *          ChannelPressure: the pressure
+ *          PitchBend: the first (high) byte
+ *          MetaEvent: the meta event type
+ * data2  - NoteOn/NoteOff: the velocity
+ *          KeyPressure: the pressure
+ *          ControlChange: the controller value
+ *          PitchBend: the second (low) byte
+ * extra  - Tempo meta events: the tempo (microseconds per quarter note)
+ *          Other sysex and meta events: the index into the value table
+ *
+ * The values of sysex and meta events are not copied.  The value table
+ * contains the offset and length of each value in the midi file data.
+ *
+ * Events are appended with the Add methods, and read either by row
+ * number or with a Cursor.  Tables created from the same midi file
+ * share the file data, so rows can be copied between them.
+ */
+public class MidiEventTable {
+    private ByteBuffer source;   /** The midi file data, containing the values */
+    private int count;           /** The number of events */
+    private int[] time;          /** The start time of each event */
+    private byte[] status;       /** The status byte of each event */
+    private byte[] data1;        /** The first data byte of each event */
+    private byte[] data2;        /** The second data byte of each event */
+    private int[] extra;         /** The tempo, or the index of the value */
+    private int valuecount;      /** The number of values */
+    private int[] valueoffset;   /** The offset of each value in the source */
+    private int[] valuelength;   /** The length of each value */
+
+    /** Create an empty table, for events of the given midi file data */
+    public MidiEventTable(ByteBuffer source, int capacity) {
+        this.source = source;
+        capacity = Math.max(capacity, 4);
+        time = new int[capacity];
+        status = new byte[capacity];
+        data1 = new byte[capacity];
+        data2 = new byte[capacity];
+        extra = new int[capacity];
+        valueoffset = new int[4];
+        valuelength = new int[4];
+    }
+
+    /** Return the number of events */
+    public int size() { return count; }
+
+    /** Return the midi file data containing the values */
+    public ByteBuffer getSource() { return source; }
+
+    /** Add a row, and return its index */
+    private int addRow(int starttime, byte statusbyte, byte d1, byte d2, int x) {
+        if (count == time.length) {
+            int newcapacity = count * 2;
+            time = Arrays.copyOf(time, newcapacity);
+            status = Arrays.copyOf(status, newcapacity);
+            data1 = Arrays.copyOf(data1, newcapacity);
+            data2 = Arrays.copyOf(data2, newcapacity);
+            extra = Arrays.copyOf(extra, newcapacity);
+        }
+        time[count] = starttime;
+        status[count] = statusbyte;
+        data1[count] = d1;
+        data2[count] = d2;
+        extra[count] = x;
+        count++;
+        return count-1;
+    }
+
+    /** Add a value, and return its index */
+    private int addValue(int offset, int length) {
+        if (valuecount == valueoffset.length) {
+            valueoffset = Arrays.copyOf(valueoffset, valuecount * 2);
+            valuelength = Arrays.copyOf(valuelength, valuecount * 2);
+        }
+        valueoffset[valuecount] = offset;
+        valuelength[valuecount] = length;
+        valuecount++;
+        return valuecount-1;
+    }
+
+    /** Add a channel event (NoteOn, NoteOff, KeyPressure, ControlChange,
+     *  ProgramChange, ChannelPressure, PitchBend).
+     */
+    public void AddChannelEvent(int starttime, byte eventflag, byte channel,
+                                byte d1, byte d2) {
+        addRow(starttime, (byte)(eventflag + channel), d1, d2, 0);
+    }
+
+    /** Add a sysex event, whose value is at the given offset/length
+     *  of the midi file data.
+     */
+    public void AddSysexEvent(int starttime, byte eventflag, int offset, int length) {
+        addRow(starttime, eventflag, (byte)0, (byte)0, addValue(offset, length));
+    }
+
+    /** Add a meta event, whose value is at the given offset/length
+     *  of the midi file data.  Tempo events should use AddTempoEvent().
+     */
+    public void AddMetaEvent(int starttime, byte metaevent, int offset, int length) {
+        addRow(starttime, MidiFile.MetaEvent, metaevent, (byte)0, addValue(offset, length));
+    }
+
+    /** Add a tempo meta event */
+    public void AddTempoEvent(int starttime, int tempo) {
+        addRow(starttime, MidiFile.MetaEvent, MidiFile.MetaEventTempo, (byte)0, tempo);
+    }
+
+    /** Add a copy of the given row of another table.
+     *  Both tables must be for the same midi file data.
+     */
+    public void AddEvent(MidiEventTable table, int row) {
+        byte s = table.status[row];
+        int x = table.extra[row];
+        if (table.hasValue(row)) {
+            x = addValue(table.valueoffset[x], table.valuelength[x]);
+        }
+        addRow(table.time[row], s, table.data1[row], table.data2[row], x);
+    }
+
+    /** Remove all the events, keeping the allocated arrays */
+    public void Clear() {
+        count = 0;
+        valuecount = 0;
+    }
+
+    /** Return a copy of this table */
+    public MidiEventTable Clone() {
+        MidiEventTable table = new MidiEventTable(source, count);
+        for (int row = 0; row < count; row++) {
+            table.AddEvent(this, row);
+        }
+        return table;
+    }
+
+    /** Merge the given tables (each sorted by start time) into a new
+     *  table sorted by start time.  Events with the same start time
+     *  keep their order, with the events of earlier tables first.
+     */
+    public static MidiEventTable Merge(ArrayList<MidiEventTable> tables) {
+        int total = 0;
+        for (MidiEventTable table : tables) {
+            total += table.count;
+        }
+        MidiEventTable result = new MidiEventTable(tables.get(0).source, total);
+        int[] next = new int[tables.size()];
+        for (int n = 0; n < total; n++) {
+            int best = -1;
+            for (int i = 0; i < tables.size(); i++) {
+                MidiEventTable table = tables.get(i);
+                if (next[i] < table.count &&
+                    (best == -1 || table.time[next[i]] <
+                     tables.get(best).time[next[best]])) {
+                    best = i;
+                }
+            }
+            result.AddEvent(tables.get(best), next[best]);
+            next[best]++;
+        }
+        return result;
+    }
+
+    /** Return true if the given row is a sysex or meta event with a value */
+    private boolean hasValue(int row) {
+        byte s = status[row];
+        return s == MidiFile.SysexEvent1 || s == MidiFile.SysexEvent2 ||
+               (s == MidiFile.MetaEvent && data1[row] != MidiFile.MetaEventTempo);
+    }
+
+    public int getStartTime(int row) { return time[row]; }
+    public void setStartTime(int row, int value) { time[row] = value; }
+
+    /** Return the time between the previous event and this one */
+    public int getDeltaTime(int row) {
+        return row == 0 ? time[0] : time[row] - time[row-1];
+    }
+
+    /** Return the event flag (NoteOn, NoteOff, etc) without the channel */
+    public byte getEventFlag(int row) {
+        byte s = status[row];
+        if ((s & 0xF0) == 0xF0) {
+            return s;
+        }
+        return (byte)(s & 0xF0);
+    }
+
+    /** Return the channel.  Sysex and meta events return 0 */
+    public byte getChannel(int row) {
+        byte s = status[row];
+        if ((s & 0xF0) == 0xF0) {
+            return 0;
+        }
+        return (byte)(s & 0x0F);
+    }
+
+    public byte getStatus(int row) { return status[row]; }
+    public byte getData1(int row) { return data1[row]; }
+    public void setData1(int row, byte value) { data1[row] = value; }
+    public byte getData2(int row) { return data2[row]; }
+    public void setData2(int row, byte value) { data2[row] = value; }
+
+    /** Return the meta event type, for meta events */
+    public byte getMetaevent(int row) { return data1[row]; }
+
+    /** Return the pitch bend value, for PitchBend events */
+    public short getPitchBend(int row) {
+        return (short)(((data1[row] & 0xFF) << 8) | (data2[row] & 0xFF));
+    }
+
+    /** Return the tempo, for tempo meta events */
+    public int getTempo(int row) { return extra[row]; }
+    public void setTempo(int row, int value) { extra[row] = value; }
+
+    /** Return the length of the sysex/meta event value */
+    public int getValueLength(int row) {
+        if (status[row] == MidiFile.MetaEvent && data1[row] == MidiFile.MetaEventTempo) {
+            return 3;
+        }
+        return valuelength[extra[row]];
+    }
+
+    /** Return the given byte of the sysex/meta event value */
+    public byte getValueByte(int row, int index) {
+        return source.get(valueoffset[extra[row]] + index);
+    }
+
+    /** Return a read-only view of the sysex/meta event value */
+    public ByteBuffer getValue(int row) {
+        int x = extra[row];
+        ByteBuffer value = source.duplicate();
+        value.position(valueoffset[x]);
+        value.limit(valueoffset[x] + valuelength[x]);
+        return value.slice().asReadOnlyBuffer();
+    }
+
+    /** Copy the sysex/meta event value to dest, at the given offset */
+    public void CopyValue(int row, byte[] dest, int destoffset) {
+        int x = extra[row];
+        ByteBuffer value = source.duplicate();
+        value.position(valueoffset[x]);
+        value.get(dest, destoffset, valuelength[x]);
+    }
+
+    /** Return a cursor positioned before the first event */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+
+    /** @class Cursor
+     * A Cursor iterates over the events of the table, in order.
+     * Call Next() to move to the next event, then use the getters
+     * to read the fields of the current event:
+     *
+     *   MidiEventTable.Cursor ev = table.cursor();
+     *   while (ev.Next()) {
+     *       if (ev.getEventFlag() == MidiFile.EventNoteOn) ...
+     *   }
+     */
+    public class Cursor {
+        private int row = -1;   /** The current row */
+
+        /** Move to the next event.  Return false if there are no more events */
+        public boolean Next() {
+            if (row < count) {
+                row++;
+            }
+            return row < count;
+        }
+
+        public int getRow() { return row; }
+        public int getStartTime() { return time[row]; }
+        public int getDeltaTime() { return MidiEventTable.this.getDeltaTime(row); }
+        public byte getEventFlag() { return MidiEventTable.this.getEventFlag(row); }
+        public byte getChannel() { return MidiEventTable.this.getChannel(row); }
+
+        public byte getNotenumber() { return data1[row]; }
+        public byte getVelocity() { return data2[row]; }
+        public byte getKeyPressure() { return data2[row]; }
+        public byte getControlNum() { return data1[row]; }
+        public byte getControlValue() { return data2[row]; }
+        public byte getInstrument() { return data1[row]; }
+        public byte getChanPressure() { return data1[row]; }
+        public short getPitchBend() { return MidiEventTable.this.getPitchBend(row); }
+
+        public byte getMetaevent() { return data1[row]; }
+        public int getTempo() { return extra[row]; }
+        public byte getNumerator() { return getValueByte(row, 0); }
+        public byte getDenominator() { return (byte)Math.pow(2, getValueByte(row, 1)); }
+        public int getValueLength() { return MidiEventTable.this.getValueLength(row); }
+        public ByteBuffer getValue() { return MidiEventTable.this.getValue(row); }
+    }
+}
+
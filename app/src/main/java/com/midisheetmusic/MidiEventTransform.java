@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic;
+
+import java.util.*;
+
+/** @class MidiEventTransform
+ * A MidiEventTransform changes the Midi events of a track as they are
+ * read, without copying the MidiEventTable.  This is used to apply the
+ * sound options (tempo, transpose, instruments, etc) while writing the
+ * midi file for playback.
+ *
+ * For each track, StartTrack() is called, followed by Apply() for each
+ * event in the track.  Apply() can change the event, or return false
+ * to remove it.  Several transforms can be combined with Chain().
+ *
+ * The transforms in this file are:
+ * - Transpose:    Change the note number of the notes
+ * - Instruments:  Change the instrument of the ProgramChange events
+ * - MuteChannels: Set the velocity of the notes in a channel to 0
+ * - ScaleTempo:   Change the tempo, keeping the tempo changes relative to it
+ *
+ * Starting the music at the pause time is done by MidiFile.WriteTrack(),
+ * using the SeekIndex.
+ */
+public abstract class MidiEventTransform {
+
+    /** Called before the events of each track are transformed */
+    public void StartTrack(int tracknum, MidiEventTable events) {
+    }
+
+    /** Change the given event.  Return false to remove the event. */
+    public abstract boolean Apply(Event event);
+
+
+    /** Return a transform that applies each of the given transforms, in order */
+    public static MidiEventTransform Chain(final List<MidiEventTransform> transforms) {
+        return new MidiEventTransform() {
+            @Override
+            public void StartTrack(int tracknum, MidiEventTable events) {
+                for (MidiEventTransform transform : transforms) {
+                    transform.StartTrack(tracknum, events);
+                }
+            }
+
+            @Override
+            public boolean Apply(Event event) {
+                for (MidiEventTransform transform : transforms) {
+                    if (!transform.Apply(event)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+
+
+    /** @class Event
+     * A Midi event being transformed.  It starts as a copy of a row in
+     * a MidiEventTable, and the transforms change the copy.  The sysex
+     * and meta event values are not copied, and cannot be changed.
+     * A single Event is re-used for all the rows.
+     */
+    public static class Event {
+        private MidiEventTable table;  /** The table containing the event */
+        private int row;               /** The row in the table, or -1 */
+        private int time;              /** The start time, in pulses */
+        private byte status;           /** The status byte (event flag + channel) */
+        private byte data1;            /** The note number, instrument, etc */
+        private byte data2;            /** The velocity, control value, etc */
+        private int tempo;             /** The tempo, for tempo events */
+
+        /** Set this event to the given row of the table */
+        public void Load(MidiEventTable events, int r) {
+            table = events;
+            row = r;
+            time = events.getStartTime(r);
+            status = events.getStatus(r);
+            data1 = events.getData1(r);
+            data2 = events.getData2(r);
+            tempo = events.getTempo(r);
+        }
+
+        /** Set this event to a tempo event that is not in any table */
+        public void LoadTempo(MidiEventTable events, int starttime, int value) {
+            table = events;
+            row = -1;
+            time = starttime;
+            status = MidiFile.MetaEvent;
+            data1 = MidiFile.MetaEventTempo;
+            data2 = 0;
+            tempo = value;
+        }
+
+        public MidiEventTable getTable() { return table; }
+        public int getRow() { return row; }
+
+        public int getStartTime() { return time; }
+        public void setStartTime(int value) { time = value; }
+
+        public byte getStatus() { return status; }
+
+        /** Return the event flag (NoteOn, NoteOff, etc) without the channel */
+        public byte getEventFlag() {
+            if ((status & 0xF0) == 0xF0) {
+                return status;
+            }
+            return (byte)(status & 0xF0);
+        }
+
+        /** Return the channel.  Sysex and meta events return 0 */
+        public byte getChannel() {
+            if ((status & 0xF0) == 0xF0) {
+                return 0;
+            }
+            return (byte)(status & 0x0F);
+        }
+
+        public byte getData1() { return data1; }
+        public void setData1(byte value) { data1 = value; }
+        public byte getData2() { return data2; }
+        public void setData2(byte value) { data2 = value; }
+
+        /** Return true if this is a tempo meta event */
+        public boolean isTempo() {
+            return status == MidiFile.MetaEvent && data1 == MidiFile.MetaEventTempo;
+        }
+        public int getTempo() { return tempo; }
+        public void setTempo(int value) { tempo = value; }
+
+        /** Return the length of the sysex/meta event value */
+        public int getValueLength() {
+            return isTempo() ? 3 : table.getValueLength(row);
+        }
+
+        /** Copy the sysex/meta event value to dest, at the given offset */
+        public void CopyValue(byte[] dest, int destoffset) {
+            table.CopyValue(row, dest, destoffset);
+        }
+    }
+
+
+    /** @class Transpose
+     * Shift the note number of NoteOn, NoteOff, and KeyPressure events,
+     * keeping it within 0 to 127.
+     */
+    public static class Transpose extends MidiEventTransform {
+        private int amount;
+
+        public Transpose(int amount) {
+            this.amount = amount;
+        }
+
+        @Override
+        public boolean Apply(Event event) {
+            byte eventflag = event.getEventFlag();
+            if (eventflag == MidiFile.EventNoteOn || eventflag == MidiFile.EventNoteOff ||
+                eventflag == MidiFile.EventKeyPressure) {
+                int num = event.getData1() + amount;
+                event.setData1((byte)Math.max(0, Math.min(127, num)));
+            }
+            return true;
+        }
+    }
+
+
+    /** @class Instruments
+     * Change the instrument of ProgramChange events.  The new instrument
+     * is given per track number, or per channel.
+     */
+    public static class Instruments extends MidiEventTransform {
+        private int[] instruments;    /** The instrument per track/channel */
+        private boolean perChannel;   /** True if the instruments are per channel */
+        private int tracknum;         /** The current track */
+
+        public Instruments(int[] instruments, boolean perChannel) {
+            this.instruments = instruments;
+            this.perChannel = perChannel;
+        }
+
+        @Override
+        public void StartTrack(int tracknum, MidiEventTable events) {
+            this.tracknum = tracknum;
+        }
+
+        @Override
+        public boolean Apply(Event event) {
+            if (event.getEventFlag() == MidiFile.EventProgramChange) {
+                int index = perChannel ? event.getChannel() : tracknum;
+                event.setData1((byte)instruments[index]);
+            }
+            return true;
+        }
+    }
+
+
+    /** @class MuteChannels
+     * Set the velocity of NoteOn and NoteOff events to 0, for the channels
+     * that are not kept.
+     */
+    public static class MuteChannels extends MidiEventTransform {
+        private boolean[] keepchannel;   /** Which channels to keep (not mute) */
+
+        public MuteChannels(boolean[] keepchannel) {
+            this.keepchannel = keepchannel;
+        }
+
+        @Override
+        public boolean Apply(Event event) {
+            byte eventflag = event.getEventFlag();
+            if ((eventflag == MidiFile.EventNoteOn || eventflag == MidiFile.EventNoteOff) &&
+                !keepchannel[event.getChannel()]) {
+                event.setData2((byte)0);
+            }
+            return true;
+        }
+    }
+
+
+    /** @class ScaleTempo
+     * Change the tempo of the song.  Each tempo event is multiplied by
+     * newtempo/oldtempo, so the tempo changes in the song are kept.
+     */
+    public static class ScaleTempo extends MidiEventTransform {
+        private int newtempo;   /** The new tempo, for the song's average tempo */
+        private int oldtempo;   /** The song's average tempo */
+
+        public ScaleTempo(int newtempo, int oldtempo) {
+            this.newtempo = newtempo;
+            this.oldtempo = oldtempo;
+        }
+
+        @Override
+        public boolean Apply(Event event) {
+            if (event.isTempo()) {
+                event.setTempo((int)((long)event.getTempo() * newtempo / oldtempo));
+            }
+            return true;
+        }
+    }
+}
@@ -14,17 +14,15 @@
 package com.midisheetmusic;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.*;
 import android.util.*;
 
-/** @class Pair - A pair of ints */
-class PairInt {
-    public int low;
-    public int high;
-}
-
-
+import com.midisheetmusic.collections.ListInt;
+import com.midisheetmusic.collections.PairInt;
+import com.midisheetmusic.collections.SetInt;
 
 /* MIDI file format.
  *
@@ -169,8 +167,11 @@ class PairInt {
  * The constructor takes a filename as input, and upon returning,
  * contains the parsed data from the midi file.
  *
- * The methods ReadTrack() and ReadMetaEvent() are helper functions called
- * by the constructor during the parsing.
+ * The methods Parse() and ReadTrack() are helper functions called
+ * by the constructor during the parsing.  They pass each event to a
+ * MidiEventHandler, which stores the events in a MidiEventTable per track
+ * (MidiEventCollector) and creates the MidiTracks (MidiTrackBuilder) in
+ * a single pass.
  *
  * After the MidiFile is parsed and created, the user can retrieve the 
  * tracks and notes by using the property Tracks and Tracks.Notes.
@@ -179,7 +180,9 @@ class PairInt {
  * options selected:
  *
  * - ChangeMidiNotes()
- *   Apply the menu options to the parsed MidiFile.  This uses the helper functions:
+ *   Apply the menu options to the parsed MidiFile.  This is done in two
+ *   parts, QuantizeMidiNotes() and ShiftMidiNotes(), which can also be
+ *   called separately.  This uses the helper functions:
  *     SplitTrack()
  *     CombineToTwoTracks()
  *     ShiftTime()
@@ -196,14 +199,24 @@ class PairInt {
 public class MidiFile {
     private FileUri fileuri;          /** The file reference */
     private String filename;          /** The Midi file name */
-    private ArrayList<ArrayList<MidiEvent>> allevents; /** The raw MidiEvents, one list per track */
+    private ArrayList<MidiEventTable> allevents; /** The raw Midi events, one table per track */
     private ArrayList<MidiTrack> tracks ;  /** The tracks of the midifile that have notes */
     private short trackmode;         /** 0 (single track), 1 (simultaneous tracks) 2 (independent tracks) */
     private TimeSignature timesig;    /** The time signature */
+    private TempoMap tempomap;        /** The tempo changes of the song */
+    private SeekIndex seekindex;      /** The channel state per measure, created when first needed */
     private int quarternote;          /** The number of pulses per quarter note */
     private int totalpulses;          /** The total length of the song, in pulses */
     private boolean trackPerChannel;  /** True if we've split each channel into a track */
 
+    /** Files smaller than this (in bytes) are always parsed sequentially */
+    private static final int ParallelParseMinSize = 32 * 1024;
+
+    /** The maximum number of threads for parsing tracks in parallel */
+    private static final int ParallelParseMaxThreads = 8;
+
+    private static ForkJoinPool parsePool;  /** The threads for parsing tracks */
+
     /* The list of Midi Events */
     public static final byte EventNoteOff         = (byte)0x80;
     public static final byte EventNoteOn          = (byte)0x90;
@@ -429,6 +442,22 @@ public class MidiFile {
     /** Get the time signature */
     public TimeSignature getTime() { return timesig; }
 
+    /** Get the tempo map, for converting between pulses and microseconds */
+    public TempoMap getTempoMap() { return tempomap; }
+
+    /** Get the raw Midi events, one table per track */
+    public ArrayList<MidiEventTable> getEvents() { return allevents; }
+
+    /** Return the seek index, used to start playing at the pause time.
+     *  It is created the first time it is needed.
+     */
+    public synchronized SeekIndex getSeekIndex() {
+        if (seekindex == null) {
+            seekindex = new SeekIndex(allevents, timesig.getMeasure());
+        }
+        return seekindex;
+    }
+
     /** Get the file name */
     public String getFileName() { return filename; }
 
@@ -438,6 +467,14 @@ public class MidiFile {
 
     /** Create a new MidiFile from the byte[] */
     public MidiFile(byte[] rawdata, String filename) {
+        this(ByteBuffer.wrap(rawdata), filename);
+    }
+
+    /** Create a new MidiFile from the given buffer (such as a
+     *  memory-mapped file).  The sysex and meta event values refer
+     *  directly to the buffer, so it must not be modified afterwards.
+     */
+    public MidiFile(ByteBuffer rawdata, String filename) {
         this.filename = filename;
         parse(rawdata);
     }
@@ -449,33 +486,19 @@ public class MidiFile {
      * - All the tracks in the song which contain notes. 
      * - The number, starttime, and duration of each note.
      */
-    private void parse(byte[] rawdata) {
-        String id;
-        int len;
-
-        tracks = new ArrayList<MidiTrack>();
+    private void parse(ByteBuffer rawdata) {
         trackPerChannel = false;
 
-        MidiFileReader file = new MidiFileReader(rawdata);
-        id = file.ReadAscii(4);
-        if (!id.equals("MThd")) {
-            throw new MidiFileException("Doesn't start with MThd", 0);
-        }
-        len = file.ReadInt(); 
-        if (len !=  6) {
-            throw new MidiFileException("Bad MThd header", 4);
-        }
-        trackmode = (short) file.ReadShort();
-        int num_tracks = file.ReadShort();
-        quarternote = file.ReadShort(); 
+        if (!ParseParallel(rawdata)) {
+            /* Create the event tables and the MidiTracks in a single pass */
+            MidiTrackBuilder builder = new MidiTrackBuilder();
+            MidiEventCollector collector = new MidiEventCollector(builder);
+            Parse(rawdata, collector);
 
-        allevents = new ArrayList<ArrayList<MidiEvent>>();
-        for (int tracknum = 0; tracknum < num_tracks; tracknum++) {
-            allevents.add(ReadTrack(file));
-            MidiTrack track = new MidiTrack(allevents.get(tracknum), tracknum);
-            if (track.getNotes().size() > 0) {
-                tracks.add(track);
-            }
+            trackmode = (short) collector.getTrackMode();
+            quarternote = collector.getQuarterNote();
+            allevents = collector.getEvents();
+            tracks = builder.getTracks();
         }
 
         /* Get the length of the song in pulses */
@@ -496,21 +519,29 @@ public class MidiFile {
 
         CheckStartTimes(tracks);
 
-        /* Determine the time signature */
+        /* Determine the time signature and the tempo map */
         int tempoCount = 0;
         long tempo = 0;
         int numer = 0;
         int denom = 0;
-        for (ArrayList<MidiEvent> list : allevents) {
-            for (MidiEvent mevent : list) {
-                if (mevent.Metaevent == MetaEventTempo) {
+        ListInt tempoTimes = new ListInt();
+        ListInt tempos = new ListInt();
+        for (MidiEventTable list : allevents) {
+            MidiEventTable.Cursor mevent = list.cursor();
+            while (mevent.Next()) {
+                if (mevent.getEventFlag() != MetaEvent) {
+                    continue;
+                }
+                if (mevent.getMetaevent() == MetaEventTempo) {
                     // Take average of all tempos
-                    tempo += mevent.Tempo;
+                    tempo += mevent.getTempo();
                     tempoCount++;
+                    tempoTimes.add(mevent.getStartTime());
+                    tempos.add(mevent.getTempo());
                 }
-                if (mevent.Metaevent == MetaEventTimeSignature && numer == 0) {
-                    numer = mevent.Numerator;
-                    denom = mevent.Denominator;
+                if (mevent.getMetaevent() == MetaEventTimeSignature && numer == 0) {
+                    numer = mevent.getNumerator();
+                    denom = mevent.getDenominator();
                 }
             }
         }
@@ -524,15 +555,164 @@ public class MidiFile {
             numer = 4; denom = 4;
         }
         timesig = new TimeSignature(numer, denom, quarternote, (int)tempo);
+        tempomap = new TempoMap(quarternote, tempoTimes, tempos);
+    }
+
+    /** Parse the given Midi file data, and pass each event to the handler.
+     * This does not create any MidiEvents or MidiNotes, so callers that
+     * only need the notes (see MidiTrackBuilder), the lyrics, or the tempo
+     * only pay for what they use.
+     */
+    public static void Parse(ByteBuffer rawdata, MidiEventHandler handler) {
+        MidiFileReader file = new MidiFileReader(rawdata);
+        int[] header = ReadHeader(file);
+        int num_tracks = header[1];
+
+        handler.StartFile(file.GetBuffer(), header[0], num_tracks, header[2]);
+        for (int tracknum = 0; tracknum < num_tracks; tracknum++) {
+            handler.StartTrack(tracknum);
+            ReadTrack(file, handler);
+            handler.EndTrack(tracknum);
+        }
+    }
+
+    /** Read the MThd header, and return the track mode, number of tracks,
+     *  and the pulses per quarter note.
+     */
+    private static int[] ReadHeader(MidiFileReader file) {
+        String id;
+        int len;
+
+        id = file.ReadAscii(4);
+        if (!id.equals("MThd")) {
+            throw new MidiFileException("Doesn't start with MThd", 0);
+        }
+        len = file.ReadInt(); 
+        if (len !=  6) {
+            throw new MidiFileException("Bad MThd header", 4);
+        }
+        int trackmode = file.ReadShort();
+        int num_tracks = file.ReadShort();
+        int quarternote = file.ReadShort(); 
+        return new int[] { trackmode, num_tracks, quarternote };
+    }
+
+    /** Find the start offset of each MTrk chunk, using only the chunk
+     *  headers.  The last chunk may extend past the end of the file
+     *  (a truncated file).  Return null if the chunks can't be found.
+     */
+    private static int[] FindTracks(MidiFileReader file, int num_tracks) {
+        ByteBuffer data = file.GetBuffer();
+        int[] starts = new int[num_tracks];
+        int offset = file.GetOffset();
+        for (int tracknum = 0; tracknum < num_tracks; tracknum++) {
+            if (offset < 0 || offset + 8 > data.limit() ||
+                data.get(offset) != 'M' || data.get(offset+1) != 'T' ||
+                data.get(offset+2) != 'r' || data.get(offset+3) != 'k') {
+                return null;
+            }
+            starts[tracknum] = offset;
+            offset += 8 + data.getInt(offset + 4);
+        }
+        return starts;
+    }
+
+    /** The result of parsing a single track in parallel */
+    private static class ParsedTrack {
+        MidiEventCollector events;   /** The event table of the track */
+        MidiTrackBuilder notes;      /** The MidiTrack, if it has notes */
+        int endoffset;               /** The file offset after the track */
     }
 
-    /** Parse a single Midi track into a list of MidiEvents.
+    /** Return the thread pool for parsing tracks in parallel */
+    private static synchronized ForkJoinPool getParsePool() {
+        if (parsePool == null) {
+            int threads = Math.min(Runtime.getRuntime().availableProcessors(),
+                                   ParallelParseMaxThreads);
+            parsePool = new ForkJoinPool(threads);
+        }
+        return parsePool;
+    }
+
+    /** Parse the tracks of the midi file in parallel.  Each MTrk chunk has
+     *  an explicit length, so the chunks are located first with a scan of
+     *  the chunk headers.  Then each track is decoded on the thread pool,
+     *  into its own event table and MidiTrack, and the results are merged
+     *  in track order.
+     *
+     *  If the file is small, or the chunks don't line up exactly (a
+     *  corrupt file), return false so that the file is parsed sequentially.
+     *  This ensures the result (and any error) is the same either way.
+     */
+    private boolean ParseParallel(ByteBuffer rawdata) {
+        if (rawdata.remaining() < ParallelParseMinSize ||
+            Runtime.getRuntime().availableProcessors() < 2) {
+            return false;
+        }
+        MidiFileReader file = new MidiFileReader(rawdata);
+        int[] header = ReadHeader(file);
+        final int num_tracks = header[1];
+        final int[] starts = FindTracks(file, num_tracks);
+        if (num_tracks < 2 || starts == null) {
+            return false;
+        }
+        final ByteBuffer data = file.GetBuffer();
+
+        ArrayList<Callable<ParsedTrack>> tasks = new ArrayList<Callable<ParsedTrack>>(num_tracks);
+        for (int i = 0; i < num_tracks; i++) {
+            final int tracknum = i;
+            tasks.add(() -> {
+                ParsedTrack result = new ParsedTrack();
+                result.notes = new MidiTrackBuilder();
+                result.events = new MidiEventCollector(result.notes);
+                MidiFileReader reader = new MidiFileReader(data);
+                reader.Skip(starts[tracknum]);
+                result.events.StartFile(data, header[0], num_tracks, header[2]);
+                result.events.StartTrack(tracknum);
+                ReadTrack(reader, result.events);
+                result.events.EndTrack(tracknum);
+                result.endoffset = reader.GetOffset();
+                return result;
+            });
+        }
+
+        List<Future<ParsedTrack>> results = getParsePool().invokeAll(tasks);
+
+        allevents = new ArrayList<MidiEventTable>(num_tracks);
+        tracks = new ArrayList<MidiTrack>();
+        for (int tracknum = 0; tracknum < num_tracks; tracknum++) {
+            ParsedTrack result;
+            try {
+                result = results.get(tracknum).get();
+            }
+            catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new MidiFileException("Error parsing track " + tracknum,
+                                            starts[tracknum]);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            if (tracknum < num_tracks-1 && result.endoffset != starts[tracknum+1]) {
+                return false;
+            }
+            allevents.addAll(result.events.getEvents());
+            tracks.addAll(result.notes.getTracks());
+        }
+        trackmode = (short) header[0];
+        quarternote = header[2];
+        return true;
+    }
+
+    /** Parse a single Midi track, and pass each event to the handler.
      * Entering this function, the file offset should be at the start of
      * the MTrk header.  Upon exiting, the file offset should be at the
      * start of the next MTrk header.
      */
-    private ArrayList<MidiEvent> ReadTrack(MidiFileReader file) {
-        ArrayList<MidiEvent> result = new ArrayList<MidiEvent>(20);
+    private static void ReadTrack(MidiFileReader file, MidiEventHandler handler) {
         int starttime = 0;
         String id = file.ReadAscii(4);
 
@@ -558,115 +738,97 @@ public class MidiFile {
                 peekevent = file.Peek();
             }
             catch (MidiFileException e) {
-                return result;
+                return;
             }
 
-            MidiEvent mevent = new MidiEvent();
-            result.add(mevent);
-            mevent.DeltaTime = deltatime;
-            mevent.StartTime = starttime;
-
             // if (peekevent >= EventNoteOff) { 
             if (peekevent < 0) {
-                mevent.HasEventflag = true; 
                 eventflag = file.ReadByte();
             }
 
             //Log.e("debug",  "offset " + startoffset + 
             //                " event " + eventflag + " " + EventName(eventflag) +
-            //                " start " + starttime + " delta " + mevent.DeltaTime);
+            //                " start " + starttime + " delta " + deltatime);
 
             if (eventflag >= EventNoteOn && eventflag < EventNoteOn + 16) {
-                mevent.EventFlag = EventNoteOn;
-                mevent.Channel = ((byte)(eventflag - EventNoteOn));
-                mevent.Notenumber = file.ReadByte();
-                mevent.Velocity = file.ReadByte();
+                byte channel = (byte)(eventflag - EventNoteOn);
+                byte notenumber = file.ReadByte();
+                byte velocity = file.ReadByte();
+                handler.NoteOn(starttime, channel, notenumber, velocity);
             }
             else if (eventflag >= EventNoteOff && eventflag < EventNoteOff + 16) {
-                mevent.EventFlag = EventNoteOff;
-                mevent.Channel = ((byte)(eventflag - EventNoteOff));
-                mevent.Notenumber = file.ReadByte();
-                mevent.Velocity = file.ReadByte();
+                byte channel = (byte)(eventflag - EventNoteOff);
+                byte notenumber = file.ReadByte();
+                byte velocity = file.ReadByte();
+                handler.NoteOff(starttime, channel, notenumber, velocity);
             }
             else if (eventflag >= EventKeyPressure && 
                      eventflag < EventKeyPressure + 16) {
-                mevent.EventFlag = EventKeyPressure;
-                mevent.Channel = ((byte)(eventflag - EventKeyPressure));
-                mevent.Notenumber = file.ReadByte();
-                mevent.KeyPressure = file.ReadByte();
+                byte channel = (byte)(eventflag - EventKeyPressure);
+                byte notenumber = file.ReadByte();
+                byte pressure = file.ReadByte();
+                handler.KeyPressure(starttime, channel, notenumber, pressure);
             }
             else if (eventflag >= EventControlChange && 
                      eventflag < EventControlChange + 16) {
-                mevent.EventFlag = EventControlChange;
-                mevent.Channel = ((byte)(eventflag - EventControlChange));
-                mevent.ControlNum = file.ReadByte();
-                mevent.ControlValue = file.ReadByte();
+                byte channel = (byte)(eventflag - EventControlChange);
+                byte controlnum = file.ReadByte();
+                byte value = file.ReadByte();
+                handler.ControlChange(starttime, channel, controlnum, value);
             }
             else if (eventflag >= EventProgramChange && 
                      eventflag < EventProgramChange + 16) {
-                mevent.EventFlag = EventProgramChange;
-                mevent.Channel = ((byte)(eventflag - EventProgramChange));
-                mevent.Instrument = file.ReadByte();
+                byte channel = (byte)(eventflag - EventProgramChange);
+                byte instrument = file.ReadByte();
+                handler.ProgramChange(starttime, channel, instrument);
             }
             else if (eventflag >= EventChannelPressure && 
                      eventflag < EventChannelPressure + 16) {
-                mevent.EventFlag = EventChannelPressure;
-                mevent.Channel = ((byte)(eventflag - EventChannelPressure));
-                mevent.ChanPressure = file.ReadByte();
+                byte channel = (byte)(eventflag - EventChannelPressure);
+                byte pressure = file.ReadByte();
+                handler.ChannelPressure(starttime, channel, pressure);
             }
             else if (eventflag >= EventPitchBend && 
                      eventflag < EventPitchBend + 16) {
-                mevent.EventFlag = EventPitchBend;
-                mevent.Channel = ((byte)(eventflag - EventPitchBend));
-                mevent.PitchBend = (short) file.ReadShort();
+                byte channel = (byte)(eventflag - EventPitchBend);
+                short bend = (short) file.ReadShort();
+                handler.PitchBend(starttime, channel, bend);
             }
-            else if (eventflag == SysexEvent1) {
-                mevent.EventFlag = SysexEvent1;
-                mevent.Metalength = file.ReadVarlen();
-                mevent.Value = file.ReadBytes(mevent.Metalength);
-            }
-            else if (eventflag == SysexEvent2) {
-                mevent.EventFlag = SysexEvent2;
-                mevent.Metalength = file.ReadVarlen();
-                mevent.Value = file.ReadBytes(mevent.Metalength);
+            else if (eventflag == SysexEvent1 || eventflag == SysexEvent2) {
+                int metalength = file.ReadVarlen();
+                int offset = file.GetOffset();
+                ByteBuffer value = file.ReadSlice(metalength);
+                handler.SysexEvent(starttime, eventflag, offset, value);
             }
             else if (eventflag == MetaEvent) {
-                mevent.EventFlag = MetaEvent;
-                mevent.Metaevent = file.ReadByte();
-                mevent.Metalength = file.ReadVarlen();
-                mevent.Value = file.ReadBytes(mevent.Metalength);
-                if (mevent.Metaevent == MetaEventTimeSignature) {
-                    if (mevent.Metalength < 2) {
+                byte metaevent = file.ReadByte();
+                int metalength = file.ReadVarlen();
+                int offset = file.GetOffset();
+                ByteBuffer value = file.ReadSlice(metalength);
+                if (metaevent == MetaEventTimeSignature) {
+                    if (metalength < 2) {
                         throw new MidiFileException(
-                          "Meta Event Time Signature len == " + mevent.Metalength  + 
+                          "Meta Event Time Signature len == " + metalength  + 
                           " != 4", file.GetOffset());
                     }
-                    else {
-                        mevent.Numerator = ((byte)mevent.Value[0]);
-                        mevent.Denominator = ((byte)Math.pow(2, mevent.Value[1]));
-                    }
                 }
-                else if (mevent.Metaevent == MetaEventTempo) {
-                    if (mevent.Metalength != 3) {
+                else if (metaevent == MetaEventTempo) {
+                    if (metalength != 3) {
                         throw new MidiFileException(
-                          "Meta Event Tempo len == " + mevent.Metalength +
+                          "Meta Event Tempo len == " + metalength +
                           " != 3", file.GetOffset());
                     }
-                    mevent.Tempo = ((mevent.Value[0] & 0xFF) << 16) | 
-                                   ((mevent.Value[1] & 0xFF) << 8) | 
-                                    (mevent.Value[2] & 0xFF);
                 }
-                else if (mevent.Metaevent == MetaEventEndOfTrack) {
+                else if (metaevent == MetaEventEndOfTrack) {
                     /* break;  */
                 }
+                handler.MetaEvent(starttime, metaevent, offset, value);
             }
             else {
-                throw new MidiFileException("Unknown event " + mevent.EventFlag,
+                throw new MidiFileException("Unknown event " + eventflag,
                                              file.GetOffset()-1); 
             }
         }
-
-        return result;
     }
 
     /** Return true if this track contains multiple channels.
@@ -683,459 +845,265 @@ public class MidiFile {
         return false;
     }
 
-    /** Write a variable length number to the buffer at the given offset.
-     * Return the number of bytes written.
-     */
-    static int VarlenToBytes(int num, byte[] buf, int offset) {
-        byte b1 = (byte) ((num >> 21) & 0x7F);
-        byte b2 = (byte) ((num >> 14) & 0x7F);
-        byte b3 = (byte) ((num >>  7) & 0x7F);
-        byte b4 = (byte) (num & 0x7F);
-
-        if (b1 > 0) {
-            buf[offset]   = (byte)(b1 | 0x80);
-            buf[offset+1] = (byte)(b2 | 0x80);
-            buf[offset+2] = (byte)(b3 | 0x80);
-            buf[offset+3] = b4;
-            return 4;
-        }
-        else if (b2 > 0) {
-            buf[offset]   = (byte)(b2 | 0x80);
-            buf[offset+1] = (byte)(b3 | 0x80);
-            buf[offset+2] = b4;
-            return 3;
-        }
-        else if (b3 > 0) {
-            buf[offset]   = (byte)(b3 | 0x80);
-            buf[offset+1] = b4;
-            return 2;
-        }
-        else {
-            buf[offset] = b4;
-            return 1;
-        }
-    }
-
-    /** Write a 4-byte integer to data[offset : offset+4] */
-    private static void IntToBytes(int value, byte[] data, int offset) {
-        data[offset] = (byte)( (value >> 24) & 0xFF );
-        data[offset+1] = (byte)( (value >> 16) & 0xFF );
-        data[offset+2] = (byte)( (value >> 8) & 0xFF );
-        data[offset+3] = (byte)( value & 0xFF );
-    }
-
-    /** Calculate the track length (in bytes) given a list of Midi events */
-    private static int GetTrackLength(ArrayList<MidiEvent> events) {
-        int len = 0;
-        byte[] buf = new byte[1024];
-        for (MidiEvent mevent : events) {
-            len += VarlenToBytes(mevent.DeltaTime, buf, 0);
-            len += 1;  /* for eventflag */
-            switch (mevent.EventFlag) {
-                case EventNoteOn: len += 2; break;
-                case EventNoteOff: len += 2; break;
-                case EventKeyPressure: len += 2; break;
-                case EventControlChange: len += 2; break;
-                case EventProgramChange: len += 1; break;
-                case EventChannelPressure: len += 1; break;
-                case EventPitchBend: len += 2; break;
-
-                case SysexEvent1: 
-                case SysexEvent2:
-                    len += VarlenToBytes(mevent.Metalength, buf, 0); 
-                    len += mevent.Metalength;
-                    break;
-                case MetaEvent: 
-                    len += 1; 
-                    len += VarlenToBytes(mevent.Metalength, buf, 0); 
-                    len += mevent.Metalength;
-                    break;
-                default: break;
-            }
-        }
-        return len;
-    }
-
-
-    /** Copy len bytes from src to dest, at the given offsets */
+    /** Write the given event (with the given delta time) to the buffer */
     private static void
-    ArrayCopy(byte[] src, int srcoffset, byte[] dest, int destoffset, int len) {
-        if (len >= 0)
-            System.arraycopy(src, srcoffset, dest, destoffset, len);
+    WriteEvent(MidiBuffer out, MidiEventTransform.Event event, int deltatime) {
+        out.WriteVarlen(deltatime);
+        byte eventflag = event.getEventFlag();
+        out.WriteByte(event.getStatus());
+
+        if (eventflag == EventNoteOn || eventflag == EventNoteOff ||
+            eventflag == EventKeyPressure || eventflag == EventControlChange ||
+            eventflag == EventPitchBend) {
+            out.WriteByte(event.getData1());
+            out.WriteByte(event.getData2());
+        }
+        else if (eventflag == EventProgramChange ||
+                 eventflag == EventChannelPressure) {
+            out.WriteByte(event.getData1());
+        }
+        else if (eventflag == SysexEvent1 || eventflag == SysexEvent2) {
+            out.WriteVarlen(event.getValueLength());
+            int offset = out.Reserve(event.getValueLength());
+            event.CopyValue(out.getData(), offset);
+        }
+        else if (event.isTempo()) {
+            int tempo = event.getTempo();
+            out.WriteByte(event.getData1());
+            out.WriteByte(3);
+            out.WriteByte(tempo >> 16);
+            out.WriteByte(tempo >> 8);
+            out.WriteByte(tempo);
+        }
+        else if (eventflag == MetaEvent) {
+            out.WriteByte(event.getData1());
+            out.WriteVarlen(event.getValueLength());
+            int offset = out.Reserve(event.getValueLength());
+            event.CopyValue(out.getData(), offset);
+        }
     }
 
-            
-    /** Write the given list of Midi events to a stream/file.
-     *  This method is used for sound playback, for creating new Midi files
-     *  with the tempo, transpose, etc changed.
+    /** Write the MTrk chunk of a track to the buffer, applying the
+     *  transform (which can be null) to each event.  If starttempo is
+     *  greater than 0, a tempo event is added at the beginning of the
+     *  track.  The track length is not known until the events are
+     *  written, so it is filled in afterwards.
      *
-     *  Return true on success, and false on error.
+     *  To start in the middle of the track, the prelude events (if not
+     *  null) are written first at time 0, followed by the events from
+     *  startrow, shifted so that pauseTime becomes time 0.
      */
     private static void
-    WriteEvents(FileOutputStream file, ArrayList<ArrayList<MidiEvent>> allevents, 
-                  int trackmode, int quarter) throws IOException {
-
-        byte[] buf = new byte[16384];
-
-        /* Write the MThd, len = 6, track mode, number tracks, quarter note */
-        file.write("MThd".getBytes(StandardCharsets.US_ASCII), 0, 4);
-        IntToBytes(6, buf, 0);
-        file.write(buf, 0, 4);
-        buf[0] = (byte)(trackmode >> 8); 
-        buf[1] = (byte)(trackmode & 0xFF);
-        file.write(buf, 0, 2);
-        buf[0] = 0; 
-        buf[1] = (byte)allevents.size();
-        file.write(buf, 0, 2);
-        buf[0] = (byte)(quarter >> 8); 
-        buf[1] = (byte)(quarter & 0xFF);
-        file.write(buf, 0, 2);
-
-        for (ArrayList<MidiEvent> list : allevents) {
-            /* Write the MTrk header and track length */
-            file.write("MTrk".getBytes(StandardCharsets.US_ASCII), 0, 4);
-            int len = GetTrackLength(list);
-            IntToBytes(len, buf, 0);
-            file.write(buf, 0, 4);
-
-            for (MidiEvent mevent : list) {
-                int varlen = VarlenToBytes(mevent.DeltaTime, buf, 0);
-                file.write(buf, 0, varlen);
-
-                if (mevent.EventFlag == SysexEvent1 ||
-                    mevent.EventFlag == SysexEvent2 ||
-                    mevent.EventFlag == MetaEvent) {
-                    buf[0] = mevent.EventFlag;
-                }
-                else {
-                    buf[0] = (byte)(mevent.EventFlag + mevent.Channel);
-                }
-                file.write(buf, 0, 1);
-
-                if (mevent.EventFlag == EventNoteOn) {
-                    buf[0] = mevent.Notenumber;
-                    buf[1] = mevent.Velocity;
-                    file.write(buf, 0, 2);
-                }
-                else if (mevent.EventFlag == EventNoteOff) {
-                    buf[0] = mevent.Notenumber;
-                    buf[1] = mevent.Velocity;
-                    file.write(buf, 0, 2);
-                }
-                else if (mevent.EventFlag == EventKeyPressure) {
-                    buf[0] = mevent.Notenumber;
-                    buf[1] = mevent.KeyPressure;
-                    file.write(buf, 0, 2);
-                }
-                else if (mevent.EventFlag == EventControlChange) {
-                    buf[0] = mevent.ControlNum;
-                    buf[1] = mevent.ControlValue;
-                    file.write(buf, 0, 2);
-                }
-                else if (mevent.EventFlag == EventProgramChange) {
-                    buf[0] = mevent.Instrument;
-                    file.write(buf, 0, 1);
-                }
-                else if (mevent.EventFlag == EventChannelPressure) {
-                    buf[0] = mevent.ChanPressure;
-                    file.write(buf, 0, 1);
-                }
-                else if (mevent.EventFlag == EventPitchBend) {
-                    buf[0] = (byte)(mevent.PitchBend >> 8);
-                    buf[1] = (byte)(mevent.PitchBend & 0xFF);
-                    file.write(buf, 0, 2);
-                }
-                else if (mevent.EventFlag == SysexEvent1) {
-                    int offset = VarlenToBytes(mevent.Metalength, buf, 0);
-                    ArrayCopy(mevent.Value, 0, buf, offset, mevent.Value.length);
-                    file.write(buf, 0, offset + mevent.Value.length);
-                }
-                else if (mevent.EventFlag == SysexEvent2) {
-                    int offset = VarlenToBytes(mevent.Metalength, buf, 0);
-                    ArrayCopy(mevent.Value, 0, buf, offset, mevent.Value.length);
-                    file.write(buf, 0, offset + mevent.Value.length);
-                }
-                else if (mevent.EventFlag == MetaEvent && mevent.Metaevent == MetaEventTempo) {
-                    buf[0] = mevent.Metaevent;
-                    buf[1] = 3;
-                    buf[2] = (byte)((mevent.Tempo >> 16) & 0xFF);
-                    buf[3] = (byte)((mevent.Tempo >> 8) & 0xFF);
-                    buf[4] = (byte)(mevent.Tempo & 0xFF);
-                    file.write(buf, 0, 5);
-                }
-                else if (mevent.EventFlag == MetaEvent) {
-                    buf[0] = mevent.Metaevent;
-                    int offset = VarlenToBytes(mevent.Metalength, buf, 1) + 1;
-                    ArrayCopy(mevent.Value, 0, buf, offset, mevent.Value.length);
-                    file.write(buf, 0, offset + mevent.Value.length);
-                }
+    WriteTrack(MidiBuffer out, MidiEventTable events, int tracknum,
+               MidiEventTransform transform, int starttempo,
+               MidiEventTable prelude, int startrow, int pauseTime,
+               MidiEventTransform.Event event) {
+
+        out.WriteAscii("MTrk");
+        int lengthoffset = out.size();
+        out.WriteInt(0);
+
+        if (transform != null) {
+            transform.StartTrack(tracknum, events);
+        }
+        int numprelude = (prelude == null) ? 0 : prelude.size();
+        int prevtime = 0;
+        for (int i = (starttempo > 0 ? -1 : 0); i < numprelude + events.size() - startrow; i++) {
+            if (i == -1) {
+                event.LoadTempo(events, 0, starttempo);
             }
-        }
-        file.close();
-    }
-
-
-    /** Clone the list of MidiEvents */
-    private static ArrayList<ArrayList<MidiEvent>> 
-    CloneMidiEvents(ArrayList<ArrayList<MidiEvent>> origlist) {
-        ArrayList<ArrayList<MidiEvent>> newlist = 
-           new ArrayList<ArrayList<MidiEvent>>(origlist.size());
-        for (int tracknum = 0; tracknum < origlist.size(); tracknum++) {
-            ArrayList<MidiEvent> origevents = origlist.get(tracknum);
-            ArrayList<MidiEvent> newevents = new ArrayList<MidiEvent>(origevents.size());
-            newlist.add(newevents);
-            for (MidiEvent mevent : origevents) {
-                newevents.add( mevent.Clone() );
+            else if (i < numprelude) {
+                event.Load(prelude, i);
             }
+            else {
+                event.Load(events, startrow + i - numprelude);
+                event.setStartTime(event.getStartTime() - pauseTime);
+            }
+            if (transform != null && !transform.Apply(event)) {
+                continue;
+            }
+            WriteEvent(out, event, event.getStartTime() - prevtime);
+            prevtime = event.getStartTime();
         }
-        return newlist;
+        out.SetInt(lengthoffset, out.size() - lengthoffset - 4);
     }
 
-    /** Create a new Midi tempo event, with the given tempo  */
-    private static MidiEvent CreateTempoEvent(int tempo) {
-        MidiEvent mevent = new MidiEvent();
-        mevent.DeltaTime = 0;
-        mevent.StartTime = 0;
-        mevent.HasEventflag = true;
-        mevent.EventFlag = MetaEvent;
-        mevent.Metaevent = MetaEventTempo;
-        mevent.Metalength = 3;
-        mevent.Tempo = tempo;
-        return mevent;
-    }
-
-
-    /** Search the events for a ControlChange event with the same
-     *  channel and control number.  If a matching event is found,
-     *  update the control value.  Else, add a new ControlChange event.
+    /** Write the given tracks of Midi events to the buffer.
+     *  This method is used for sound playback, for creating new Midi files
+     *  with the tempo, transpose, etc changed.  The changes are made by
+     *  the transform (which can be null), as each event is written.
+     *  If starttempo is greater than 0, a tempo event is added at the
+     *  beginning of each track.
+     *
+     *  If seekindex is not null, the tracks start at the pause time,
+     *  with the channel state at the pause time restored first.
      */
     private static void
-    UpdateControlChange(ArrayList<MidiEvent> newevents, MidiEvent changeEvent) {
-        for (MidiEvent mevent : newevents) {
-            if ((mevent.EventFlag == changeEvent.EventFlag) &&
-                (mevent.Channel == changeEvent.Channel) &&
-                (mevent.ControlNum == changeEvent.ControlNum)) {
-
-                mevent.ControlValue = changeEvent.ControlValue;
-                return;
-            }
-        }
-        newevents.add(changeEvent);
-    }
+    WriteEvents(MidiBuffer out, ArrayList<MidiEventTable> allevents, ListInt tracknums,
+                MidiEventTransform transform, int starttempo,
+                SeekIndex seekindex, int pauseTime,
+                int trackmode, int quarter) {
 
+        MidiEventTransform.Event event = new MidiEventTransform.Event();
+        MidiEventTable prelude = null;
 
-    /** Start the Midi music at the given pause time (in pulses).
-     *  Remove any NoteOn/NoteOff events that occur before the pause time.
-     *  For other events, change the delta-time to 0 if they occur
-     *  before the pause time.  Return the modified Midi Events.
-     */
-    private static 
-    ArrayList<ArrayList<MidiEvent>> StartAtPauseTime(ArrayList<ArrayList<MidiEvent>> list, int pauseTime) {
-        ArrayList<ArrayList<MidiEvent>> newlist = new ArrayList<ArrayList<MidiEvent>>(list.size());
-        for (int tracknum = 0; tracknum < list.size(); tracknum++) {
-            ArrayList<MidiEvent> events = list.get(tracknum);
-            ArrayList<MidiEvent> newevents = new ArrayList<MidiEvent>(events.size());
-            newlist.add(newevents);
-
-            boolean foundEventAfterPause = false;
-            for (MidiEvent mevent : events) {
-
-                if (mevent.StartTime < pauseTime) {
-                    if (mevent.EventFlag == EventNoteOn ||
-                        mevent.EventFlag == EventNoteOff) {
-
-                        /* Skip NoteOn/NoteOff event */
-                    }
-                    else if (mevent.EventFlag == EventControlChange) {
-                        mevent.DeltaTime = 0;
-                        UpdateControlChange(newevents, mevent);
-                    }
-                    else {
-                        mevent.DeltaTime = 0;
-                        newevents.add(mevent);
-                    }
-                }
-                else if (!foundEventAfterPause) {
-                    mevent.DeltaTime = (mevent.StartTime - pauseTime);
-                    newevents.add(mevent);
-                    foundEventAfterPause = true;
-                }
-                else {
-                    newevents.add(mevent);
+        /* Write the MThd, len = 6, track mode, number tracks, quarter note */
+        out.WriteAscii("MThd");
+        out.WriteInt(6);
+        out.WriteShort(trackmode);
+        out.WriteShort(tracknums.size());
+        out.WriteShort(quarter);
+
+        for (int i = 0; i < tracknums.size(); i++) {
+            int tracknum = tracknums.get(i);
+            MidiEventTable events = allevents.get(tracknum);
+            int startrow = 0;
+            if (seekindex != null) {
+                if (prelude == null) {
+                    prelude = new MidiEventTable(events.getSource(), 64);
                 }
+                prelude.Clear();
+                startrow = seekindex.Seek(tracknum, events, pauseTime, prelude);
             }
+            WriteTrack(out, events, tracknum, transform, starttempo,
+                       prelude, startrow, pauseTime, event);
         }
-        return newlist;
     }
 
-    /** Write this Midi file to the given file.
+
+    /** Write this Midi file to the given file or stream (such as a
+     * MidiBuffer, for playing from memory).
      * If options is not null, apply those options to the midi events
      * before performing the write.
      * Return true if the file was saved successfully, else false.
      */
-    public void ChangeSound(FileOutputStream destfile, MidiOptions options)
+    public void ChangeSound(OutputStream destfile, MidiOptions options)
       throws IOException {
         Write(destfile, options);
     }
 
-    public void Write(FileOutputStream destfile, MidiOptions options) 
+    public void Write(OutputStream destfile, MidiOptions options) 
       throws IOException {
-        ArrayList<ArrayList<MidiEvent>> newevents = allevents;
-        if (options != null) {
-            newevents = ApplyOptionsToEvents(options);
-        }
-        WriteEvents(destfile, newevents, trackmode, quarternote);
-    }
-
-    /** Apply the following sound options to the midi events:
-     * - The tempo (the microseconds per pulse)
-     * - The instruments per track
-     * - The note number (transpose value)
-     * - The tracks to include
-     * Return the modified list of midi events.
-     */
-    public ArrayList<ArrayList<MidiEvent>>
-    ApplyOptionsToEvents(MidiOptions options) {
-        int i;
-        if (trackPerChannel) {
-            return ApplyOptionsPerChannel(options);
-        }
-
-        /* A midifile can contain tracks with notes and tracks without notes.
-         * The options.tracks and options.instruments are for tracks with notes.
-         * So the track numbers in 'options' may not match correctly if the
-         * midi file has tracks without notes. Re-compute the instruments, and 
-         * tracks to keep.
+        /* Encode the whole file in memory, then write it out at once.
+         * A MidiBuffer destination is written to directly.
          */
-        int num_tracks = allevents.size();
-        int[] instruments = new int[num_tracks];
-        boolean[] keeptracks = new boolean[num_tracks];
-        for (i = 0; i < num_tracks; i++) {
-            instruments[i] = 0;
-            keeptracks[i] = true;
+        MidiBuffer out;
+        if (destfile instanceof MidiBuffer) {
+            out = (MidiBuffer)destfile;
         }
-        for (int tracknum = 0; tracknum < tracks.size(); tracknum++) {
-            MidiTrack track = tracks.get(tracknum);
-            int realtrack = track.trackNumber();
-            instruments[realtrack] = options.instruments[tracknum];
-            if (!options.tracks[tracknum] || options.mute[tracknum]) {
-                keeptracks[realtrack] = false;
-            }
+        else {
+            out = new MidiBuffer(64 * 1024);
         }
-
-        ArrayList<ArrayList<MidiEvent>> newevents = CloneMidiEvents(allevents);
-
-        /* Set the tempo at the beginning of each track */
-        for (int tracknum = 0; tracknum < newevents.size(); tracknum++) {
-            MidiEvent mevent = CreateTempoEvent(options.tempo);
-            newevents.get(tracknum).add(0, mevent);
+        Write(out, options);
+        if (out != destfile) {
+            out.writeTo(destfile);
         }
+        destfile.close();
+    }
 
-        /* Change the note number (transpose), instrument, and tempo */
-        for (int tracknum = 0; tracknum < newevents.size(); tracknum++) {
-            for (MidiEvent mevent : newevents.get(tracknum)) {
-                int num = mevent.Notenumber + options.transpose;
-                if (num < 0)
-                    num = 0;
-                if (num > 127)
-                    num = 127;
-                mevent.Notenumber = (byte)num;
-                if (!options.useDefaultInstruments) {
-                    mevent.Instrument = (byte)instruments[tracknum];
-                }
-                mevent.Tempo = options.tempo;
+    /** Write this Midi file to the end of the given buffer.
+     * If options is not null, apply those options to the midi events
+     * while writing.
+     */
+    public void Write(MidiBuffer out, MidiOptions options) {
+        if (options == null) {
+            ListInt tracknums = new ListInt(allevents.size() + 1);
+            for (int tracknum = 0; tracknum < allevents.size(); tracknum++) {
+                tracknums.add(tracknum);
             }
+            WriteEvents(out, allevents, tracknums, null, 0, null, 0,
+                        trackmode, quarternote);
         }
-
-        if (options.pauseTime != 0) {
-            newevents = StartAtPauseTime(newevents, options.pauseTime);
+        else if (options.pauseTime != 0) {
+            WriteEvents(out, allevents, GetSoundTracks(options),
+                        GetSoundTransform(options), tempomap.getTempo(options.pauseTime),
+                        getSeekIndex(), options.pauseTime, trackmode, quarternote);
         }
+        else {
+            WriteEvents(out, allevents, GetSoundTracks(options),
+                        GetSoundTransform(options), tempomap.getTempo(0),
+                        null, 0, trackmode, quarternote);
+        }
+    }
 
-        /* Change the tracks to include */
-        int count = 0;
-        for (boolean keeptrack : keeptracks) {
-            if (keeptrack) {
-                count++;
+    /** Return the numbers of the tracks (in the midi file events) to
+     *  include when playing the sound with the given options.
+     *
+     *  A midifile can contain tracks with notes and tracks without notes.
+     *  The options.tracks and options.mute are for tracks with notes.
+     *  So the track numbers in 'options' may not match correctly if the
+     *  midi file has tracks without notes.
+     *
+     *  If the tracks were split per channel, all the tracks are included,
+     *  and the excluded channels are muted by GetSoundTransform().
+     */
+    public ListInt GetSoundTracks(MidiOptions options) {
+        int num_tracks = allevents.size();
+        boolean[] keeptracks = new boolean[num_tracks];
+        Arrays.fill(keeptracks, true);
+        if (!trackPerChannel) {
+            for (int tracknum = 0; tracknum < tracks.size(); tracknum++) {
+                if (!options.tracks[tracknum] || options.mute[tracknum]) {
+                    keeptracks[tracks.get(tracknum).trackNumber()] = false;
+                }
             }
         }
-        ArrayList<ArrayList<MidiEvent>> result = new ArrayList<ArrayList<MidiEvent>>(count);
-        i = 0;
-        for (int tracknum = 0; tracknum < keeptracks.length; tracknum++) {
+        ListInt result = new ListInt(num_tracks + 1);
+        for (int tracknum = 0; tracknum < num_tracks; tracknum++) {
             if (keeptracks[tracknum]) {
-                result.add(newevents.get(tracknum));
-                i++;
+                result.add(tracknum);
             }
         }
         return result;
     }
 
-
-    /** Apply the following sound options to the midi events:
-     * - The tempo (the microseconds per pulse)
+    /** Return the transform that applies the following sound options to
+     *  the midi events, as they are written:
+     * - The tempo (the speed, relative to the song's tempo map)
      * - The instruments per track
      * - The note number (transpose value)
-     * - The tracks to include
-     * Return the modified list of midi events.
+     * - The channels to mute (if the tracks were split per channel)
      *
-     * This Midi file only has one actual track, but we've split that
+     * If this Midi file only has one actual track, but we've split that
      * into multiple fake tracks, one per channel, and displayed that
-     * to the end-user.  So changing the instrument, and tracks to
-     * include, is implemented differently than the ApplyOptionsToEvents() method:
+     * to the end-user, then changing the instrument, and tracks to
+     * include, is implemented differently:
      *
      * - We change the instrument based on the channel, not the track.
      * - We include/exclude channels, not tracks.
      * - We exclude a channel by setting the note volume/velocity to 0.
      */
-    public ArrayList<ArrayList<MidiEvent>>
-    ApplyOptionsPerChannel(MidiOptions options) {
-        /* Determine which channels to include/exclude.
-         * Also, determine the instruments for each channel.
+    public MidiEventTransform GetSoundTransform(MidiOptions options) {
+        ArrayList<MidiEventTransform> transforms = new ArrayList<MidiEventTransform>();
+        transforms.add(new MidiEventTransform.Transpose(options.transpose));
+
+        /* Determine the instruments for each track (or channel),
+         * and which channels to include/exclude.
          */
-        int[] instruments = new int[16];
+        int[] instruments = new int[trackPerChannel ? 16 : allevents.size()];
         boolean[] keepchannel = new boolean[16];
-        for (int i = 0; i < 16; i++) {
-            instruments[i] = 0;
-            keepchannel[i] = true;
-        }
+        Arrays.fill(keepchannel, true);
         for (int tracknum = 0; tracknum < tracks.size(); tracknum++) {
             MidiTrack track = tracks.get(tracknum);
-            int channel = track.getNotes().get(0).getChannel();
-            instruments[channel] = options.instruments[tracknum];
-            if (!options.tracks[tracknum] || options.mute[tracknum]) {
-                keepchannel[channel] = false;
-            }
-        }
-        
-        ArrayList<ArrayList<MidiEvent>> newevents = CloneMidiEvents(allevents);
-
-        /* Set the tempo at the beginning of each track */
-        for (int tracknum = 0; tracknum < newevents.size(); tracknum++) {
-            MidiEvent mevent = CreateTempoEvent(options.tempo);
-            newevents.get(tracknum).add(0, mevent);
-        }
-
-        /* Change the note number (transpose), instrument, and tempo */
-        for (int tracknum = 0; tracknum < newevents.size(); tracknum++) {
-            for (MidiEvent mevent : newevents.get(tracknum)) {
-                int num = mevent.Notenumber + options.transpose;
-                if (num < 0)
-                    num = 0;
-                if (num > 127)
-                    num = 127;
-                mevent.Notenumber = (byte)num;
-                if (!keepchannel[mevent.Channel]) {
-                    mevent.Velocity = 0;
-                }
-                if (!options.useDefaultInstruments) {
-                    mevent.Instrument = (byte)instruments[mevent.Channel];
+            if (trackPerChannel) {
+                int channel = track.getNotes().get(0).getChannel();
+                instruments[channel] = options.instruments[tracknum];
+                if (!options.tracks[tracknum] || options.mute[tracknum]) {
+                    keepchannel[channel] = false;
                 }
-                mevent.Tempo = options.tempo;
+            }
+            else {
+                instruments[track.trackNumber()] = options.instruments[tracknum];
             }
         }
-        if (options.pauseTime != 0) {
-            newevents = StartAtPauseTime(newevents, options.pauseTime);
+        if (!options.useDefaultInstruments) {
+            transforms.add(new MidiEventTransform.Instruments(instruments, trackPerChannel));
+        }
+        if (trackPerChannel) {
+            transforms.add(new MidiEventTransform.MuteChannels(keepchannel));
         }
-        return newevents;
+        transforms.add(new MidiEventTransform.ScaleTempo(options.tempo, timesig.getTempo()));
+        return MidiEventTransform.Chain(transforms);
     }
 
 
@@ -1143,6 +1111,22 @@ public class MidiFile {
      *  Return the midi tracks with the changes applied.
      */
     public ArrayList<MidiTrack> ChangeMidiNotes(MidiOptions options) {
+        ArrayList<MidiTrack> newtracks = QuantizeMidiNotes(options);
+        if (options.shifttime != 0) {
+            MidiFile.ShiftTime(newtracks, options.shifttime);
+        }
+        if (options.transpose != 0) {
+            MidiFile.Transpose(newtracks, options.transpose);
+        }
+        return newtracks;
+    }
+
+    /** Apply the first part of ChangeMidiNotes(): select the tracks,
+     *  round the start times and durations, and combine the tracks into
+     *  two staffs.  Return copies of the midi tracks with the changes
+     *  applied, without shifting or transposing the notes.
+     */
+    public ArrayList<MidiTrack> QuantizeMidiNotes(MidiOptions options) {
         ArrayList<MidiTrack> newtracks = new ArrayList<MidiTrack>();
 
         for (int track = 0; track < tracks.size(); track++) {
@@ -1160,19 +1144,35 @@ public class MidiFile {
         if (options.time != null) {
             time = options.time;
         }
-        MidiFile.RoundStartTimes(newtracks, options.combineInterval, timesig);
+        MidiFile.RoundStartTimes(newtracks, options.combineInterval, tempomap);
         MidiFile.RoundDurations(newtracks, time.getQuarter());
 
         if (options.twoStaffs) {
             newtracks = MidiFile.CombineToTwoTracks(newtracks, timesig.getMeasure());
         }
+        return newtracks;
+    }
+
+    /** Apply the second part of ChangeMidiNotes() to the tracks returned
+     *  by QuantizeMidiNotes(): shift the notes in time, and transpose them.
+     *  The given tracks are not changed.  If there is nothing to shift or
+     *  transpose, return the given tracks.  Otherwise, return copies.
+     */
+    public static ArrayList<MidiTrack>
+    ShiftMidiNotes(ArrayList<MidiTrack> tracks, MidiOptions options) {
+        if (options.shifttime == 0 && options.transpose == 0) {
+            return tracks;
+        }
+        ArrayList<MidiTrack> newtracks = new ArrayList<MidiTrack>(tracks.size());
+        for (MidiTrack track : tracks) {
+            newtracks.add(track.Clone());
+        }
         if (options.shifttime != 0) {
             MidiFile.ShiftTime(newtracks, options.shifttime);
         }
         if (options.transpose != 0) {
             MidiFile.Transpose(newtracks, options.transpose);
         }
-
         return newtracks;
     }
 
@@ -1285,6 +1285,8 @@ public class MidiFile {
         int prevhigh  = 76; /* E5, top of treble staff */
         int prevlow   = 45; /* A3, bottom of bass staff */
         int startindex = 0;
+        PairInt pair = new PairInt();
+        PairInt pairExact = new PairInt();
 
         for (MidiNote note : notes) {
             int high, low, highExact, lowExact;
@@ -1309,10 +1311,8 @@ public class MidiFile {
              * - Else, look at the previous high/low notes that were more than an 
              *   octave apart.  Choose the closeset note.
              */
-            PairInt pair = new PairInt();
-            pair.high = high; pair.low = low;
-            PairInt pairExact = new PairInt();
-            pairExact.high = highExact; pairExact.low = lowExact;
+            pair.set(low, high);
+            pairExact.set(lowExact, highExact);
 
             FindHighLowNotes(notes, measurelen, startindex, note.getStartTime(), note.getEndTime(), pair);
             FindExactHighLowNotes(notes, startindex, note.getStartTime(), pairExact);
@@ -1463,15 +1463,14 @@ public class MidiFile {
         MidiTrack single = CombineToSingleTrack(tracks);
         ArrayList<MidiTrack> result = SplitTrack(single, measurelen);
 
-        ArrayList<MidiEvent> lyrics = new ArrayList<MidiEvent>();
+        ArrayList<MidiEventTable> lyrics = new ArrayList<MidiEventTable>();
         for (MidiTrack track : tracks) {
             if (track.getLyrics() != null) {
-                lyrics.addAll(track.getLyrics());
+                lyrics.add(track.getLyrics());
             }
         }
         if (lyrics.size() > 0) {
-            Collections.sort(lyrics, lyrics.get(0));
-            result.get(0).setLyrics(lyrics);
+            result.get(0).setLyrics(MidiEventTable.Merge(lyrics));
         }
         return result;
     }
@@ -1508,7 +1507,7 @@ public class MidiFile {
      * that are close together (timewise).
      */
     public static void
-    RoundStartTimes(ArrayList<MidiTrack> tracks, int millisec, TimeSignature time) {
+    RoundStartTimes(ArrayList<MidiTrack> tracks, int millisec, TempoMap tempomap) {
         /* Get all the starttimes in all tracks, in sorted order */
         ListInt starttimes = new ListInt();
         for (MidiTrack track : tracks) {
@@ -1518,13 +1517,20 @@ public class MidiFile {
         }
         starttimes.sort();
 
-        /* Notes within "millisec" milliseconds apart will be combined. */
-        int interval = time.getQuarter() * millisec * 1000 / time.getTempo();
+        /* Notes within "millisec" milliseconds apart will be combined.
+         * Convert the millisec into pulses, at the tempo of each starttime.
+         */
+        int[] intervals = new int[starttimes.size()];
+        for (int i = 0; i < starttimes.size(); i++) {
+            intervals[i] = tempomap.getQuarter() * millisec * 1000 /
+                           tempomap.getTempo(starttimes.get(i));
+        }
 
         /* If two starttimes are within interval millisec, make them the same */
         for (int i = 0; i < starttimes.size() - 1; i++) {
-            if (starttimes.get(i+1) - starttimes.get(i) <= interval) {
+            if (starttimes.get(i+1) - starttimes.get(i) <= intervals[i]) {
                 starttimes.set(i+1, starttimes.get(i));
+                intervals[i+1] = intervals[i];
             }
         }
 
@@ -1536,12 +1542,12 @@ public class MidiFile {
 
             for (MidiNote note : track.getNotes()) {
                 while (i < starttimes.size() &&
-                       note.getStartTime() - interval > starttimes.get(i)) {
+                       note.getStartTime() - intervals[i] > starttimes.get(i)) {
                     i++;
                 }
 
                 if (note.getStartTime() > starttimes.get(i) &&
-                    note.getStartTime() - starttimes.get(i) <= interval) {
+                    note.getStartTime() - starttimes.get(i) <= intervals[i]) {
 
                     note.setStartTime(starttimes.get(i));
                 }
@@ -1618,13 +1624,14 @@ public class MidiFile {
      * channel into a separate track.
      */
     private static ArrayList<MidiTrack> 
-    SplitChannels(MidiTrack origtrack, ArrayList<MidiEvent> events) {
+    SplitChannels(MidiTrack origtrack, MidiEventTable events) {
 
         /* Find the instrument used for each channel */
         int[] channelInstruments = new int[16];
-        for (MidiEvent mevent : events) {
-            if (mevent.EventFlag == EventProgramChange) {
-                channelInstruments[mevent.Channel] = mevent.Instrument;
+        MidiEventTable.Cursor mevent = events.cursor();
+        while (mevent.Next()) {
+            if (mevent.getEventFlag() == EventProgramChange) {
+                channelInstruments[mevent.getChannel()] = mevent.getInstrument();
             }
         }
         channelInstruments[9] = 128; /* Channel 9 = Percussion */
@@ -1645,12 +1652,12 @@ public class MidiFile {
                 result.add(track);
             }
         }
-        ArrayList<MidiEvent> lyrics = origtrack.getLyrics(); 
+        MidiEventTable lyrics = origtrack.getLyrics(); 
         if (lyrics != null) {
-            for (MidiEvent lyricEvent : lyrics) {
+            for (int row = 0; row < lyrics.size(); row++) {
                 for (MidiTrack track : result) {
-                    if (lyricEvent.Channel == track.getNotes().get(0).getChannel() ) {
-                        track.AddLyric(lyricEvent);
+                    if (lyrics.getChannel(row) == track.getNotes().get(0).getChannel() ) {
+                        track.AddLyric(lyrics, row);
                     }
                 }
             }
@@ -1667,10 +1674,7 @@ public class MidiFile {
     public ListInt
     GuessMeasureLength() {
         ListInt result = new ListInt();
-
-        int pulses_per_second = (int) (1000000.0 / timesig.getTempo() * timesig.getQuarter());
-        int minmeasure = pulses_per_second / 2;  /* The minimum measure length in pulses */
-        int maxmeasure = pulses_per_second * 4;  /* The maximum measure length in pulses */
+        SetInt found = new SetInt();
 
         /* Get the start time of the first note in the midi file. */
         int firstnote = timesig.getMeasure() * 5;
@@ -1680,12 +1684,16 @@ public class MidiFile {
             }
         }
 
-        /* interval = 0.06 seconds, converted into pulses */
-        int interval = timesig.getQuarter() * 60000 / timesig.getTempo();
+        /* The minimum and maximum measure length in pulses, from the first note */
+        double firstmicros = tempomap.PulseToMicros(firstnote);
+        int minmeasure = (int)(tempomap.MicrosToPulse(firstmicros + 500000) - firstnote);
+        int maxmeasure = (int)(tempomap.MicrosToPulse(firstmicros + 4000000) - firstnote);
 
         for (MidiTrack track : tracks) {
             int prevtime = 0;
             for (MidiNote note : track.getNotes()) {
+                /* interval = 0.06 seconds, converted into pulses */
+                int interval = timesig.getQuarter() * 60000 / tempomap.getTempo(prevtime);
                 if (note.getStartTime() - prevtime <= interval)
                     continue;
 
@@ -1700,7 +1708,7 @@ public class MidiFile {
                 if (time_from_firstnote > maxmeasure)
                     break;
 
-                if (!result.contains(time_from_firstnote)) {
+                if (found.add(time_from_firstnote)) {
                     result.add(time_from_firstnote);
                 }
             }
@@ -1735,9 +1743,15 @@ public class MidiFile {
 
     /** Return true if the data starts with the header MTrk */
     public static boolean hasMidiHeader(byte[] data) {
-        String s;
-        s = new String(data, 0, 4, StandardCharsets.US_ASCII);
-        return s.equals("MThd");
+        return hasMidiHeader(ByteBuffer.wrap(data));
+    }
+
+    /** Return true if the buffer starts with the header MTrk */
+    public static boolean hasMidiHeader(ByteBuffer data) {
+        int pos = data.position();
+        return data.remaining() >= 4 &&
+               data.get(pos) == 'M' && data.get(pos+1) == 'T' &&
+               data.get(pos+2) == 'h' && data.get(pos+3) == 'd';
     }
 
 
@@ -14,6 +14,7 @@
 package com.midisheetmusic;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 import android.util.*;
@@ -31,12 +32,16 @@ import android.util.*;
  * - Read a fixed length ascii string (not null terminated)
  * - Read a "variable length" integer.  The format of the variable length
  *   int is described at the top of this file.
+ * - Read a slice of bytes, without copying them
  * - Skip ahead a given number of bytes
  * - Return the current offset.
+ *
+ * The data can be a byte array, or any ByteBuffer (such as a
+ * memory-mapped file).
  */
 
 public class MidiFileReader {
-    private byte[] data;       /** The entire midi file data */
+    private ByteBuffer data;   /** The entire midi file data */
     private int parse_offset;  /** The current offset while parsing */
 
     /** Create a new MidiFileReader for the given filename */
@@ -68,13 +73,21 @@ public class MidiFileReader {
 
     /** Create a new MidiFileReader from the given data */
     public MidiFileReader(byte[] bytes) {
-        data = bytes;
+        this(ByteBuffer.wrap(bytes));
+    }
+
+    /** Create a new MidiFileReader from the given buffer.  The buffer
+     *  may be a memory-mapped file.  Reading starts at the current
+     *  position of the buffer, and the buffer itself is not modified.
+     */
+    public MidiFileReader(ByteBuffer buffer) {
+        data = buffer.slice();
         parse_offset = 0;
     }
 
     /** Check that the given number of bytes doesn't exceed the file size */
     private void checkRead(int amount) {
-        if (parse_offset + amount > data.length) {
+        if (amount < 0 || parse_offset + amount > data.limit()) {
             throw new MidiFileException("File is truncated", parse_offset);
         }
     }
@@ -82,13 +95,13 @@ public class MidiFileReader {
     /** Read the next byte in the file, but don't increment the parse offset */
     public byte Peek() {
         checkRead(1);
-        return data[parse_offset];
+        return data.get(parse_offset);
     }
 
     /** Read a byte from the file */
     public byte ReadByte() { 
         checkRead(1);
-        byte x = data[parse_offset];
+        byte x = data.get(parse_offset);
         parse_offset++;
         return x;
     }
@@ -97,18 +110,31 @@ public class MidiFileReader {
     public byte[] ReadBytes(int amount) {
         checkRead(amount);
         byte[] result = new byte[amount];
-        for (int i = 0; i < amount; i++) {
-            result[i] = (byte)(data[i + parse_offset]);
-        }
+        ByteBuffer src = data.duplicate();
+        src.position(parse_offset);
+        src.get(result, 0, amount);
         parse_offset += amount;
         return result;
     }
 
+    /** Read the given number of bytes from the file, without copying them.
+     *  The result is a read-only view of the file data, with position 0
+     *  and limit equal to the amount.
+     */
+    public ByteBuffer ReadSlice(int amount) {
+        checkRead(amount);
+        ByteBuffer src = data.duplicate();
+        src.position(parse_offset);
+        src.limit(parse_offset + amount);
+        parse_offset += amount;
+        return src.slice().asReadOnlyBuffer();
+    }
+
     /** Read a 16-bit short from the file */
     public int ReadShort() {
         checkRead(2);
-        int x = ((data[parse_offset] & 0xFF) << 8) | 
-                 (data[parse_offset+1] & 0xFF);
+        int x = ((data.get(parse_offset) & 0xFF) << 8) | 
+                 (data.get(parse_offset+1) & 0xFF);
         parse_offset += 2;
         return x;
     }
@@ -116,21 +142,18 @@ public class MidiFileReader {
     /** Read a 32-bit int from the file */
     public int ReadInt() {
         checkRead(4);
-        int x =  ((data[parse_offset] & 0xFF) << 24) | 
-                 ((data[parse_offset+1] & 0xFF) << 16) |
-                 ((data[parse_offset+2] & 0xFF) << 8) | 
-                  (data[parse_offset+3] & 0xFF);
+        int x =  ((data.get(parse_offset) & 0xFF) << 24) | 
+                 ((data.get(parse_offset+1) & 0xFF) << 16) |
+                 ((data.get(parse_offset+2) & 0xFF) << 8) | 
+                  (data.get(parse_offset+3) & 0xFF);
         parse_offset += 4;
         return x;
     }
 
     /** Read an ascii String with the given length */
     public String ReadAscii(int len) {
-        checkRead(len);
-        String s = "";
-        s = new String(data, parse_offset, len, StandardCharsets.US_ASCII);
-        parse_offset += len;
-        return s;
+        byte[] chars = ReadBytes(len);
+        return new String(chars, 0, len, StandardCharsets.US_ASCII);
     }
 
     /** Read a variable-length integer (1 to 4 bytes). The integer ends
@@ -167,10 +190,9 @@ public class MidiFileReader {
         return parse_offset;
     }
 
-    /** Return the raw midi file byte data */
-    public byte[] GetData() {
-        return data;
+    /** Return a read-only view of the raw midi file data */
+    public ByteBuffer GetBuffer() {
+        return data.asReadOnlyBuffer();
     }
 }
 
-
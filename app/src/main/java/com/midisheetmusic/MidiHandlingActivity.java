@@ -20,6 +20,7 @@ public abstract class MidiHandlingActivity extends AbstractSingleMidiActivity {
 
     abstract void OnMidiDeviceStatus(boolean connected);
     abstract void OnMidiNote(int note, boolean pressed);
+    abstract void OnMidiOutput(MidiSink sink);
 
 
     @Override
@@ -36,6 +37,8 @@ public abstract class MidiHandlingActivity extends AbstractSingleMidiActivity {
 
     @Override
     public void onMidiOutputDeviceAttached(@NonNull MidiOutputDevice midiOutputDevice) {
+        OnMidiOutput(new UsbMidiSink(midiOutputDevice));
+        log("MIDI Output device connected: " + midiOutputDevice.getManufacturerName() + " - " + midiOutputDevice.getProductName());
     }
 
     @Override
@@ -51,7 +54,8 @@ public abstract class MidiHandlingActivity extends AbstractSingleMidiActivity {
 
     @Override
     public void onMidiOutputDeviceDetached(@NonNull MidiOutputDevice midiOutputDevice) {
-
+        OnMidiOutput(null);
+        log("MIDI Output device disconnected");
     }
 
     @Override
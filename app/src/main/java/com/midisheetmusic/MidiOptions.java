@@ -38,6 +38,7 @@ public class MidiOptions implements Serializable {
     public boolean[] tracks;         /** Which tracks to display (true = display) */
     public int[] instruments;        /** Which instruments to use per track */
     public boolean useDefaultInstruments; /** If true, don't change instruments */
+    public boolean useSoftSynth;     /** Play with the built-in synthesizer, instead of the MediaPlayer */
     public boolean scrollVert;       /** Whether to scroll vertically or horizontally */
     public boolean largeNoteSize;    /** Display large or small note sizes */
     public boolean twoStaffs;        /** Combine tracks into two staffs ? */
@@ -88,6 +89,7 @@ public class MidiOptions implements Serializable {
             }
         }
         useDefaultInstruments = true;
+        useSoftSynth = false;
         instruments = new int[num_tracks];
         for (int i = 0; i < instruments.length; i++) {
             instruments[i] = midifile.getTracks().get(i).getInstrument();
@@ -180,6 +182,7 @@ public class MidiOptions implements Serializable {
             json.put("useColors", useColors);
             json.put("colorAccidentals", colorAccidentals);
             json.put("useFullHeight", useFullHeight);
+            json.put("useSoftSynth", useSoftSynth);
             json.put("noteColors", jsonColors);
             json.put("showMeasures", showMeasures);
             json.put("playMeasuresInLoop", playMeasuresInLoop);
@@ -258,6 +261,9 @@ public class MidiOptions implements Serializable {
             if (json.has("useFullHeight")) {
                 options.useFullHeight = json.getBoolean("useFullHeight");
             }
+            if (json.has("useSoftSynth")) {
+                options.useSoftSynth = json.getBoolean("useSoftSynth");
+            }
             if (json.has("colorAccidentals")) {
                 options.colorAccidentals = json.getBoolean("colorAccidentals");
             }
@@ -319,6 +325,7 @@ public class MidiOptions implements Serializable {
         useColors = saved.useColors;
         colorAccidentals = saved.colorAccidentals;
         useFullHeight = saved.useFullHeight;
+        useSoftSynth = saved.useSoftSynth;
         showMeasures = saved.showMeasures;
         playMeasuresInLoop = saved.playMeasuresInLoop;
         playMeasuresInLoopStart = saved.playMeasuresInLoopStart;
@@ -378,6 +385,7 @@ public class MidiOptions implements Serializable {
         options.useColors = useColors;
         options.colorAccidentals = colorAccidentals;
         options.useFullHeight = useFullHeight;
+        options.useSoftSynth = useSoftSynth;
         options.showMeasures = showMeasures;
         options.playMeasuresInLoop = playMeasuresInLoop;
         options.playMeasuresInLoopStart = playMeasuresInLoopStart;
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic;
+
+import java.util.*;
+
+import android.os.Process;
+
+import com.midisheetmusic.collections.ListInt;
+
+/** @class MidiOutputScheduler
+ * The MidiOutputScheduler plays a MidiFile on a MidiSink (such as a USB
+ * Midi device), instead of rendering a midi file for the MediaPlayer.
+ * The events are read from the MidiEventTables of the MidiFile, and
+ * sent by a high priority thread at the right time.
+ *
+ * The time of each event is given by the PlaybackScheduler, which is
+ * also used to shade the notes, so the sound and the shading follow the
+ * same clock.  The thread sleeps until the next event is due, and then
+ * sends all the events due within the lookahead window as one batch.
+ *
+ * The sound options (transpose, instruments, tracks, muted tracks) are
+ * applied to each event as it is sent, using the same transforms as
+ * MidiFile.Write().  Calling SetOptions(), or changing the speed of the
+ * PlaybackScheduler, takes effect at the next event.  To avoid stuck
+ * notes, each NoteOff is sent with the note number that was actually
+ * played by the matching NoteOn.
+ */
+public class MidiOutputScheduler implements Runnable {
+    public static final int DefaultLookahead = 5;  /** The default lookahead, in msec */
+
+    private MidiFile midifile;                 /** The midi file to play */
+    private ArrayList<MidiEventTable> allevents; /** The events of each track */
+    private PlaybackScheduler scheduler;       /** Converts pulse times to clock times */
+    private MidiSink sink;                     /** Where to send the events */
+    private int lookahead;                     /** Send the events due within this many msec */
+    private int shifttime;                     /** The sheet music pulses are shifted by this amount */
+    private MidiEventTransform transform;      /** Applies the sound options */
+    private boolean[] keeptracks;              /** Which tracks to play */
+    private int[] rows;                        /** The next row to send, per track */
+    private int[] sounding;                    /** The played note+1, per (channel, note), or 0 */
+    private MidiEventTransform.Event event;    /** The event being sent */
+    private Thread thread;                     /** The thread sending the events */
+    private boolean running;                   /** False when the thread should stop */
+
+    public MidiOutputScheduler(MidiFile midifile, PlaybackScheduler scheduler,
+                               MidiSink sink, int lookahead) {
+        this.midifile = midifile;
+        this.allevents = midifile.getEvents();
+        this.scheduler = scheduler;
+        this.sink = sink;
+        this.lookahead = lookahead;
+        rows = new int[allevents.size()];
+        sounding = new int[16 * 128];
+        event = new MidiEventTransform.Event();
+    }
+
+    /** Return the sink the events are sent to */
+    public MidiSink getSink() { return sink; }
+
+    /** Apply the given sound options, starting at the next event */
+    public synchronized void SetOptions(MidiOptions options) {
+        transform = midifile.GetSoundTransform(options);
+        keeptracks = new boolean[allevents.size()];
+        ListInt tracknums = midifile.GetSoundTracks(options);
+        for (int i = 0; i < tracknums.size(); i++) {
+            keeptracks[tracknums.get(i)] = true;
+        }
+        shifttime = options.shifttime;
+        notifyAll();
+    }
+
+    /** Wake up the thread, so it checks the time of the next event again.
+     *  Call this after changing the speed of the PlaybackScheduler.
+     */
+    public synchronized void Wake() {
+        notifyAll();
+    }
+
+    /** Start playing at the given pause time (in midi pulses).  The
+     *  PlaybackScheduler must already be started, and SetOptions()
+     *  must have been called.  The channel state at the pause time
+     *  (from the SeekIndex) is sent first.
+     */
+    public void Start(int pauseTime) {
+        Stop();
+        synchronized (this) {
+            Seek(pauseTime);
+            running = true;
+            thread = new Thread(this, "MidiOutputScheduler");
+            thread.start();
+        }
+    }
+
+    /** Move to the given pause time, and send the channel state at
+     *  that time.  Used by Start(), and by the tests, which then call
+     *  SendDue() instead of starting the thread.
+     */
+    synchronized void Seek(int pauseTime) {
+        long now = scheduler.getClockTime();
+        SeekIndex seekindex = midifile.getSeekIndex();
+        for (int tracknum = 0; tracknum < allevents.size(); tracknum++) {
+            MidiEventTable events = allevents.get(tracknum);
+            MidiEventTable prelude = new MidiEventTable(events.getSource(), 16);
+            rows[tracknum] = seekindex.Seek(tracknum, events, pauseTime, prelude);
+            for (int row = 0; row < prelude.size(); row++) {
+                SendEvent(prelude, row, tracknum, now);
+            }
+        }
+        sink.Flush();
+    }
+
+    /** Stop the thread, and turn off the notes still playing */
+    public void Stop() {
+        Thread t;
+        synchronized (this) {
+            running = false;
+            notifyAll();
+            t = thread;
+            thread = null;
+        }
+        if (t != null) {
+            try {
+                t.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            AllNotesOff();
+        }
+    }
+
+    /** Return true if the thread is still sending events */
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    /** Return the track whose next event is earliest, or -1 if all
+     *  the events have been sent.
+     */
+    private int NextTrack() {
+        int result = -1;
+        int mintime = Integer.MAX_VALUE;
+        for (int tracknum = 0; tracknum < allevents.size(); tracknum++) {
+            MidiEventTable events = allevents.get(tracknum);
+            if (rows[tracknum] < events.size() &&
+                events.getStartTime(rows[tracknum]) < mintime) {
+                mintime = events.getStartTime(rows[tracknum]);
+                result = tracknum;
+            }
+        }
+        return result;
+    }
+
+    /** Send the events when they are due, until stopped or
+     *  until all the events are sent.
+     */
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        synchronized (this) {
+            while (running) {
+                long time = SendDue();
+                if (time == -1) {
+                    break;
+                }
+                long delay = time - scheduler.getClockTime();
+                if (delay > 0) {
+                    try {
+                        wait(delay);
+                    }
+                    catch (InterruptedException e) {
+                        break;
+                    }
+                }
+            }
+            running = false;
+        }
+    }
+
+    /** Send the events due within the lookahead window as one batch.
+     *  Return the clock time of the next event, or -1 if all the events
+     *  have been sent.
+     */
+    synchronized long SendDue() {
+        boolean pending = false;
+        long result = -1;
+        while (true) {
+            int tracknum = NextTrack();
+            if (tracknum == -1) {
+                break;
+            }
+            MidiEventTable events = allevents.get(tracknum);
+            int row = rows[tracknum];
+            long time = scheduler.ClockTimeAt(events.getStartTime(row) + shifttime);
+            if (time > scheduler.getClockTime() + lookahead) {
+                result = time;
+                break;
+            }
+            SendEvent(events, row, tracknum, time);
+            rows[tracknum]++;
+            pending = true;
+        }
+        if (pending) {
+            sink.Flush();
+        }
+        return result;
+    }
+
+    /** Apply the sound options to the given event, and send it.
+     *  Meta events are not sent.
+     */
+    private void SendEvent(MidiEventTable events, int row, int tracknum, long time) {
+        byte eventflag = events.getEventFlag(row);
+        if (eventflag == MidiFile.MetaEvent) {
+            return;
+        }
+        if (eventflag == MidiFile.SysexEvent1 || eventflag == MidiFile.SysexEvent2) {
+            if (keeptracks[tracknum]) {
+                byte[] data = new byte[events.getValueLength(row)];
+                events.CopyValue(row, data, 0);
+                sink.SendSysex(time, data);
+            }
+            return;
+        }
+
+        /* A NoteOff turns off the note actually played, even if the
+         * track was muted or transposed since.
+         */
+        int channel = events.getChannel(row);
+        int key = channel * 128 + (events.getData1(row) & 0x7F);
+        if (eventflag == MidiFile.EventNoteOff ||
+            (eventflag == MidiFile.EventNoteOn && events.getData2(row) == 0)) {
+            if (sounding[key] != 0) {
+                sink.Send(time, (MidiFile.EventNoteOff & 0xFF) | channel, sounding[key] - 1,
+                          events.getData2(row) & 0x7F);
+                sounding[key] = 0;
+            }
+            return;
+        }
+        if (!keeptracks[tracknum]) {
+            return;
+        }
+        event.Load(events, row);
+        transform.StartTrack(tracknum, events);
+        if (!transform.Apply(event)) {
+            return;
+        }
+        if (eventflag == MidiFile.EventNoteOn) {
+            if (event.getData2() == 0) {
+                return;   /* Muted */
+            }
+            if (sounding[key] != 0) {
+                sink.Send(time, (MidiFile.EventNoteOff & 0xFF) | channel, sounding[key] - 1, 0);
+            }
+            sounding[key] = (event.getData1() & 0x7F) + 1;
+        }
+        sink.Send(time, event.getStatus() & 0xFF, event.getData1() & 0xFF, event.getData2() & 0xFF);
+    }
+
+    /** Send a NoteOff for each note still playing */
+    private void AllNotesOff() {
+        long now = scheduler.getClockTime();
+        boolean sent = false;
+        for (int key = 0; key < sounding.length; key++) {
+            if (sounding[key] != 0) {
+                sink.Send(now, (MidiFile.EventNoteOff & 0xFF) | (key / 128), sounding[key] - 1, 0);
+                sounding[key] = 0;
+                sent = true;
+            }
+        }
+        if (sent) {
+            sink.Flush();
+        }
+    }
+}
@@ -18,8 +18,8 @@ import android.graphics.Color;
 import android.graphics.Point;
 import android.graphics.PorterDuff;
 import android.media.MediaPlayer;
+import android.os.Build;
 import android.os.Handler;
-import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.view.View;
 import android.widget.Button;
@@ -29,6 +29,7 @@ import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.midisheetmusic.collections.ListInt;
 import com.midisheetmusic.sheets.ChordSymbol;
 import com.midisheetmusic.sheets.MusicSymbol;
 import com.mikepenz.materialdrawer.Drawer;
@@ -90,7 +91,10 @@ public class MidiPlayer extends LinearLayout {
     final int initPause = 5;     /** Transitioning from playing to pause */
     final int midi      = 6;
 
-    final String tempSoundFile = "playing.mid"; /** The filename to play sound from */
+    final String tempSoundFile = "playing.mid"; /** The filename to play sound from (before API 23) */
+    final MidiBuffer soundData = new MidiBuffer(64 * 1024); /** For creating the midi file to play */
+    final SoundCache soundCache = new SoundCache(SoundCache.DefaultMaxSize); /** The midi files created for playing */
+    byte[] sound;                /** The midi file to play */
 
     /** For playing the audio */
     MediaPlayer player;
@@ -104,10 +108,20 @@ public class MidiPlayer extends LinearLayout {
     Piano piano;
     /** Timer used to update the sheet music while playing */
     Handler timer;
-    /** Absolute time when music started playing (msec) */
-    long startTime;
-    /** The number of pulses per millisec */
-    double pulsesPerMsec;
+    /** Decides when the timer should update the sheet music */
+    PlaybackScheduler scheduler;
+    /** The attached Midi output device, or null to play with the MediaPlayer */
+    MidiSink midiOutput;
+    /** Sends the midi events to the midiOutput, while playing */
+    MidiOutputScheduler outputScheduler;
+    /** The built-in synthesizer, used if options.useSoftSynth is set */
+    SoftSynth synth;
+    /** The midi file the synth was given */
+    MidiFile synthFile;
+    /** The tempo changes of the midi file */
+    TempoMap tempomap;
+    /** The playback speed, relative to the midi file tempo */
+    double speed;
     /** Time (in pulses) when music started playing */
     double startPulseTime;
     /** Time (in pulses) music is currently at */
@@ -136,7 +150,7 @@ public class MidiPlayer extends LinearLayout {
         this.options = null;
         this.sheet = null;
         playstate = stopped;
-        startTime = SystemClock.uptimeMillis();
+        scheduler = new PlaybackScheduler(PlaybackScheduler.SystemTime);
         startPulseTime = 0;
         currentPulseTime = 0;
         prevPulseTime = -10;
@@ -234,6 +248,18 @@ public class MidiPlayer extends LinearLayout {
                     bar.setProgress(progress);
                 }
                 speedText.setText(String.format(Locale.US, "%3d", progress) + "%");
+
+                /* A Midi output device or the synth can change speed while playing */
+                if (playstate == playing && midiOutput != null && outputScheduler != null) {
+                    UpdateSpeed();
+                    scheduler.SetSpeed(speed);
+                    outputScheduler.Wake();
+                }
+                else if (playstate == playing && options.useSoftSynth && synth != null) {
+                    UpdateSpeed();
+                    scheduler.SetSpeed(speed);
+                    synth.SetSpeed(speed);
+                }
             }
             public void onStartTrackingTouch(SeekBar bar) {
             }
@@ -352,6 +378,10 @@ public class MidiPlayer extends LinearLayout {
         }
         else {
             Reset();
+            if (file != midifile) {
+                soundCache.Clear();
+                outputScheduler = null;
+            }
             midifile = file;
             options = opt;
             sheet = s;
@@ -359,6 +389,27 @@ public class MidiPlayer extends LinearLayout {
         }
     }
 
+    /** The sheet music has finished creating all its staffs.  If we're
+     *  playing, update the shade times used to schedule the shading,
+     *  since only the first staffs were ready when playing started.
+     */
+    void SheetLayoutDone(SheetMusic s) {
+        if (s == sheet && playstate == playing) {
+            scheduler.SetOnsets(GetShadeTimes());
+        }
+    }
+
+    /** Return the sorted, distinct times when the shading of the sheet
+     *  music or the piano changes.  The timer wakes up at these times.
+     */
+    private ListInt GetShadeTimes() {
+        ListInt times = sheet.getShadeTimes();
+        piano.AddShadeTimes(times);
+        times.sort();
+        times.distinct();
+        return times;
+    }
+
     /** If we're paused, reshade the sheet music and piano. */
     Runnable ReShade = new Runnable() {
       public void run() {
@@ -383,22 +434,26 @@ public class MidiPlayer extends LinearLayout {
         return count;
     }
 
-    /** Create a new midi file with all the MidiOptions incorporated.
-     *  Save the new file to playing.mid, and store
-     *  this temporary filename in tempSoundFile.
+    /** Create a new midi file with all the MidiOptions incorporated,
+     *  and store it in sound.  If a midi file with the same sound options
+     *  was created before, use the one in the soundCache.
      */ 
     private void CreateMidiFile() {
-        double inverse_tempo = 1.0 / midifile.getTime().getTempo();
-        double inverse_tempo_scaled = inverse_tempo * speedBar.getProgress() / 100.0;
-        // double inverse_tempo_scaled = inverse_tempo * 100.0 / 100.0;
-        options.tempo = (int)(1.0 / inverse_tempo_scaled);
-        pulsesPerMsec = midifile.getTime().getQuarter() * (1000.0 / options.tempo);
+        UpdateSpeed();
+        if (midiOutput != null || options.useSoftSynth) {
+            return;
+        }
 
+        int measure = midifile.getTime().getMeasure();
+        sound = soundCache.Get(options, measure);
+        if (sound != null) {
+            return;
+        }
         try {
-            FileOutputStream dest = activity.openFileOutput(tempSoundFile, Context.MODE_PRIVATE);
-            midifile.ChangeSound(dest, options);
-            dest.close();
-            // checkFile(tempSoundFile);
+            soundData.reset();
+            midifile.ChangeSound(soundData, options);
+            sound = soundData.toByteArray();
+            soundCache.Put(options, measure, sound);
         }
         catch (IOException e) {
             Toast toast = Toast.makeText(activity, "Error: Unable to create MIDI file for playing.", Toast.LENGTH_LONG);
@@ -406,6 +461,57 @@ public class MidiPlayer extends LinearLayout {
         }
     }
 
+    /** Set the options.tempo and speed from the speed bar */
+    private void UpdateSpeed() {
+        double inverse_tempo = 1.0 / midifile.getTime().getTempo();
+        double inverse_tempo_scaled = inverse_tempo * speedBar.getProgress() / 100.0;
+        // double inverse_tempo_scaled = inverse_tempo * 100.0 / 100.0;
+        options.tempo = (int)(1.0 / inverse_tempo_scaled);
+        tempomap = midifile.getTempoMap();
+        speed = midifile.getTime().getTempo() / (double)options.tempo;
+    }
+
+    /** A Midi output device was attached (or detached, if sink is null).
+     *  Playback uses the device instead of the MediaPlayer, starting
+     *  with the next play.
+     */
+    public void SetMidiOutput(MidiSink sink) {
+        if (outputScheduler != null) {
+            outputScheduler.Stop();
+            outputScheduler = null;
+        }
+        midiOutput = sink;
+    }
+
+    /** Play the midi events on the midiOutput device.  The scheduler
+     *  must already be started.
+     */
+    private void PlayOutput() {
+        if (outputScheduler == null || outputScheduler.getSink() != midiOutput) {
+            outputScheduler = new MidiOutputScheduler(midifile, scheduler, midiOutput,
+                                                      MidiOutputScheduler.DefaultLookahead);
+        }
+        outputScheduler.SetOptions(options);
+        outputScheduler.Start(options.pauseTime);
+    }
+
+    /** Play the song with the built-in synthesizer, from the pause time */
+    private void PlaySynth() {
+        if (synth == null) {
+            synth = new SoftSynth();
+        }
+        if (synthFile != midifile) {
+            synth.SetSong(midifile, options);
+            synthFile = midifile;
+        }
+        else {
+            synth.SetOptions(midifile, options);
+        }
+        synth.SetSpeed(speed);
+        synth.Seek(options.pauseTime);
+        synth.Start();
+    }
+
     private void checkFile(String name) {
         try {
             FileInputStream in = activity.openFileInput(name);
@@ -440,15 +546,26 @@ public class MidiPlayer extends LinearLayout {
     }
 
 
-    /** Play the sound for the given MIDI file */
-    private void PlaySound(String filename) {
-        if (player == null)
+    /** Play the sound for the MIDI file in sound.  The MediaPlayer
+     *  reads it directly from memory.  Before API 23 (which has no
+     *  MediaDataSource), the midi file is saved to tempSoundFile first.
+     */
+    private void PlaySound() {
+        if (player == null || sound == null)
             return;
         try {
-            FileInputStream input = activity.openFileInput(filename);
             player.reset();
-            player.setDataSource(input.getFD());
-            input.close();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                player.setDataSource(new MidiDataSource(sound, sound.length));
+            }
+            else {
+                FileOutputStream dest = activity.openFileOutput(tempSoundFile, Context.MODE_PRIVATE);
+                dest.write(sound);
+                dest.close();
+                FileInputStream input = activity.openFileInput(tempSoundFile);
+                player.setDataSource(input.getFD());
+                input.close();
+            }
             player.prepare();
             player.start();
         }
@@ -460,6 +577,12 @@ public class MidiPlayer extends LinearLayout {
 
     /** Stop playing the MIDI music */
     private void StopSound() {
+        if (outputScheduler != null) {
+            outputScheduler.Stop();
+        }
+        if (synth != null) {
+            synth.Stop();
+        }
         if (player == null)
             return;
         player.stop();
@@ -516,16 +639,31 @@ public class MidiPlayer extends LinearLayout {
         }
 
         CreateMidiFile();
+        int endPulseTime = midifile.getTotalPulses() + 1;
+        if (options.playMeasuresInLoop) {
+            endPulseTime = (options.playMeasuresInLoopEnd + 1) * midifile.getTime().getMeasure();
+        }
+        scheduler.SetOnsets(GetShadeTimes());
         playstate = playing;
-        PlaySound(tempSoundFile);
-        startTime = SystemClock.uptimeMillis();
-
-        timer.removeCallbacks(TimerCallback);
-        timer.removeCallbacks(ReShade);
-        timer.postDelayed(TimerCallback, 100);
+        if (midiOutput != null) {
+            scheduler.Start(tempomap, speed, options.shifttime, startPulseTime, endPulseTime);
+            PlayOutput();
+        }
+        else if (options.useSoftSynth) {
+            PlaySynth();
+            scheduler.Start(tempomap, speed, options.shifttime, startPulseTime, endPulseTime);
+        }
+        else {
+            PlaySound();
+            scheduler.Start(tempomap, speed, options.shifttime, startPulseTime, endPulseTime);
+        }
 
         sheet.ShadeNotes((int)currentPulseTime, (int)prevPulseTime, SheetMusic.GradualScroll);
         piano.ShadeNotes((int)currentPulseTime, (int)prevPulseTime);
+
+        timer.removeCallbacks(TimerCallback);
+        timer.removeCallbacks(ReShade);
+        timer.postDelayed(TimerCallback, scheduler.NextDelay(sheet.isScrollingGradually()));
       }
     };
 
@@ -549,7 +687,11 @@ public class MidiPlayer extends LinearLayout {
         timer.removeCallbacks(DoPlay);
 
         if (playstate == playing) {
+            /* The timer may be sleeping until the next note,
+             * so invoke it now instead. */
             playstate = initPause;
+            timer.removeCallbacks(TimerCallback);
+            timer.post(TimerCallback);
         }
         else if (playstate == midi) {
             playstate = paused;
@@ -705,6 +847,11 @@ public class MidiPlayer extends LinearLayout {
      *  update the currentPulseTime and shade the sheet music.
      *  If a stop or pause has been initiated (by someone clicking
      *  the stop or pause button), then stop the timer.
+     *
+     *  The sheet music and piano are only shaded again if the shading
+     *  has changed since the last shading (a symbol or note has started
+     *  or ended), or if it is still scrolling gradually.  The timer then
+     *  sleeps until the next shade time (see PlaybackScheduler).
      */
     Runnable TimerCallback = new Runnable() {
       public void run() {
@@ -719,35 +866,49 @@ public class MidiPlayer extends LinearLayout {
             return;
         }
         else if (playstate == playing) {
-            long msec = SystemClock.uptimeMillis() - startTime;
-            prevPulseTime = currentPulseTime;
-            currentPulseTime = startPulseTime + msec * pulsesPerMsec;
+            if (midiOutput == null && options.useSoftSynth && synth != null) {
+                scheduler.Correct(synth.getPlaybackMillis());
+            }
+            else if (player != null && player.isPlaying()) {
+                scheduler.Correct(player.getCurrentPosition());
+            }
+            long msec = scheduler.getElapsed();
+            double pulseTime = scheduler.PulseTimeAt(msec);
 
             /* If we're playing in a loop, stop and restart */
             if (options.playMeasuresInLoop) {
-                double nearEndTime = currentPulseTime + pulsesPerMsec*10;
+                double nearEndTime = scheduler.PulseTimeAt(msec + 10);
                 int measure = (int)(nearEndTime / midifile.getTime().getMeasure());
                 if (measure > options.playMeasuresInLoopEnd) {
+                    prevPulseTime = currentPulseTime;
+                    currentPulseTime = pulseTime;
                     RestartPlayMeasuresInLoop();
                     return;
                 }
             }
 
             /* Stop if we've reached the end of the song */
-            if (currentPulseTime > midifile.getTotalPulses()) {
+            if (pulseTime > midifile.getTotalPulses()) {
+                prevPulseTime = currentPulseTime;
+                currentPulseTime = pulseTime;
                 DoStop();
                 return;
             }
-            sheet.ShadeNotes((int)currentPulseTime, (int)prevPulseTime, SheetMusic.GradualScroll);
-            piano.ShadeNotes((int)currentPulseTime, (int)prevPulseTime);
-            timer.postDelayed(TimerCallback, 100);
+            if (scheduler.OnsetBetween(currentPulseTime, pulseTime) ||
+                sheet.isScrollingGradually()) {
+                prevPulseTime = currentPulseTime;
+                currentPulseTime = pulseTime;
+                sheet.ShadeNotes((int)currentPulseTime, (int)prevPulseTime, SheetMusic.GradualScroll);
+                piano.ShadeNotes((int)currentPulseTime, (int)prevPulseTime);
+            }
+            timer.postDelayed(TimerCallback, scheduler.NextDelay(sheet.isScrollingGradually()));
         }
         else if (playstate == initPause) {
-            long msec = SystemClock.uptimeMillis() - startTime;
+            double pulseTime = scheduler.getPulseTime();
             StopSound();
 
             prevPulseTime = currentPulseTime;
-            currentPulseTime = startPulseTime + msec * pulsesPerMsec;
+            currentPulseTime = pulseTime;
             sheet.ShadeNotes((int)currentPulseTime, (int)prevPulseTime, SheetMusic.ImmediateScroll);
             piano.ShadeNotes((int)currentPulseTime, (int)prevPulseTime);
             playstate = paused;
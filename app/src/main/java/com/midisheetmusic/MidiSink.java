@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic;
+
+/** @interface MidiSink
+ * A MidiSink receives the Midi events sent by the MidiOutputScheduler,
+ * such as a USB Midi device (UsbMidiSink), or the RecordingMidiSink of the
+ * unit tests, which measures the timing.
+ *
+ * Each event is given the clock time (in msec) it is intended to play at.
+ * The events due at about the same time are sent together as a batch,
+ * followed by a call to Flush().
+ */
+public interface MidiSink {
+    /** Send a channel event (NoteOn, NoteOff, ControlChange, etc).
+     *  For events with one data byte, data2 is 0.
+     */
+    public void Send(long time, int status, int data1, int data2);
+
+    /** Send a sysex event.  The data does not include the leading 0xF0 */
+    public void SendSysex(long time, byte[] data);
+
+    /** Send the events of the current batch */
+    public void Flush();
+}
@@ -19,21 +19,23 @@ import java.util.*;
 
 
 /** @class MidiTrack
- * The MidiTrack takes as input the raw MidiEvents for the track, and gets:
+ * The MidiTrack contains:
  * - The list of midi notes in the track.
  * - The first instrument used in the track.
+ * - The lyrics in the track.
  *
+ * The tracks are created from the midi file by the MidiTrackBuilder.
  * For each NoteOn event in the midi file, a new MidiNote is created
  * and added to the track, using the AddNote() method.
  * 
- * The NoteOff() method is called when a NoteOff event is encountered,
+ * The NoteOff() method can be called when a NoteOff event is encountered,
  * in order to update the duration of the MidiNote.
  */ 
 public class MidiTrack {
     private int tracknum;                 /** The track number */
     private ArrayList<MidiNote> notes;    /** List of Midi notes */
     private int instrument;               /** Instrument for this track */
-    private ArrayList<MidiEvent> lyrics;  /** The lyrics in this track */
+    private MidiEventTable lyrics;        /** The lyric events in this track */
 
     /** Create an empty MidiTrack.  Used by the Clone method */
     public MidiTrack(int tracknum) {
@@ -42,41 +44,6 @@ public class MidiTrack {
         instrument = 0;
     } 
 
-    /** Create a MidiTrack based on the Midi events.  Extract the NoteOn/NoteOff
-     *  events to gather the list of MidiNotes.
-     */
-    public MidiTrack(ArrayList<MidiEvent> events, int tracknum) {
-        this.tracknum = tracknum;
-        notes = new ArrayList<MidiNote>(events.size());
-        instrument = 0;
- 
-        for (MidiEvent mevent : events) {
-            if (mevent.EventFlag == MidiFile.EventNoteOn && mevent.Velocity > 0) {
-                MidiNote note = new MidiNote(mevent.StartTime, mevent.Channel, mevent.Notenumber, 0);
-                AddNote(note);
-            }
-            else if (mevent.EventFlag == MidiFile.EventNoteOn && mevent.Velocity == 0) {
-                NoteOff(mevent.Channel, mevent.Notenumber, mevent.StartTime);
-            }
-            else if (mevent.EventFlag == MidiFile.EventNoteOff) {
-                NoteOff(mevent.Channel, mevent.Notenumber, mevent.StartTime);
-            }
-            else if (mevent.EventFlag == MidiFile.EventProgramChange) {
-                instrument = mevent.Instrument;
-            }
-            else if (mevent.Metaevent == MidiFile.MetaEventLyric) {
-                AddLyric(mevent);
-                if (lyrics == null) {
-                    lyrics = new ArrayList<MidiEvent>();
-                }
-                lyrics.add(mevent);
-            }
-        }
-        if (notes.size() > 0 && notes.get(0).getChannel() == 9)  {
-            instrument = 128;  /* Percussion */
-        }
-    }
-
     public int trackNumber() { return tracknum; }
 
     public ArrayList<MidiNote> getNotes() { return notes; }
@@ -84,8 +51,8 @@ public class MidiTrack {
     public int getInstrument() { return instrument; }
     public void setInstrument(int value) { instrument = value; }
 
-    public ArrayList<MidiEvent> getLyrics() { return lyrics; }
-    public void setLyrics(ArrayList<MidiEvent> value) { lyrics = value; }
+    public MidiEventTable getLyrics() { return lyrics; }
+    public void setLyrics(MidiEventTable value) { lyrics = value; }
 
 
     public String getInstrumentName() { if (instrument >= 0 && instrument <= 128)
@@ -113,12 +80,12 @@ public class MidiTrack {
         }
     }
 
-    /** Add a lyric event to this track */
-    public void AddLyric(MidiEvent mevent) { 
+    /** Add a lyric event (the given row of the table) to this track */
+    public void AddLyric(MidiEventTable events, int row) { 
         if (lyrics == null) {
-            lyrics = new ArrayList<MidiEvent>();
+            lyrics = new MidiEventTable(events.getSource(), 4);
         }
-        lyrics.add(mevent);
+        lyrics.AddEvent(events, row);
     }
 
     /** Return a deep copy clone of this MidiTrack. */
@@ -129,8 +96,7 @@ public class MidiTrack {
             track.notes.add( note.Clone() );
         }
         if (lyrics != null) {
-            track.lyrics = new ArrayList<MidiEvent>();
-            track.lyrics.addAll(lyrics);
+            track.lyrics = lyrics.Clone();
         }
         return track;
     }
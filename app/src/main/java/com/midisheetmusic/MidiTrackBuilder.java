@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import com.midisheetmusic.collections.ListInt;
+
+/** @class MidiTrackBuilder
+ * The MidiTrackBuilder receives the Midi events as they are parsed,
+ * and creates a MidiTrack for each track that has notes:
+ * - For each NoteOn event, a new MidiNote is added to the track.
+ * - For each NoteOff event (or NoteOn with velocity 0), the duration
+ *   of the most recent open note with the same channel and number is set.
+ * - The last ProgramChange gives the instrument of the track.
+ * - Lyric meta events are added to the track lyrics.
+ *
+ * To find the open note for a NoteOff in constant time, we keep a stack
+ * of open notes for each (channel, notenumber).  The stacks are linked
+ * lists through the note indexes: opennote[key] is the index+1 of the
+ * top note, and below[i] is the index+1 of the note under note i.
+ */
+public class MidiTrackBuilder extends MidiEventAdapter {
+    private ByteBuffer data;              /** The midi file data */
+    private ArrayList<MidiTrack> tracks;  /** The tracks that have notes */
+    private MidiTrack track;              /** The track being built */
+    private int instrument;               /** The last instrument of the track */
+    private int[] opennote;               /** The top open note, per (channel, note) */
+    private ListInt below;                /** The next open note, per note index */
+
+    public MidiTrackBuilder() {
+        tracks = new ArrayList<MidiTrack>();
+        opennote = new int[16 * 256];
+        below = new ListInt();
+    }
+
+    /** Return the tracks that have notes */
+    public ArrayList<MidiTrack> getTracks() { return tracks; }
+
+    /** Return the stack key for the given channel and note number */
+    private static int key(byte channel, byte notenumber) {
+        return ((channel & 0x0F) << 8) | (notenumber & 0xFF);
+    }
+
+    @Override
+    public void StartFile(ByteBuffer data, int trackmode, int numtracks, int quarternote) {
+        this.data = data;
+    }
+
+    @Override
+    public void StartTrack(int tracknum) {
+        track = new MidiTrack(tracknum);
+        instrument = 0;
+        Arrays.fill(opennote, 0);
+        below = new ListInt();
+    }
+
+    @Override
+    public void EndTrack(int tracknum) {
+        ArrayList<MidiNote> notes = track.getNotes();
+        if (notes.size() > 0) {
+            if (notes.get(0).getChannel() == 9) {
+                instrument = 128;  /* Percussion */
+            }
+            track.setInstrument(instrument);
+            tracks.add(track);
+        }
+        track = null;
+    }
+
+    @Override
+    public void NoteOn(int time, byte channel, byte notenumber, byte velocity) {
+        if (velocity == 0) {
+            NoteOff(time, channel, notenumber, velocity);
+        }
+        else if (velocity > 0) {
+            int k = key(channel, notenumber);
+            track.AddNote(new MidiNote(time, channel, notenumber, 0));
+            below.add(opennote[k]);
+            opennote[k] = track.getNotes().size();
+        }
+    }
+
+    /** Set the duration of the most recent open note.  A note stays open
+     *  while its duration is 0, so a NoteOff at the same time as the
+     *  NoteOn leaves it on the stack.
+     */
+    @Override
+    public void NoteOff(int time, byte channel, byte notenumber, byte velocity) {
+        int k = key(channel, notenumber);
+        int top = opennote[k];
+        if (top == 0) {
+            return;
+        }
+        MidiNote note = track.getNotes().get(top - 1);
+        note.NoteOff(time);
+        if (note.getDuration() != 0) {
+            opennote[k] = below.get(top - 1);
+        }
+    }
+
+    @Override
+    public void ProgramChange(int time, byte channel, byte instrument) {
+        this.instrument = instrument;
+    }
+
+    @Override
+    public void MetaEvent(int time, byte metaevent, int offset, ByteBuffer value) {
+        if (metaevent == MidiFile.MetaEventLyric) {
+            if (track.getLyrics() == null) {
+                track.setLyrics(new MidiEventTable(data, 4));
+            }
+            track.getLyrics().AddMetaEvent(time, metaevent, offset, value.remaining());
+        }
+    }
+}
+
@@ -18,6 +18,8 @@ import android.util.*;
 import android.graphics.*;
 import android.view.*;
 
+import com.midisheetmusic.collections.ListInt;
+
 
 /** @class Piano
  *
@@ -58,6 +60,7 @@ public class Piano extends SurfaceView implements SurfaceHolder.Callback {
     private boolean surfaceReady;         /** True if we can draw on the surface */
     private Bitmap  bufferBitmap;         /** The bitmap for double-buffering */
     private Canvas  bufferCanvas;         /** The canvas for double-buffering */
+    private Rect    dirty;                /** The area of the buffer changed by shading */
     private MidiPlayer player;            /** Used to pause the player */
 
     /** Create a new Piano. */
@@ -68,6 +71,7 @@ public class Piano extends SurfaceView implements SurfaceHolder.Callback {
         paint = new Paint();
         paint.setAntiAlias(false);
         paint.setTextSize(9.0f);
+        dirty = new Rect();
         gray1 = Color.rgb(16, 16, 16);
         gray2 = Color.rgb(90, 90, 90);
         gray3 = Color.rgb(200, 200, 200);
@@ -85,6 +89,7 @@ public class Piano extends SurfaceView implements SurfaceHolder.Callback {
         paint = new Paint();
         paint.setTextSize(10.0f);
         paint.setAntiAlias(false);
+        dirty = new Rect();
         gray1 = Color.rgb(16, 16, 16);
         gray2 = Color.rgb(90, 90, 90);
         gray3 = Color.rgb(200, 200, 200);
@@ -401,17 +406,66 @@ public class Piano extends SurfaceView implements SurfaceHolder.Callback {
     }
 
     public void ShadeOneNote(int noteNumber, int color) {
-        SurfaceHolder holder = getHolder();
-        Canvas canvas = holder.lockCanvas();
-        if (canvas == null) {
+        if (!surfaceReady || bufferBitmap == null) {
             return;
         }
-
         bufferCanvas.translate(margin + BlackBorder, margin + BlackBorder);
         ShadeOneNote(bufferCanvas, noteNumber, color);
         bufferCanvas.translate(-(margin + BlackBorder), -(margin + BlackBorder));
+        DrawDirty();
+    }
+
+    /** Draw the area of the buffer changed by shading (the dirty
+     *  rectangle) to the surface.  The surface keeps the pixels
+     *  outside the dirty rectangle, so only the shaded keys are copied.
+     *  This also keeps the note letters, which are drawn below the keys
+     *  directly on the surface.
+     */
+    private void DrawDirty() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        SurfaceHolder holder = getHolder();
+        Canvas canvas = holder.lockCanvas(dirty);
+        if (canvas == null) {
+            return;
+        }
         canvas.drawBitmap(bufferBitmap, 0, 0, paint);
         holder.unlockCanvasAndPost(canvas);
+        dirty.setEmpty();
+    }
+
+    /** Add the area of the given key (in the buffer) to the dirty rectangle.
+     *  White keys are drawn within their column, and black keys within
+     *  their blackKeyOffsets.
+     */
+    private void AddDirtyKey(int octave, int notescale) {
+        int left;
+        int right;
+        int bottom;
+        int blackkey = -1;
+        switch (notescale) {
+            case 1:  blackkey = 0; break;
+            case 3:  blackkey = 2; break;
+            case 6:  blackkey = 4; break;
+            case 8:  blackkey = 6; break;
+            case 10: blackkey = 8; break;
+            default: break;
+        }
+        if (blackkey >= 0) {
+            left = blackKeyOffsets[blackkey];
+            right = left + BlackKeyWidth;
+            bottom = BlackKeyHeight;
+        }
+        else {
+            int whitekey = (notescale + (notescale >= 5 ? 1 : 0)) / 2;
+            left = whitekey * WhiteKeyWidth;
+            right = left + WhiteKeyWidth;
+            bottom = WhiteKeyHeight;
+        }
+        int offset = margin + BlackBorder + octave * WhiteKeyWidth * KeysPerOctave;
+        dirty.union(offset + left, margin + BlackBorder, offset + right,
+                    margin + BlackBorder + bottom);
     }
 
     /* Shade the given note with the given brush.
@@ -426,6 +480,7 @@ public class Piano extends SurfaceView implements SurfaceHolder.Callback {
         if (octave < 0 || octave >= MaxOctave)
             return;
 
+        AddDirtyKey(octave, notescale);
         paint.setColor(color);
         paint.setStyle(Paint.Style.FILL);
         canvas.translate(octave * WhiteKeyWidth * KeysPerOctave, 0);
@@ -621,6 +676,52 @@ public class Piano extends SurfaceView implements SurfaceHolder.Callback {
     }
 
 
+    /** Add the times when the shaded notes change to the list: the
+     *  start time of each note, and the time it is un-shaded by
+     *  ShadeNotes().  The un-shade time is found as in ShadeNotes(), but
+     *  only the notes up to maxShadeDuration after the start are searched.
+     */
+    public void AddShadeTimes(ListInt times) {
+        if (notes == null) {
+            return;
+        }
+        for (int i = 0; i < notes.size(); i++) {
+            MidiNote note = notes.get(i);
+            int start = note.getStartTime();
+            int last = start + maxShadeDuration-1;
+
+            /* Find NextStartTimeSameTrack(i), if it is before the last time */
+            int chordEnd = note.getEndTime();
+            int nextStartTrack = -1;
+            int j = i;
+            while (j < notes.size() && notes.get(j).getStartTime() <= last) {
+                MidiNote other = notes.get(j);
+                if (other.getChannel() == note.getChannel()) {
+                    if (other.getStartTime() > start) {
+                        nextStartTrack = other.getStartTime();
+                        break;
+                    }
+                    chordEnd = Math.max(chordEnd, other.getEndTime());
+                }
+                j++;
+            }
+            times.add(start);
+            if (nextStartTrack != -1) {
+                times.add(Math.min(Math.max(note.getEndTime(), nextStartTrack), last));
+            }
+            else if (j == notes.size()) {
+                times.add(Math.min(chordEnd, last));
+            }
+            else {
+                /* The next note in the track is after the last time, or
+                 * there is none, in which case the chord end is used.
+                 */
+                times.add(Math.min(chordEnd, last));
+                times.add(last);
+            }
+        }
+    }
+
     /** Find the Midi notes that occur in the current time.
      *  Shade those notes on the piano displayed.
      *  Un-shade the those notes played in the previous time.
@@ -629,12 +730,6 @@ public class Piano extends SurfaceView implements SurfaceHolder.Callback {
         if (notes == null || notes.size() == 0 || !surfaceReady || bufferBitmap == null) {
             return;
         }
-        SurfaceHolder holder = getHolder();
-        Canvas canvas = holder.lockCanvas();
-        if (canvas == null) {
-            return;
-        }
-
         bufferCanvas.translate(margin + BlackBorder, margin + BlackBorder);
 
         /* Loop through the Midi notes.
@@ -691,8 +786,7 @@ public class Piano extends SurfaceView implements SurfaceHolder.Callback {
             }
         }
         bufferCanvas.translate(-(margin + BlackBorder), -(margin + BlackBorder));
-        canvas.drawBitmap(bufferBitmap, 0, 0, paint);
-        holder.unlockCanvasAndPost(canvas);
+        DrawDirty();
     }
 
 
@@ -727,12 +821,9 @@ public class Piano extends SurfaceView implements SurfaceHolder.Callback {
     }
 
     public void UnShadeOneNote(int notenumber) {
-        SurfaceHolder holder = getHolder();
-        Canvas canvas = holder.lockCanvas();
-        if (canvas == null) {
+        if (!surfaceReady || bufferBitmap == null) {
             return;
         }
-
         bufferCanvas.translate(margin + BlackBorder, margin + BlackBorder);
         int num = notenumber % 12;
         if (num == 1 || num == 3 || num == 6 || num == 8 || num == 10) {
@@ -743,9 +834,7 @@ public class Piano extends SurfaceView implements SurfaceHolder.Callback {
         }
 
         bufferCanvas.translate(-(margin + BlackBorder), -(margin + BlackBorder));
-        canvas.drawBitmap(bufferBitmap, 0, 0, paint);
-        holder.unlockCanvasAndPost(canvas);
-
+        DrawDirty();
     }
 }
 
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic;
+
+import com.midisheetmusic.collections.ListInt;
+
+/** @class PlaybackScheduler
+ * The PlaybackScheduler decides when the MidiPlayer should update the
+ * shaded notes while playing.  Instead of waking up at a fixed interval,
+ * the player sleeps until the next 'onset', the next time the shading
+ * changes: when a symbol in the sheet music starts, or a note on the
+ * piano starts or ends.  While the sheet music is scrolling gradually,
+ * the player wakes up every frame instead.
+ *
+ * The pulse time is computed from the elapsed time on the Clock.  The
+ * MediaPlayer may start late, or play slightly faster or slower, so the
+ * elapsed time is periodically corrected against the position reported
+ * by the MediaPlayer (see Correct()).
+ *
+ * The Clock can be replaced, so the scheduler can be tested without
+ * actually waiting.
+ *
+ * When playing to a Midi device, the MidiOutputScheduler thread uses
+ * the same scheduler to decide when to send each event, so the methods
+ * that depend on the start time are synchronized.
+ */
+public class PlaybackScheduler {
+
+    /** @class Clock
+     * The source of the current time, in milliseconds.
+     */
+    public interface Clock {
+        long uptimeMillis();
+    }
+
+    /** The Android system clock (time since boot, not counting sleep) */
+    public static final Clock SystemTime = android.os.SystemClock::uptimeMillis;
+
+    public static final int FrameDelay = 100;        /** Msec between frames, while scrolling */
+    public static final int MaxDelay = 500;          /** The longest msec to sleep */
+    public static final int MinDelay = 5;            /** The shortest msec to sleep */
+    public static final int CorrectInterval = 1000;  /** Msec between drift corrections */
+    public static final int MaxDrift = 20;           /** The msec of drift allowed, before correcting */
+
+    private Clock clock;           /** The clock used to measure the elapsed time */
+    private int[] onsets;          /** The sorted, distinct shade times (in pulses) */
+    private int numonsets;         /** The number of onsets */
+    private TempoMap tempomap;     /** The tempo changes of the midi file */
+    private double speed;          /** The playback speed, relative to the midi file tempo */
+    private int shifttime;         /** The sheet music pulses are shifted by this amount */
+    private double startMicros;    /** Time (in midi file microseconds) when music started playing */
+    private int endPulseTime;      /** Wake up at this pulse time (the end of the song or loop) */
+    private long startTime;        /** Clock time when the music started playing (msec) */
+    private long lastCorrection;   /** Clock time of the last drift check (msec) */
+    private long totalDrift;       /** The total msec corrected so far */
+
+    public PlaybackScheduler(Clock clock) {
+        this.clock = clock;
+        onsets = new int[0];
+    }
+
+    /** Set the times when the shading changes (in sheet music pulses).
+     *  The times must be sorted, without duplicates.
+     */
+    public void SetOnsets(ListInt times) {
+        numonsets = times.size();
+        onsets = times.toArray();
+    }
+
+    /** Start the clock.  The music starts playing at startPulseTime,
+     *  at the given speed.  The scheduler will also wake up at
+     *  endPulseTime, so the player can stop or restart the loop.
+     */
+    public synchronized void Start(TempoMap tempomap, double speed, int shifttime,
+                                   double startPulseTime, int endPulseTime) {
+        this.tempomap = tempomap;
+        this.speed = speed;
+        this.shifttime = shifttime;
+        this.endPulseTime = endPulseTime;
+        startMicros = tempomap.PulseToMicros(startPulseTime - shifttime);
+        startTime = clock.uptimeMillis();
+        lastCorrection = startTime;
+        totalDrift = 0;
+    }
+
+    /** Return the current clock time, in msec */
+    public long getClockTime() {
+        return clock.uptimeMillis();
+    }
+
+    /** Return the msec elapsed since the music started playing */
+    public synchronized long getElapsed() {
+        return clock.uptimeMillis() - startTime;
+    }
+
+    /** Return the total msec corrected since the music started playing */
+    public synchronized long getTotalDrift() {
+        return totalDrift;
+    }
+
+    /** Return the pulse time (in sheet music pulses) that is msec
+     *  milliseconds after the music started playing.  The elapsed time
+     *  is scaled by the speed, and converted to pulses using the tempo
+     *  map, so that tempo changes in the song are followed.
+     */
+    public synchronized double PulseTimeAt(double msec) {
+        double micros = startMicros + msec * 1000.0 * speed;
+        return tempomap.MicrosToPulse(micros) + shifttime;
+    }
+
+    /** Return the msec after the music started playing when the
+     *  given pulse time is reached.  This is the inverse of PulseTimeAt().
+     */
+    public synchronized double MillisAt(double pulseTime) {
+        double micros = tempomap.PulseToMicros(pulseTime - shifttime);
+        return (micros - startMicros) / (1000.0 * speed);
+    }
+
+    /** Return the clock time (msec) when the given pulse time is reached */
+    public synchronized long ClockTimeAt(double pulseTime) {
+        return startTime + (long)Math.ceil(MillisAt(pulseTime));
+    }
+
+    /** Change the playback speed, without changing the current pulse
+     *  time.  The start time is kept, so the elapsed time can still be
+     *  compared with the position of the player in Correct().
+     */
+    public synchronized void SetSpeed(double newspeed) {
+        long elapsed = clock.uptimeMillis() - startTime;
+        startMicros += elapsed * 1000.0 * (speed - newspeed);
+        speed = newspeed;
+    }
+
+    /** Return the current pulse time */
+    public synchronized double getPulseTime() {
+        return PulseTimeAt(getElapsed());
+    }
+
+    /** Return the index of the first onset after the given pulse time,
+     *  using a binary search.  Return numonsets if there is none.
+     */
+    public int NextOnset(double pulseTime) {
+        int low = 0;
+        int high = numonsets;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (onsets[mid] <= pulseTime) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** Return true if an onset is after prevPulseTime, and at or
+     *  before currentPulseTime.  If not, the shading has not changed.
+     */
+    public boolean OnsetBetween(double prevPulseTime, double currentPulseTime) {
+        return NextOnset(prevPulseTime) != NextOnset(currentPulseTime);
+    }
+
+    /** Return the msec to sleep until the next onset.  If
+     *  scrolling is true, sleep at most one frame.
+     */
+    public synchronized long NextDelay(boolean scrolling) {
+        long elapsed = getElapsed();
+        double pulseTime = PulseTimeAt(elapsed);
+        int next = NextOnset(pulseTime);
+        double wakeTime = endPulseTime;
+        if (next < numonsets && onsets[next] < wakeTime) {
+            wakeTime = onsets[next];
+        }
+        long delay = MaxDelay;
+        if (wakeTime > pulseTime) {
+            delay = Math.min(delay, (long)Math.ceil(MillisAt(wakeTime) - elapsed) + 1);
+        }
+        if (scrolling) {
+            delay = Math.min(delay, FrameDelay);
+        }
+        return Math.max(delay, MinDelay);
+    }
+
+    /** Compare the elapsed time with the position (in msec) reported by
+     *  the MediaPlayer, at most once every CorrectInterval msec.  If they
+     *  differ by more than MaxDrift, move the start time so the elapsed
+     *  time matches the position.  Return true if a correction was made.
+     */
+    public synchronized boolean Correct(long position) {
+        long now = clock.uptimeMillis();
+        if (now - lastCorrection < CorrectInterval) {
+            return false;
+        }
+        lastCorrection = now;
+        long drift = (now - startTime) - position;
+        if (Math.abs(drift) <= MaxDrift) {
+            return false;
+        }
+        startTime += drift;
+        totalDrift += drift;
+        return true;
+    }
+}
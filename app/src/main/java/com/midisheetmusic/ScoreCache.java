@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic;
+
+import java.io.*;
+import java.util.*;
+
+/** @class ScoreCache
+ * The ScoreCache saves the sheet music layout (ScoreLayout) of each
+ * song in the app cache directory, so that re-opening a song does
+ * not need to lay out the sheet music again.
+ *
+ * Each layout is stored in its own file.  The file name is made from
+ * the CRC of the midi file data, and a hash of the MidiOptions that
+ * affect the layout.  The file also contains the full option string,
+ * which is checked when loading, in case two option strings have the
+ * same hash.
+ *
+ * The total size of the files is limited.  When a layout is saved,
+ * the least recently used files are deleted until the total size is
+ * below the limit.  The last modified time of a file is updated each
+ * time the layout is loaded.
+ */
+public class ScoreCache {
+    public static final long DefaultMaxSize = 8 * 1024 * 1024;
+    private static final String Suffix = ".layout";
+    private static final String TempSuffix = ".tmp";
+    private static final long TempMaxAge = 60 * 60 * 1000;  /** When to delete a left over temporary file */
+
+    private File dir;        /** The directory containing the layouts */
+    private long maxsize;    /** The maximum total size of the layouts, in bytes */
+
+    /** Create a cache in the given directory (such as
+     *  new File(context.getCacheDir(), "scores")).
+     */
+    public ScoreCache(File dir, long maxsize) {
+        this.dir = dir;
+        this.maxsize = maxsize;
+    }
+
+    /** Return the options that affect the sheet music layout,
+     *  as a string.  The colors, tempo, and other playback options
+     *  are not included.
+     */
+    static String LayoutOptions(MidiOptions options) {
+        StringBuilder result = new StringBuilder();
+        result.append("tracks=");
+        for (boolean value : options.tracks) {
+            result.append(value ? '1' : '0');
+        }
+        result.append(" twoStaffs=").append(options.twoStaffs);
+        result.append(" scrollVert=").append(options.scrollVert);
+        result.append(" showNoteLetters=").append(options.showNoteLetters);
+        result.append(" showLyrics=").append(options.showLyrics);
+        result.append(" showMeasures=").append(options.showMeasures);
+        result.append(" shifttime=").append(options.shifttime);
+        result.append(" transpose=").append(options.transpose);
+        result.append(" key=").append(options.key);
+        result.append(" combineInterval=").append(options.combineInterval);
+        if (options.time != null) {
+            result.append(" time=").append(options.time.getNumerator())
+                  .append("/").append(options.time.getDenominator())
+                  .append(",").append(options.time.getQuarter())
+                  .append(",").append(options.time.getTempo());
+        }
+        return result.toString();
+    }
+
+    /** Return the cache file for the given midi CRC and options */
+    private File GetFile(long crc, String layoutOptions) {
+        String name = String.format(Locale.US, "%08x-%08x%s",
+                                    crc, layoutOptions.hashCode(), Suffix);
+        return new File(dir, name);
+    }
+
+    /** Load the layout for the given midi file CRC and options.
+     *  Return null if the layout is not in the cache, or the
+     *  cache file cannot be read.
+     */
+    public ScoreLayout Load(long crc, MidiOptions options) {
+        String layoutOptions = LayoutOptions(options);
+        File file = GetFile(crc, layoutOptions);
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readLong() != crc || !in.readUTF().equals(layoutOptions)) {
+                return null;
+            }
+            ScoreLayout layout = ScoreLayout.Read(in);
+            file.setLastModified(System.currentTimeMillis());
+            return layout;
+        }
+        catch (IOException | RuntimeException e) {
+            /* An old version, or a partly written file */
+            file.delete();
+            return null;
+        }
+    }
+
+    /** Save the layout for the given midi file CRC and options.
+     *  The layout is first written to a temporary file, so that a
+     *  partly written layout is never loaded.  Each call uses its own
+     *  temporary file, since several threads may save the same layout.
+     */
+    public void Save(long crc, MidiOptions options, ScoreLayout layout) {
+        String layoutOptions = LayoutOptions(options);
+        File file = GetFile(crc, layoutOptions);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return;
+        }
+        String prefix = file.getName().substring(0, file.getName().length() - Suffix.length());
+        File temp;
+        try {
+            temp = File.createTempFile(prefix, TempSuffix, dir);
+        }
+        catch (IOException e) {
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeLong(crc);
+            out.writeUTF(layoutOptions);
+            layout.Write(out);
+        }
+        catch (IOException e) {
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            return;
+        }
+        Evict();
+    }
+
+    /** Delete the least recently used layouts, until the total size
+     *  is at most the maximum size.  Also delete the temporary files
+     *  left over when the app was stopped while saving a layout.
+     */
+    public void Evict() {
+        File[] temps = dir.listFiles((d, name) -> name.endsWith(TempSuffix));
+        if (temps != null) {
+            long oldest = System.currentTimeMillis() - TempMaxAge;
+            for (File temp : temps) {
+                if (temp.lastModified() < oldest) {
+                    temp.delete();
+                }
+            }
+        }
+        File[] files = dir.listFiles((d, name) -> name.endsWith(Suffix));
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= maxsize) {
+            return;
+        }
+        Arrays.sort(files, (x, y) -> Long.compare(x.lastModified(), y.lastModified()));
+        for (File file : files) {
+            if (total <= maxsize) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+}
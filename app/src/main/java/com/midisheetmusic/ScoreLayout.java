@@ -0,0 +1,435 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic;
+
+import java.io.*;
+import java.util.*;
+
+import com.midisheetmusic.collections.ListInt;
+import com.midisheetmusic.sheets.BarSymbol;
+import com.midisheetmusic.sheets.BlankSymbol;
+import com.midisheetmusic.sheets.ChordSymbol;
+import com.midisheetmusic.sheets.Clef;
+import com.midisheetmusic.sheets.ClefSymbol;
+import com.midisheetmusic.sheets.LyricSymbol;
+import com.midisheetmusic.sheets.MusicSymbol;
+import com.midisheetmusic.sheets.RestSymbol;
+
+/** @class ScoreLayout
+ * The ScoreLayout is a compact record of the sheet music layout
+ * computed by SheetMusic.init(), so that it can be saved in the
+ * ScoreCache and replayed without parsing the notes and laying
+ * out the symbols again.  It contains:
+ *
+ * time    - The time signature used for the sheet music
+ * key     - The main key signature (number of sharps and flats)
+ * notes   - The notes of each track, after the options were applied.
+ *           These are grouped by start time to re-create the chords.
+ * symbols - The music symbols of each track, after they were vertically
+ *           aligned.  Each symbol is stored as SymbolSize ints:
+ *           the symbol type, up to three fields, and the symbol width.
+ * breaks  - For each track, the number of symbols in each staff.
+ * beams   - The beams that were created, in order.  Each beam is stored
+ *           as: track, number of chords, the chord symbol indexes,
+ *           and the spacing between the first and last chord.
+ * lyrics  - The lyrics of each track (null if there are no lyrics).
+ */
+public class ScoreLayout {
+    public static final int Version = 1;
+    private static final int Magic = 0x4D534C59;  /* "MSLY" */
+
+    /* The symbol types */
+    private static final int SymbolTimeSig = 0;
+    private static final int SymbolBar     = 1;
+    private static final int SymbolRest    = 2;
+    private static final int SymbolClef    = 3;
+    private static final int SymbolBlank   = 4;
+    private static final int SymbolChord   = 5;
+    private static final int SymbolSize    = 5;
+
+    private TimeSignature time;                 /** The time signature */
+    private int numsharps;                      /** The sharps in the main key */
+    private int numflats;                       /** The flats in the main key */
+    private ArrayList<ArrayList<MidiNote>> notes; /** The notes of each track */
+    private ArrayList<ListInt> symbols;         /** The symbols of each track */
+    private ArrayList<ListInt> breaks;          /** The staff breaks of each track */
+    private ListInt beams;                      /** The beamed chords */
+    private ArrayList<ArrayList<LyricSymbol>> lyrics; /** The lyrics, or null */
+    private KeySignature[] trackkeys;           /** The key each track starts with (see getTrackKey) */
+
+    /** Create an empty layout, to record the layout as it is computed */
+    public ScoreLayout(TimeSignature time, KeySignature key) {
+        this.time = time;
+        numsharps = key.getNumSharps();
+        numflats = key.getNumFlats();
+        notes = new ArrayList<ArrayList<MidiNote>>();
+        symbols = new ArrayList<ListInt>();
+        breaks = new ArrayList<ListInt>();
+        beams = new ListInt();
+    }
+
+    public TimeSignature getTime() { return time; }
+    public int getNumTracks() { return symbols.size(); }
+    public ArrayList<MidiNote> getNotes(int track) { return notes.get(track); }
+    public ListInt getBreaks(int track) { return breaks.get(track); }
+    public ListInt getBeams() { return beams; }
+    public ArrayList<ArrayList<LyricSymbol>> getLyrics() { return lyrics; }
+    public void setLyrics(ArrayList<ArrayList<LyricSymbol>> value) { lyrics = value; }
+
+    /** Return a new copy of the main key signature.  A new copy is
+     *  needed since the key signature keeps state while creating chords.
+     */
+    public KeySignature getKey() {
+        return new KeySignature(numsharps, numflats);
+    }
+
+    /** Return a new copy of the key signature to create the chords of
+     *  the given track with.  It is in the state left by creating the
+     *  chords of the tracks before it (see KeySignature.TrackKeys).
+     */
+    public synchronized KeySignature getTrackKey(int track) {
+        if (trackkeys == null) {
+            trackkeys = getKey().TrackKeys(notes, time.getMeasure());
+        }
+        return trackkeys[track].Copy();
+    }
+
+    /** Set the key signatures of the tracks, in the state before their
+     *  first note in this layout.  This is needed when the layout has only
+     *  part of the song, since the state depends on the notes outside it.
+     */
+    public synchronized void setTrackKeys(KeySignature[] keys) {
+        trackkeys = keys;
+    }
+
+    /** Add the notes and (aligned) symbols of the next track */
+    public void AddTrack(ArrayList<MidiNote> tracknotes, ArrayList<MusicSymbol> list) {
+        notes.add(tracknotes);
+        ListInt result = new ListInt(list.size() * SymbolSize + 1);
+        for (MusicSymbol symbol : list) {
+            int type, a = 0, b = 0, c = 0;
+            if (symbol instanceof ChordSymbol) {
+                type = SymbolChord;
+                a = ((ChordSymbol)symbol).getClef().ordinal();
+            }
+            else if (symbol instanceof BarSymbol) {
+                type = SymbolBar;
+                a = symbol.getStartTime();
+            }
+            else if (symbol instanceof BlankSymbol) {
+                type = SymbolBlank;
+                a = symbol.getStartTime();
+            }
+            else if (symbol instanceof RestSymbol) {
+                type = SymbolRest;
+                a = symbol.getStartTime();
+                b = ((RestSymbol)symbol).getDuration().ordinal();
+            }
+            else if (symbol instanceof ClefSymbol) {
+                ClefSymbol clefsym = (ClefSymbol)symbol;
+                type = SymbolClef;
+                a = clefsym.getClef().ordinal();
+                b = clefsym.getStartTime();
+                c = clefsym.isSmall() ? 1 : 0;
+            }
+            else if (symbol instanceof TimeSigSymbol) {
+                TimeSigSymbol timesig = (TimeSigSymbol)symbol;
+                type = SymbolTimeSig;
+                a = timesig.getNumerator();
+                b = timesig.getDenominator();
+            }
+            else {
+                throw new IllegalArgumentException("Unknown symbol " + symbol);
+            }
+            result.add(type);
+            result.add(a);
+            result.add(b);
+            result.add(c);
+            result.add(symbol.getWidth());
+        }
+        symbols.add(result);
+        breaks.add(new ListInt());
+    }
+
+    /** Re-create the music symbols of the given track, with the widths
+     *  they had after being aligned.  The chords are created in the same
+     *  order as SheetMusic.CreateChords(), using the given key signature.
+     */
+    public ArrayList<MusicSymbol>
+    CreateSymbols(int track, KeySignature key, SheetMusic sheet) {
+        return CreateSymbols(track, key, sheet, 0, symbols.get(track).size() / SymbolSize, 0);
+    }
+
+    /** Re-create the music symbols [start, end) of the given track.
+     *  The noteindex is the index of the first note of the first chord
+     *  at or after start (see FirstNoteIndexes).
+     *
+     *  The key signature keeps the accidentals of the current measure
+     *  (see KeySignature.GetAccidental).  The key from getTrackKey() is
+     *  first given the notes before noteindex, to be in the same state as
+     *  when the whole track is created.
+     */
+    public ArrayList<MusicSymbol>
+    CreateSymbols(int track, KeySignature key, SheetMusic sheet,
+                  int start, int end, int noteindex) {
+        ListInt list = symbols.get(track);
+        ArrayList<MidiNote> tracknotes = notes.get(track);
+        ArrayList<MusicSymbol> result = new ArrayList<MusicSymbol>(end - start);
+        ArrayList<MidiNote> notegroup = new ArrayList<MidiNote>(12);
+        Clef[] clefs = Clef.values();
+        NoteDuration[] durations = NoteDuration.values();
+
+        key.SkipNotes(tracknotes, 0, noteindex, time.getMeasure());
+
+        for (int i = start * SymbolSize; i < end * SymbolSize; i += SymbolSize) {
+            int a = list.get(i+1);
+            int b = list.get(i+2);
+            int c = list.get(i+3);
+            MusicSymbol symbol;
+            switch (list.get(i)) {
+                case SymbolChord: {
+                    int starttime = tracknotes.get(noteindex).getStartTime();
+                    notegroup.clear();
+                    while (noteindex < tracknotes.size() &&
+                           tracknotes.get(noteindex).getStartTime() == starttime) {
+                        notegroup.add(tracknotes.get(noteindex));
+                        noteindex++;
+                    }
+                    symbol = new ChordSymbol(notegroup, key, time, clefs[a], sheet);
+                    break;
+                }
+                case SymbolBar:
+                    symbol = new BarSymbol(a);
+                    break;
+                case SymbolBlank:
+                    symbol = new BlankSymbol(a, 0);
+                    break;
+                case SymbolRest:
+                    symbol = new RestSymbol(a, durations[b]);
+                    break;
+                case SymbolClef:
+                    symbol = new ClefSymbol(clefs[a], b, c != 0);
+                    break;
+                default:
+                    symbol = new TimeSigSymbol(a, b);
+                    break;
+            }
+            symbol.setWidth(list.get(i+4));
+            result.add(symbol);
+        }
+        LayoutCounters.AddSymbols(result.size());
+        return result;
+    }
+
+    /** Given sorted symbol indexes of the track, return the index of the
+     *  first note of the first chord at or after each symbol index.
+     */
+    public int[] FirstNoteIndexes(int track, int[] symbolindexes) {
+        ListInt list = symbols.get(track);
+        ArrayList<MidiNote> tracknotes = notes.get(track);
+        int[] result = new int[symbolindexes.length];
+        int noteindex = 0;
+        int k = 0;
+        for (int i = 0; k < symbolindexes.length; i++) {
+            while (k < symbolindexes.length && symbolindexes[k] == i) {
+                result[k] = noteindex;
+                k++;
+            }
+            if (i * SymbolSize < list.size() && list.get(i * SymbolSize) == SymbolChord) {
+                int starttime = tracknotes.get(noteindex).getStartTime();
+                while (noteindex < tracknotes.size() &&
+                       tracknotes.get(noteindex).getStartTime() == starttime) {
+                    noteindex++;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the number of symbols in the first numstaffs staffs of the track */
+    public int getNumSymbols(int track, int numstaffs) {
+        ListInt trackbreaks = breaks.get(track);
+        int result = 0;
+        for (int i = 0; i < numstaffs; i++) {
+            result += trackbreaks.get(i);
+        }
+        return result;
+    }
+
+    /** Return the start time of the symbol at the given index of the
+     *  track, if it is a vertical bar.  Otherwise, return -1.
+     */
+    public int getBarTime(int track, int index) {
+        ListInt list = symbols.get(track);
+        int i = index * SymbolSize;
+        if (i >= list.size() || list.get(i) != SymbolBar) {
+            return -1;
+        }
+        return list.get(i+1);
+    }
+
+    /** Return a new layout with the first numstaffs staffs of each track
+     *  of this layout, followed by the given layout of the rest of the
+     *  song, which starts where these staffs end.  The notes, symbols and
+     *  staff breaks are appended.  The beams and lyrics are not, since
+     *  the beams must be added in the order they were created (see
+     *  SheetMusic.ContinueLayout).
+     */
+    public ScoreLayout Append(int numstaffs, ScoreLayout rest) {
+        ScoreLayout result = new ScoreLayout(time, getKey());
+        for (int track = 0; track < symbols.size(); track++) {
+            int numsymbols = getNumSymbols(track, numstaffs);
+            int numnotes = FirstNoteIndexes(track, new int[] { numsymbols })[0];
+            ArrayList<MidiNote> tracknotes = new ArrayList<MidiNote>(numnotes + rest.notes.get(track).size());
+            tracknotes.addAll(notes.get(track).subList(0, numnotes));
+            tracknotes.addAll(rest.notes.get(track));
+            result.notes.add(tracknotes);
+
+            ListInt list = symbols.get(track);
+            ListInt restlist = rest.symbols.get(track);
+            ListInt tracksymbols = new ListInt(numsymbols * SymbolSize + restlist.size() + 1);
+            for (int i = 0; i < numsymbols * SymbolSize; i++) {
+                tracksymbols.add(list.get(i));
+            }
+            tracksymbols.addAll(restlist);
+            result.symbols.add(tracksymbols);
+
+            ListInt trackbreaks = new ListInt();
+            for (int i = 0; i < numstaffs; i++) {
+                trackbreaks.add(breaks.get(track).get(i));
+            }
+            trackbreaks.addAll(rest.breaks.get(track));
+            result.breaks.add(trackbreaks);
+        }
+        return result;
+    }
+
+    /** Return the offset of the beam after the beam at the given offset */
+    public int NextBeam(int offset) {
+        return offset + beams.get(offset+1) + 3;
+    }
+
+    /** Re-create the beam at the given offset in the beams, given the
+     *  symbols of its track starting at symbol index firstindex.
+     */
+    public void CreateBeam(int offset, ArrayList<MusicSymbol> tracksymbols, int firstindex) {
+        int numChords = beams.get(offset+1);
+        ChordSymbol[] chords = new ChordSymbol[numChords];
+        for (int c = 0; c < numChords; c++) {
+            chords[c] = (ChordSymbol)tracksymbols.get(beams.get(offset+2+c) - firstindex);
+        }
+        ChordSymbol.CreateBeam(chords, beams.get(offset+2+numChords));
+    }
+
+    /** Write the layout to the given stream */
+    public void Write(DataOutputStream out) throws IOException {
+        out.writeInt(Magic);
+        out.writeInt(Version);
+        out.writeInt(time.getNumerator());
+        out.writeInt(time.getDenominator());
+        out.writeInt(time.getQuarter());
+        out.writeInt(time.getTempo());
+        out.writeInt(numsharps);
+        out.writeInt(numflats);
+        out.writeInt(symbols.size());
+        for (int track = 0; track < symbols.size(); track++) {
+            ArrayList<MidiNote> tracknotes = notes.get(track);
+            out.writeInt(tracknotes.size());
+            for (MidiNote note : tracknotes) {
+                out.writeInt(note.getStartTime());
+                out.writeByte(note.getChannel());
+                out.writeByte(note.getNumber());
+                out.writeInt(note.getDuration());
+            }
+            WriteList(out, symbols.get(track));
+            WriteList(out, breaks.get(track));
+        }
+        WriteList(out, beams);
+        out.writeBoolean(lyrics != null);
+        if (lyrics != null) {
+            for (ArrayList<LyricSymbol> tracklyrics : lyrics) {
+                out.writeInt(tracklyrics.size());
+                for (LyricSymbol lyric : tracklyrics) {
+                    out.writeInt(lyric.getStartTime());
+                    out.writeUTF(lyric.getText());
+                }
+            }
+        }
+    }
+
+    /** Read a layout from the given stream.  Throw an IOException if
+     *  the data is not a layout of the current version.
+     */
+    public static ScoreLayout Read(DataInputStream in) throws IOException {
+        if (in.readInt() != Magic || in.readInt() != Version) {
+            throw new IOException("Not a score layout");
+        }
+        int numer = in.readInt();
+        int denom = in.readInt();
+        int quarter = in.readInt();
+        int tempo = in.readInt();
+        TimeSignature time = new TimeSignature(numer, denom, quarter, tempo);
+        int numsharps = in.readInt();
+        int numflats = in.readInt();
+        ScoreLayout layout = new ScoreLayout(time, new KeySignature(numsharps, numflats));
+
+        int numtracks = in.readInt();
+        for (int track = 0; track < numtracks; track++) {
+            int count = in.readInt();
+            ArrayList<MidiNote> tracknotes = new ArrayList<MidiNote>(count);
+            for (int i = 0; i < count; i++) {
+                int starttime = in.readInt();
+                int channel = in.readByte();
+                int number = in.readByte();
+                int duration = in.readInt();
+                tracknotes.add(new MidiNote(starttime, channel, number, duration));
+            }
+            layout.notes.add(tracknotes);
+            layout.symbols.add(ReadList(in));
+            layout.breaks.add(ReadList(in));
+        }
+        layout.beams = ReadList(in);
+        if (in.readBoolean()) {
+            layout.lyrics = new ArrayList<ArrayList<LyricSymbol>>(numtracks);
+            for (int track = 0; track < numtracks; track++) {
+                int count = in.readInt();
+                ArrayList<LyricSymbol> tracklyrics = new ArrayList<LyricSymbol>(count);
+                for (int i = 0; i < count; i++) {
+                    int starttime = in.readInt();
+                    tracklyrics.add(new LyricSymbol(starttime, in.readUTF()));
+                }
+                layout.lyrics.add(tracklyrics);
+            }
+        }
+        return layout;
+    }
+
+    private static void WriteList(DataOutputStream out, ListInt list) throws IOException {
+        out.writeInt(list.size());
+        for (int i = 0; i < list.size(); i++) {
+            out.writeInt(list.get(i));
+        }
+    }
+
+    private static ListInt ReadList(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Bad list size " + count);
+        }
+        ListInt list = new ListInt(count + 1);
+        for (int i = 0; i < count; i++) {
+            list.add(in.readInt());
+        }
+        return list;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic;
+
+import java.util.*;
+
+import com.midisheetmusic.collections.ListInt;
+
+/** @class SeekIndex
+ * The SeekIndex is used to start playing a song in the middle (at the
+ * pause time), without reading all the events before the pause time.
+ *
+ * For each track, the index has a checkpoint at the start of every
+ * measure.  The checkpoint has the first event row in the measure, and
+ * the channel state before that row:
+ * - The value of each controller (except the channel mode controllers)
+ * - The program (instrument) of each channel
+ * - The pitch bend of each channel
+ *
+ * Only the (channel, controller) pairs, programs, and pitch bends used
+ * in the track are stored.  Each one is given a slot, in the order
+ * they first occur in the track.  A checkpoint is an array of slot
+ * values, where -1 means the value was never set.
+ *
+ * To seek to a pause time, we start from the checkpoint of the measure
+ * containing the pause time, and apply the few events between the
+ * checkpoint and the pause time.  The resulting state is returned as a
+ * short prelude of events, to play at time 0.  The sysex events before
+ * the pause time are included in the prelude, since they can reset the
+ * synthesizer.  Tempo changes are not included, since the tempo at the
+ * pause time is given by the TempoMap.
+ */
+public class SeekIndex {
+
+    /* The slot keys: a controller is (channel << 7 | controller),
+     * a program is ProgramKey + channel, a pitch bend is BendKey + channel.
+     */
+    private static final int ProgramKey = 16 * 128;
+    private static final int BendKey = ProgramKey + 16;
+    private static final int NumKeys = BendKey + 16;
+
+    private int measure;     /** The measure length, in pulses */
+    private TrackIndex[] tracks;  /** The checkpoints of each track */
+
+    /** @class TrackIndex
+     * The checkpoints of a single track.
+     */
+    private static class TrackIndex {
+        int numslots;         /** The number of slots */
+        int[] slotkeys;       /** The key of each slot */
+        int[] keyslots;       /** The slot of each key, or -1 */
+        int[] rows;           /** The first row of each measure */
+        int[] states;         /** The slot values at each measure (numslots per measure) */
+        ListInt sysexrows;    /** The rows of the sysex events */
+    }
+
+    /** Create the checkpoints for the given tables of events.
+     *  The measure is the length of a measure, in pulses.
+     */
+    public SeekIndex(ArrayList<MidiEventTable> allevents, int measure) {
+        this.measure = Math.max(measure, 1);
+        tracks = new TrackIndex[allevents.size()];
+        for (int tracknum = 0; tracknum < allevents.size(); tracknum++) {
+            tracks[tracknum] = CreateTrackIndex(allevents.get(tracknum));
+        }
+    }
+
+    /** Return the slot key for the given event, or -1 if the event
+     *  does not change the channel state.
+     */
+    private static int GetKey(MidiEventTable events, int row) {
+        byte eventflag = events.getEventFlag(row);
+        int channel = events.getChannel(row);
+        if (eventflag == MidiFile.EventControlChange) {
+            int controller = events.getData1(row) & 0x7F;
+            if (controller >= 120) {
+                return -1;   /* Channel mode message */
+            }
+            return (channel << 7) | controller;
+        }
+        else if (eventflag == MidiFile.EventProgramChange) {
+            return ProgramKey + channel;
+        }
+        else if (eventflag == MidiFile.EventPitchBend) {
+            return BendKey + channel;
+        }
+        return -1;
+    }
+
+    /** Return the slot value for the given event */
+    private static int GetValue(MidiEventTable events, int row, int key) {
+        if (key < ProgramKey) {
+            return events.getData2(row) & 0xFF;
+        }
+        else if (key < BendKey) {
+            return events.getData1(row) & 0xFF;
+        }
+        else {
+            return ((events.getData1(row) & 0xFF) << 8) | (events.getData2(row) & 0xFF);
+        }
+    }
+
+    /** Create the slots and checkpoints of a single track */
+    private TrackIndex CreateTrackIndex(MidiEventTable events) {
+        TrackIndex index = new TrackIndex();
+        index.keyslots = new int[NumKeys];
+        Arrays.fill(index.keyslots, -1);
+        index.sysexrows = new ListInt();
+
+        /* Assign the slots */
+        ListInt slotkeys = new ListInt();
+        for (int row = 0; row < events.size(); row++) {
+            byte eventflag = events.getEventFlag(row);
+            if (eventflag == MidiFile.SysexEvent1 || eventflag == MidiFile.SysexEvent2) {
+                index.sysexrows.add(row);
+            }
+            int key = GetKey(events, row);
+            if (key >= 0 && index.keyslots[key] == -1) {
+                index.keyslots[key] = slotkeys.size();
+                slotkeys.add(key);
+            }
+        }
+        index.numslots = slotkeys.size();
+        index.slotkeys = new int[index.numslots];
+        for (int i = 0; i < index.numslots; i++) {
+            index.slotkeys[i] = slotkeys.get(i);
+        }
+
+        /* Save the state at the start of each measure */
+        int lasttime = events.size() == 0 ? 0 : events.getStartTime(events.size()-1);
+        int nummeasures = lasttime / measure + 1;
+        index.rows = new int[nummeasures];
+        index.states = new int[nummeasures * index.numslots];
+        int[] state = new int[index.numslots];
+        Arrays.fill(state, -1);
+        int row = 0;
+        for (int m = 0; m < nummeasures; m++) {
+            int start = m * measure;
+            while (row < events.size() && events.getStartTime(row) < start) {
+                int key = GetKey(events, row);
+                if (key >= 0) {
+                    state[index.keyslots[key]] = GetValue(events, row, key);
+                }
+                row++;
+            }
+            index.rows[m] = row;
+            System.arraycopy(state, 0, index.states, m * index.numslots, index.numslots);
+        }
+        return index;
+    }
+
+    /** Find where to start playing the given track at the pause time.
+     *  Add the events needed to restore the channel state at the pause
+     *  time to the prelude table (which should be empty), and return
+     *  the first row at or after the pause time.
+     *
+     *  The prelude has the sysex events first, then the controllers,
+     *  then the programs (so a bank select comes before the program
+     *  change), then the pitch bends.  All prelude events have start
+     *  time 0.
+     */
+    public int Seek(int tracknum, MidiEventTable events, int pauseTime,
+                    MidiEventTable prelude) {
+        TrackIndex index = tracks[tracknum];
+        int m = Math.min(Math.max(pauseTime, 0) / measure, index.rows.length - 1);
+        int[] state = Arrays.copyOfRange(index.states, m * index.numslots,
+                                         (m+1) * index.numslots);
+        int row = index.rows[m];
+        while (row < events.size() && events.getStartTime(row) < pauseTime) {
+            int key = GetKey(events, row);
+            if (key >= 0) {
+                state[index.keyslots[key]] = GetValue(events, row, key);
+            }
+            row++;
+        }
+
+        for (int i = 0; i < index.sysexrows.size() && index.sysexrows.get(i) < row; i++) {
+            prelude.AddEvent(events, index.sysexrows.get(i));
+            prelude.setStartTime(prelude.size()-1, 0);
+        }
+        AddState(index, state, 0, ProgramKey, prelude);
+        AddState(index, state, ProgramKey, BendKey, prelude);
+        AddState(index, state, BendKey, NumKeys, prelude);
+        return row;
+    }
+
+    /** Add an event to the prelude for each slot that is set, whose
+     *  key is between startkey (inclusive) and endkey (exclusive).
+     */
+    private static void AddState(TrackIndex index, int[] state, int startkey, int endkey,
+                                 MidiEventTable prelude) {
+        for (int slot = 0; slot < index.numslots; slot++) {
+            int key = index.slotkeys[slot];
+            int value = state[slot];
+            if (key < startkey || key >= endkey || value == -1) {
+                continue;
+            }
+            if (key < ProgramKey) {
+                prelude.AddChannelEvent(0, MidiFile.EventControlChange, (byte)(key >> 7),
+                                        (byte)(key & 0x7F), (byte)value);
+            }
+            else if (key < BendKey) {
+                prelude.AddChannelEvent(0, MidiFile.EventProgramChange,
+                                        (byte)(key - ProgramKey), (byte)value, (byte)0);
+            }
+            else {
+                prelude.AddChannelEvent(0, MidiFile.EventPitchBend, (byte)(key - BendKey),
+                                        (byte)(value >> 8), (byte)value);
+            }
+        }
+    }
+}
@@ -130,6 +130,7 @@ public class SettingsActivity extends AppCompatActivity {
         private SwitchPreferenceCompat useColors;
         private SwitchPreferenceCompat colorAccidentals;    /** Use RED as color for sharps and flats */
         private SwitchPreferenceCompat useFullHeight;       /** Drawing on full height option */
+        private SwitchPreferenceCompat useSoftSynth;        /** Play with the built-in synthesizer */
 
         private ColorPreference shade1Color;          /** Right-hand color */
         private ColorPreference shade2Color;          /** Left-hand color */
@@ -153,6 +154,7 @@ public class SettingsActivity extends AppCompatActivity {
             createDisplayTrackPrefs(root);
             createPlayTrackPrefs(root);
             createInstrumentPrefs(root);
+            createSoftSynthPrefs(root);
 
             PreferenceCategory sheetTitle = new PreferenceCategory(context);
             sheetTitle.setTitle(R.string.sheet_prefs_title);
@@ -255,6 +257,14 @@ public class SettingsActivity extends AppCompatActivity {
             root.addPreference(setAllToPiano);
         }
 
+        /** Create the "Use built-in synthesizer" preference */
+        private void createSoftSynthPrefs(PreferenceScreen root) {
+            useSoftSynth = new SwitchPreferenceCompat(context);
+            useSoftSynth.setTitle(R.string.use_soft_synth);
+            useSoftSynth.setChecked(options.useSoftSynth);
+            root.addPreference(useSoftSynth);
+        }
+
         /** Create the "Show Lyrics" preference */
         private void createShowLyricsPrefs(PreferenceScreen root) {
             showLyrics = new SwitchPreferenceCompat(context);
@@ -524,6 +534,7 @@ public class SettingsActivity extends AppCompatActivity {
             options.useColors = useColors.isChecked();
             options.colorAccidentals = colorAccidentals.isChecked();
             options.useFullHeight = useFullHeight.isChecked();
+            options.useSoftSynth = useSoftSynth.isChecked();
         }
 
         @Override
@@ -21,11 +21,15 @@ import android.graphics.Paint;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.graphics.Typeface;
+import android.os.Handler;
 import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.view.View;
 
+import com.midisheetmusic.collections.BoxedInt;
+import com.midisheetmusic.collections.ListInt;
 import com.midisheetmusic.sheets.AccidSymbol;
 import com.midisheetmusic.sheets.BarSymbol;
 import com.midisheetmusic.sheets.BlankSymbol;
@@ -33,19 +37,27 @@ import com.midisheetmusic.sheets.ChordSymbol;
 import com.midisheetmusic.sheets.Clef;
 import com.midisheetmusic.sheets.ClefMeasures;
 import com.midisheetmusic.sheets.ClefSymbol;
+import com.midisheetmusic.sheets.GlyphAtlas;
 import com.midisheetmusic.sheets.LyricSymbol;
 import com.midisheetmusic.sheets.MusicSymbol;
 import com.midisheetmusic.sheets.RestSymbol;
 import com.midisheetmusic.sheets.Staff;
+import com.midisheetmusic.sheets.StaffIndex;
+import com.midisheetmusic.sheets.StaffList;
+import com.midisheetmusic.sheets.StaffMetrics;
 import com.midisheetmusic.sheets.SymbolWidths;
 
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
-
-class BoxedInt {
-    public int value;
-}
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * The SheetMusic Control is the main class for displaying the sheet music.
@@ -60,7 +72,9 @@ class BoxedInt {
  *  <li/> shadeNotes():
  *   Shade all the notes played at a given pulse time.
  */
-public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, ScrollAnimationListener {
+public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, ScrollAnimationListener,
+                                                    TileCache.Renderer,
+                                                    ScaleGestureDetector.OnScaleGestureListener {
 
     /* Measurements used when drawing.  All measurements are in pixels. */
     public static final int LineWidth  = 1;   /** The width of a line */
@@ -75,26 +89,50 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
     public static final int PageHeight = 1050;  /** The height of each page (when printing) */
     public static final int TitleHeight = 14;   /** Height of title on first page */
 
+    public static final int FirstLayoutMeasures = 24; /** The measures laid out before the rest of the sheet music */
+
+    /** The maximum number of threads for laying out tracks and staffs in parallel */
+    private static final int ParallelLayoutMaxThreads = 8;
+
+    private static ForkJoinPool layoutPool;  /** The threads for laying out tracks and staffs */
+
     public static final int ImmediateScroll = 1;
     public static final int GradualScroll   = 2;
     public static final int DontScroll      = 3;
 
-    private ArrayList<Staff> staffs;  /** The array of staffs to display (from top to bottom) */
+    /** The screens of staffs to keep in memory above and below the screen (see UpdateStaffWindow) */
+    private static final int StaffWindowScreens = 2;
+
+    /** The most atlas zoom levels to keep the glyphs for (see GetAtlas) */
+    private static final int MaxAtlases = 2;
+
+    /** The smallest and largest zoom, relative to fitting the page width */
+    private static final float MinPinchScale = 0.5f;
+    private static final float MaxPinchScale = 4.0f;
+
+    private StaffList staffs;         /** The staffs to display (from top to bottom) */
+    private StaffIndex staffindex;    /** Finds the staffs at a given y position or time */
     private KeySignature mainkey;     /** The main key signature */
 
     private String   filename;        /** The midi filename */
     private int      numtracks;       /** The number of tracks */
     private float    zoom;            /** The zoom level to draw at (1.0 == 100%) */
+    private float    pinchScale;      /** The zoom chosen by pinching, relative to fitting the page width */
+    private float    previousZoom;    /** The zoom of the tiles scaled to the screen after a zoom change, or 0 */
+    private boolean  pinching;        /** True while a pinch-to-zoom gesture is in progress */
     private boolean  scrollVert;      /** Whether to scroll vertically or horizontally */
+    private boolean  scrollingGradually; /** True if a gradual scroll has not reached the shaded notes */
     private int      showNoteLetters; /** Display the note letters */
     private boolean  useColors;
     private int[]    NoteColors;      /** The note colors to use */
     private int      shade1;          /** The color for shading */
     private int      shade2;          /** The color for shading left-hand piano */
     private Paint    paint;           /** The paint for drawing */
+    private Paint    scalePaint;      /** The paint for scaling tiles to the screen */
     private boolean  surfaceReady;    /** True if we can draw on the surface */
-    private Bitmap   bufferBitmap;    /** The bitmap for drawing */
-    private Canvas   bufferCanvas;    /** The canvas for drawing */
+    private TileCache tiles;          /** The sheet music drawn into bitmap tiles */
+    private LinkedHashMap<Float, GlyphAtlas> atlases; /** The glyphs drawn at the last few atlas zoom levels, or null */
+    private int      shadedPulseTime; /** The pulse time of the shaded notes shown */
     private MidiPlayer player;        /** For pausing the music */
     private int      playerHeight;    /** Height of the midi player */
     private int      screenwidth;     /** The screen width */
@@ -108,21 +146,55 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
     private int      sheetheight;     /** The sheet music height (excluding zoom) */
     private int      viewwidth;       /** The width of this view. */
     private int      viewheight;      /** The height of this view. */
-    private int      bufferX;         /** The (left,top) of the bufferCanvas */
-    private int      bufferY; 
     private int      scrollX;         /** The (left,top) of the scroll clip */
     private int      scrollY;
+    private boolean  screenValid;     /** True if the surface shows the sheet music at (screenX, screenY) */
+    private int      screenX;         /** The scroll position shown on the surface */
+    private int      screenY;
+    private Rect     shadeDirty;      /** The area changed by shading the notes */
+    private Rect     staffDirty;      /** The area changed in a single staff */
     private ScrollAnimation scrollAnimation;
+    private ScaleGestureDetector scaleDetector; /** Detects the pinch-to-zoom gestures */
+
+    /* fields used for creating the staffs in the background */
+
+    private Handler  layoutHandler;   /** Shows the staffs created by the layout thread */
+    private Thread   layoutThread;    /** The thread creating the staffs */
+    private volatile boolean layoutCancelled; /** True if the staffs are no longer needed */
+    private StaffLayout pendingLayout; /** The staffs created, but not shown yet */
+    private boolean  layoutDone;      /** True if all the staffs are shown */
+    private volatile LayoutStages stages; /** The results of the layout stages, once the layout is done */
+
+    /** @class StaffLayout
+     * The staffs laid out by the layout thread.  They are shown by replacing
+     * all the staff fields at once, in ShowPendingLayout().
+     */
+    private static class StaffLayout {
+        StaffMetrics metrics;         /** The metrics of the staffs, from top to bottom */
+        StaffList stafflist;          /** The staffs, once they are finished */
+        KeySignature mainkey;         /** The main key signature */
+        int numtracks;                /** The number of tracks */
+        boolean complete;             /** False if these are only the first staffs */
+        ListInt[][] beams;            /** The beams of each track, for each step (see CreateAllBeamedChords) */
+    }
 
     public SheetMusic(Context context) {
-        super(context);
+        this(context,
+             ((Activity)context).getWindowManager().getDefaultDisplay().getWidth(),
+             ((Activity)context).getWindowManager().getDefaultDisplay().getHeight());
         SurfaceHolder holder = getHolder();
         holder.addCallback(this);
-        bufferX = bufferY = scrollX = scrollY = 0;
-        
-        Activity activity = (Activity)context;
-        screenwidth = activity.getWindowManager().getDefaultDisplay().getWidth();
-        screenheight = activity.getWindowManager().getDefaultDisplay().getHeight();
+    }
+
+    /** Create a SheetMusic for a screen of the given size, without adding
+     *  the surface callbacks.  The sheet music can be laid out, but is
+     *  never drawn to the screen.  This is used by the unit tests.
+     */
+    SheetMusic(Context context, int width, int height) {
+        super(context);
+        scrollX = scrollY = 0;
+        screenwidth = width;
+        screenheight = height;
 
         // Size could've been captured while the screen was still in portrait.
         // In this case, swap the dimensions.
@@ -133,6 +205,7 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
         }
 
         playerHeight = MidiPlayer.getPreferredSize(screenwidth, screenheight).y;
+        scaleDetector = new ScaleGestureDetector(context, this);
 
     }
 
@@ -145,13 +218,39 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
      * - For each track, create a list of MusicSymbols (notes, rests, bars, etc)
      * - Vertically align the music symbols in all the tracks
      * - Partition the music notes into horizontal staffs
+     *
+     * These steps are done on a separate layout thread, so that long songs
+     * do not block the UI.  Until the staffs are ready, the sheet music
+     * is empty.
      */
     public void init(MidiFile file, MidiOptions options) {
+        init(file, options, null, 0);
+    }
+
+    /** Create a new SheetMusic View, using the layout in the ScoreCache
+     *  if the song (with the given CRC) was laid out before with the
+     *  same options.  Otherwise, lay out the sheet music and save the
+     *  layout in the cache.  The cache can be null.
+     */
+    public void init(MidiFile file, MidiOptions options, ScoreCache cache, long crc) {
+        init(file, options, cache, crc, null);
+    }
+
+    /** Create a new SheetMusic View, re-using the layout stages of a
+     *  previous SheetMusic (see getLayoutStages).  Only the stages that
+     *  use an option that has changed are done again.  The previous
+     *  stages can be null.
+     */
+    public void init(MidiFile file, MidiOptions options, ScoreCache cache, long crc,
+                     LayoutStages previous) {
         if (options == null) {
             options = new MidiOptions(file);
         }
         zoom = 1.0f;
+        pinchScale = 1.0f;
+        previousZoom = 0;
         optionsSaved = options;
+        shadedPulseTime = -10;
 
         filename = file.getFileName();
 
@@ -162,23 +261,318 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
         Typeface typeface = Typeface.create(paint.getTypeface(), Typeface.NORMAL);
         paint.setTypeface(typeface);
         paint.setColor(Color.BLACK);
-        
-        ArrayList<MidiTrack> tracks = file.ChangeMidiNotes(options);
+        scalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
         scrollVert = options.scrollVert;
         showNoteLetters = options.showNoteLetters;
-        TimeSignature time = file.getTime(); 
-        if (options.time != null) {
-            time = options.time;
+
+        staffs = new StaffList(new StaffMetrics(0), 0, null, null, null, this);
+        staffindex = staffs.getIndex();
+        numtracks = 0;
+        scrollAnimation = new ScrollAnimation(this, scrollVert);
+
+        /* The options can be changed by the activity while the layout
+         * thread is running, so the layout thread uses a copy.
+         */
+        final MidiOptions layoutOptions = options.copy();
+        layoutHandler = new Handler();
+        layoutCancelled = false;
+        layoutDone = false;
+        layoutThread = new Thread(() ->
+            CreateStaffsInBackground(file, layoutOptions, cache, crc, previous));
+        layoutThread.start();
+    }
+
+    /** Create the staffs, on the layout thread.  If only the staff options
+     *  (see LayoutStages) changed since the previous layout, create the
+     *  staffs from its aligned symbols.  Else, use the layout in the cache
+     *  if there is one.  Otherwise, lay out the sheet music, starting with
+     *  the first stage that changed, and save the layout in the cache.
+     *
+     *  When scrolling vertically, first lay out the first FirstLayoutMeasures
+     *  measures, and show the staffs that will not change when the rest
+     *  of the sheet music is laid out.  So the first screen is shown
+     *  quickly, even for long songs.  Then continue the layout from the
+     *  end of these staffs (see ContinueLayout).
+     *
+     *  If the layout is cancelled, stop without showing anything.
+     */
+    private void CreateStaffsInBackground(MidiFile file, MidiOptions options,
+                                          ScoreCache cache, long crc, LayoutStages previous) {
+        StaffLayout result = new StaffLayout();
+        LayoutStages done = new LayoutStages(file, options);
+        int stage = LayoutStages.Notes;
+        if (previous != null) {
+            stage = previous.FirstStageToRedo(file, options);
+            if (stage > LayoutStages.Notes) {
+                done.setQuantized(previous.getQuantized());
+            }
+            if (stage > LayoutStages.Shift) {
+                done.setTracks(previous.getTracks());
+            }
+        }
+
+        if (stage == LayoutStages.Paint) {
+            /* The staffs do not change, so re-use them */
+            result.stafflist = new StaffList(previous.getStaffs(), this);
+            result.mainkey = result.stafflist.getMainKey();
+            result.numtracks = result.stafflist.getNumTracks();
+            done.setLayout(previous.getLayout());
+            done.setStaffs(result.stafflist);
+            if (PostLayout(result, true)) {
+                stages = done;
+            }
+            return;
+        }
+
+        ScoreLayout layout = null;
+        if (stage == LayoutStages.Staffs) {
+            layout = CreateFromAligned(previous.getLayout(), previous.getOptions(), options, result);
+            if (layout == null) {
+                return;
+            }
+            SaveInBackground(cache, crc, options, layout);
+        }
+        else if (cache != null) {
+            layout = cache.Load(crc, options);
+            if (layout != null) {
+                CreateFromLayout(layout, options, result);
+            }
+        }
+        if (layout == null) {
+            if (done.getQuantized() == null) {
+                done.setQuantized(file.QuantizeMidiNotes(options));
+            }
+            if (done.getTracks() == null) {
+                done.setTracks(MidiFile.ShiftMidiNotes(done.getQuantized(), options));
+            }
+            ArrayList<MidiTrack> tracks = done.getTracks();
+            TimeSignature time = file.getTime();
+            if (options.time != null) {
+                time = options.time;
+            }
+            KeySignature key;
+            if (options.key == -1) {
+                key = GetKeySignature(tracks);
+            }
+            else {
+                key = new KeySignature(options.key);
+            }
+            int lastStart = file.EndTime() + options.shifttime;
+
+            int endtime = FirstLayoutMeasures * time.getMeasure();
+            StaffLayout first = null;
+            ScoreLayout firstlayout = null;
+            int resume = -1;
+            if (scrollVert && lastStart > 2 * endtime) {
+                first = new StaffLayout();
+                firstlayout = CreateLayout(tracks, time, key, options, 0, endtime, endtime, first);
+                if (firstlayout == null) {
+                    return;
+                }
+                resume = RemoveLastStaffs(first, firstlayout);
+                if (first.metrics.size() > 0) {
+                    FinishLayout(first, firstlayout, options, false);
+                }
+            }
+            if (resume > 0) {
+                layout = ContinueLayout(tracks, time, key, options, lastStart,
+                                        first, firstlayout, resume, result);
+            }
+            else {
+                layout = CreateLayout(tracks, time, key, options, 0, lastStart,
+                                      Integer.MAX_VALUE, result);
+            }
+            if (layout == null) {
+                return;
+            }
+            SaveInBackground(cache, crc, options, layout);
+        }
+        done.setLayout(layout);
+        if (FinishLayout(result, layout, options, true)) {
+            done.setStaffs(result.stafflist);
+            stages = done;
+        }
+    }
+
+    /** Save the layout in the cache (if not null), on another thread */
+    private static void SaveInBackground(final ScoreCache cache, final long crc,
+                                         final MidiOptions options, final ScoreLayout layout) {
+        if (cache != null) {
+            new Thread(() -> cache.Save(crc, options, layout)).start();
+        }
+    }
+
+    /** Return the results of the layout stages, to re-use them when the
+     *  options change.  Return null if the layout is not done.
+     */
+    public LayoutStages getLayoutStages() {
+        return stages;
+    }
+
+    /** Create the list of the staffs measured by the layout thread, and
+     *  ask the UI thread to show them.  The staffs are created from the
+     *  given layout when they are drawn (see StaffList).
+     *  Return false if the layout was cancelled.
+     */
+    private boolean FinishLayout(StaffLayout result, ScoreLayout layout,
+                                 MidiOptions options, boolean complete) {
+        result.stafflist = new StaffList(result.metrics, result.numtracks, layout,
+                                         result.mainkey, options, this);
+        return PostLayout(result, complete);
+    }
+
+    /** Ask the UI thread to show the finished staffs.
+     *  Return false if the layout was cancelled.
+     */
+    private boolean PostLayout(StaffLayout result, boolean complete) {
+        result.complete = complete;
+        synchronized (this) {
+            if (layoutCancelled) {
+                return false;
+            }
+            pendingLayout = result;
+        }
+        layoutHandler.post(this::ShowPendingLayout);
+        return true;
+    }
+
+    /** The staffs laid out for only the first measures of the song may
+     *  differ from the final staffs at the end: the last staff is cut
+     *  short, and the staff before it may break at a different measure.
+     *  Remove the last two staffs of each track.
+     *
+     *  Return the start time of the staffs removed, so the layout can
+     *  continue from there (see ContinueLayout).  Return -1 if no staffs
+     *  are left, if the tracks keep a different number of staffs, or if
+     *  the staffs removed do not all start with the vertical bar of the
+     *  same measure.
+     */
+    private static int RemoveLastStaffs(StaffLayout layout, ScoreLayout scorelayout) {
+        StaffMetrics metrics = layout.metrics;
+        int[] count = new int[layout.numtracks];
+        for (int i = 0; i < metrics.size(); i++) {
+            count[metrics.getTrack(i)]++;
+        }
+        ListInt staffnums = new ListInt(metrics.size() + 1);
+        int[] index = new int[layout.numtracks];
+        for (int i = 0; i < metrics.size(); i++) {
+            int track = metrics.getTrack(i);
+            if (index[track] < count[track] - 2) {
+                staffnums.add(i);
+            }
+            index[track]++;
+        }
+        layout.metrics = metrics.Select(staffnums);
+
+        int resume = -1;
+        for (int track = 0; track < layout.numtracks; track++) {
+            int kept = count[track] - 2;
+            if (kept <= 0 || kept != count[0] - 2) {
+                return -1;
+            }
+            ListInt breaks = scorelayout.getBreaks(track);
+            int symbolindex = 0;
+            for (int i = 0; i < kept; i++) {
+                symbolindex += breaks.get(i);
+            }
+            int bartime = scorelayout.getBarTime(track, symbolindex);
+            if (bartime <= 0 || (track > 0 && bartime != resume)) {
+                return -1;
+            }
+            resume = bartime;
         }
-        if (options.key == -1) {
-            mainkey = GetKeySignature(tracks);
+        return resume;
+    }
+
+    /** Show the staffs created by the layout thread.  Replace all the
+     *  staff fields at once, then re-calculate the size and zoom, and
+     *  redraw.  This is called on the UI thread.
+     */
+    private void ShowPendingLayout() {
+        StaffLayout result;
+        synchronized (this) {
+            result = pendingLayout;
+            pendingLayout = null;
+            if (result == null || layoutCancelled) {
+                return;
+            }
+        }
+        /* Stop drawing tiles with the old staffs */
+        if (tiles != null) {
+            tiles.Stop();
+            tiles = null;
+        }
+        synchronized (this) {
+            staffs = result.stafflist;
+            staffindex = result.stafflist.getIndex();
+            mainkey = result.mainkey;
+            numtracks = result.numtracks;
+        }
+        layoutDone = result.complete;
+        screenValid = false;
+        if (viewwidth > 0) {
+            onSizeChangedAll(viewwidth, viewheight, 0, 0);
         }
         else {
-            mainkey = new KeySignature(options.key);
+            calculateSize();
         }
-        numtracks = tracks.size();
+        if (shadedPulseTime >= 0) {
+            ShadeNotes(shadedPulseTime, shadedPulseTime, ImmediateScroll);
+        }
+        if (layoutDone && player != null) {
+            player.SheetLayoutDone(this);
+        }
+    }
 
-        int lastStart = file.EndTime() + options.shifttime;
+    /** Wait until all the staffs are created, and show them.  This is
+     *  used when all the staffs are needed right away, such as when
+     *  saving the sheet music as images.
+     */
+    public void WaitForLayout() {
+        if (layoutThread != null) {
+            try {
+                layoutThread.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        ShowPendingLayout();
+    }
+
+    /** Stop the layout and tile drawing threads, since this SheetMusic
+     *  is no longer shown (for example, the options have changed).
+     *  Release the staffs, so the next SheetMusic can re-use them
+     *  (see StaffList).
+     */
+    public void Release() {
+        layoutCancelled = true;
+        if (tiles != null) {
+            tiles.Stop();
+            tiles = null;
+        }
+        staffs.Release();
+    }
+
+    /** Lay out the sheet music for the notes starting from starttime and
+     *  before endtime: create the music symbols, vertically align them,
+     *  and create the staffs, storing the staffs in result.  The clefs
+     *  are still calculated for the whole song, and the bars until
+     *  lastStart.  The starttime is either 0, or the start of a measure
+     *  (see ContinueLayout).
+     *
+     *  Return a ScoreLayout recording the result, so that it can be
+     *  re-created with CreateFromLayout().  Return null if the layout
+     *  was cancelled.
+     */
+    private ScoreLayout CreateLayout(ArrayList<MidiTrack> tracks, final TimeSignature time,
+                                     KeySignature key, MidiOptions options, final int starttime,
+                                     final int lastStart, final int endtime, StaffLayout result) {
+        int tracknum;
+        int numtracks = tracks.size();
+        result.mainkey = key;
+        result.numtracks = numtracks;
 
         /* Create all the music symbols (notes, rests, vertical bars, and
          * clef changes).  The symbols variable contains a list of music
@@ -186,40 +580,378 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
          * Clef and key signature symbols.  Those can only be calculated 
          * when we create the staffs.
          */
-        ArrayList<ArrayList<MusicSymbol>> allsymbols =
+        final ArrayList<ArrayList<MusicSymbol>> allsymbols =
           new ArrayList<ArrayList<MusicSymbol> >(numtracks);
+        final ArrayList<ArrayList<MidiNote>> allnotes = new ArrayList<>(numtracks);
+        ArrayList<Runnable> tasks = new ArrayList<>(numtracks);
 
-        for (int tracknum = 0; tracknum < numtracks; tracknum++) {
-            MidiTrack track = tracks.get(tracknum);
-            ClefMeasures clefs = new ClefMeasures(track.getNotes(), time.getMeasure());
-            ArrayList<ChordSymbol> chords = CreateChords(track.getNotes(), mainkey, time, clefs);
-            allsymbols.add(CreateSymbols(chords, clefs, time, lastStart));
+        /* The tracks are created in parallel.  Each track needs its own
+         * copy of the key signature, since the key signature keeps the
+         * accidentals of the current measure while creating chords.  Each
+         * copy starts in the state left by the tracks before it.
+         */
+        ArrayList<ArrayList<MidiNote>> songnotes = new ArrayList<>(numtracks);
+        for (MidiTrack track : tracks) {
+            songnotes.add(track.getNotes());
+        }
+        KeySignature[] trackkeys = key.TrackKeys(songnotes, time.getMeasure());
+        final KeySignature[] startkeys = new KeySignature[numtracks];
+
+        for (tracknum = 0; tracknum < numtracks; tracknum++) {
+            allsymbols.add(null);
+            allnotes.add(null);
+            final int track = tracknum;
+            final ArrayList<MidiNote> tracknotes = tracks.get(tracknum).getNotes();
+            final KeySignature trackkey = trackkeys[tracknum];
+            tasks.add(() -> {
+                if (layoutCancelled) {
+                    return;
+                }
+                ClefMeasures clefs = new ClefMeasures(tracknotes, time.getMeasure());
+                ArrayList<MidiNote> notes = NotesBetween(tracknotes, starttime, endtime);
+
+                /* Start with the accidentals left by the notes before starttime */
+                trackkey.SkipNotes(tracknotes, 0, CountNotesBefore(tracknotes, starttime),
+                                   time.getMeasure());
+                startkeys[track] = trackkey.Copy();
+                ArrayList<ChordSymbol> chords = CreateChords(notes, trackkey, time, clefs);
+                int prevtime = Math.max(starttime, EndTimeBefore(tracknotes, starttime));
+                allsymbols.set(track, CreateSymbols(chords, clefs, time, starttime, prevtime, lastStart));
+                allnotes.set(track, notes);
+            });
+        }
+        RunParallel(tasks);
+        if (layoutCancelled) {
+            return null;
         }
 
         ArrayList<ArrayList<LyricSymbol>> lyrics = null;
         if (options.showLyrics) {
             lyrics = GetLyrics(tracks);
         }
+        if (lyrics != null && (starttime > 0 || endtime != Integer.MAX_VALUE)) {
+            for (ArrayList<LyricSymbol> list : lyrics) {
+                while (list.size() > 0 && list.get(list.size()-1).getStartTime() >= endtime) {
+                    list.remove(list.size()-1);
+                }
+                int first = 0;
+                while (first < list.size() && list.get(first).getStartTime() < starttime) {
+                    first++;
+                }
+                list.subList(0, first).clear();
+            }
+        }
 
         /* Vertically align the music symbols */
         SymbolWidths widths = new SymbolWidths(allsymbols, lyrics);
         AlignSymbols(allsymbols, widths, options);
+        if (layoutCancelled) {
+            return null;
+        }
+        for (ArrayList<MusicSymbol> symbols : allsymbols) {
+            LayoutCounters.AddSymbols(symbols.size());
+        }
+
+        ScoreLayout layout = new ScoreLayout(time, key);
+        for (tracknum = 0; tracknum < numtracks; tracknum++) {
+            layout.AddTrack(allnotes.get(tracknum), allsymbols.get(tracknum));
+        }
+        layout.setTrackKeys(startkeys);
+        layout.setLyrics(lyrics);
+        return CreateLayoutStaffs(allsymbols, key, options, layout, result);
+    }
+
+    /** Split the aligned symbols into staffs, create the beams, and
+     *  measure the staffs, storing the metrics in result.  The staff
+     *  breaks and beams are recorded in the layout.  Return the layout,
+     *  or null if the layout was cancelled.
+     */
+    private ScoreLayout CreateLayoutStaffs(final ArrayList<ArrayList<MusicSymbol>> allsymbols,
+                                           KeySignature key, MidiOptions options,
+                                           final ScoreLayout layout, final StaffLayout result) {
+        final TimeSignature time = layout.getTime();
+        for (int track = 0; track < allsymbols.size(); track++) {
+            FindStaffBreaks(allsymbols.get(track), time.getMeasure(), key, layout.getBreaks(track));
+        }
+        result.metrics = MeasureStaffs(allsymbols, key, options, layout, () -> {
+            result.beams = CreateAllBeamedChords(allsymbols, time);
+            MergeBeams(result.beams, layout.getBeams());
+        });
+        if (layoutCancelled) {
+            return null;
+        }
+        return layout;
+    }
+
+    /** Measure the staffs of the aligned symbols, split at the staff
+     *  breaks of the layout, without keeping the staffs (see StaffMetrics).
+     *  The staffs are numbered with the tracks interleaved:
+     *
+     *   Staff0 for track 0, Staff0 for track1, Staff0 for track2,
+     *   Staff1 for track 0, Staff1 for track1, Staff1 for track2, ...
+     *
+     *  Each staff is created (which full-justifies its symbols) with its
+     *  end time, the start time of the next staff in the track, and its
+     *  lyrics.  Then it is measured and dropped.  The tracks are done in
+     *  parallel.  The staffs of a track are done in order, since a lyric
+     *  at the end of a staff is also at the start of the next one.
+     *
+     *  Then createBeams creates the beams, using the justified widths.
+     *  The beams change the stem directions, so the staff heights are
+     *  calculated last.  Return the metrics.
+     */
+    private StaffMetrics MeasureStaffs(final ArrayList<ArrayList<MusicSymbol>> allsymbols,
+                                       final KeySignature key, final MidiOptions options,
+                                       ScoreLayout layout, Runnable createBeams) {
+        final int numtracks = allsymbols.size();
+        final ArrayList<ArrayList<LyricSymbol>> tracklyrics = layout.getLyrics();
+        final ListInt[] trackbreaks = new ListInt[numtracks];
+        final int[][] staffnums = new int[numtracks][];
+        int maxstaffs = 0;
+        for (int track = 0; track < numtracks; track++) {
+            trackbreaks[track] = layout.getBreaks(track);
+            staffnums[track] = new int[trackbreaks[track].size()];
+            maxstaffs = Math.max(maxstaffs, staffnums[track].length);
+        }
+        int numstaffs = 0;
+        for (int i = 0; i < maxstaffs; i++) {
+            for (int track = 0; track < numtracks; track++) {
+                if (i < staffnums[track].length) {
+                    staffnums[track][i] = numstaffs++;
+                }
+            }
+        }
+        final StaffMetrics metrics = new StaffMetrics(numstaffs);
 
-        staffs = CreateStaffs(allsymbols, mainkey, options, time.getMeasure());
-        CreateAllBeamedChords(allsymbols, time);
-        if (lyrics != null) {
-            AddLyricsToStaffs(staffs, lyrics);
+        ArrayList<Runnable> tasks = new ArrayList<>(numtracks);
+        for (int tracknum = 0; tracknum < numtracks; tracknum++) {
+            final int track = tracknum;
+            tasks.add(() -> {
+                ArrayList<MusicSymbol> symbols = allsymbols.get(track);
+                ListInt breaks = trackbreaks[track];
+                int start = 0;
+                for (int i = 0; i < breaks.size() && !layoutCancelled; i++) {
+                    int end = start + breaks.get(i);
+                    Staff staff = new Staff(new ArrayList<>(symbols.subList(start, end)),
+                                            key, options, track, numtracks);
+                    if (i + 1 < breaks.size()) {
+                        staff.setEndTime(symbols.get(end).getStartTime());
+                    }
+                    if (tracklyrics != null) {
+                        staff.AddLyrics(tracklyrics.get(track));
+                    }
+                    metrics.Measure(staffnums[track][i], staff);
+                    start = end;
+                }
+            });
+        }
+        LayoutCounters.AddStaffs(numstaffs);
+        RunParallel(tasks);
+        if (layoutCancelled) {
+            return metrics;
         }
 
-        /* After making chord pairs, the stem directions can change,
-         * which affects the staff height.  Re-calculate the staff height.
+        createBeams.run();
+
+        tasks.clear();
+        for (int tracknum = 0; tracknum < numtracks; tracknum++) {
+            final int track = tracknum;
+            tasks.add(() -> {
+                ArrayList<MusicSymbol> symbols = allsymbols.get(track);
+                ListInt breaks = trackbreaks[track];
+                int start = 0;
+                for (int i = 0; i < breaks.size(); i++) {
+                    int end = start + breaks.get(i);
+                    int staffnum = staffnums[track][i];
+                    metrics.setHeight(staffnum, Staff.CalculateHeight(symbols.subList(start, end),
+                                      options, metrics.getLyrics(staffnum) != null, track, numtracks));
+                    start = end;
+                }
+            });
+        }
+        RunParallel(tasks);
+        return metrics;
+    }
+
+    /** Create the staffs from the aligned symbols of a previous layout,
+     *  made with the previous options.  The options differ only in the
+     *  options of the Staffs stage (see LayoutStages), so the symbols are
+     *  re-created with their aligned widths, and only the staff breaks,
+     *  staffs and beams are calculated again.  If showMeasures changed,
+     *  the bar widths are changed the same way as AlignSymbols().
+     *
+     *  Return a new ScoreLayout, or null if the layout was cancelled.
+     */
+    private ScoreLayout CreateFromAligned(final ScoreLayout aligned, MidiOptions prevOptions,
+                                          MidiOptions options, StaffLayout result) {
+        KeySignature key = aligned.getKey();
+        int numtracks = aligned.getNumTracks();
+        result.mainkey = key;
+        result.numtracks = numtracks;
+
+        final ArrayList<ArrayList<MusicSymbol>> allsymbols = new ArrayList<>(numtracks);
+        ArrayList<Runnable> tasks = new ArrayList<>(numtracks);
+        for (int tracknum = 0; tracknum < numtracks; tracknum++) {
+            allsymbols.add(null);
+            final int track = tracknum;
+            tasks.add(() -> allsymbols.set(track, aligned.CreateSymbols(track, aligned.getTrackKey(track), this)));
+        }
+        RunParallel(tasks);
+        if (layoutCancelled) {
+            return null;
+        }
+
+        int barchange = (options.showMeasures ? NoteWidth : 0) -
+                        (prevOptions.showMeasures ? NoteWidth : 0);
+        ScoreLayout layout = new ScoreLayout(aligned.getTime(), key);
+        for (int tracknum = 0; tracknum < numtracks; tracknum++) {
+            if (barchange != 0) {
+                for (MusicSymbol sym : allsymbols.get(tracknum)) {
+                    if (sym instanceof BarSymbol) {
+                        sym.setWidth(sym.getWidth() + barchange);
+                    }
+                }
+            }
+            layout.AddTrack(aligned.getNotes(tracknum), allsymbols.get(tracknum));
+        }
+        layout.setLyrics(CopyLyrics(aligned.getLyrics()));
+        return CreateLayoutStaffs(allsymbols, key, options, layout, result);
+    }
+
+    /** Continue the layout from the first staffs laid out for the first
+     *  measures, instead of laying out the whole song again.  The first
+     *  staffs (after RemoveLastStaffs) end at starttime, the start of a
+     *  measure.  Lay out the notes from starttime to the end of the song,
+     *  and append its staffs to the first staffs, storing them in result.
+     *
+     *  The staffs, symbols and beams after starttime do not depend on the
+     *  symbols before, except for the rests after the notes still playing
+     *  at starttime, and the accidentals the notes before starttime leave
+     *  in the key signature (see CreateLayout).  So the result is the same
+     *  as laying out the whole song at once.  Return the ScoreLayout of
+     *  the whole song, or null if the layout was cancelled.
+     */
+    private ScoreLayout ContinueLayout(ArrayList<MidiTrack> tracks, TimeSignature time,
+                                       KeySignature key, MidiOptions options, int lastStart,
+                                       StaffLayout first, ScoreLayout firstlayout,
+                                       int starttime, StaffLayout result) {
+        StaffLayout rest = new StaffLayout();
+        ScoreLayout restlayout = CreateLayout(tracks, time, key, options, starttime,
+                                              lastStart, Integer.MAX_VALUE, rest);
+        if (restlayout == null) {
+            return null;
+        }
+        int numtracks = first.numtracks;
+        int numstaffs = first.metrics.size() / numtracks;
+        ScoreLayout layout = firstlayout.Append(numstaffs, restlayout);
+
+        /* Keep the beams in the first staffs, and move the beams of the
+         * rest after them, in the same order as CreateAllBeamedChords().
          */
-        for (Staff staff : staffs) {
-            staff.CalculateHeight();
+        ListInt[][] trackbeams = new ListInt[numtracks][];
+        for (int track = 0; track < numtracks; track++) {
+            int numsymbols = firstlayout.getNumSymbols(track, numstaffs);
+            trackbeams[track] = new ListInt[first.beams[track].length];
+            for (int step = 0; step < trackbeams[track].length; step++) {
+                ListInt beams = new ListInt();
+                AddTrackBeams(first.beams[track][step], numsymbols, 0, beams);
+                AddTrackBeams(rest.beams[track][step], Integer.MAX_VALUE, numsymbols, beams);
+                trackbeams[track][step] = beams;
+            }
         }
-        zoom = 1.0f;
+        MergeBeams(trackbeams, layout.getBeams());
 
-        scrollAnimation = new ScrollAnimation(this, scrollVert);
+        ArrayList<ArrayList<LyricSymbol>> firstlyrics = firstlayout.getLyrics();
+        if (firstlyrics != null) {
+            ArrayList<ArrayList<LyricSymbol>> lyrics = new ArrayList<>(numtracks);
+            for (int track = 0; track < numtracks; track++) {
+                ArrayList<LyricSymbol> list = new ArrayList<>();
+                for (LyricSymbol lyric : firstlyrics.get(track)) {
+                    if (lyric.getStartTime() < starttime) {
+                        list.add(lyric);
+                    }
+                }
+                list.addAll(restlayout.getLyrics().get(track));
+                lyrics.add(list);
+            }
+            layout.setLyrics(lyrics);
+        }
+
+        result.mainkey = key;
+        result.numtracks = numtracks;
+        result.metrics = first.metrics.Append(rest.metrics);
+        result.beams = trackbeams;
+        return layout;
+    }
+
+    /** Return the notes starting from starttime and before endtime.
+     *  The notes are sorted by start time.
+     */
+    private static ArrayList<MidiNote> NotesBetween(ArrayList<MidiNote> notes,
+                                                    int starttime, int endtime) {
+        int first = CountNotesBefore(notes, starttime);
+        int count = notes.size();
+        while (count > first && notes.get(count-1).getStartTime() >= endtime) {
+            count--;
+        }
+        if (first == 0 && count == notes.size()) {
+            return notes;
+        }
+        return new ArrayList<>(notes.subList(first, count));
+    }
+
+    /** Return the number of notes starting before starttime.  The notes
+     *  are sorted by start time.
+     */
+    private static int CountNotesBefore(ArrayList<MidiNote> notes, int starttime) {
+        int count = 0;
+        while (count < notes.size() && notes.get(count).getStartTime() < starttime) {
+            count++;
+        }
+        return count;
+    }
+
+    /** Return the latest end time of the notes starting before starttime,
+     *  or 0 if there are none.
+     */
+    private static int EndTimeBefore(ArrayList<MidiNote> notes, int starttime) {
+        int result = 0;
+        for (int i = 0; i < notes.size() && notes.get(i).getStartTime() < starttime; i++) {
+            result = Math.max(result, notes.get(i).getEndTime());
+        }
+        return result;
+    }
+
+    /** Create the staffs from a layout saved by CreateLayout(), without
+     *  calculating the symbol widths, staff breaks, and beams again.
+     */
+    private void CreateFromLayout(final ScoreLayout layout, MidiOptions options, StaffLayout result) {
+        KeySignature mainkey = layout.getKey();
+        int numtracks = layout.getNumTracks();
+        result.mainkey = mainkey;
+        result.numtracks = numtracks;
+
+        /* Re-create the symbols of each track in parallel.  Each track
+         * uses its own copy of the key signature (see CreateLayout).
+         */
+        final ArrayList<ArrayList<MusicSymbol>> allsymbols = new ArrayList<>(numtracks);
+        ArrayList<Runnable> tasks = new ArrayList<>(numtracks);
+        for (int tracknum = 0; tracknum < numtracks; tracknum++) {
+            allsymbols.add(null);
+            final int track = tracknum;
+            tasks.add(() -> allsymbols.set(track, layout.CreateSymbols(track, layout.getTrackKey(track), this)));
+        }
+        RunParallel(tasks);
+
+        /* Measure the staffs at the saved breaks, re-creating the beams
+         * in the order they were created.
+         */
+        result.metrics = MeasureStaffs(allsymbols, mainkey, options, layout, () -> {
+            ListInt beams = layout.getBeams();
+            for (int i = 0; i < beams.size(); i = layout.NextBeam(i)) {
+                layout.CreateBeam(i, allsymbols.get(beams.get(i)), 0);
+            }
+        });
     }
 
     /** Calculate the size of the sheet music width and height
@@ -229,9 +961,9 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
     private void calculateSize() {
         sheetwidth = 0;
         sheetheight = 0;
-        for (Staff staff : staffs) {
-            sheetwidth = Math.max(sheetwidth, staff.getWidth());
-            sheetheight += (staff.getHeight());
+        for (int i = 0; i < staffs.size(); i++) {
+            sheetwidth = Math.max(sheetwidth, staffs.getWidth(i));
+            sheetheight += staffs.getHeight(i);
         }
         sheetwidth += 2;
         sheetheight += LeftMargin;
@@ -263,7 +995,7 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
 
 
     /** If this is the first size change, calculate the zoom level,
-     *  and create the bufferCanvas.  Otherwise, do nothing.
+     *  and create the tile cache.  Otherwise, do nothing.
      */
     @Override
     protected void 
@@ -272,10 +1004,23 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
     }
 
 
+    /** Calculate the zoom level again, after the space for the sheet
+     *  music has changed (the piano or player was shown or hidden).
+     *  Keep the tiles, and scale the tiles at the old zoom level to the
+     *  screen until the tiles at the new zoom level are drawn.
+     */
     public void ReCalculateZoom()
     {
-        bufferCanvas = null;
-        onSizeChangedAll(viewwidth, viewheight, 0,0);
+        if (tiles == null) {
+            onSizeChangedAll(viewwidth, viewheight, 0,0);
+            return;
+        }
+        float oldzoom = zoom;
+        CalculateZoom(viewwidth, viewheight);
+        if (zoom != oldzoom) {
+            ZoomChanged(oldzoom, 0, 0);
+        }
+        draw();
     }
 
 
@@ -284,14 +1029,29 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
         viewwidth = newwidth;
         viewheight = newheight;
 
-        if (bufferCanvas != null) {
+        if (tiles != null) {
             draw();
             return;
         }
 
         calculateSize();
+        CalculateZoom(newwidth, newheight);
+        UpdateStaffWindow();
+        if (tiles == null) {
+            CreateTileCache();
+        }
+
+        draw();
+    }
+
+    /** Calculate the zoom level.  When scrolling vertically, fit the
+     *  page width (PageWidth) to the view width, scaled by the zoom
+     *  chosen by pinching.  Otherwise, fit the sheet music height to
+     *  the screen, minus the piano and player.
+     */
+    private void CalculateZoom(int newwidth, int newheight) {
         if (scrollVert) {
-            zoom = (float)((newwidth - 2) * 1.0 / PageWidth);
+            zoom = (float)((newwidth - 2) * 1.0 / PageWidth) * pinchScale;
         }
         else {
             Point pianoSize = Piano.getPreferredSize(newwidth, newheight);
@@ -307,23 +1067,58 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
 
             zoom = (float) (screenheight - (pianoSize.y * pianoRatio) - (playerHeight * playerRatio)) / (float) sheetheight;
         }
-        if (bufferCanvas == null) {
-            createBufferCanvas();
+    }
+
+    /** The zoom level has changed from oldzoom.  Keep the point at
+     *  (focusX, focusY) in the view over the same place in the sheet
+     *  music.  Until the tiles at the new zoom level are drawn, the
+     *  tiles at the old zoom level are scaled to the screen (see DrawView).
+     *  If the tiles of an earlier zoom change are still scaled, keep
+     *  using those, since the tiles at oldzoom may not all be drawn.
+     */
+    private void ZoomChanged(float oldzoom, float focusX, float focusY) {
+        float scale = zoom / oldzoom;
+        scrollX = (int)((scrollX + focusX) * scale - focusX);
+        scrollY = (int)((scrollY + focusY) * scale - focusY);
+        checkScrollBounds();
+        if (previousZoom == 0) {
+            previousZoom = oldzoom;
         }
+        screenValid = false;
+    }
 
-        draw();
+    /** Set the window of staffs to keep in memory: the staffs within
+     *  StaffWindowScreens screens above and below the screen, which
+     *  includes the staffs drawn ahead of the shaded notes.  When
+     *  scrolling horizontally, every staff is on the screen.
+     */
+    private void UpdateStaffWindow() {
+        StaffList staffs;
+        StaffIndex staffindex;
+        synchronized (this) {
+            staffs = this.staffs;
+            staffindex = this.staffindex;
+        }
+        if (!scrollVert || zoom <= 0 || staffindex == null) {
+            staffs.setWindow(0, staffs.size());
+            return;
+        }
+        int margin = (int)(StaffWindowScreens * viewheight / zoom);
+        int top = (int)(scrollY / zoom) - margin;
+        int bottom = (int)((scrollY + viewheight) / zoom) + margin;
+        int start = staffindex.StaffAtY(Math.max(0, top));
+        int end = staffindex.StaffAtY(bottom);
+        if (start < 0) {
+            start = staffs.size();
+        }
+        end = (end < 0) ? staffs.size() : end + 1;
+        staffs.setWindow(start, end);
     }
 
 
     /** Get the best key signature given the midi notes in all the tracks. */
     private KeySignature GetKeySignature(ArrayList<MidiTrack> tracks) {
-        ListInt notenums = new ListInt();
-        for (MidiTrack track : tracks) {
-            for (MidiNote note : track.getNotes()) {
-                notenums.add(note.getNumber());
-            }
-        }
-        return KeySignature.Guess(notenums);
+        return KeySignature.Guess(tracks);
     }
 
 
@@ -373,33 +1168,36 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
 
     /** Given the chord symbols for a track, create a new symbol list
      * that contains the chord symbols, vertical bars, rests, and
-     * clef changes.
+     * clef changes.  The symbols start at starttime, the start of a
+     * measure, after the notes before it have played until prevtime.
      * Return a list of symbols (ChordSymbol, BarSymbol, RestSymbol, ClefSymbol)
      */
     private ArrayList<MusicSymbol> 
     CreateSymbols(ArrayList<ChordSymbol> chords, ClefMeasures clefs,
-                  TimeSignature time, int lastStart) {
+                  TimeSignature time, int starttime, int prevtime, int lastStart) {
 
         ArrayList<MusicSymbol> symbols = new ArrayList<MusicSymbol>();
-        symbols = AddBars(chords, time, lastStart);
-        symbols = AddRests(symbols, time);
-        symbols = AddClefChanges(symbols, clefs, time);
+        symbols = AddBars(chords, time, starttime, lastStart);
+        symbols = AddRests(symbols, time, prevtime);
+        symbols = AddClefChanges(symbols, clefs, time, starttime);
 
         return symbols;
     }
 
-    /** Add in the vertical bars delimiting measures. 
-     *  Also, add the time signature symbols.
+    /** Add in the vertical bars delimiting measures, from starttime.
+     *  Also, add the time signature symbols at the start of the song.
      */
     private ArrayList<MusicSymbol> 
-    AddBars(ArrayList<ChordSymbol> chords, TimeSignature time, int lastStart) {
+    AddBars(ArrayList<ChordSymbol> chords, TimeSignature time, int starttime, int lastStart) {
         ArrayList<MusicSymbol> symbols = new ArrayList<MusicSymbol>();
 
-        TimeSigSymbol timesig = new TimeSigSymbol(time.getNumerator(), time.getDenominator());
-        symbols.add(timesig);
+        if (starttime == 0) {
+            TimeSigSymbol timesig = new TimeSigSymbol(time.getNumerator(), time.getDenominator());
+            symbols.add(timesig);
+        }
 
         /* The starttime of the beginning of the measure */
-        int measuretime = 0;
+        int measuretime = starttime;
 
         int i = 0;
         while (i < chords.size()) {
@@ -424,12 +1222,12 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
         return symbols;
     }
 
-    /** Add rest symbols between notes.  All times below are 
-     * measured in pulses.
+    /** Add rest symbols between notes, starting after prevtime.
+     * All times below are measured in pulses.
      */
     private
-    ArrayList<MusicSymbol> AddRests(ArrayList<MusicSymbol> symbols, TimeSignature time) {
-        int prevtime = 0;
+    ArrayList<MusicSymbol> AddRests(ArrayList<MusicSymbol> symbols, TimeSignature time,
+                                    int prevtime) {
 
         ArrayList<MusicSymbol> result = new ArrayList<MusicSymbol>( symbols.size() );
 
@@ -506,15 +1304,16 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
      * measure. When it does, a Clef symbol must be shown to indicate the 
      * change in clef.  This function adds these Clef change symbols.
      * This function does not add the main Clef Symbol that begins each
-     * staff.  That is done in the Staff() contructor.
+     * staff.  That is done in the Staff() contructor.  A clef change
+     * at starttime is shown before starttime, so it is not added either.
      */
     private
     ArrayList<MusicSymbol> AddClefChanges(ArrayList<MusicSymbol> symbols,
                                      ClefMeasures clefs,
-                                     TimeSignature time) {
+                                     TimeSignature time, int starttime) {
 
         ArrayList<MusicSymbol> result = new ArrayList<>(symbols.size());
-        Clef prevclef = clefs.GetClef(0);
+        Clef prevclef = clefs.GetClef(starttime);
         for (MusicSymbol symbol : symbols) {
             /* A BarSymbol indicates a new measure */
             if (symbol instanceof BarSymbol) {
@@ -682,45 +1481,49 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
     }
 
 
-    /** Connect chords of the same duration with a horizontal beam.
+    /** Connect chords of the same duration in a track with a horizontal beam.
      *  numChords is the number of chords per beam (2, 3, 4, or 6).
      *  if startBeat is true, the first chord must start on a quarter note beat.
      */
     private static void
-    CreateBeamedChords(ArrayList<ArrayList<MusicSymbol>> allsymbols, TimeSignature time,
-                       int numChords, boolean startBeat) {
+    CreateBeamedChords(ArrayList<MusicSymbol> symbols, int track, TimeSignature time,
+                       int numChords, boolean startBeat, ListInt beams) {
         int[] chordIndexes = new int[numChords];
         ChordSymbol[] chords = new ChordSymbol[numChords];
 
-        for (ArrayList<MusicSymbol> symbols : allsymbols) {
-            int startIndex = 0;
-            while (true) {
-                BoxedInt horizDistance = new BoxedInt();
-                horizDistance.value = 0;
-                boolean found = FindConsecutiveChords(symbols, time,
-                                                   startIndex,
-                                                   chordIndexes,
-                                                   horizDistance);
-                if (!found) {
-                    break;
-                }
-                for (int i = 0; i < numChords; i++) {
-                    chords[i] = (ChordSymbol)symbols.get( chordIndexes[i] );
-                }
+        int startIndex = 0;
+        BoxedInt horizDistance = new BoxedInt();
+        while (true) {
+            horizDistance.value = 0;
+            boolean found = FindConsecutiveChords(symbols, time,
+                                               startIndex,
+                                               chordIndexes,
+                                               horizDistance);
+            if (!found) {
+                break;
+            }
+            for (int i = 0; i < numChords; i++) {
+                chords[i] = (ChordSymbol)symbols.get( chordIndexes[i] );
+            }
 
-                if (ChordSymbol.CanCreateBeam(chords, time, startBeat)) {
-                    ChordSymbol.CreateBeam(chords, horizDistance.value);
-                    startIndex = chordIndexes[numChords-1] + 1;
-                }
-                else {
-                    startIndex = chordIndexes[0] + 1;
+            if (ChordSymbol.CanCreateBeam(chords, time, startBeat)) {
+                ChordSymbol.CreateBeam(chords, horizDistance.value);
+                beams.add(track);
+                beams.add(numChords);
+                for (int index : chordIndexes) {
+                    beams.add(index);
                 }
-
-                /* What is the value of startIndex here?
-                 * If we created a beam, we start after the last chord.
-                 * If we failed to create a beam, we start after the first chord.
-                 */
+                beams.add(horizDistance.value);
+                startIndex = chordIndexes[numChords-1] + 1;
             }
+            else {
+                startIndex = chordIndexes[0] + 1;
+            }
+
+            /* What is the value of startIndex here?
+             * If we created a beam, we start after the last chord.
+             * If we failed to create a beam, we start after the first chord.
+             */
         }
     }
 
@@ -734,19 +1537,125 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
      *  - 4 connected chords that start on quarter note beats (4/4 or 2/4 time only)
      *  - 2 connected chords that start on quarter note beats
      *  - 2 connected chords that start on any beat
+     *
+     *  Return the beams created in each track by each step.  Each beam
+     *  is stored as: the track, the number of chords, the chord indexes,
+     *  and the horizontal distance (see MergeBeams).
+     *
+     *  The beams of each track are independent, so the tracks are done in
+     *  parallel.
      */
-    private static void
-    CreateAllBeamedChords(ArrayList<ArrayList<MusicSymbol>> allsymbols, TimeSignature time) {
+    private static ListInt[][]
+    CreateAllBeamedChords(final ArrayList<ArrayList<MusicSymbol>> allsymbols, final TimeSignature time) {
+        int numtracks = allsymbols.size();
+        final ListInt[][] trackbeams = new ListInt[numtracks][];
+        ArrayList<Runnable> tasks = new ArrayList<>(numtracks);
+        for (int tracknum = 0; tracknum < numtracks; tracknum++) {
+            final int track = tracknum;
+            tasks.add(() -> trackbeams[track] = CreateTrackBeamedChords(allsymbols.get(track), track, time));
+        }
+        RunParallel(tasks);
+        return trackbeams;
+    }
+
+    /** Add the beams created in each track by each step to beams, in the
+     *  same order as doing each step for all the tracks, one step at a time.
+     */
+    private static void MergeBeams(ListInt[][] trackbeams, ListInt beams) {
+        for (int step = 0; step < trackbeams[0].length; step++) {
+            for (ListInt[] steps : trackbeams) {
+                beams.addAll(steps[step]);
+            }
+        }
+    }
+
+    /** Add the beams of a track whose first chord index is below limit
+     *  to result, adding offset to their chord indexes.
+     */
+    private static void AddTrackBeams(ListInt beams, int limit, int offset, ListInt result) {
+        for (int i = 0; i < beams.size(); i += beams.get(i+1) + 3) {
+            int numChords = beams.get(i+1);
+            if (beams.get(i+2) >= limit) {
+                continue;
+            }
+            result.add(beams.get(i));
+            result.add(numChords);
+            for (int c = 0; c < numChords; c++) {
+                result.add(beams.get(i+2+c) + offset);
+            }
+            result.add(beams.get(i+2+numChords));
+        }
+    }
+
+    /** Connect the chords of a single track with horizontal beams, in
+     *  the order described in CreateAllBeamedChords().  Return the beams
+     *  created by each step.
+     */
+    private static ListInt[]
+    CreateTrackBeamedChords(ArrayList<MusicSymbol> symbols, int track, TimeSignature time) {
+        ListInt[] steps = new ListInt[5];
+        for (int step = 0; step < steps.length; step++) {
+            steps[step] = new ListInt();
+        }
         if ((time.getNumerator() == 3 && time.getDenominator() == 4) ||
             (time.getNumerator() == 6 && time.getDenominator() == 8) ||
             (time.getNumerator() == 6 && time.getDenominator() == 4) ) {
 
-            CreateBeamedChords(allsymbols, time, 6, true);
+            CreateBeamedChords(symbols, track, time, 6, true, steps[0]);
+        }
+        CreateBeamedChords(symbols, track, time, 3, true, steps[1]);
+        CreateBeamedChords(symbols, track, time, 4, true, steps[2]);
+        CreateBeamedChords(symbols, track, time, 2, true, steps[3]);
+        CreateBeamedChords(symbols, track, time, 2, false, steps[4]);
+        return steps;
+    }
+
+
+    /** Return the thread pool for laying out tracks and staffs in parallel */
+    private static synchronized ForkJoinPool getLayoutPool() {
+        if (layoutPool == null) {
+            int threads = Math.min(Runtime.getRuntime().availableProcessors(),
+                                   ParallelLayoutMaxThreads);
+            layoutPool = new ForkJoinPool(threads);
+        }
+        return layoutPool;
+    }
+
+    /** Run the given independent tasks on the layout thread pool, and
+     *  wait for all of them to finish.  With a single processor, or a
+     *  single task, run the tasks in order on the calling thread.
+     *  Since the tasks are independent, the result is the same either way.
+     */
+    private static void RunParallel(ArrayList<Runnable> tasks) {
+        if (tasks.size() < 2 || Runtime.getRuntime().availableProcessors() < 2) {
+            for (Runnable task : tasks) {
+                task.run();
+            }
+            return;
+        }
+        ArrayList<Callable<Object>> callables = new ArrayList<>(tasks.size());
+        for (Runnable task : tasks) {
+            callables.add(Executors.callable(task));
+        }
+        List<Future<Object>> results = getLayoutPool().invokeAll(callables);
+        for (Future<Object> result : results) {
+            try {
+                result.get();
+            }
+            catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
         }
-        CreateBeamedChords(allsymbols, time, 3, true);
-        CreateBeamedChords(allsymbols, time, 4, true);
-        CreateBeamedChords(allsymbols, time, 2, true);
-        CreateBeamedChords(allsymbols, time, 2, false);
     }
 
 
@@ -763,17 +1672,16 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
     }
 
 
-    /** Given MusicSymbols for a track, create the staffs for that track.
+    /** Given MusicSymbols for a track, find where to split them into staffs.
      *  Each Staff has a maxmimum width of PageWidth (800 pixels).
      *  Also, measures should not span multiple Staffs.
+     *  The number of symbols in each staff is added to breaks.
      */
-    private ArrayList<Staff> 
-    CreateStaffsForTrack(ArrayList<MusicSymbol> symbols, int measurelen, 
-                         KeySignature key, MidiOptions options,
-                         int track, int totaltracks) {
+    private void
+    FindStaffBreaks(ArrayList<MusicSymbol> symbols, int measurelen, 
+                    KeySignature key, ListInt breaks) {
         int keysigWidth = KeySignatureWidth(key);
         int startindex = 0;
-        ArrayList<Staff> thestaffs = new ArrayList<>(symbols.size() / 50);
 
         while (startindex < symbols.size()) {
             /* startindex is the index of the first symbol in the staff.
@@ -828,98 +1736,43 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
                 }
             }
 
-            if (scrollVert) {
-                width = SheetMusic.PageWidth;
-            }
-            // int range = endindex + 1 - startindex;
-            ArrayList<MusicSymbol> staffSymbols = new ArrayList<>();
-            for (int i = startindex; i <= endindex; i++) {
-                staffSymbols.add(symbols.get(i));
-            }
-            Staff staff = new Staff(staffSymbols, key, options, track, totaltracks);
-            thestaffs.add(staff);
+            breaks.add(endindex + 1 - startindex);
             startindex = endindex + 1;
         }
-        return thestaffs;
     }
 
-
-    /** Given all the MusicSymbols for every track, create the staffs
-     * for the sheet music.  There are two parts to this:
-     *
-     * - Get the list of staffs for each track.
-     *   The staffs will be stored in trackstaffs as:
-     *
-     *   trackstaffs[0] = { Staff0, Staff1, Staff2, ... } for track 0
-     *   trackstaffs[1] = { Staff0, Staff1, Staff2, ... } for track 1
-     *   trackstaffs[2] = { Staff0, Staff1, Staff2, ... } for track 2
-     *
-     * - Store the Staffs in the staffs list, but interleave the
-     *   tracks as follows:
-     *
-     *   staffs = { Staff0 for track 0, Staff0 for track1, Staff0 for track2,
-     *              Staff1 for track 0, Staff1 for track1, Staff1 for track2,
-     *              Staff2 for track 0, Staff2 for track1, Staff2 for track2,
-     *              ... } 
+    /** Change the note colors for the sheet music, and redraw.
+     *  The colors only change how the staffs are painted (see
+     *  LayoutStages), so the staffs are not created again.
      */
-    private ArrayList<Staff> 
-    CreateStaffs(ArrayList<ArrayList<MusicSymbol>> allsymbols, KeySignature key, 
-                 MidiOptions options, int measurelen) {
-
-        ArrayList<ArrayList<Staff>> trackstaffs = new ArrayList<>(allsymbols.size());
-        int totaltracks = allsymbols.size();
-
-        for (int track = 0; track < totaltracks; track++) {
-            ArrayList<MusicSymbol> symbols = allsymbols.get( track );
-            trackstaffs.add(CreateStaffsForTrack(symbols, measurelen, key, 
-                                                 options, track, totaltracks));
-        }
-
-        /* Update the EndTime of each Staff. EndTime is used for playback */
-        for (ArrayList<Staff> list : trackstaffs) {
-            for (int i = 0; i < list.size()-1; i++) {
-                list.get(i).setEndTime( list.get(i+1).getStartTime() );
-            }
-        }
-
-        /* Interleave the staffs of each track into the result array. */
-        int maxstaffs = 0;
-        for (int i = 0; i < trackstaffs.size(); i++) {
-            if (maxstaffs < trackstaffs.get(i).size()) {
-                maxstaffs = trackstaffs.get(i).size();
-            }
-        }
-        ArrayList<Staff> result = new ArrayList<>(maxstaffs * trackstaffs.size());
-        for (int i = 0; i < maxstaffs; i++) {
-            for (ArrayList<Staff> list : trackstaffs) {
-                if (i < list.size()) {
-                    result.add(list.get(i));
-                }
-            }
-        }
-        return result;
-    }
-
-
-    /** Change the note colors for the sheet music, and redraw. */
     public void SetColors(int[] newcolors, boolean shouldUseColors, boolean shouldColorAccidentals, int newshade1, int newshade2) {
         useColors = shouldUseColors;
-        if (NoteColors == null) {
-            NoteColors = new int[12];
-            for (int i = 0; i < 12; i++) {
+        int[] colors = new int[12];
+        for (int i = 0; i < 12; i++) {
 
-                if (shouldColorAccidentals && NoteScale.IsBlackKey(i))
-                    NoteColors[i] = Color.RED;
-                else
-                    NoteColors[i] = Color.BLACK;
+            if (shouldColorAccidentals && NoteScale.IsBlackKey(i))
+                colors[i] = Color.RED;
+            else
+                colors[i] = Color.BLACK;
 
-            }
         }
         if (shouldUseColors && newcolors != null) {
-            System.arraycopy(newcolors, 0, NoteColors, 0, newcolors.length);
+            System.arraycopy(newcolors, 0, colors, 0, newcolors.length);
         }
+        NoteColors = colors;
         shade1 = newshade1;
         shade2 = newshade2;
+        synchronized (this) {
+            atlases = null;
+        }
+        if (staffs != null) {
+            staffs.ClearPictures();
+        }
+        if (tiles != null) {
+            tiles.Clear();
+            previousZoom = 0;
+            screenValid = false;
+        }
     }
 
     public static int getTextColor() {
@@ -956,9 +1809,10 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
                 continue;
             }
             hasLyrics = true;
-            for (MidiEvent ev : track.getLyrics()) {
-                String text = new String(ev.Value, 0, ev.Value.length, StandardCharsets.UTF_8);
-                LyricSymbol sym = new LyricSymbol(ev.StartTime, text);
+            MidiEventTable.Cursor ev = track.getLyrics().cursor();
+            while (ev.Next()) {
+                String text = StandardCharsets.UTF_8.decode(ev.getValue()).toString();
+                LyricSymbol sym = new LyricSymbol(ev.getStartTime(), text);
                 lyrics.add(sym);
             }
         }
@@ -970,48 +1824,45 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
         }
     }
 
-    /** Add the lyric symbols to the corresponding staffs */
-    static void
-    AddLyricsToStaffs(ArrayList<Staff> staffs, ArrayList<ArrayList<LyricSymbol>> tracklyrics) {
-        for (Staff staff : staffs) {
-            ArrayList<LyricSymbol> lyrics = tracklyrics.get(staff.getTrack());
-            staff.AddLyrics(lyrics);
+    /** Return new copies of the lyric symbols (which can be null).  The
+     *  lyrics of a previous layout are copied, since Staff.AddLyrics()
+     *  changes their x position.
+     */
+    private static ArrayList<ArrayList<LyricSymbol>>
+    CopyLyrics(ArrayList<ArrayList<LyricSymbol>> tracklyrics) {
+        if (tracklyrics == null) {
+            return null;
         }
+        ArrayList<ArrayList<LyricSymbol>> result = new ArrayList<>(tracklyrics.size());
+        for (ArrayList<LyricSymbol> lyrics : tracklyrics) {
+            ArrayList<LyricSymbol> copy = new ArrayList<>(lyrics.size());
+            for (LyricSymbol lyric : lyrics) {
+                copy.add(new LyricSymbol(lyric.getStartTime(), lyric.getText()));
+            }
+            result.add(copy);
+        }
+        return result;
     }
 
-
-
-    /** Create a bitmap/canvas to use for double-buffered drawing.
-     *  This is needed for shading the notes quickly.
-     *  Instead of redrawing the entire sheet music on every shade call,
-     *  we draw the sheet music to this bitmap canvas.  On subsequent
-     *  calls to ShadeNotes(), we only need to draw the delta (the
-     *  new notes to shade/unshade) onto the bitmap, and then draw the bitmap.
+    /** Create the cache of sheet music tiles.  Instead of redrawing the
+     *  entire sheet music on every scroll or shade call, we draw the sheet
+     *  music into bitmap tiles once, and copy the tiles to the screen.
      *
-     *  We include the MidiPlayer height (since we hide the MidiPlayer
-     *  once the music starts playing). Also, we make the bitmap twice as
-     *  large as the scroll viewable area, so that we don't need to
-     *  refresh the bufferCanvas on every scroll change.
+     *  The memory budget for the tiles is an eighth of the maximum heap
+     *  size, but at least enough for three screens of tiles.  We include
+     *  the MidiPlayer height, since we hide the MidiPlayer once the music
+     *  starts playing.
      */
-    void createBufferCanvas() {
-        if (bufferBitmap != null) {
-            bufferCanvas = null;
-            bufferBitmap.recycle();
-            bufferBitmap = null;
-        }
-        if (scrollVert) {
-            bufferBitmap = Bitmap.createBitmap(viewwidth, 
-                                               (viewheight + playerHeight) * 2, 
-                                               Bitmap.Config.ARGB_8888);
-        }
-        else {
-            bufferBitmap = Bitmap.createBitmap(viewwidth * 2, 
-                                               (viewheight + playerHeight) * 2, 
-                                               Bitmap.Config.ARGB_8888);
-        }
-
-        bufferCanvas = new Canvas(bufferBitmap);
-        drawToBuffer(scrollX, scrollY);
+    void CreateTileCache() {
+        if (tiles != null) {
+            tiles.Stop();
+        }
+        long screen = 4L * (viewwidth + 2 * TileCache.TileSize) *
+                      (viewheight + playerHeight + 2 * TileCache.TileSize);
+        long budget = Math.max(Runtime.getRuntime().maxMemory() / 8, screen * 3);
+        tiles = new TileCache(this, paint, budget);
+        previousZoom = 0;
+        screenValid = false;
     }
 
 
@@ -1031,86 +1882,272 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
         }).start();
     }
 
-    /** Draw the SheetMusic. */
+    /** Draw the SheetMusic.  Also ask the tile cache to draw the tiles
+     *  around the screen, in case the sheet music is scrolled further.
+     */
     void doDraw(Canvas canvas) {
-        if (bufferBitmap == null) {
-            createBufferCanvas();
+        if (tiles == null) {
+            CreateTileCache();
+        }
+        DrawView(canvas, new Rect(0, 0, viewwidth, viewheight));
+        screenX = scrollX;
+        screenY = scrollY;
+        screenValid = true;
+
+        /* Don't draw tiles for every zoom level passed while pinching */
+        if (pinching) {
+            return;
         }
-        if (!isScrollPositionInBuffer()) {
-            drawToBuffer(scrollX, scrollY);
+        Rect around;
+        if (previousZoom > 0) {
+            /* Draw the tiles on the screen first, at the new zoom level */
+            around = new Rect(scrollX, scrollY, scrollX + viewwidth, scrollY + viewheight);
         }
+        else if (scrollVert) {
+            around = new Rect(scrollX, scrollY - viewheight/2,
+                              scrollX + viewwidth, scrollY + viewheight*3/2);
+        }
+        else {
+            around = new Rect(scrollX - viewwidth/2, scrollY,
+                              scrollX + viewwidth*3/2, scrollY + viewheight);
+        }
+        tiles.Prefetch(zoom, around, !scrollVert);
+    }
 
-        // We want (scrollX - bufferX, scrollY - bufferY) 
-        // to be (0,0) on the canvas 
-        canvas.translate(-(scrollX - bufferX), -(scrollY - bufferY));
-        canvas.drawBitmap(bufferBitmap, 0, 0, paint);
-        canvas.translate(scrollX - bufferX, scrollY - bufferY);
+    /** Draw the given area of the view (in view pixels) to the canvas.
+     *  Copy the sheet music tiles in that area, drawing any tiles that
+     *  are not ready yet.  Then draw the shaded notes on top.
+     *
+     *  After the zoom level has changed, scale the tiles at the old zoom
+     *  level instead, until the tiles at the new zoom level are drawn.
+     *
+     *  The tile cache doesn't re-use the bitmap of a tile removed while
+     *  it is being copied here (see TileCache.BeginDraw).
+     */
+    private void DrawView(Canvas canvas, Rect area) {
+        TileCache cache = tiles;
+        cache.BeginDraw();
+        try {
+            DrawTiles(canvas, area);
+        }
+        finally {
+            cache.EndDraw();
+        }
     }
-    
-    /** Return true if the scrollX/scrollY is in the bufferBitmap */
-    private boolean isScrollPositionInBuffer() {
-        if ((scrollY < bufferY) ||
-            (scrollX < bufferX) ||
-            (scrollY > bufferY + bufferBitmap.getHeight()/3) ||
-            (scrollX > bufferX + bufferBitmap.getWidth()/3) ) {
 
-            return false;
+    /** Draw the given area of the view, for DrawView() */
+    private void DrawTiles(Canvas canvas, Rect area) {
+        float oldzoom = previousZoom;
+        if (oldzoom > 0) {
+            if (DrawScaledTiles(canvas, area, oldzoom) && !pinching) {
+                previousZoom = 0;
+            }
+            DrawShadedNotes(canvas);
+            return;
         }
-        else {
-            return true;
+        int tilesize = TileCache.TileSize;
+        int left = Math.max(0, (scrollX + area.left) / tilesize);
+        int top = Math.max(0, (scrollY + area.top) / tilesize);
+        int right = (scrollX + area.right - 1) / tilesize;
+        int bottom = (scrollY + area.bottom - 1) / tilesize;
+
+        paint.setStyle(Paint.Style.FILL);
+        paint.setColor(Color.WHITE);
+        if (scrollX + area.left < 0 || scrollY + area.top < 0) {
+            canvas.drawRect(area, paint);
+        }
+        for (int ty = top; ty <= bottom; ty++) {
+            for (int tx = left; tx <= right; tx++) {
+                int x = tx * tilesize - scrollX;
+                int y = ty * tilesize - scrollY;
+                Bitmap tile = tiles.GetTile(zoom, tx, ty);
+                if (tile != null) {
+                    canvas.drawBitmap(tile, x, y, paint);
+                }
+                else {
+                    canvas.drawRect(x, y, x + tilesize, y + tilesize, paint);
+                }
+            }
         }
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setColor(Color.BLACK);
+        DrawShadedNotes(canvas);
     }
-    
-    /** Draw the SheetMusic to the bufferCanvas, with the
-     * given (left,top) corner.
-     *  
-     * Scale the graphics by the current zoom factor.
-     * Only draw Staffs which lie inside the buffer area.
+
+    /** Draw the given area of the view, after the zoom level changed,
+     *  by scaling the tiles at the old zoom level to the screen.  Then
+     *  copy the tiles at the new zoom level that are ready on top.  Don't
+     *  draw any tiles now: the worker thread draws the tiles at the new
+     *  zoom level, and the view is drawn again when they are done (see
+     *  TilesDrawn).  Return true if all the tiles at the new zoom level
+     *  were ready.
      */
-    private void drawToBuffer(int left, int top) {
-        if (staffs == null) {
+    private boolean DrawScaledTiles(Canvas canvas, Rect area, float oldzoom) {
+        int tilesize = TileCache.TileSize;
+        float scale = zoom / oldzoom;
+        paint.setStyle(Paint.Style.FILL);
+        paint.setColor(Color.WHITE);
+        canvas.drawRect(area, paint);
+
+        int left = Math.max(0, (int)((scrollX + area.left) / scale) / tilesize);
+        int top = Math.max(0, (int)((scrollY + area.top) / scale) / tilesize);
+        int right = (int)((scrollX + area.right - 1) / scale) / tilesize;
+        int bottom = (int)((scrollY + area.bottom - 1) / scale) / tilesize;
+        canvas.save();
+        canvas.clipRect(area);
+        canvas.translate(-scrollX, -scrollY);
+        canvas.scale(scale, scale);
+        for (int ty = top; ty <= bottom; ty++) {
+            for (int tx = left; tx <= right; tx++) {
+                Bitmap tile = tiles.PeekTile(oldzoom, tx, ty);
+                if (tile != null) {
+                    canvas.drawBitmap(tile, tx * tilesize, ty * tilesize, scalePaint);
+                }
+            }
+        }
+        canvas.restore();
+
+        boolean complete = true;
+        left = Math.max(0, (scrollX + area.left) / tilesize);
+        top = Math.max(0, (scrollY + area.top) / tilesize);
+        right = (scrollX + area.right - 1) / tilesize;
+        bottom = (scrollY + area.bottom - 1) / tilesize;
+        for (int ty = top; ty <= bottom; ty++) {
+            for (int tx = left; tx <= right; tx++) {
+                Bitmap tile = tiles.PeekTile(zoom, tx, ty);
+                if (tile != null) {
+                    canvas.drawBitmap(tile, tx * tilesize - scrollX, ty * tilesize - scrollY, paint);
+                }
+                else {
+                    complete = false;
+                }
+            }
+        }
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setColor(Color.BLACK);
+        return complete;
+    }
+
+    /** Draw the shaded notes, scaled by the zoom factor.
+     *  This may run on a draw() thread while the layout is shown,
+     *  so use the staffs and index from the same layout.
+     */
+    private void DrawShadedNotes(Canvas canvas) {
+        if (shadedPulseTime < 0) {
             return;
         }
+        StaffList staffs;
+        StaffIndex staffindex;
+        synchronized (this) {
+            staffs = this.staffs;
+            staffindex = this.staffindex;
+        }
+        canvas.translate(-scrollX, -scrollY);
+        canvas.scale(zoom, zoom);
+        paint.setAntiAlias(true);
+        ListInt shadestaffs = staffindex.StaffsAtTimes(shadedPulseTime, shadedPulseTime);
+        for (int i = 0; i < shadestaffs.size(); i++) {
+            int staffnum = shadestaffs.get(i);
+            int ypos = staffindex.getY(staffnum);
+            canvas.translate(0, ypos);
+            staffs.get(staffnum).DrawShade(canvas, paint, shade1, shadedPulseTime, GetAtlas(zoom));
+            canvas.translate(0, -ypos);
+        }
+        canvas.scale(1.0f/zoom, 1.0f/zoom);
+        canvas.translate(scrollX, scrollY);
+    }
 
-        bufferX =left;
-        bufferY = top;
-        
-        bufferCanvas.translate(-bufferX, -bufferY);
-        Rect clip = new Rect(bufferX, bufferY,
-                             bufferX + bufferBitmap.getWidth(), 
-                             bufferY + bufferBitmap.getHeight());
+    /** Called by the tile cache when the requested tiles are drawn.
+     *  If the tiles at the old zoom level are still scaled to the screen,
+     *  draw the view again with the tiles at the new zoom level.
+     */
+    public void TilesDrawn() {
+        if (previousZoom > 0 && !pinching) {
+            draw();
+        }
+    }
+
+    /** Return the glyphs to draw at the given zoom level, drawn at the
+     *  atlas zoom level for it (see GlyphAtlas.AtlasZoom).  Keep the
+     *  atlases of the last MaxAtlases atlas zoom levels, so the tiles
+     *  drawn at the old and new zoom levels while zooming share them.
+     *  Create new atlases after the colors change.  This is called on
+     *  several threads.
+     */
+    private synchronized GlyphAtlas GetAtlas(float zoom) {
+        if (atlases == null) {
+            atlases = new LinkedHashMap<>(4, 0.75f, true);
+        }
+        float atlaszoom = GlyphAtlas.AtlasZoom(zoom);
+        GlyphAtlas atlas = atlases.get(atlaszoom);
+        if (atlas == null) {
+            atlas = new GlyphAtlas(atlaszoom, paint);
+            atlases.put(atlaszoom, atlas);
+            Iterator<GlyphAtlas> it = atlases.values().iterator();
+            while (atlases.size() > MaxAtlases) {
+                it.next();
+                it.remove();
+            }
+        }
+        return atlas;
+    }
+
+    /** Draw the sheet music into a tile of the TileCache, with the
+     *  given bounds (in zoomed pixels) at (0,0) on the canvas.
+     *
+     *  Scale the graphics by the zoom factor.
+     *  Only draw Staffs which lie inside the tile.  The staffs are
+     *  played back from their recorded drawing (see Staff.DrawRecorded),
+     *  which copies the glyphs of the atlas for the zoom level.
+     *
+     *  This runs on the tile threads while the layout is shown, so use
+     *  the staffs and index from the same layout (see DrawShadedNotes).
+     */
+    public void DrawTile(Canvas canvas, Paint paint, Rect bounds, float zoom) {
+        StaffList staffs;
+        StaffIndex staffindex;
+        synchronized (this) {
+            staffs = this.staffs;
+            staffindex = this.staffindex;
+        }
+        if (staffs == null) {
+            return;
+        }
+        GlyphAtlas atlas = GetAtlas(zoom);
+        canvas.translate(-bounds.left, -bounds.top);
 
         // Scale both the canvas and the clip by the zoom factor
-        clip.left   = (int)(clip.left   / zoom);
-        clip.top    = (int)(clip.top    / zoom);
-        clip.right  = (int)(clip.right  / zoom);
-        clip.bottom = (int)(clip.bottom / zoom);
-        bufferCanvas.scale(zoom, zoom);
+        Rect clip = new Rect((int)Math.floor(bounds.left / zoom),
+                             (int)Math.floor(bounds.top / zoom),
+                             (int)Math.ceil(bounds.right / zoom),
+                             (int)Math.ceil(bounds.bottom / zoom));
+        canvas.scale(zoom, zoom);
 
         // Draw a white background
         paint.setAntiAlias(true);
         paint.setStyle(Paint.Style.FILL);
         paint.setColor(Color.WHITE);
-        bufferCanvas.drawRect(clip.left, clip.top, clip.right, clip.bottom, paint);
+        canvas.drawRect(clip.left, clip.top, clip.right, clip.bottom, paint);
         paint.setStyle(Paint.Style.STROKE);
         paint.setColor(Color.BLACK);
 
-        // Draw the staffs in the clip area
-        int ypos = 0;
-        for (Staff staff : staffs) {
-            if ((ypos + staff.getHeight() < clip.top) || (ypos > clip.bottom))  {
-                /* Staff is not in the clip, don't need to draw it */
-            }
-            else {
-                bufferCanvas.translate(0, ypos);
-                staff.Draw(bufferCanvas, clip, paint);
-                bufferCanvas.translate(0, -ypos);
+        // Draw the staffs in the clip area, starting from the first
+        // staff below the top of the clip.
+        int staffnum = (clip.top <= 0) ? 0 : staffindex.StaffAtY(clip.top);
+        if (staffnum == -1) {
+            staffnum = staffs.size();
+        }
+        for (; staffnum < staffs.size(); staffnum++) {
+            int ypos = staffindex.getY(staffnum);
+            if (ypos > clip.bottom) {
+                break;
             }
-
-            ypos += staff.getHeight();
+            canvas.translate(0, ypos);
+            staffs.get(staffnum).DrawRecorded(canvas, clip, paint, atlas);
+            canvas.translate(0, -ypos);
         }
-        bufferCanvas.scale(1.0f/zoom, 1.0f/zoom);
-        bufferCanvas.translate(bufferX, bufferY);
+        canvas.scale(1.0f/zoom, 1.0f/zoom);
+        canvas.translate(bounds.left, bounds.top);
     }
 
 
@@ -1137,7 +2174,7 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
 
         if (numtracks == 2 && (staffs.size() % 2) == 0) {
             for (int i = 0; i < staffs.size(); i += 2) {
-                int heights = staffs.get(i).getHeight() + staffs.get(i+1).getHeight();
+                int heights = staffs.getHeight(i) + staffs.getHeight(i+1);
                 if (currheight + heights > PageHeight) {
                     num++;
                     currheight = heights;
@@ -1148,13 +2185,13 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
             }
         }
         else {
-            for (Staff staff : staffs) {
-                if (currheight + staff.getHeight() > PageHeight) {
+            for (int i = 0; i < staffs.size(); i++) {
+                if (currheight + staffs.getHeight(i) > PageHeight) {
                     num++;
-                    currheight = staff.getHeight();
+                    currheight = staffs.getHeight(i);
                 }
                 else {
-                    currheight += staff.getHeight();
+                    currheight += staffs.getHeight(i);
                 }
             }
         }
@@ -1191,8 +2228,8 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
         if (numtracks == 2 && (staffs.size() % 2) == 0) {
             /* Skip the staffs until we reach the given page number */
             while (staffnum + 1 < staffs.size() && pagenum < pagenumber) {
-                int heights = staffs.get(staffnum).getHeight() +
-                              staffs.get(staffnum+1).getHeight();
+                int heights = staffs.getHeight(staffnum) +
+                              staffs.getHeight(staffnum+1);
                 if (ypos + heights >= PageHeight) {
                     pagenum++;
                     ypos = 0;
@@ -1211,8 +2248,8 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
                 ypos = 0;
             }
             for (; staffnum + 1 < staffs.size(); staffnum += 2) {
-                int heights = staffs.get(staffnum).getHeight() +
-                              staffs.get(staffnum+1).getHeight();
+                int heights = staffs.getHeight(staffnum) +
+                              staffs.getHeight(staffnum+1);
 
                 if (ypos + heights >= PageHeight)
                     break;
@@ -1220,23 +2257,23 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
                 canvas.translate(leftmargin, topmargin + ypos);
                 staffs.get(staffnum).Draw(canvas, clip, paint);
                 canvas.translate(-leftmargin, -(topmargin + ypos));
-                ypos += staffs.get(staffnum).getHeight();
+                ypos += staffs.getHeight(staffnum);
                 canvas.translate(leftmargin, topmargin + ypos);
                 staffs.get(staffnum + 1).Draw(canvas, clip, paint);
                 canvas.translate(-leftmargin, -(topmargin + ypos));
-                ypos += staffs.get(staffnum + 1).getHeight();
+                ypos += staffs.getHeight(staffnum + 1);
             }
         }
 
         else {
             /* Skip the staffs until we reach the given page number */
             while (staffnum < staffs.size() && pagenum < pagenumber) {
-                if (ypos + staffs.get(staffnum).getHeight() >= PageHeight) {
+                if (ypos + staffs.getHeight(staffnum) >= PageHeight) {
                     pagenum++;
                     ypos = 0;
                 }
                 else {
-                    ypos += staffs.get(staffnum).getHeight();
+                    ypos += staffs.getHeight(staffnum);
                     staffnum++;
                 }
             }
@@ -1250,13 +2287,13 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
                 ypos = 0;
             }
             for (; staffnum < staffs.size(); staffnum++) {
-                if (ypos + staffs.get(staffnum).getHeight() >= PageHeight)
+                if (ypos + staffs.getHeight(staffnum) >= PageHeight)
                     break;
 
                 canvas.translate(leftmargin, topmargin + ypos);
                 staffs.get(staffnum).Draw(canvas, clip, paint);
                 canvas.translate(-leftmargin, -(topmargin + ypos));
-                ypos += staffs.get(staffnum).getHeight();
+                ypos += staffs.getHeight(staffnum);
             }
         }
 
@@ -1270,51 +2307,59 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
 
 
     /** Shade all the chords played at the given pulse time.
-     *  First, make sure the current scroll position is in the bufferBitmap.
-     *  Loop through all the staffs and call staff.Shade().
+     *  Find the staffs containing the current and previous pulse times,
+     *  and the area of the notes to shade and un-shade in them.
      *  If scrollGradually is true, scroll gradually (smooth scrolling)
      *  to the shaded notes.
+     *
+     *  The notes are shaded by drawing on top of the sheet music tiles,
+     *  and un-shaded by copying the tiles again.  The tiles ahead of the
+     *  shaded notes are drawn in the background, so they are ready when
+     *  the sheet music scrolls there.
      */
     public void ShadeNotes(int currentPulseTime, int prevPulseTime, int scrollType) {
         if (!surfaceReady || staffs == null) {
             return;
         }
-        if (bufferCanvas == null) {
-            createBufferCanvas();
+        if (tiles == null) {
+            CreateTileCache();
         }
 
-        /* If the scroll position is not in the bufferCanvas,
-         * we need to redraw the sheet music into the bufferCanvas
+        /* Loop through the staffs containing the current or previous
+         * pulse time.  Each staff will find any notes that start at
+         * currentPulseTime, and notes at prevPulseTime.  The other staffs
+         * have nothing to shade or unshade.
+         *
+         * Collect the area to redraw in each staff in shadeDirty,
+         * in zoomed sheet music coordinates.
          */
-        if (!isScrollPositionInBuffer()) {
-            drawToBuffer(scrollX, scrollY);
+        if (shadeDirty == null) {
+            shadeDirty = new Rect();
+            staffDirty = new Rect();
         }
-
-        /* We're going to draw the shaded notes into the bufferCanvas.
-         * Translate, so that (bufferX, bufferY) maps to (0,0) on the canvas
-         */
-        bufferCanvas.translate(-bufferX, -bufferY);
-
-        /* Loop through each staff.  Each staff will shade any notes that 
-         * start at currentPulseTime, and unshade notes at prevPulseTime.
-         */
+        shadeDirty.setEmpty();
         int x_shade = 0;
-        int y_shade = 0;
-        paint.setAntiAlias(true);
-        bufferCanvas.scale(zoom, zoom);
-        int ypos = 0;
-        for (Staff staff : staffs) {
-            bufferCanvas.translate(0, ypos);
-            x_shade = staff.ShadeNotes(bufferCanvas, paint, shade1, 
-                            currentPulseTime, prevPulseTime, x_shade);
-            bufferCanvas.translate(0, -ypos);
-            ypos += staff.getHeight();
-            if (currentPulseTime >= staff.getEndTime()) {
-                y_shade += staff.getHeight();
+        ListInt shadestaffs = staffindex.StaffsAtTimes(currentPulseTime, prevPulseTime);
+        for (int i = 0; i < shadestaffs.size(); i++) {
+            int staffnum = shadestaffs.get(i);
+            staffDirty.setEmpty();
+            x_shade = staffs.get(staffnum).ShadeNotes(currentPulseTime, prevPulseTime,
+                                                      x_shade, staffDirty);
+            AddShadeDirty(staffnum);
+        }
+
+        /* The notes shown as shaded may not be the ones at prevPulseTime */
+        if (shadedPulseTime != prevPulseTime) {
+            shadestaffs = staffindex.StaffsAtTimes(shadedPulseTime, shadedPulseTime);
+            for (int i = 0; i < shadestaffs.size(); i++) {
+                int staffnum = shadestaffs.get(i);
+                staffDirty.setEmpty();
+                staffs.get(staffnum).ShadeNotes(currentPulseTime, shadedPulseTime, 0, staffDirty);
+                AddShadeDirty(staffnum);
             }
         }
-        bufferCanvas.scale(1.0f/zoom, 1.0f/zoom);
-        bufferCanvas.translate(bufferX, bufferY);
+        shadedPulseTime = currentPulseTime;
+        int y_shade = staffindex.HeightEndingBy(currentPulseTime);
 
         /* We have the (x,y) position of the shaded notes.
          * Calculate the new scroll position.
@@ -1331,29 +2376,71 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
             }
             else if (scrollType == DontScroll) {
             }
+            PrefetchTiles(x_shade, y_shade);
         }
 
-        /* If the new scrollX, scrollY is not in the buffer,
-         * we have to call this method again.
-         */
-        if (scrollX < bufferX || scrollY < bufferY) {
-            ShadeNotes(currentPulseTime, prevPulseTime, scrollType);
-            return;
-        }
-
-        /* Draw the buffer canvas to the real canvas.        
-         * Translate canvas such that (scrollX,scrollY) within the 
-         * bufferCanvas maps to (0,0) on the real canvas.
+        /* Draw the sheet music to the surface.
+         *
+         * If the surface already shows the sheet music at this scroll
+         * position, only the area changed by the shading needs to be drawn.
+         * The surface keeps the pixels outside the dirty rectangle.
          */
         SurfaceHolder holder = getHolder();
-        Canvas canvas = holder.lockCanvas();
+        Canvas canvas;
+        Rect area;
+        if (screenValid && screenX == scrollX && screenY == scrollY) {
+            if (shadeDirty.isEmpty()) {
+                return;
+            }
+            shadeDirty.offset(-scrollX, -scrollY);
+            area = shadeDirty;
+            canvas = holder.lockCanvas(shadeDirty);
+        }
+        else {
+            area = new Rect(0, 0, viewwidth, viewheight);
+            canvas = holder.lockCanvas();
+        }
         if (canvas == null) {
             return;
         }
-        canvas.translate(-(scrollX - bufferX), -(scrollY - bufferY));
-        canvas.drawBitmap(bufferBitmap, 0, 0, paint);
-        canvas.translate(scrollX - bufferX, scrollY - bufferY);
+        DrawView(canvas, area);
         holder.unlockCanvasAndPost(canvas);
+        screenX = scrollX;
+        screenY = scrollY;
+        screenValid = true;
+    }
+
+    /** Add the staffDirty area of the given staff to shadeDirty,
+     *  converting it to zoomed sheet music coordinates.
+     */
+    private void AddShadeDirty(int staffnum) {
+        if (staffDirty.isEmpty()) {
+            return;
+        }
+        int ypos = staffindex.getY(staffnum);
+        shadeDirty.union((int)Math.floor(staffDirty.left * zoom) - 1,
+                         (int)Math.floor((staffDirty.top + ypos) * zoom) - 1,
+                         (int)Math.ceil(staffDirty.right * zoom) + 1,
+                         (int)Math.ceil((staffDirty.bottom + ypos) * zoom) + 1);
+    }
+
+    /** Ask the tile cache to draw the tiles that will be shown next,
+     *  given the position (in zoomed pixels) of the shaded notes.
+     *  When scrolling vertically, these are the staffs from the shaded
+     *  notes down to two screens below.  When scrolling horizontally,
+     *  the shaded notes are kept at 40% of the screen width, so these
+     *  are the measures up to two screens to the right.
+     */
+    private void PrefetchTiles(int x_shade, int y_shade) {
+        Rect ahead;
+        if (scrollVert) {
+            ahead = new Rect(scrollX, y_shade, scrollX + viewwidth, y_shade + viewheight*2);
+        }
+        else {
+            int left = x_shade - viewwidth * 40/100;
+            ahead = new Rect(left, scrollY, left + viewwidth*2, scrollY + viewheight);
+        }
+        tiles.Prefetch(zoom, ahead, !scrollVert);
     }
 
     /** Scroll the sheet music so that the shaded notes are visible.
@@ -1361,6 +2448,9 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
       * to the shaded notes. Update the scrollX/scrollY fields.
       */
     void ScrollToShadedNotes(int x_shade, int y_shade, boolean scrollGradually) {
+        int prevScrollX = scrollX;
+        int prevScrollY = scrollY;
+        boolean partial = false;
         if (scrollVert) {
             int scrollDist = y_shade - scrollY;
 
@@ -1369,6 +2459,7 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
                     scrollDist = scrollDist/2;
                 else if (scrollDist > (NoteHeight * 4 * zoom))
                     scrollDist = (int)(NoteHeight * 4 * zoom);
+                partial = (scrollDist != y_shade - scrollY);
             }
             scrollY += scrollDist;
         }
@@ -1383,11 +2474,29 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
                     scrollDist = (x_shade - x_view)/3;
                 else if (x_shade > x_view)
                     scrollDist = (x_shade - x_view)/6;
+                partial = (scrollDist != x_shade - x_view);
             }
 
             scrollX += scrollDist;
         }
         checkScrollBounds();
+        scrollingGradually = partial && (scrollX != prevScrollX || scrollY != prevScrollY);
+    }
+
+    /** Return true if the last gradual scroll has not yet reached the
+     *  shaded notes, so the notes should be shaded again (scrolling
+     *  further) on the next frame.
+     */
+    public boolean isScrollingGradually() {
+        return scrollingGradually;
+    }
+
+    /** Return the sorted, distinct times when the shading of the sheet
+     *  music changes: the start of every symbol except the bars, and the
+     *  end of every staff.
+     */
+    public ListInt getShadeTimes() {
+        return staffs.getShadeTimes();
     }
 
     /** Return the pulseTime corresponding to the given point on the SheetMusic.
@@ -1397,19 +2506,17 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
      */
     public int PulseTimeForPoint(Point point) {
         Point scaledPoint = new Point((int)(point.x / zoom), (int)(point.y / zoom));
-        int y = 0;
-        for (Staff staff : staffs) {
-            if (scaledPoint.y >= y && scaledPoint.y <= y + staff.getHeight()) {
-                return staff.PulseTimeForPoint(scaledPoint);
-            }
-            y += staff.getHeight();
+        int staffnum = staffindex.StaffAtY(scaledPoint.y);
+        if (staffnum == -1) {
+            return -1;
         }
-        return -1;
+        return staffs.get(staffnum).PulseTimeForPoint(scaledPoint);
     }
 
 
     /** Check that the scrollX/scrollY position does not exceed
-     *  the bounds of the sheet music.
+     *  the bounds of the sheet music, and move the window of staffs
+     *  kept in memory with the screen.
      */
     private void
     checkScrollBounds() {
@@ -1430,6 +2537,7 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
         if (scrollY > scrollheight - viewheight/2) {
             scrollY = scrollheight - viewheight/2;
         }
+        UpdateStaffWindow();
     }
 
 
@@ -1437,6 +2545,13 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
     @Override
     public boolean onTouchEvent(MotionEvent event) {
         int action = event.getAction() & MotionEvent.ACTION_MASK;
+
+        /* While two fingers pinch the screen, zoom instead of scrolling */
+        scaleDetector.onTouchEvent(event);
+        if (scaleDetector.isInProgress()) {
+            scrollAnimation.stopMotion();
+            return true;
+        }
         boolean result = scrollAnimation.onTouchEvent(event);
         switch (action) {
             case MotionEvent.ACTION_DOWN:
@@ -1459,6 +2574,41 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
     }
 
 
+    /** Start a pinch-to-zoom gesture.  Only zoom when scrolling
+     *  vertically, since the horizontal sheet music fits the screen height.
+     */
+    public boolean onScaleBegin(ScaleGestureDetector detector) {
+        if (!scrollVert || tiles == null) {
+            return false;
+        }
+        pinching = true;
+        return true;
+    }
+
+    /** Zoom around the center of the pinch.  The tiles at the zoom level
+     *  before the pinch are scaled to the screen, so the staffs are not
+     *  drawn again until the pinch ends.
+     */
+    public boolean onScale(ScaleGestureDetector detector) {
+        float scale = pinchScale * detector.getScaleFactor();
+        pinchScale = Math.max(MinPinchScale, Math.min(MaxPinchScale, scale));
+        float oldzoom = zoom;
+        CalculateZoom(viewwidth, viewheight);
+        if (zoom != oldzoom) {
+            ZoomChanged(oldzoom, detector.getFocusX(), detector.getFocusY());
+            draw();
+        }
+        return true;
+    }
+
+    /** The pinch has ended.  Draw the tiles at the new zoom level, in the
+     *  background (see DrawView).
+     */
+    public void onScaleEnd(ScaleGestureDetector detector) {
+        pinching = false;
+        draw();
+    }
+
     /** Update the scroll position. Callback by ScrollAnimation */
     public void scrollUpdate(int deltaX, int deltaY) {
         scrollX += deltaX;
@@ -1483,6 +2633,7 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
     
     public void
     surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        screenValid = false;
         draw();
     }
 
@@ -1496,21 +2647,28 @@ public class SheetMusic extends SurfaceView implements SurfaceHolder.Callback, S
     /** Surface has been destroyed */
     public void surfaceDestroyed(SurfaceHolder holder) {
         surfaceReady = false;
+        screenValid = false;
+        if (tiles != null) {
+            tiles.Clear();
+        }
     }
 
+    /** Return the first chord starting at or after the given time,
+     *  in the first staff that has one.
+     */
     public MusicSymbol getCurrentNote(int currentTime) {
-        for (int i = 0; i < staffs.size(); ++i) {
-            MusicSymbol note = staffs.get(i).getCurrentNote(currentTime);
-            if (note != null) return note;
+        int staffnum = staffindex.FirstStaffWithChord(currentTime);
+        if (staffnum == -1) {
+            return null;
         }
-        return null;
+        return staffs.get(staffnum).getCurrentNote(currentTime);
     }
 
     @Override
     public String toString() {
         String result = "SheetMusic staffs=" + staffs.size() + "\n";
-        for (Staff staff : staffs) {
-            result += staff.toString();
+        for (int i = 0; i < staffs.size(); i++) {
+            result += staffs.get(i).toString();
         }
         result += "End SheetMusic\n";
         return result;
@@ -49,6 +49,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
 import java.util.zip.CRC32;
 
 /**
@@ -73,6 +74,7 @@ public class SheetMusicActivity extends MidiHandlingActivity {
     private MidiFile midifile;   /* The midi file to play */
     private MidiOptions options; /* The options for sheet music and sound */
     private long midiCRC;        /* CRC of the midi bytes */
+    private ScoreCache scoreCache; /* The saved sheet music layouts */
     private Drawer drawer;
 
      /** Create this SheetMusicActivity.
@@ -107,9 +109,13 @@ public class SheetMusicActivity extends MidiHandlingActivity {
         }
         FileUri file = new FileUri(uri, title);
         this.setTitle("MidiSheetMusic: " + title);
-        byte[] data;
+        ByteBuffer data;
         try {
-            data = file.getData(this);
+            data = file.getBuffer(this);
+            if (data == null) {
+                this.finish();
+                return;
+            }
             midifile = new MidiFile(data, title);
         }
         catch (MidiFileException e) {
@@ -120,9 +126,9 @@ public class SheetMusicActivity extends MidiHandlingActivity {
         // Initialize the settings (MidiOptions).
         // If previous settings have been saved, use those
         options = new MidiOptions(midifile);
-        CRC32 crc = new CRC32();
-        crc.update(data);
-        midiCRC = crc.getValue();
+        midiCRC = computeCRC(data);
+        scoreCache = new ScoreCache(new File(getCacheDir(), "scores"),
+                                    ScoreCache.DefaultMaxSize);
         SharedPreferences settings = getPreferences(0);
         options.scrollVert = settings.getBoolean("scrollVert", false);
         options.shade1Color = settings.getInt("shade1Color", options.shade1Color);
@@ -137,6 +143,21 @@ public class SheetMusicActivity extends MidiHandlingActivity {
         createViews();
     }
 
+    /** Return the CRC32 of the midi data.  CRC32.update(ByteBuffer)
+     *  requires API 26, so the data is copied through a small array.
+     */
+    private static long computeCRC(ByteBuffer data) {
+        CRC32 crc = new CRC32();
+        ByteBuffer src = data.duplicate();
+        byte[] chunk = new byte[4096];
+        while (src.hasRemaining()) {
+            int len = Math.min(chunk.length, src.remaining());
+            src.get(chunk, 0, len);
+            crc.update(chunk, 0, len);
+        }
+        return crc.getValue();
+    }
+
     /* Create the MidiPlayer and Piano views */
     void createViews() {
         layout = findViewById(R.id.sheet_content);
@@ -162,7 +183,7 @@ public class SheetMusicActivity extends MidiHandlingActivity {
                     colorAccidentals.setChecked(options.colorAccidentals);
                     drawer.updateItem(colorAccidentals);
                     options.useColors = isChecked;
-                    createSheetMusic(options);
+                    updateSheetColors(options);
                 });
 
 
@@ -177,7 +198,7 @@ public class SheetMusicActivity extends MidiHandlingActivity {
                     useColors.setChecked(options.useColors);
                     drawer.updateItem(useColors);
                     options.colorAccidentals = isChecked;
-                    createSheetMusic(options);
+                    updateSheetColors(options);
                 });
 
         SecondarySwitchDrawerItem showMeasures = new SecondarySwitchDrawerItem()
@@ -244,16 +265,22 @@ public class SheetMusicActivity extends MidiHandlingActivity {
         createSheetMusic(options);
     }
 
-    /** Create the SheetMusic view with the given options */
+    /** Create the SheetMusic view with the given options.  The layout
+     *  stages of the previous SheetMusic that do not depend on the
+     *  changed options are re-used (see LayoutStages).
+     */
     private void 
     createSheetMusic(MidiOptions options) {
+        LayoutStages previous = null;
         if (sheet != null) {
+            previous = sheet.getLayoutStages();
+            sheet.Release();
             layout.removeView(sheet);
         }
 
         piano.setVisibility(options.showPiano ? View.VISIBLE : View.GONE);
         sheet = new SheetMusic(this);
-        sheet.init(midifile, options);
+        sheet.init(midifile, options, scoreCache, midiCRC, previous);
         sheet.setPlayer(player);
         layout.addView(sheet);
         piano.SetMidiFile(midifile, options, player);
@@ -265,6 +292,17 @@ public class SheetMusicActivity extends MidiHandlingActivity {
         sheet.draw();
     }
 
+    /** Change the note and shading colors of the SheetMusic and Piano.
+     *  The colors do not change the layout, so the SheetMusic is only
+     *  redrawn, instead of being created again.
+     */
+    private void updateSheetColors(MidiOptions options) {
+        sheet.SetColors(options.noteColors, options.useColors, options.colorAccidentals,
+                        options.shade1Color, options.shade2Color);
+        piano.SetShadeColors(options.shade1Color, options.shade2Color);
+        sheet.draw();
+    }
+
 
     /** Always display this activity in landscape mode. */
     @Override
@@ -386,6 +424,7 @@ public class SheetMusicActivity extends MidiHandlingActivity {
             options.scrollVert = true;
             createSheetMusic(options);
         }
+        sheet.WaitForLayout();
         try {
             int numpages = sheet.GetTotalPages();
             for (int page = 1; page <= numpages; page++) {
@@ -511,6 +550,11 @@ public class SheetMusicActivity extends MidiHandlingActivity {
         player.OnMidiNote(note, pressed);
     }
 
+    @Override
+    void OnMidiOutput(MidiSink sink) {
+        player.SetMidiOutput(sink);
+    }
+
     /************************** Hide navigation buttons **************************/
 
     @Override
@@ -0,0 +1,533 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic;
+
+import java.io.*;
+import java.util.*;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Process;
+
+import com.midisheetmusic.collections.ListInt;
+
+/** @class SoftSynth
+ * The SoftSynth is a small wavetable synthesizer, used to play the song
+ * without the MediaPlayer.  It renders 16-bit mono PCM from the notes
+ * of the MidiTracks (the same notes shown in the sheet music).
+ *
+ * Each instrument family (piano, organ, guitar, strings, ...) has a
+ * single-cycle wavetable, built once from a few harmonics.  Percussion
+ * uses a noise table.  A note is played by a voice, with a simple
+ * attack/decay/release envelope.  There are MaxVoices voices.  When all
+ * of them are in use, a new note steals the quietest released voice,
+ * or else the oldest voice.
+ *
+ * The samples are mixed in blocks of BlockSize frames.  The notes start
+ * and stop at the exact frame within the block.  Rendering does not
+ * allocate any memory, so it can run on a real-time audio thread.
+ *
+ * The song position is kept in midi file microseconds.  Seeking only
+ * moves the position and silences the voices, and changing the speed,
+ * transpose or muted tracks takes effect at the next block, so none of
+ * these need to prepare anything again.
+ *
+ * The synth can play in real time (Start/Stop, using an AudioTrack on
+ * its own thread), or render a whole song to a WAV file as fast as
+ * possible (RenderToWav).  The wavetables and envelopes are computed
+ * with StrictMath, so a song renders to the same samples on every
+ * device.
+ */
+public class SoftSynth implements Runnable {
+    public static final int SampleRate = 44100;  /** Frames per second */
+    public static final int BlockSize = 256;     /** Frames mixed at a time */
+    public static final int MaxVoices = 32;      /** The most notes played at once */
+
+    private static final int TableBits = 11;
+    private static final int TableSize = 1 << TableBits;   /** Samples per wavetable */
+    private static final int NumFamilies = 16;             /** Instrument families (program / 8) */
+    private static final int Percussion = NumFamilies;     /** The wavetable for percussion */
+
+    /* The envelope stages of a voice */
+    private static final int Off = 0;
+    private static final int Attack = 1;
+    private static final int Sustain = 2;
+    private static final int Release = 3;
+
+    private static final float VoiceGain = 0.25f;      /** The loudest level of one voice */
+    private static final float AttackTime = 0.005f;    /** Seconds to reach the full level */
+    private static final float DecayTime = 1.5f;       /** Seconds for a held note to fade by 1/e */
+    private static final float ReleaseTime = 0.05f;    /** Seconds for a released note to fade by 1/e */
+    private static final float DrumTime = 0.12f;       /** Seconds for a drum to fade by 1/e */
+    private static final float Silent = 0.0001f;       /** Below this level, the voice is off */
+
+    private static float[][] tables;   /** The wavetable of each family, and percussion */
+
+    /* The notes of the song, sorted by start time */
+    private int numnotes;          /** The number of notes */
+    private double[] noteStart;    /** The start time of each note, in midi file microseconds */
+    private double[] noteEnd;      /** The end time of each note, in midi file microseconds */
+    private int[] noteNumber;      /** The note number of each note */
+    private int[] noteTrack;       /** The track of each note */
+    private int[] trackTable;      /** The wavetable of each track */
+
+    private TempoMap tempomap;     /** Converts between pulses and microseconds */
+    private double speed;          /** The playback speed, relative to the midi file tempo */
+    private boolean[] mute;        /** Which tracks are muted */
+    private int transpose;         /** The amount to shift the notes up/down */
+    private double micros;         /** The song position, in midi file microseconds */
+    private int nextNote;          /** The next note to start */
+
+    /* The voices */
+    private int[] voiceState;      /** The envelope stage of each voice */
+    private int[] voiceTable;      /** The wavetable of each voice */
+    private int[] voiceTrack;      /** The track of each voice */
+    private int[] voiceDelay;      /** Frames to wait (in this block) before starting */
+    private int[] voiceAge;        /** Larger for voices started more recently */
+    private double[] voiceEnd;     /** The microseconds when the note is released */
+    private float[] voicePhase;    /** The position in the wavetable */
+    private float[] voiceStep;     /** The wavetable samples per frame (the pitch) */
+    private float[] voiceLevel;    /** The envelope level, from 0 to 1 */
+    private float[] voiceDecay;    /** The level multiplier per frame, while sustained */
+    private int age;               /** The age given to the next voice */
+    private float[] mix;           /** The mixed samples of a block */
+
+    private float attackStep;      /** The level increase per frame, during the attack */
+    private float releaseDecay;    /** The level multiplier per frame, while released */
+
+    private AudioTrack track;      /** The audio output, when playing in real time */
+    private Thread thread;         /** The thread rendering to the audio output */
+    private boolean running;       /** False when the thread should stop */
+    private short[] buffer;        /** The samples written to the audio output */
+
+    public SoftSynth() {
+        CreateTables();
+        voiceState = new int[MaxVoices];
+        voiceTable = new int[MaxVoices];
+        voiceTrack = new int[MaxVoices];
+        voiceDelay = new int[MaxVoices];
+        voiceAge = new int[MaxVoices];
+        voiceEnd = new double[MaxVoices];
+        voicePhase = new float[MaxVoices];
+        voiceStep = new float[MaxVoices];
+        voiceLevel = new float[MaxVoices];
+        voiceDecay = new float[MaxVoices];
+        mix = new float[BlockSize];
+        buffer = new short[BlockSize * 4];
+        attackStep = 1.0f / (AttackTime * SampleRate);
+        releaseDecay = (float)StrictMath.exp(-1.0 / (ReleaseTime * SampleRate));
+        speed = 1.0;
+        noteStart = new double[0];
+        mute = new boolean[0];
+    }
+
+    /** Create the wavetables, the first time a SoftSynth is created.
+     *  Each family has its own mix of harmonics: the amplitude of
+     *  harmonic n is 1/n^rolloff, and some families only use the odd
+     *  harmonics (a hollow, reed-like sound).
+     */
+    private static synchronized void CreateTables() {
+        if (tables != null) {
+            return;
+        }
+        double[] rolloff = { 1.6, 1.4, 2.0, 1.3, 1.8, 1.0, 1.0, 0.9,
+                             1.0, 2.2, 0.8, 1.1, 1.2, 1.5, 1.7, 1.4 };
+        boolean[] oddOnly = { false, false, true, false, false, false, false, false,
+                              true, true, false, true, false, false, false, false };
+        float[][] result = new float[NumFamilies + 1][];
+        for (int family = 0; family < NumFamilies; family++) {
+            float[] table = new float[TableSize];
+            float max = 0;
+            for (int i = 0; i < TableSize; i++) {
+                double x = 2 * Math.PI * i / TableSize;
+                double value = 0;
+                for (int n = 1; n <= 12; n++) {
+                    if (oddOnly[family] && n % 2 == 0) {
+                        continue;
+                    }
+                    value += StrictMath.sin(n * x) / StrictMath.pow(n, rolloff[family]);
+                }
+                table[i] = (float)value;
+                max = Math.max(max, Math.abs(table[i]));
+            }
+            for (int i = 0; i < TableSize; i++) {
+                table[i] /= max;
+            }
+            result[family] = table;
+        }
+        Random random = new Random(12345);
+        float[] noise = new float[TableSize];
+        for (int i = 0; i < TableSize; i++) {
+            noise[i] = random.nextFloat() * 2 - 1;
+        }
+        result[Percussion] = noise;
+        tables = result;
+    }
+
+    /** Set the song to play, from the tracks of the midi file, and
+     *  start at the beginning.  The options select the instruments,
+     *  the transpose amount, and the muted tracks.
+     */
+    public synchronized void SetSong(MidiFile midifile, MidiOptions options) {
+        Arrays.fill(voiceState, Off);
+        tempomap = midifile.getTempoMap();
+        ArrayList<MidiTrack> tracks = midifile.getTracks();
+        trackTable = new int[tracks.size()];
+        ArrayList<MidiNote> notes = new ArrayList<MidiNote>();
+        ListInt notetracks = new ListInt();
+        for (int tracknum = 0; tracknum < tracks.size(); tracknum++) {
+            MidiTrack track = tracks.get(tracknum);
+            for (MidiNote note : track.getNotes()) {
+                notes.add(note);
+                notetracks.add(tracknum);
+            }
+        }
+
+        /* Sort the notes by start time, keeping their track */
+        Integer[] order = new Integer[notes.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        final ArrayList<MidiNote> allnotes = notes;
+        Arrays.sort(order, (x, y) -> allnotes.get(x).getStartTime() - allnotes.get(y).getStartTime());
+
+        numnotes = notes.size();
+        noteStart = new double[numnotes];
+        noteEnd = new double[numnotes];
+        noteNumber = new int[numnotes];
+        noteTrack = new int[numnotes];
+        for (int i = 0; i < numnotes; i++) {
+            MidiNote note = notes.get(order[i]);
+            noteStart[i] = tempomap.PulseToMicros(note.getStartTime());
+            noteEnd[i] = tempomap.PulseToMicros(note.getEndTime());
+            noteNumber[i] = note.getNumber();
+            noteTrack[i] = notetracks.get(order[i]);
+        }
+        SetOptions(midifile, options);
+        Seek(0);
+    }
+
+    /** Apply the instruments, transpose, and muted tracks of the options.
+     *  The notes of newly muted tracks are released.
+     */
+    public synchronized void SetOptions(MidiFile midifile, MidiOptions options) {
+        ArrayList<MidiTrack> tracks = midifile.getTracks();
+        mute = new boolean[tracks.size()];
+        for (int tracknum = 0; tracknum < tracks.size(); tracknum++) {
+            MidiTrack track = tracks.get(tracknum);
+            int instrument = options.useDefaultInstruments ?
+                             track.getInstrument() : options.instruments[tracknum];
+            boolean drums = instrument == 128 ||
+                (track.getNotes().size() > 0 && track.getNotes().get(0).getChannel() == 9);
+            trackTable[tracknum] = drums ? Percussion : (instrument & 0x7F) / 8;
+            mute[tracknum] = !options.tracks[tracknum] || options.mute[tracknum];
+        }
+        transpose = options.transpose;
+        for (int v = 0; v < MaxVoices; v++) {
+            if (voiceState[v] != Off && mute[voiceTrack[v]]) {
+                voiceState[v] = Release;
+            }
+        }
+    }
+
+    /** Set the playback speed, relative to the midi file tempo */
+    public synchronized void SetSpeed(double value) {
+        speed = value;
+    }
+
+    /** Move to the given pulse time, silencing all the voices */
+    public synchronized void Seek(int pulseTime) {
+        micros = tempomap.PulseToMicros(Math.max(pulseTime, 0));
+        int low = 0;
+        int high = numnotes;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (noteStart[mid] < micros) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        nextNote = low;
+        Arrays.fill(voiceState, Off);
+    }
+
+    /** Return the current pulse time of the song */
+    public synchronized double getPulseTime() {
+        return tempomap.MicrosToPulse(micros);
+    }
+
+    /** Return true if all the notes have been played and released */
+    public synchronized boolean isFinished() {
+        if (nextNote < numnotes) {
+            return false;
+        }
+        for (int v = 0; v < MaxVoices; v++) {
+            if (voiceState[v] != Off) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return a free voice, or steal one: the quietest released
+     *  voice, or else the oldest voice.
+     */
+    private int FindVoice() {
+        int oldest = 0;
+        int quietest = -1;
+        for (int v = 0; v < MaxVoices; v++) {
+            if (voiceState[v] == Off) {
+                return v;
+            }
+            if (voiceAge[v] < voiceAge[oldest]) {
+                oldest = v;
+            }
+            if (voiceState[v] == Release &&
+                (quietest == -1 || voiceLevel[v] < voiceLevel[quietest])) {
+                quietest = v;
+            }
+        }
+        return (quietest != -1) ? quietest : oldest;
+    }
+
+    /** Start playing the given note, delay frames into the block */
+    private void StartVoice(int note, int delay) {
+        int v = FindVoice();
+        int table = trackTable[noteTrack[note]];
+        int number = Math.max(0, Math.min(127, noteNumber[note] + transpose));
+        double frequency = 440.0 * StrictMath.pow(2.0, (number - 69) / 12.0);
+        if (table == Percussion) {
+            frequency = 4000.0 * StrictMath.pow(2.0, (number - 60) / 24.0);
+        }
+        voiceState[v] = Attack;
+        voiceTable[v] = table;
+        voiceTrack[v] = noteTrack[note];
+        voiceDelay[v] = delay;
+        voiceAge[v] = age++;
+        voiceEnd[v] = noteEnd[note];
+        voicePhase[v] = 0;
+        voiceStep[v] = (float)(frequency * TableSize / SampleRate);
+        voiceLevel[v] = 0;
+        float decaytime = (table == Percussion) ? DrumTime : DecayTime;
+        voiceDecay[v] = (float)StrictMath.exp(-1.0 / (decaytime * SampleRate));
+    }
+
+    /** Mix the given voice into the first n frames of the block.
+     *  The voice is released at frame 'release' (if less than n).
+     */
+    private void RenderVoice(int v, int n, int release) {
+        float[] table = tables[voiceTable[v]];
+        float phase = voicePhase[v];
+        float step = voiceStep[v];
+        float level = voiceLevel[v];
+        float decay = voiceDecay[v];
+        int state = voiceState[v];
+        for (int i = voiceDelay[v]; i < n; i++) {
+            if (i >= release && state != Release) {
+                state = Release;
+            }
+            if (state == Attack) {
+                level += attackStep;
+                if (level >= 1.0f) {
+                    level = 1.0f;
+                    state = Sustain;
+                }
+            }
+            else if (state == Sustain) {
+                level *= decay;
+            }
+            else {
+                level *= releaseDecay;
+                if (level < Silent) {
+                    state = Off;
+                    break;
+                }
+            }
+            mix[i] += table[((int)phase) & (TableSize - 1)] * level;
+            phase += step;
+            if (phase >= TableSize) {
+                phase -= TableSize;
+            }
+        }
+        voiceDelay[v] = 0;
+        voicePhase[v] = phase;
+        voiceLevel[v] = level;
+        voiceState[v] = state;
+    }
+
+    /** Render the next n frames (at most BlockSize) into the buffer */
+    private void RenderBlock(short[] out, int offset, int n) {
+        double microsPerFrame = speed * 1000000.0 / SampleRate;
+        double blockEnd = micros + n * microsPerFrame;
+
+        /* Start the notes in this block, at their exact frame */
+        while (nextNote < numnotes && noteStart[nextNote] < blockEnd) {
+            if (!mute[noteTrack[nextNote]]) {
+                int delay = (int)((noteStart[nextNote] - micros) / microsPerFrame);
+                StartVoice(nextNote, Math.max(0, Math.min(n - 1, delay)));
+            }
+            nextNote++;
+        }
+
+        Arrays.fill(mix, 0, n, 0.0f);
+        for (int v = 0; v < MaxVoices; v++) {
+            if (voiceState[v] == Off) {
+                continue;
+            }
+            int release = n;
+            if (voiceEnd[v] < blockEnd && voiceTable[v] != Percussion) {
+                release = Math.max(0, (int)((voiceEnd[v] - micros) / microsPerFrame));
+            }
+            RenderVoice(v, n, release);
+        }
+        /* Many loud voices can add up past full scale, so use a soft
+         * limiter (an approximation of tanh) instead of clipping.
+         */
+        for (int i = 0; i < n; i++) {
+            float x = mix[i] * VoiceGain;
+            x = Math.max(-3.0f, Math.min(3.0f, x));
+            float sample = x * (27 + x*x) / (27 + 9*x*x);
+            out[offset + i] = (short)(sample * 32767);
+        }
+        micros = blockEnd;
+    }
+
+    /** Render the next n frames of the song into the buffer */
+    public synchronized void Render(short[] out, int offset, int n) {
+        while (n > 0) {
+            int count = Math.min(n, BlockSize);
+            RenderBlock(out, offset, count);
+            offset += count;
+            n -= count;
+        }
+    }
+
+    /** Render the whole song (from the current position) to a 16-bit
+     *  mono WAV file, as fast as possible.  Return the number of frames.
+     */
+    public int RenderToWav(OutputStream dest) throws IOException {
+        MidiBuffer out = new MidiBuffer(1024 * 1024);
+        out.WriteAscii("RIFF");
+        int riffLength = out.Reserve(4);
+        out.WriteAscii("WAVEfmt ");
+        WriteLittleInt(out, 16);
+        WriteLittleShort(out, 1);      /* PCM */
+        WriteLittleShort(out, 1);      /* Mono */
+        WriteLittleInt(out, SampleRate);
+        WriteLittleInt(out, SampleRate * 2);
+        WriteLittleShort(out, 2);      /* Bytes per frame */
+        WriteLittleShort(out, 16);     /* Bits per sample */
+        out.WriteAscii("data");
+        int dataLength = out.Reserve(4);
+
+        int frames = 0;
+        short[] block = new short[BlockSize];
+        while (!isFinished()) {
+            Render(block, 0, BlockSize);
+            int offset = out.Reserve(BlockSize * 2);
+            byte[] data = out.getData();
+            for (int i = 0; i < BlockSize; i++) {
+                data[offset + 2*i] = (byte)block[i];
+                data[offset + 2*i + 1] = (byte)(block[i] >> 8);
+            }
+            frames += BlockSize;
+        }
+        SetLittleInt(out.getData(), dataLength, frames * 2);
+        SetLittleInt(out.getData(), riffLength, out.size() - 8);
+        out.writeTo(dest);
+        dest.close();
+        return frames;
+    }
+
+    private static void WriteLittleShort(MidiBuffer out, int value) {
+        out.WriteByte(value);
+        out.WriteByte(value >> 8);
+    }
+
+    private static void WriteLittleInt(MidiBuffer out, int value) {
+        SetLittleInt(out.getData(), out.Reserve(4), value);
+    }
+
+    private static void SetLittleInt(byte[] data, int offset, int value) {
+        data[offset] = (byte)value;
+        data[offset+1] = (byte)(value >> 8);
+        data[offset+2] = (byte)(value >> 16);
+        data[offset+3] = (byte)(value >> 24);
+    }
+
+    /** Start playing from the current position, on an AudioTrack */
+    public void Start() {
+        Stop();
+        int minsize = AudioTrack.getMinBufferSize(SampleRate, AudioFormat.CHANNEL_OUT_MONO,
+                                                  AudioFormat.ENCODING_PCM_16BIT);
+        track = new AudioTrack(AudioManager.STREAM_MUSIC, SampleRate,
+                               AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT,
+                               Math.max(minsize, buffer.length * 2), AudioTrack.MODE_STREAM);
+        synchronized (this) {
+            running = true;
+        }
+        track.play();
+        thread = new Thread(this, "SoftSynth");
+        thread.start();
+    }
+
+    /** Stop playing, and release the AudioTrack */
+    public void Stop() {
+        synchronized (this) {
+            running = false;
+        }
+        if (thread != null) {
+            try {
+                thread.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        if (track != null) {
+            track.stop();
+            track.release();
+            track = null;
+        }
+    }
+
+    /** Return the msec of audio actually played since Start() */
+    public long getPlaybackMillis() {
+        AudioTrack t = track;
+        if (t == null) {
+            return 0;
+        }
+        return (t.getPlaybackHeadPosition() & 0xFFFFFFFFL) * 1000 / SampleRate;
+    }
+
+    /** Render blocks and write them to the AudioTrack, until stopped
+     *  or until the song is finished.  AudioTrack.write() blocks until
+     *  there is room, which paces the rendering.
+     */
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        while (true) {
+            synchronized (this) {
+                if (!running || isFinished()) {
+                    break;
+                }
+                Render(buffer, 0, buffer.length);
+            }
+            track.write(buffer, 0, buffer.length);
+        }
+    }
+}
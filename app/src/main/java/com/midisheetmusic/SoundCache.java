@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic;
+
+import android.util.LruCache;
+
+/** @class SoundCache
+ * The SoundCache keeps the midi files created for playback (by
+ * MidiFile.ChangeSound) of a single song, so that switching back to a
+ * previous tempo, transpose, or set of muted tracks does not create
+ * the midi file again.
+ *
+ * The midi files are keyed by the options that affect the sound:
+ * the tempo, transpose, instruments, tracks, and muted tracks, and
+ * the measure of the pause time (the time playback starts at).
+ * Each measure keeps only the midi file for the last pause time in it,
+ * so that resuming from many different times does not push the other
+ * files out of the cache, while playing measures in a loop (which
+ * restarts at the same pause time) still finds its midi file.
+ * The total size of the cached midi files is limited to the given
+ * number of bytes, and the least recently used files are removed first.
+ */
+public class SoundCache {
+    public static final int DefaultMaxSize = 4 * 1024 * 1024;
+
+    /** A cached midi file, and the exact pause time it starts at */
+    private static class SoundFile {
+        int pauseTime;   /** The pause time the midi file starts at */
+        byte[] data;     /** The midi file */
+
+        SoundFile(int pauseTime, byte[] data) {
+            this.pauseTime = pauseTime;
+            this.data = data;
+        }
+    }
+
+    private LruCache<String, SoundFile> cache;  /** The midi files, by sound key */
+    private int hits;                           /** The number of Get() calls found */
+    private int misses;                         /** The number of Get() calls not found */
+
+    public SoundCache(int maxsize) {
+        cache = new LruCache<String, SoundFile>(maxsize) {
+            @Override
+            protected int sizeOf(String key, SoundFile file) {
+                return file.data.length;
+            }
+        };
+    }
+
+    /** Return the options that affect the sound, as a string.  The
+     *  pause time is rounded down to the start of its measure.
+     */
+    static String SoundKey(MidiOptions options, int measure) {
+        StringBuilder result = new StringBuilder();
+        result.append(options.tempo);
+        result.append(" ").append(options.transpose);
+        result.append(" ").append(options.pauseTime / measure);
+        result.append(" ").append(options.useDefaultInstruments);
+        result.append(" ");
+        for (int i = 0; i < options.tracks.length; i++) {
+            result.append(options.tracks[i] ? '1' : '0');
+            result.append(options.mute[i] ? 'm' : '-');
+            result.append(options.instruments[i]).append(",");
+        }
+        return result.toString();
+    }
+
+    /** Return the midi file for the given options, or null if it is not
+     *  cached.  The midi file must start at exactly the pause time, since
+     *  MidiFile.ChangeSound() shifts the events by the pause time.
+     */
+    public synchronized byte[] Get(MidiOptions options, int measure) {
+        SoundFile file = cache.get(SoundKey(options, measure));
+        if (file != null && file.pauseTime == options.pauseTime) {
+            hits++;
+            return file.data;
+        }
+        else {
+            misses++;
+            return null;
+        }
+    }
+
+    /** Save the midi file for the given options.  The data must not be
+     *  modified afterwards.  It replaces the midi file of another pause
+     *  time in the same measure.
+     */
+    public synchronized void Put(MidiOptions options, int measure, byte[] data) {
+        cache.put(SoundKey(options, measure), new SoundFile(options.pauseTime, data));
+    }
+
+    /** Remove all the midi files, such as when the song is changed */
+    public synchronized void Clear() {
+        cache.evictAll();
+    }
+
+    public synchronized int getHits() { return hits; }
+    public synchronized int getMisses() { return misses; }
+
+    /** Return the total size of the cached midi files, in bytes */
+    public synchronized int getSize() { return cache.size(); }
+
+    @Override
+    public synchronized String toString() {
+        return "SoundCache hits=" + hits + " misses=" + misses + " size=" + cache.size();
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic;
+
+import java.util.Arrays;
+import com.midisheetmusic.collections.ListInt;
+
+/** @class TempoMap
+ * The TempoMap converts between pulses and microseconds, for songs
+ * whose tempo changes.  It contains a list of segments, sorted by
+ * start time.  Each segment has:
+ *
+ * pulses - The start time of the segment, in pulses
+ * tempo  - The tempo of the segment, in microseconds per quarter note
+ * micros - The start time of the segment, in microseconds.  This is the
+ *          sum of the lengths of all the previous segments.  The sums
+ *          are not rounded, so the error does not add up over songs
+ *          with many tempo changes.
+ *
+ * Before the first tempo event, the tempo is the default tempo
+ * (500,000 microseconds per quarter note).  Each conversion is a
+ * binary search over the segments.
+ */
+public class TempoMap {
+    public static final int DefaultTempo = 500000;
+
+    private int quarternote;   /** The number of pulses per quarter note */
+    private int count;        /** The number of segments */
+    private int[] pulses;     /** The start time of each segment, in pulses */
+    private int[] tempos;     /** The tempo of each segment */
+    private double[] micros;  /** The start time of each segment, in microseconds */
+
+    /** Create a new TempoMap from the tempo events.  The start times
+     *  (in pulses) and tempos are given in any order, such as the order
+     *  of the tracks in the midi file.  If several tempo events have
+     *  the same start time, the last one is used.
+     */
+    public TempoMap(int quarternote, ListInt times, ListInt tempolist) {
+        this.quarternote = quarternote;
+        int n = times.size();
+
+        /* Sort the tempo events by start time.  Each event is packed
+         * into a long as (start time, index), so events with the same
+         * start time stay in their original order.
+         */
+        long[] packed = new long[n];
+        for (int i = 0; i < n; i++) {
+            packed[i] = ((long)times.get(i) << 32) | i;
+        }
+        Arrays.sort(packed);
+        int[] t = new int[n];
+        int[] v = new int[n];
+        for (int i = 0; i < n; i++) {
+            int index = (int)packed[i];
+            t[i] = times.get(index);
+            v[i] = tempolist.get(index);
+        }
+
+        pulses = new int[n+1];
+        tempos = new int[n+1];
+        micros = new double[n+1];
+        pulses[0] = 0;
+        tempos[0] = DefaultTempo;
+        micros[0] = 0;
+        count = 1;
+        for (int i = 0; i < n; i++) {
+            if (v[i] <= 0) {
+                continue;
+            }
+            int last = count-1;
+            if (t[i] <= pulses[last]) {
+                tempos[last] = v[i];
+            }
+            else {
+                pulses[count] = t[i];
+                tempos[count] = v[i];
+                micros[count] = micros[last] +
+                    (double)(t[i] - pulses[last]) * tempos[last] / quarternote;
+                count++;
+            }
+        }
+    }
+
+    /** Return the number of pulses per quarter note */
+    public int getQuarter() { return quarternote; }
+
+    /** Return the number of tempo segments */
+    public int size() { return count; }
+
+    /** Return the segment containing the given pulse time */
+    private int findPulse(double pulse) {
+        int low = 0, high = count-1;
+        while (low < high) {
+            int mid = (low + high + 1) / 2;
+            if (pulses[mid] <= pulse) {
+                low = mid;
+            }
+            else {
+                high = mid-1;
+            }
+        }
+        return low;
+    }
+
+    /** Return the segment containing the given microsecond time */
+    private int findMicros(double time) {
+        int low = 0, high = count-1;
+        while (low < high) {
+            int mid = (low + high + 1) / 2;
+            if (micros[mid] <= time) {
+                low = mid;
+            }
+            else {
+                high = mid-1;
+            }
+        }
+        return low;
+    }
+
+    /** Return the tempo (microseconds per quarter note) at the given pulse time */
+    public int getTempo(int pulse) {
+        return tempos[findPulse(pulse)];
+    }
+
+    /** Convert the pulse time to microseconds */
+    public double PulseToMicros(double pulse) {
+        int i = findPulse(pulse);
+        return micros[i] + (pulse - pulses[i]) * tempos[i] / quarternote;
+    }
+
+    /** Convert the time in microseconds to pulses */
+    public double MicrosToPulse(double time) {
+        int i = findMicros(time);
+        return pulses[i] + (time - micros[i]) * quarternote / tempos[i];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("TempoMap");
+        for (int i = 0; i < count; i++) {
+            result.append(" ").append(pulses[i]).append(":").append(tempos[i]);
+        }
+        return result.toString();
+    }
+}
+
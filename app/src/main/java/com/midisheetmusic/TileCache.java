@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic;
+
+import java.util.*;
+import android.graphics.*;
+
+/** @class TileCache
+ * The TileCache holds the sheet music drawn into fixed size bitmap
+ * tiles, so that the SheetMusic can be drawn (and scrolled) by copying
+ * the tiles to the screen, without drawing the music symbols again.
+ *
+ * A tile is identified by the zoom level and its (x, y) position, in
+ * units of TileSize pixels (after zooming).  The tiles do not include
+ * the shaded notes, which are drawn on top of the tiles by SheetMusic.
+ *
+ * The tiles are kept in least-recently-used order.  When the tiles use
+ * more memory than the budget, the least recently used tile is removed,
+ * and its bitmap is re-used for the next tile.  A removed bitmap is only
+ * re-used once no thread is copying tiles to the screen (see BeginDraw),
+ * so a tile is never drawn over while it is being copied.
+ *
+ * Tiles are drawn in two ways:
+ * - Prefetch() asks a worker thread to draw the tiles in an area that
+ *   will be shown soon (ahead of the music being played), so they are
+ *   ready when the sheet music scrolls there.
+ * - GetTile() draws a tile immediately, on the calling thread, if the
+ *   tile is needed right now and is not ready yet.
+ *
+ * After the zoom level changes, PeekTile() returns the tiles at the old
+ * zoom level, which can be scaled to the screen until the worker thread
+ * has drawn the tiles at the new zoom level (see Renderer.TilesDrawn).
+ */
+public class TileCache {
+
+    public static final int TileSize = 256;    /** The width and height of a tile, in pixels */
+    private static final int MaxFree = 4;      /** The most unused bitmaps to keep for re-use */
+
+    /** @class Renderer
+     * Draws the sheet music into a tile.
+     */
+    public interface Renderer {
+        /** Draw the sheet music at the given zoom level.  The bounds are
+         *  the area to draw, in zoomed pixels.  The top-left corner of
+         *  the bounds is drawn at (0,0) on the canvas.
+         */
+        void DrawTile(Canvas canvas, Paint paint, Rect bounds, float zoom);
+
+        /** Called on the worker thread after it has drawn all the
+         *  requested tiles.
+         */
+        void TilesDrawn();
+    }
+
+    private Renderer renderer;                /** Draws the tiles */
+    private int maxTiles;                     /** The most tiles to keep */
+    private LinkedHashMap<Long, Bitmap> tiles; /** The tiles, in least-recently-used order */
+    private ArrayList<Bitmap> free;           /** The bitmaps of removed tiles, for re-use */
+    private ArrayList<Bitmap> retired;        /** The bitmaps removed while a reader may copy them */
+    private int readers;                      /** The number of threads between BeginDraw() and EndDraw() */
+    private ArrayDeque<Long> requests;        /** The tiles to draw on the worker thread */
+    private Thread worker;                    /** The thread drawing the requested tiles */
+    private int generation;                   /** Incremented by Clear() */
+    private Paint paint;                      /** The paint used by GetTile() */
+    private Paint workerPaint;                /** The paint used by the worker thread */
+
+    /** Create a new tile cache, using at most budget bytes for the tiles.
+     *  The tiles are drawn with copies of the given paint.
+     */
+    public TileCache(Renderer renderer, Paint template, long budget) {
+        this.renderer = renderer;
+        maxTiles = (int)Math.max(4, budget / (TileSize * TileSize * 4));
+        tiles = new LinkedHashMap<>(maxTiles * 2, 0.75f, true);
+        free = new ArrayList<>();
+        retired = new ArrayList<>();
+        requests = new ArrayDeque<>();
+        paint = new Paint(template);
+        workerPaint = new Paint(template);
+    }
+
+    /** Return the key for the tile at (tx, ty) at the given zoom.
+     *  The tile positions must be between 0 and 65535.
+     */
+    private static long Key(float zoom, int tx, int ty) {
+        return ((long)Float.floatToIntBits(zoom) << 32) | ((long)tx << 16) | ty;
+    }
+
+    /** Called before copying the tiles returned by GetTile() and
+     *  PeekTile() to the screen.  The bitmaps of the tiles removed until
+     *  the matching EndDraw() are not re-used until then.
+     */
+    public synchronized void BeginDraw() {
+        readers++;
+    }
+
+    /** Called after the tiles have been copied to the screen.  When no
+     *  other thread is copying tiles, the removed bitmaps can be re-used.
+     */
+    public synchronized void EndDraw() {
+        readers--;
+        if (readers == 0) {
+            while (retired.size() > 0 && free.size() < MaxFree) {
+                free.add(retired.remove(retired.size() - 1));
+            }
+            retired.clear();
+        }
+    }
+
+    /** Return the tile at (tx, ty) at the given zoom level.  If the tile
+     *  is not ready, draw it now.  Return null if the tile position is
+     *  outside the range supported (negative).
+     */
+    public Bitmap GetTile(float zoom, int tx, int ty) {
+        if (tx < 0 || ty < 0 || tx > 0xFFFF || ty > 0xFFFF) {
+            return null;
+        }
+        long key = Key(zoom, tx, ty);
+        int gen;
+        synchronized (this) {
+            Bitmap bitmap = tiles.get(key);
+            if (bitmap != null) {
+                return bitmap;
+            }
+            requests.remove(key);
+            gen = generation;
+        }
+        synchronized (paint) {
+            Bitmap bitmap = Draw(key, paint);
+            return Add(key, bitmap, gen);
+        }
+    }
+
+    /** Return the tile at (tx, ty) at the given zoom level if it is
+     *  ready, or null if it is not.  Don't draw the tile.
+     */
+    public synchronized Bitmap PeekTile(float zoom, int tx, int ty) {
+        if (tx < 0 || ty < 0 || tx > 0xFFFF || ty > 0xFFFF) {
+            return null;
+        }
+        return tiles.get(Key(zoom, tx, ty));
+    }
+
+    /** Ask the worker thread to draw the tiles covering the given area
+     *  (in zoomed pixels), from top to bottom and left to right, or left
+     *  to right and top to bottom if byColumn is true.  The tiles requested
+     *  by the previous call, that are not drawn yet, are dropped, since
+     *  they are probably no longer needed.
+     */
+    public synchronized void Prefetch(float zoom, Rect area, boolean byColumn) {
+        requests.clear();
+        int left = Math.max(0, area.left / TileSize);
+        int top = Math.max(0, area.top / TileSize);
+        int right = Math.min(0xFFFF, (area.right - 1) / TileSize);
+        int bottom = Math.min(0xFFFF, (area.bottom - 1) / TileSize);
+        /* Don't request more tiles than half the cache, so the
+         * requested tiles don't remove the tiles shown on the screen.
+         */
+        int numtiles = Math.min((right - left + 1) * (bottom - top + 1), maxTiles / 2);
+        int columns = right - left + 1;
+        int rows = bottom - top + 1;
+        for (int n = 0; n < numtiles; n++) {
+            int tx = byColumn ? left + n / rows : left + n % columns;
+            int ty = byColumn ? top + n % rows : top + n / columns;
+            long key = Key(zoom, tx, ty);
+            if (!tiles.containsKey(key)) {
+                requests.add(key);
+            }
+        }
+        if (requests.isEmpty()) {
+            return;
+        }
+        if (worker == null) {
+            worker = new Thread(this::DrawRequests);
+            worker.setPriority(Thread.MIN_PRIORITY);
+            worker.start();
+        }
+        notifyAll();
+    }
+
+    /** Remove all the tiles, since the sheet music has changed.
+     *  Tiles being drawn now are discarded when they are done.
+     */
+    public synchronized void Clear() {
+        generation++;
+        requests.clear();
+        for (Bitmap bitmap : tiles.values()) {
+            Recycle(bitmap);
+        }
+        tiles.clear();
+    }
+
+    /** Stop the worker thread, and remove all the tiles */
+    public void Stop() {
+        Thread thread;
+        synchronized (this) {
+            Clear();
+            thread = worker;
+            worker = null;
+            notifyAll();
+        }
+        if (thread != null) {
+            try {
+                thread.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            free.clear();
+            retired.clear();
+        }
+    }
+
+    /** The worker thread.  Draw the requested tiles, one at a time,
+     *  until Stop() is called.
+     */
+    private void DrawRequests() {
+        Thread self = Thread.currentThread();
+        while (true) {
+            long key;
+            int gen;
+            synchronized (this) {
+                while (worker == self && requests.isEmpty()) {
+                    try {
+                        wait();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (worker != self) {
+                    return;
+                }
+                key = requests.poll();
+                if (tiles.containsKey(key)) {
+                    continue;
+                }
+                gen = generation;
+            }
+            Add(key, Draw(key, workerPaint), gen);
+            boolean done;
+            synchronized (this) {
+                done = (worker == self && requests.isEmpty());
+            }
+            if (done) {
+                renderer.TilesDrawn();
+            }
+        }
+    }
+
+    /** Draw the tile with the given key into a new or re-used bitmap */
+    private Bitmap Draw(long key, Paint paint) {
+        float zoom = Float.intBitsToFloat((int)(key >>> 32));
+        int tx = (int)(key >>> 16) & 0xFFFF;
+        int ty = (int)key & 0xFFFF;
+        Bitmap bitmap = null;
+        synchronized (this) {
+            if (free.size() > 0) {
+                bitmap = free.remove(free.size() - 1);
+            }
+        }
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(TileSize, TileSize, Bitmap.Config.ARGB_8888);
+        }
+        Rect bounds = new Rect(tx * TileSize, ty * TileSize,
+                               (tx+1) * TileSize, (ty+1) * TileSize);
+        renderer.DrawTile(new Canvas(bitmap), paint, bounds, zoom);
+        return bitmap;
+    }
+
+    /** Add a tile that was drawn, removing the least recently used
+     *  tiles if needed.  If the tile was drawn before the last Clear(),
+     *  or another thread already added it, keep the existing tile.
+     *  Return the tile.
+     */
+    private synchronized Bitmap Add(long key, Bitmap bitmap, int gen) {
+        Bitmap existing = tiles.get(key);
+        if (existing != null) {
+            Recycle(bitmap);
+            return existing;
+        }
+        if (gen != generation) {
+            Recycle(bitmap);
+            return null;
+        }
+        tiles.put(key, bitmap);
+        Iterator<Map.Entry<Long, Bitmap>> iter = tiles.entrySet().iterator();
+        while (tiles.size() > maxTiles && iter.hasNext()) {
+            Bitmap oldest = iter.next().getValue();
+            if (oldest != bitmap) {
+                iter.remove();
+                Recycle(oldest);
+            }
+        }
+        return bitmap;
+    }
+
+    /** Keep a bitmap that is no longer used, so it can be re-used.
+     *  If a thread may still be copying it to the screen, it is re-used
+     *  after EndDraw().  The bitmap is never recycled: the garbage
+     *  collector frees the bitmaps that are not kept.
+     */
+    private void Recycle(Bitmap bitmap) {
+        if (readers > 0) {
+            if (retired.size() < MaxFree) {
+                retired.add(bitmap);
+            }
+        }
+        else if (free.size() < MaxFree) {
+            free.add(bitmap);
+        }
+    }
+}
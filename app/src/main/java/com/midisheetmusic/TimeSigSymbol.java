@@ -16,6 +16,7 @@ import android.graphics.*;
 import android.content.*;
 import android.content.res.*;
 
+import com.midisheetmusic.sheets.GlyphAtlas;
 import com.midisheetmusic.sheets.MusicSymbol;
 
 
@@ -60,6 +61,10 @@ public class TimeSigSymbol implements MusicSymbol {
     /** Get the time (in pulses) this symbol occurs at. */
     public int getStartTime() { return -1; }
 
+    /** Get the numerator and denominator */
+    public int getNumerator() { return numerator; }
+    public int getDenominator() { return denominator; }
+
     /** Get the minimum width (in pixels) needed to draw this symbol */
     public int getMinWidth() { 
         if (candraw) 
@@ -86,29 +91,43 @@ public class TimeSigSymbol implements MusicSymbol {
 
     /** Draw the symbol.
      * @param ytop The ylocation (in pixels) where the top of the staff starts.
+     * @param atlas The glyphs to copy, or null to draw them.
      */
     public 
-    void Draw(Canvas canvas, Paint paint, int ytop) {
+    void Draw(Canvas canvas, Paint paint, int ytop, GlyphAtlas atlas) {
         if (!candraw)
             return;
 
         canvas.translate(getWidth() - getMinWidth(), 0);
         Bitmap numer = images[numerator];
-        Bitmap denom = images[denominator];
 
         /* Scale the image width to match the height */
         int imgheight = SheetMusic.NoteHeight * 2;
         int imgwidth = numer.getWidth() * imgheight / numer.getHeight();
-        Rect src = new Rect(0, 0, numer.getWidth(), numer.getHeight());
-        Rect dest = new Rect(0, ytop, imgwidth, ytop + imgheight);
-        canvas.drawBitmap(numer, src, dest, paint);
-
-        src = new Rect(0, 0, denom.getWidth(), denom.getHeight());
-        dest = new Rect(0, ytop + SheetMusic.NoteHeight*2, imgwidth, ytop + SheetMusic.NoteHeight*2 + imgheight);
-        canvas.drawBitmap(denom, src, dest, paint);
+        DrawNumber(canvas, paint, atlas, numerator, ytop, imgwidth, imgheight);
+        DrawNumber(canvas, paint, atlas, denominator, ytop + SheetMusic.NoteHeight*2,
+                   imgwidth, imgheight);
         canvas.translate(-(getWidth() - getMinWidth()), 0);
     }
 
+    /** Draw the image of the given number, scaled to the given width and
+     *  height, with its top at y.  Copy the scaled image from the atlas,
+     *  if not null.
+     */
+    private void DrawNumber(Canvas canvas, Paint paint, GlyphAtlas atlas,
+                            int number, int y, int imgwidth, int imgheight) {
+        Bitmap image = images[number];
+        Rect src = new Rect(0, 0, image.getWidth(), image.getHeight());
+        if (atlas == null) {
+            canvas.drawBitmap(image, src, new Rect(0, y, imgwidth, y + imgheight), paint);
+            return;
+        }
+        canvas.translate(0, y);
+        atlas.Draw(canvas, paint, "timesig " + number, 0, 0, imgwidth, imgheight,
+                   (c, p) -> c.drawBitmap(image, src, new Rect(0, 0, imgwidth, imgheight), p));
+        canvas.translate(0, -y);
+    }
+
     public String toString() {
         return String.format("TimeSigSymbol numerator=%1$s denominator=%2$s",
                              numerator, denominator);
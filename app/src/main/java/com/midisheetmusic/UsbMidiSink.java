@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic;
+
+import java.util.*;
+
+import jp.kshoji.driver.midi.device.MidiOutputDevice;
+
+/** @class UsbMidiSink
+ * A MidiSink that plays the events on a USB Midi device.  The events of
+ * a batch are kept until Flush() is called, and then sent to the device
+ * one after another.  The device plays each event as soon as it is
+ * received, so the intended time is ignored.
+ */
+public class UsbMidiSink implements MidiSink {
+    private MidiOutputDevice device;   /** The USB Midi device */
+    private int[] batch;               /** The status, data1, data2 of each event in the batch */
+    private int batchsize;             /** The number of ints used in the batch */
+    private ArrayList<byte[]> sysex;   /** The sysex data of the batch */
+
+    public UsbMidiSink(MidiOutputDevice device) {
+        this.device = device;
+        batch = new int[3 * 64];
+        sysex = new ArrayList<byte[]>();
+    }
+
+    /** Return the USB Midi device */
+    public MidiOutputDevice getDevice() { return device; }
+
+    public void Send(long time, int status, int data1, int data2) {
+        if (batchsize + 3 > batch.length) {
+            batch = Arrays.copyOf(batch, batch.length * 2);
+        }
+        batch[batchsize++] = status;
+        batch[batchsize++] = data1;
+        batch[batchsize++] = data2;
+    }
+
+    /** Sysex events are kept in order with the channel events, using
+     *  a status of 0xF0 and the index of the sysex data.
+     */
+    public void SendSysex(long time, byte[] data) {
+        Send(time, MidiFile.SysexEvent1 & 0xFF, sysex.size(), 0);
+        sysex.add(data);
+    }
+
+    public void Flush() {
+        for (int i = 0; i < batchsize; i += 3) {
+            int status = batch[i];
+            int data1 = batch[i+1];
+            int data2 = batch[i+2];
+            int channel = status & 0x0F;
+            switch (status & 0xF0) {
+                case 0x80:
+                    device.sendMidiNoteOff(0, channel, data1, data2); break;
+                case 0x90:
+                    device.sendMidiNoteOn(0, channel, data1, data2); break;
+                case 0xA0:
+                    device.sendMidiPolyphonicAftertouch(0, channel, data1, data2); break;
+                case 0xB0:
+                    device.sendMidiControlChange(0, channel, data1, data2); break;
+                case 0xC0:
+                    device.sendMidiProgramChange(0, channel, data1); break;
+                case 0xD0:
+                    device.sendMidiChannelAftertouch(0, channel, data1); break;
+                case 0xE0:
+                    device.sendMidiPitchWheel(0, channel, (data2 << 7) | data1); break;
+                case 0xF0:
+                    SendSysexData(sysex.get(data1)); break;
+            }
+        }
+        batchsize = 0;
+        sysex.clear();
+    }
+
+    /** Send the sysex data, adding the leading 0xF0 (and the trailing
+     *  0xF7, if missing) that the device expects.
+     */
+    private void SendSysexData(byte[] data) {
+        boolean hasEnd = data.length > 0 && data[data.length-1] == (byte)0xF7;
+        byte[] message = new byte[data.length + (hasEnd ? 1 : 2)];
+        message[0] = (byte)0xF0;
+        System.arraycopy(data, 0, message, 1, data.length);
+        message[message.length-1] = (byte)0xF7;
+        device.sendMidiSystemExclusive(0, message);
+    }
+}
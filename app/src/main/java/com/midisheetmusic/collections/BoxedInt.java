@@ -0,0 +1,22 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic.collections;
+
+/** @class BoxedInt
+ * A mutable int, used to return a second value from a method.
+ * A single BoxedInt can be re-used in a loop.
+ */
+public class BoxedInt {
+    public int value;
+}
+
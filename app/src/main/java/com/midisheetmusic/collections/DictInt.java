@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2007-2011 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+
+package com.midisheetmusic.collections;
+
+import java.util.*;
+
+/**@class DictInt
+ *  The DictInt class is a dictionary mapping integers to integers.
+ *  The keys are kept in a sorted array, and found with a binary search.
+ *
+ *  Adding a key larger than all the other keys is done at the end of
+ *  the array, in constant time.  Adding a smaller key moves the larger
+ *  keys up.  So when adding many keys in random order, it is faster
+ *  to create the dictionary with all the keys at once (see Build).
+ */
+public class DictInt {
+    private int[] keys;    /** Sorted array of integer keys */
+    private int[] values;  /** Array of integer values */
+    private int size;      /** Number of keys */
+
+    /** Create a new DictInt instance with the given capacity.
+     * Initialize two int arrays,  one to store the keys and one
+     * to store the values.
+     */
+    public DictInt() {
+        this(23);
+    }
+
+    public DictInt(int capacity) {
+        size = 0;
+        keys = new int[Math.max(capacity, 1)];
+        values = new int[keys.length];
+    }
+
+    /** Create a dictionary containing the given keys, which can be in
+     *  any order and repeated.  All the values are 0.
+     */
+    public static DictInt Build(ListInt keylist) {
+        int[] sorted = keylist.toArray();
+        Arrays.sort(sorted);
+        DictInt dict = new DictInt(sorted.length);
+        for (int key : sorted) {
+            if (dict.size == 0 || dict.keys[dict.size-1] != key) {
+                dict.keys[dict.size] = key;
+                dict.size++;
+            }
+        }
+        return dict;
+    }
+
+    /** Increase the capacity of the key/value arrays  */
+    private void resize() {
+        int newcapacity = keys.length * 2;
+        keys = Arrays.copyOf(keys, newcapacity);
+        values = Arrays.copyOf(values, newcapacity);
+    }
+
+    /** Return the index of the given key.  If the key is not in the
+     *  dictionary, return (-(insertion index) - 1).
+     */
+    public int indexOf(int key) {
+        if (size > 0 && keys[size-1] == key) {
+            return size-1;
+        }
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    /** Add the given key/value pair to this dictionary.
+     * If the key is already in the dictionary, replace its value.
+     * If the keys/values arrays are full, then resize them.
+     * The keys array must be kept in sorted order, so insert
+     * the new key/value in the correct sorted position.
+     */
+    public void add(int key, int value) {
+        int pos = size;
+        if (size > 0 && key <= keys[size-1]) {
+            int index = indexOf(key);
+            if (index >= 0) {
+                values[index] = value;
+                return;
+            }
+            pos = -index - 1;
+        }
+        if (size == keys.length) {
+            resize();
+        }
+        System.arraycopy(keys, pos, keys, pos+1, size - pos);
+        System.arraycopy(values, pos, values, pos+1, size - pos);
+        keys[pos] = key;
+        values[pos] = value;
+        size++;
+    }
+
+    /** Set the given key to the given value */
+    public void set(int key, int value) {
+        add(key, value);
+    }
+
+    /** Return true if this dictionary contains the given key. */
+    public boolean contains(int key) {
+        return indexOf(key) >= 0;
+    }
+
+    /** Get the value for the given key, or 0 if there is none. */
+    public int get(int key) {
+        int index = indexOf(key);
+        if (index >= 0) {
+            return values[index];
+        }
+        else {
+            return 0;
+        }
+    }
+
+    /** Return the number of key/value pairs */
+    public int count() {
+        return size;
+    }
+
+    /** Return the key at the given index */
+    public int getKey(int index) {
+        return keys[index];
+    }
+
+    /** Return the value at the given index */
+    public int getValue(int index) {
+        return values[index];
+    }
+
+    /** Set the value at the given index */
+    public void setValue(int index, int value) {
+        values[index] = value;
+    }
+}
+
@@ -11,12 +11,15 @@
  */
 
 
-package com.midisheetmusic;
+package com.midisheetmusic.collections;
 
 import java.util.*;
 
 /** @class ListInt
- * An ArrayList of int types.
+ * An ArrayList of int types.  The list grows by doubling its capacity.
+ *
+ * contains() is a linear search.  To check for duplicates while adding
+ * many values, use a SetInt instead.
  */
 
 public class ListInt {
@@ -29,25 +32,31 @@ public class ListInt {
     }
 
     public ListInt(int capacity) {
-        data = new int[capacity];
+        data = new int[Math.max(capacity, 1)];
         count = 0;
     }
 
     public int size() {
         return count;
     }
+
     public void add(int x) {
         if (data.length == count) {
-            int[] newdata = new int[count * 2];
-            for (int i = 0; i < count; i++) {
-                newdata[i] = data[i];
-            }
-            data = newdata;
+            data = Arrays.copyOf(data, count * 2);
         }
         data[count] = x;
         count++;
     }
 
+    /** Add all the values in the given list */
+    public void addAll(ListInt list) {
+        if (data.length < count + list.count) {
+            data = Arrays.copyOf(data, Math.max(count * 2, count + list.count));
+        }
+        System.arraycopy(list.data, 0, data, count, list.count);
+        count += list.count;
+    }
+
     public int get(int index) {
         return data[index];
     }
@@ -56,6 +65,11 @@ public class ListInt {
         data[index] = x;
     }
 
+    /** Remove all the values, keeping the capacity for re-use */
+    public void clear() {
+        count = 0;
+    }
+
     public boolean contains(int x) {
         for (int i = 0; i < count; i++) {
             if (data[i] == x) {
@@ -65,9 +79,25 @@ public class ListInt {
         return false;
     }
 
-
     public void sort() {
         Arrays.sort(data, 0, count);
     }
+
+    /** Remove the duplicate values of a sorted list */
+    public void distinct() {
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (n == 0 || data[i] != data[n-1]) {
+                data[n] = data[i];
+                n++;
+            }
+        }
+        count = n;
+    }
+
+    /** Return a new array with the values in the list */
+    public int[] toArray() {
+        return Arrays.copyOf(data, count);
+    }
 }
 
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic.collections;
+
+/** @class PairInt
+ * A pair of ints, used to return two values from a method.  A single
+ * pair can be re-used in a loop, by calling set() before each use.
+ */
+public class PairInt {
+    public int low;
+    public int high;
+
+    public void set(int low, int high) {
+        this.low = low;
+        this.high = high;
+    }
+}
+
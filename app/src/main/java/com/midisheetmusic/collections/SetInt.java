@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic.collections;
+
+import java.util.*;
+
+/** @class SetInt
+ * A set of ints, stored in a hash table with open addressing (linear
+ * probing).  Adding and finding a value take constant time on average.
+ *
+ * Empty slots in the table hold the value Empty.  Since Empty itself
+ * can be added to the set, whether it is in the set is stored separately.
+ */
+public class SetInt {
+    private static final int Empty = Integer.MIN_VALUE;
+
+    private int[] table;        /** The hash table, with a power of 2 size */
+    private int size;           /** The number of values in the set */
+    private boolean hasEmpty;   /** True if the value Empty is in the set */
+
+    public SetInt() {
+        this(16);
+    }
+
+    /** Create a set that can hold the given number of values without growing */
+    public SetInt(int capacity) {
+        int tablesize = 4;
+        while (tablesize < capacity * 2) {
+            tablesize *= 2;
+        }
+        table = new int[tablesize];
+        Arrays.fill(table, Empty);
+    }
+
+    /** Return the slot where the given value should be searched first */
+    private static int Slot(int x, int mask) {
+        int h = x * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int x) {
+        if (x == Empty) {
+            return hasEmpty;
+        }
+        int mask = table.length - 1;
+        int slot = Slot(x, mask);
+        while (table[slot] != Empty) {
+            if (table[slot] == x) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /** Add the given value.  Return false if it was already in the set. */
+    public boolean add(int x) {
+        if (x == Empty) {
+            if (hasEmpty) {
+                return false;
+            }
+            hasEmpty = true;
+            size++;
+            return true;
+        }
+        int mask = table.length - 1;
+        int slot = Slot(x, mask);
+        while (table[slot] != Empty) {
+            if (table[slot] == x) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = x;
+        size++;
+        if (size * 2 > table.length) {
+            resize();
+        }
+        return true;
+    }
+
+    /** Double the size of the table, keeping it at most half full */
+    private void resize() {
+        int[] old = table;
+        table = new int[old.length * 2];
+        Arrays.fill(table, Empty);
+        int mask = table.length - 1;
+        for (int x : old) {
+            if (x != Empty) {
+                int slot = Slot(x, mask);
+                while (table[slot] != Empty) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = x;
+            }
+        }
+    }
+
+    /** Remove all the values, keeping the capacity for re-use */
+    public void clear() {
+        Arrays.fill(table, Empty);
+        size = 0;
+        hasEmpty = false;
+    }
+}
+
@@ -93,8 +93,9 @@ public class AccidSymbol implements MusicSymbol {
 
     /** Draw the symbol.
      * @param ytop The ylocation (in pixels) where the top of the staff starts.
+     * @param atlas The glyphs to copy, or null to draw them.
      */
-    public void Draw(Canvas canvas, Paint paint, int ytop) {
+    public void Draw(Canvas canvas, Paint paint, int ytop, GlyphAtlas atlas) {
         /* Align the symbol to the right */
         canvas.translate(getWidth() - getMinWidth(), 0);
 
@@ -102,14 +103,32 @@ public class AccidSymbol implements MusicSymbol {
         int ynote = ytop + WhiteNote.Top(clef).Dist(whitenote) * 
                     SheetMusic.NoteHeight/2;
 
+        if (atlas != null) {
+            /* Copy the accidental drawn at ynote == 0 */
+            canvas.translate(0, ynote);
+            atlas.Draw(canvas, paint, "accid " + accid,
+                       -SheetMusic.NoteHeight/2, -2*SheetMusic.NoteHeight,
+                       2*SheetMusic.NoteHeight, 3*SheetMusic.NoteHeight,
+                       (c, p) -> DrawAccid(c, p, 0));
+            canvas.translate(0, -ynote);
+        }
+        else {
+            DrawAccid(canvas, paint, ynote);
+        }
+
+        canvas.translate(-(getWidth() - getMinWidth()), 0);
+    }
+
+    /** Draw the sharp, flat or natural symbol.
+     * @param ynote The pixel location of the top of the accidental's note.
+     */
+    private void DrawAccid(Canvas canvas, Paint paint, int ynote) {
         if (accid == Accid.Sharp)
             DrawSharp(canvas, paint, ynote);
         else if (accid == Accid.Flat)
             DrawFlat(canvas, paint, ynote);
         else if (accid == Accid.Natural)
             DrawNatural(canvas, paint, ynote);
-
-        canvas.translate(-(getWidth() - getMinWidth()), 0);
     }
 
     /** Draw a sharp symbol. 
@@ -59,9 +59,10 @@ public class BarSymbol implements MusicSymbol {
 
     /** Draw a vertical bar.
      * @param ytop The ylocation (in pixels) where the top of the staff starts.
+     * @param atlas The glyphs to copy, or null to draw them.
      */
     public 
-    void Draw(Canvas canvas, Paint paint, int ytop) {
+    void Draw(Canvas canvas, Paint paint, int ytop, GlyphAtlas atlas) {
         int y = ytop;
         int yend = y + SheetMusic.LineSpace*4 + SheetMusic.LineWidth*4;
         paint.setStrokeWidth(1);
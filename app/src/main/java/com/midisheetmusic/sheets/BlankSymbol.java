@@ -56,8 +56,9 @@ public class BlankSymbol implements MusicSymbol {
 
     /** Draw nothing.
      * @param ytop The ylocation (in pixels) where the top of the staff starts.
+     * @param atlas The glyphs to copy, or null to draw them.
      */
-    public void Draw(Canvas canvas, Paint paint, int ytop) {}
+    public void Draw(Canvas canvas, Paint paint, int ytop, GlyphAtlas atlas) {}
 
     public String toString() {
         return String.format("BlankSymbol starttime=%1$s width=%2$s", 
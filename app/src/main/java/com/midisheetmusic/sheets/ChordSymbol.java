@@ -249,6 +249,11 @@ public class ChordSymbol implements MusicSymbol {
     /** Return the clef this chord is drawn in. */
     public Clef getClef() { return clef; }
 
+    /** Set the sheet music used to get the colors and other options.
+     *  This is changed when a staff is re-used by another SheetMusic.
+     */
+    public void setSheetMusic(SheetMusic sheet) { sheetmusic = sheet; }
+
     /** Return true if this chord has two stems */
     public boolean getHasTwoStems() { return hastwostems; }
 
@@ -461,8 +466,9 @@ public class ChordSymbol implements MusicSymbol {
      * - Draw the black circle notes.
      * - Draw the stems.
      *   @param ytop The ylocation (in pixels) where the top of the staff starts.
+     *   @param atlas The glyphs to copy, or null to draw them.
      */
-    public void Draw(Canvas canvas, Paint paint, int ytop) {
+    public void Draw(Canvas canvas, Paint paint, int ytop, GlyphAtlas atlas) {
         paint.setStyle(Paint.Style.STROKE);
 
         /* Align the chord to the right */
@@ -470,14 +476,14 @@ public class ChordSymbol implements MusicSymbol {
 
         /* Draw the accidentals. */
         WhiteNote topstaff = WhiteNote.Top(clef);
-        int xpos = DrawAccid(canvas, paint, ytop);
+        int xpos = DrawAccid(canvas, paint, ytop, atlas);
 
         /* Draw the notes */
         canvas.translate(xpos, 0);
-        DrawNotes(canvas, paint, ytop, topstaff);
+        DrawNotes(canvas, paint, ytop, topstaff, atlas);
 
         if (sheetmusic != null && sheetmusic.getShowNoteLetters() != 0) {
-            DrawNoteLetters(canvas, paint, ytop, topstaff);
+            DrawNoteLetters(canvas, paint, ytop, topstaff, atlas);
         }
 
         /* Draw the stems */
@@ -494,9 +500,10 @@ public class ChordSymbol implements MusicSymbol {
      * are less than 6 notes apart), we cannot draw the symbol directly
      * above the previous one.  Instead, we must shift it to the right.
      * @param ytop The ylocation (in pixels) where the top of the staff starts.
+     * @param atlas The glyphs to copy, or null to draw them.
      * @return The x pixel width used by all the accidentals.
      */
-    public int DrawAccid(Canvas canvas, Paint paint, int ytop) {
+    public int DrawAccid(Canvas canvas, Paint paint, int ytop, GlyphAtlas atlas) {
         int xpos = 0;
 
         AccidSymbol prev = null;
@@ -505,7 +512,7 @@ public class ChordSymbol implements MusicSymbol {
                 xpos += symbol.getWidth();
             }
             canvas.translate(xpos, 0);
-            symbol.Draw(canvas, paint, ytop);
+            symbol.Draw(canvas, paint, ytop, atlas);
             canvas.translate(-xpos, 0);
             prev = symbol;
         }
@@ -518,8 +525,10 @@ public class ChordSymbol implements MusicSymbol {
     /** Draw the black circle notes.
      * @param ytop The ylocation (in pixels) where the top of the staff starts.
      * @param topstaff The white note of the top of the staff.
+     * @param atlas The note heads to copy, or null to draw them.
      */
-    public void DrawNotes(Canvas canvas, Paint paint, int ytop, WhiteNote topstaff) {
+    public void DrawNotes(Canvas canvas, Paint paint, int ytop, WhiteNote topstaff,
+                          GlyphAtlas atlas) {
         paint.setStrokeWidth(1);
         for (NoteData note : notedata) {
             /* Get the x,y position to draw the note */
@@ -535,7 +544,6 @@ public class ChordSymbol implements MusicSymbol {
              */
             canvas.translate(xnote + SheetMusic.NoteWidth/2 + 1, 
                              ynote - SheetMusic.LineWidth + SheetMusic.NoteHeight/2);
-            canvas.rotate(-45);
 
             if (sheetmusic != null) {
                 paint.setColor( sheetmusic.NoteColor(note.number) );
@@ -544,36 +552,21 @@ public class ChordSymbol implements MusicSymbol {
                 paint.setColor(Color.BLACK);
             }
 
-            if (note.duration == NoteDuration.Whole || 
-                note.duration == NoteDuration.Half ||
-                note.duration == NoteDuration.DottedHalf) {
-
-                RectF rect = new RectF(-SheetMusic.NoteWidth/2, -SheetMusic.NoteHeight/2,
-                                       -SheetMusic.NoteWidth/2 + SheetMusic.NoteWidth, 
-                                       -SheetMusic.NoteHeight/2 + SheetMusic.NoteHeight-1);
-                canvas.drawOval(rect, paint);
-                rect = new RectF(-SheetMusic.NoteWidth/2, -SheetMusic.NoteHeight/2 + 1,
-                                 -SheetMusic.NoteWidth/2 +  SheetMusic.NoteWidth, 
-                                 -SheetMusic.NoteHeight/2 + 1 + SheetMusic.NoteHeight-2);
-                canvas.drawOval(rect, paint);
-                rect = new RectF(-SheetMusic.NoteWidth/2, -SheetMusic.NoteHeight/2 + 1,
-                                 -SheetMusic.NoteWidth/2 + SheetMusic.NoteWidth, 
-                                 -SheetMusic.NoteHeight/2 + 1 + SheetMusic.NoteHeight-3);
-                canvas.drawOval(rect, paint);
-
+            boolean hollow = (note.duration == NoteDuration.Whole || 
+                              note.duration == NoteDuration.Half ||
+                              note.duration == NoteDuration.DottedHalf);
+            if (atlas != null) {
+                atlas.Draw(canvas, paint, "note " + hollow,
+                           -SheetMusic.NoteWidth, -SheetMusic.NoteWidth,
+                           SheetMusic.NoteWidth, SheetMusic.NoteWidth,
+                           (c, p) -> DrawNoteHead(c, p, hollow));
             }
             else {
-                paint.setStyle(Paint.Style.FILL);
-                RectF rect = new RectF(-SheetMusic.NoteWidth/2, -SheetMusic.NoteHeight/2,
-                                       -SheetMusic.NoteWidth/2 + SheetMusic.NoteWidth, 
-                                       -SheetMusic.NoteHeight/2 + SheetMusic.NoteHeight-1);
-                canvas.drawOval(rect, paint);
-                paint.setStyle(Paint.Style.STROKE);
+                DrawNoteHead(canvas, paint, hollow);
             }
 
             paint.setColor(Color.BLACK);
 
-            canvas.rotate(45);
             canvas.translate(- (xnote + SheetMusic.NoteWidth/2 + 1), 
                              - (ynote - SheetMusic.LineWidth + SheetMusic.NoteHeight/2));
 
@@ -621,11 +614,43 @@ public class ChordSymbol implements MusicSymbol {
         }
     }
 
+    /** Draw a note head, an ellipse rotated 45 degrees, centered at (0,0).
+     * @param hollow If true, draw a white note (whole or half note).
+     */
+    private void DrawNoteHead(Canvas canvas, Paint paint, boolean hollow) {
+        canvas.rotate(-45);
+        if (hollow) {
+            RectF rect = new RectF(-SheetMusic.NoteWidth/2, -SheetMusic.NoteHeight/2,
+                                   -SheetMusic.NoteWidth/2 + SheetMusic.NoteWidth, 
+                                   -SheetMusic.NoteHeight/2 + SheetMusic.NoteHeight-1);
+            canvas.drawOval(rect, paint);
+            rect = new RectF(-SheetMusic.NoteWidth/2, -SheetMusic.NoteHeight/2 + 1,
+                             -SheetMusic.NoteWidth/2 +  SheetMusic.NoteWidth, 
+                             -SheetMusic.NoteHeight/2 + 1 + SheetMusic.NoteHeight-2);
+            canvas.drawOval(rect, paint);
+            rect = new RectF(-SheetMusic.NoteWidth/2, -SheetMusic.NoteHeight/2 + 1,
+                             -SheetMusic.NoteWidth/2 + SheetMusic.NoteWidth, 
+                             -SheetMusic.NoteHeight/2 + 1 + SheetMusic.NoteHeight-3);
+            canvas.drawOval(rect, paint);
+        }
+        else {
+            paint.setStyle(Paint.Style.FILL);
+            RectF rect = new RectF(-SheetMusic.NoteWidth/2, -SheetMusic.NoteHeight/2,
+                                   -SheetMusic.NoteWidth/2 + SheetMusic.NoteWidth, 
+                                   -SheetMusic.NoteHeight/2 + SheetMusic.NoteHeight-1);
+            canvas.drawOval(rect, paint);
+            paint.setStyle(Paint.Style.STROKE);
+        }
+        canvas.rotate(45);
+    }
+
     /** Draw the note letters (A, A#, Bb, etc) next to the note circles.
      * @param ytop The y location (in pixels) where the top of the staff starts.
      * @param topstaff The white note of the top of the staff.
+     * @param atlas The letters to copy, or null to draw them.
      */
-    public void DrawNoteLetters(Canvas canvas, Paint paint, int ytop, WhiteNote topstaff) {
+    public void DrawNoteLetters(Canvas canvas, Paint paint, int ytop, WhiteNote topstaff,
+                                GlyphAtlas atlas) {
         boolean overlap = NotesOverlap(notedata, 0, notedata.length);
         paint.setStrokeWidth(1);
         paint.setColor(SheetMusic.getTextColor());
@@ -649,9 +674,13 @@ public class ChordSymbol implements MusicSymbol {
 
                 xnote += SheetMusic.NoteWidth/2;
             } 
-            canvas.drawText(NoteName(note.number, note.whitenote),
-                            xnote,
-                            ynote + SheetMusic.NoteHeight/2, paint);
+            String name = NoteName(note.number, note.whitenote);
+            if (atlas != null) {
+                atlas.DrawText(canvas, paint, name, xnote, ynote + SheetMusic.NoteHeight/2);
+            }
+            else {
+                canvas.drawText(name, xnote, ynote + SheetMusic.NoteHeight/2, paint);
+            }
         }
     }
 
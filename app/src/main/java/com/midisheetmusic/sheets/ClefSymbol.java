@@ -58,6 +58,12 @@ public class ClefSymbol implements MusicSymbol {
      */
     public int getStartTime() { return starttime; }
 
+    /** Get the clef, Treble or Bass */
+    public Clef getClef() { return clef; }
+
+    /** Return true if this is a small clef */
+    public boolean isSmall() { return smallsize; }
+
     /** Get the minimum width (in pixels) needed to draw this symbol */
     public int getMinWidth() { 
         if (smallsize)
@@ -96,9 +102,10 @@ public class ClefSymbol implements MusicSymbol {
 
     /** Draw the symbol.
      * @param ytop The ylocation (in pixels) where the top of the staff starts.
+     * @param atlas The glyphs to copy, or null to draw them.
      */
     public 
-    void Draw(Canvas canvas, Paint paint, int ytop) {
+    void Draw(Canvas canvas, Paint paint, int ytop, GlyphAtlas atlas) {
         canvas.translate(getWidth() - getMinWidth(), 0);
         int y = ytop;
         Bitmap image;
@@ -128,8 +135,19 @@ public class ClefSymbol implements MusicSymbol {
         /* Scale the image width to match the height */
         int imgwidth = image.getWidth() * height / image.getHeight();
         Rect src = new Rect(0, 0, image.getWidth(), image.getHeight());
-        Rect dest = new Rect(0, y, 0 + imgwidth, y + height);
-        canvas.drawBitmap(image, src, dest, paint);
+        if (atlas != null) {
+            /* Copy the image, already scaled to the zoom level */
+            Bitmap clefimage = image;
+            Rect dest = new Rect(0, 0, imgwidth, height);
+            canvas.translate(0, y);
+            atlas.Draw(canvas, paint, "clef " + clef + " " + smallsize, 0, 0, imgwidth, height,
+                       (c, p) -> c.drawBitmap(clefimage, src, dest, p));
+            canvas.translate(0, -y);
+        }
+        else {
+            Rect dest = new Rect(0, y, 0 + imgwidth, y + height);
+            canvas.drawBitmap(image, src, dest, paint);
+        }
         canvas.translate(-(getWidth() - getMinWidth()), 0);
     }
 
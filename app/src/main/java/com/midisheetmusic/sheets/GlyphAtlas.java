@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic.sheets;
+
+import java.util.*;
+import android.graphics.*;
+
+/** @class GlyphAtlas
+ * The GlyphAtlas holds the glyphs drawn most often in the sheet music
+ * (note heads, accidentals, rests, clefs, time signature numbers, and the
+ * text of the note letters, measure numbers and lyrics), each drawn
+ * once into a small bitmap at a single zoom level.  The music symbols
+ * copy the glyph bitmaps, instead of drawing rotated ovals, lines and
+ * paths, or scaling the large clef images, every time.
+ *
+ * The atlas zoom levels are a few steps per octave (see AtlasZoom).
+ * The glyphs are drawn at the step at or above the screen zoom level,
+ * and scaled down a little when copied.  So pinching through nearby
+ * zoom levels uses the same atlas, and the same recorded staffs (see
+ * Staff.DrawRecorded).
+ *
+ * A glyph is drawn into the atlas the first time it is used, in the
+ * color of the paint at that time, so the color is part of its key.
+ * The SheetMusic keeps the atlases of the last few zoom levels, and
+ * creates new ones after the colors change.  When the atlas is full,
+ * glyphs not in it yet are drawn directly on the canvas.
+ */
+public class GlyphAtlas {
+
+    private static final int MaxGlyphs = 4096;  /** The most glyphs to keep */
+    private static final int StepsPerOctave = 4; /** The atlas zoom levels between two doublings of the zoom */
+
+    /** @class Glyph
+     * Draws a glyph (with lines, ovals, paths or text) on the canvas.
+     */
+    public interface Glyph {
+        void Draw(Canvas canvas, Paint paint);
+    }
+
+    /** A glyph drawn into a bitmap, and where the bitmap is drawn,
+     *  in unzoomed pixels relative to the glyph origin.
+     */
+    private static class Entry {
+        Bitmap bitmap;
+        RectF dest;
+    }
+
+    private float zoom;                      /** The zoom level of the glyphs */
+    private HashMap<String, Entry> glyphs;   /** The glyphs drawn so far */
+    private Paint template;                  /** The paint used to draw the glyphs */
+    private Paint bitmapPaint;               /** The paint used to copy the glyphs */
+
+    /** Create an empty atlas for the given zoom level.  The glyphs are
+     *  drawn with copies of the given paint, which also sets the size
+     *  of the text.
+     */
+    public GlyphAtlas(float zoom, Paint template) {
+        this.zoom = zoom;
+        glyphs = new HashMap<>();
+        this.template = new Paint(template);
+        this.template.setAntiAlias(true);
+        this.template.setStyle(Paint.Style.STROKE);
+        this.template.setColor(Color.BLACK);
+        bitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    }
+
+    /** Return the zoom level of the glyphs */
+    public float getZoom() { return zoom; }
+
+    /** Return the atlas zoom level to use for the given zoom level:
+     *  the smallest power of 2^(1/StepsPerOctave) at or above it.
+     */
+    public static float AtlasZoom(float zoom) {
+        if (zoom <= 0) {
+            return zoom;
+        }
+        double step = Math.ceil(Math.log(zoom) / Math.log(2) * StepsPerOctave - 1e-6);
+        return (float)Math.pow(2, step / StepsPerOctave);
+    }
+
+    /** Draw the glyph with the given key at (0,0) on the canvas, in the
+     *  color of the paint.  The glyph must lie inside the given bounds
+     *  (in unzoomed pixels, relative to (0,0)), and is drawn with a copy
+     *  of the given paint.  The canvas must be scaled by the zoom level
+     *  of the atlas.
+     */
+    public void Draw(Canvas canvas, Paint paint, String key,
+                     float left, float top, float right, float bottom, Glyph glyph) {
+        key = key + " " + paint.getColor();
+        Entry entry = GetEntry(paint, key, left, top, right, bottom, glyph);
+        if (entry == null) {
+            glyph.Draw(canvas, paint);
+            return;
+        }
+        canvas.drawBitmap(entry.bitmap, null, entry.dest, bitmapPaint);
+    }
+
+    /** Draw the text with its baseline starting at (x, y), in the color
+     *  of the paint.  The text is measured with the paint of the atlas.
+     */
+    public void DrawText(Canvas canvas, Paint paint, String text, float x, float y) {
+        float width = template.measureText(text);
+        canvas.translate(x, y);
+        Draw(canvas, paint, "text " + paint.getStyle() + " " + text,
+             0, template.ascent(), width, template.descent(),
+             (c, p) -> c.drawText(text, 0, 0, p));
+        canvas.translate(-x, -y);
+    }
+
+    /** Return the glyph with the given key, drawing it into a new bitmap
+     *  if needed.  Return null if the atlas is full.  The glyphs are
+     *  drawn on several threads, so this is synchronized.
+     */
+    private synchronized Entry GetEntry(Paint paint, String key,
+                                        float left, float top, float right, float bottom,
+                                        Glyph glyph) {
+        Entry entry = glyphs.get(key);
+        if (entry != null || glyphs.size() >= MaxGlyphs) {
+            return entry;
+        }
+        /* Round the bounds out to whole zoomed pixels, plus a pixel
+         * on each side for the anti-aliased edges.
+         */
+        int pixelLeft = (int)Math.floor(left * zoom) - 1;
+        int pixelTop = (int)Math.floor(top * zoom) - 1;
+        int pixelRight = (int)Math.ceil(right * zoom) + 1;
+        int pixelBottom = (int)Math.ceil(bottom * zoom) + 1;
+
+        Bitmap bitmap = Bitmap.createBitmap(pixelRight - pixelLeft, pixelBottom - pixelTop,
+                                            Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.translate(-pixelLeft, -pixelTop);
+        canvas.scale(zoom, zoom);
+        Paint glyphPaint = new Paint(template);
+        glyphPaint.setColor(paint.getColor());
+        glyphPaint.setStyle(paint.getStyle());
+        glyphPaint.setStrokeWidth(paint.getStrokeWidth());
+        glyph.Draw(canvas, glyphPaint);
+
+        entry = new Entry();
+        entry.bitmap = bitmap;
+        entry.dest = new RectF(pixelLeft / zoom, pixelTop / zoom,
+                               pixelRight / zoom, pixelBottom / zoom);
+        glyphs.put(key, entry);
+        return entry;
+    }
+}
@@ -54,8 +54,10 @@ public interface MusicSymbol {
 
     /** Draw the symbol.
      * @param ytop The ylocation (in pixels) where the top of the staff starts.
+     * @param atlas The glyphs to copy, instead of drawing them again,
+     *              or null to draw the glyphs (see GlyphAtlas).
      */
-    public void Draw(Canvas canvas, Paint paint, int ytop);
+    public void Draw(Canvas canvas, Paint paint, int ytop, GlyphAtlas atlas);
 
 }
 
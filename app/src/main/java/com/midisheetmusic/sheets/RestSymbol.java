@@ -40,6 +40,9 @@ public class RestSymbol implements MusicSymbol {
      */
     public int getStartTime() { return starttime; }
 
+    /** Get the rest duration */
+    public NoteDuration getDuration() { return duration; }
+
     /** Get/Set the width (in pixels) of this symbol. The width is set
      * in SheetMusic.AlignSymbols() to vertically align symbols.
      */
@@ -63,13 +66,33 @@ public class RestSymbol implements MusicSymbol {
 
     /** Draw the symbol.
      * @param ytop The ylocation (in pixels) where the top of the staff starts.
+     * @param atlas The glyphs to copy, or null to draw them.
      */
     public 
-    void Draw(Canvas canvas, Paint paint, int ytop) {
+    void Draw(Canvas canvas, Paint paint, int ytop, GlyphAtlas atlas) {
         /* Align the rest symbol to the right */
         canvas.translate(getWidth() - getMinWidth(), 0);
         canvas.translate(SheetMusic.NoteHeight/2, 0);
 
+        if (atlas != null) {
+            /* Copy the rest drawn at ytop == 0 */
+            canvas.translate(0, ytop);
+            atlas.Draw(canvas, paint, "rest " + duration,
+                       -2, -2, 2*SheetMusic.NoteWidth, 4*SheetMusic.NoteHeight,
+                       (c, p) -> DrawRest(c, p, 0));
+            canvas.translate(0, -ytop);
+        }
+        else {
+            DrawRest(canvas, paint, ytop);
+        }
+        canvas.translate(-SheetMusic.NoteHeight/2, 0);
+        canvas.translate(-(getWidth() - getMinWidth()), 0);
+    }
+
+    /** Draw the rest symbol for the duration.
+     * @param ytop The ylocation (in pixels) where the top of the staff starts.
+     */
+    private void DrawRest(Canvas canvas, Paint paint, int ytop) {
         if (duration == NoteDuration.Whole) {
             DrawWhole(canvas, paint, ytop);
         }
@@ -82,8 +105,6 @@ public class RestSymbol implements MusicSymbol {
         else if (duration == NoteDuration.Eighth) {
             DrawEighth(canvas, paint, ytop);
         }
-        canvas.translate(-SheetMusic.NoteHeight/2, 0);
-        canvas.translate(-(getWidth() - getMinWidth()), 0);
     }
 
 
@@ -18,6 +18,7 @@ import android.graphics.*;
 import com.midisheetmusic.KeySignature;
 import com.midisheetmusic.MidiOptions;
 import com.midisheetmusic.SheetMusic;
+import com.midisheetmusic.collections.ListInt;
 
 
 /* @class Staff
@@ -52,6 +53,17 @@ public class Staff {
     private int starttime;              /** The time (in pulses) of first symbol */
     private int endtime;                /** The time (in pulses) of last symbol */
     private int measureLength;          /** The time (in pulses) of a measure */
+    private int[] symbolx;              /** The x pixel of each symbol, and of the end of the last symbol */
+    private int[] symbolstart;          /** The start time of each symbol */
+    private int[] symbolend;            /** The time each symbol stops being shaded */
+    private int[] chords;               /** The index of each ChordSymbol */
+    private LinkedHashMap<Float, Picture[]> pictures; /** The recorded drawing of each part of the staff, per atlas zoom level (see DrawRecorded) */
+
+    /** The width (in pixels) of each recorded part of the staff */
+    private static final int PictureWidth = 2048;
+
+    /** The most atlas zoom levels to keep the recorded drawing for */
+    private static final int MaxPictureZooms = 2;
 
     /** Create a new staff with the given list of music symbols,
      * and the given key signature.  The clef is determined by
@@ -82,6 +94,7 @@ public class Staff {
         CalculateHeight();
         CalculateStartEndTime();
         FullJustify();
+        CreateIndex();
     }
 
     /** Return the width of the staff */
@@ -106,10 +119,21 @@ public class Staff {
     public int getEndTime() { return endtime; }
     public void setEndTime(int value) { endtime = value; }
 
+    /** Set the sheet music of the chords in this staff (see StaffList) */
+    public void setSheetMusic(SheetMusic sheet) {
+        for (MusicSymbol s : symbols) {
+            if (s instanceof ChordSymbol) {
+                ((ChordSymbol)s).setSheetMusic(sheet);
+            }
+        }
+        /* The note colors may have changed */
+        ClearPictures();
+    }
+
     /** Find the initial clef to use for this staff.  Use the clef of
      * the first ChordSymbol.
      */
-    private Clef FindClef(ArrayList<MusicSymbol> list) {
+    private static Clef FindClef(List<MusicSymbol> list) {
         for (MusicSymbol m : list) {
             if (m instanceof ChordSymbol) {
                 ChordSymbol c = (ChordSymbol) m;
@@ -147,6 +171,34 @@ public class Staff {
          */
         if (tracknum == totaltracks-1)
             height += SheetMusic.NoteHeight * 3;
+        ClearPictures();
+    }
+
+    /** Return the height of a staff with the given symbols, the same as
+     *  CalculateHeight(), without creating the staff.  The layout uses
+     *  this to measure the staffs after the beams are created, once the
+     *  staffs are no longer kept (see StaffMetrics).
+     */
+    public static int CalculateHeight(List<MusicSymbol> symbols, MidiOptions options,
+                                      boolean hasLyrics, int tracknum, int totaltracks) {
+        ClefSymbol clefsym = new ClefSymbol(FindClef(symbols), 0, false);
+        int above = clefsym.getAboveStaff();
+        int below = clefsym.getBelowStaff();
+        for (MusicSymbol s : symbols) {
+            above = Math.max(above, s.getAboveStaff());
+            below = Math.max(below, s.getBelowStaff());
+        }
+        if (options.showMeasures && tracknum == 0) {
+            above = Math.max(above, SheetMusic.NoteHeight * 3);
+        }
+        int height = SheetMusic.NoteHeight*6 + above + below;
+        if (hasLyrics) {
+            height += SheetMusic.NoteHeight * 3/2;
+        }
+        if (tracknum == totaltracks-1) {
+            height += SheetMusic.NoteHeight * 3;
+        }
+        return height;
     }
 
     /** Calculate the width of this staff */
@@ -219,6 +271,105 @@ public class Staff {
     }
 
 
+    /** Create the arrays used to find the symbols at a given x position
+     *  or time, using a binary search:
+     *  - symbolx is the sum of the symbol widths before each symbol
+     *  - symbolstart is the start time of each symbol
+     *  - symbolend is the start time of the next symbol (skipping a bar)
+     *  - chords are the indexes of the ChordSymbols
+     *  The symbol widths must not change afterwards.
+     */
+    private void CreateIndex() {
+        int n = symbols.size();
+        symbolx = new int[n+1];
+        symbolstart = new int[n];
+        symbolend = new int[n];
+        int numchords = 0;
+        symbolx[0] = keysigWidth;
+        for (int i = 0; i < n; i++) {
+            MusicSymbol s = symbols.get(i);
+            symbolx[i+1] = symbolx[i] + s.getWidth();
+            symbolstart[i] = s.getStartTime();
+            if (s instanceof ChordSymbol) {
+                numchords++;
+            }
+        }
+        chords = new int[numchords];
+        numchords = 0;
+        for (int i = 0; i < n; i++) {
+            if (i+2 < n && symbols.get(i+1) instanceof BarSymbol) {
+                symbolend[i] = symbolstart[i+2];
+            }
+            else if (i+1 < n) {
+                symbolend[i] = symbolstart[i+1];
+            }
+            if (symbols.get(i) instanceof ChordSymbol) {
+                chords[numchords++] = i;
+            }
+        }
+    }
+
+    /** Return the time the given symbol stops being shaded.  The last
+     *  symbol is shaded until the end time of the staff, which is
+     *  changed after the staff is created (see setEndTime).
+     */
+    private int SymbolEnd(int index) {
+        return (index+1 < symbols.size()) ? symbolend[index] : endtime;
+    }
+
+    /** Return the index of the first symbol that starts after the given
+     *  time, or the number of symbols if there is none.
+     */
+    private int FirstSymbolAfter(int time) {
+        int low = 0;
+        int high = symbolstart.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (symbolstart[mid] <= time) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** Return the index of the first symbol whose right side is at or
+     *  after the given x position, or the number of symbols if there is none.
+     */
+    private int FirstSymbolEndingAt(int x) {
+        int low = 0;
+        int high = symbolstart.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (symbolx[mid+1] < x) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** Return the index of the symbol (not a bar) that is shaded at the
+     *  given time, or -1 if there is none.  Since the symbols are sorted
+     *  by start time, this is the last symbol that starts at or before
+     *  the time, if it has not ended yet.
+     */
+    private int SymbolAtTime(int time) {
+        int index = FirstSymbolAfter(time) - 1;
+        while (index >= 0 && symbols.get(index) instanceof BarSymbol) {
+            index--;
+        }
+        if (index >= 0 && time < SymbolEnd(index)) {
+            return index;
+        }
+        return -1;
+    }
+
+
     /** Add the lyric symbols that occur within this staff.
      *  Set the x-position of the lyric symbol.
      */
@@ -227,8 +378,6 @@ public class Staff {
             return;
         }
         lyrics = new ArrayList<LyricSymbol>();
-        int xpos = 0;
-        int symbolindex = 0;
         for (LyricSymbol lyric : tracklyrics) {
             if (lyric.getStartTime() < starttime) {
                 continue;
@@ -236,13 +385,11 @@ public class Staff {
             if (lyric.getStartTime() > endtime) {
                 break;
             }
-            /* Get the x-position of this lyric */
-            while (symbolindex < symbols.size() &&
-                   symbols.get(symbolindex).getStartTime() < lyric.getStartTime()) {
-                xpos += symbols.get(symbolindex).getWidth();
-                symbolindex++;
-            }
-            lyric.setX(xpos);
+            /* Get the x-position of this lyric: the first symbol
+             * starting at or after the lyric.
+             */
+            int symbolindex = FirstSymbolAfter(lyric.getStartTime() - 1);
+            lyric.setX(symbolx[symbolindex] - keysigWidth);
             if (symbolindex < symbols.size() &&
                 (symbols.get(symbolindex) instanceof BarSymbol)) {
                 lyric.setX(lyric.getX() + SheetMusic.NoteWidth);
@@ -254,23 +401,39 @@ public class Staff {
         }
     }
 
-    /** Draw the lyrics */
-    private void DrawLyrics(Canvas canvas, Paint paint) {
+    /** Return the lyrics of this staff (can be null) */
+    public ArrayList<LyricSymbol> getLyrics() { return lyrics; }
+
+    /** Set the lyrics of this staff, already positioned by AddLyrics() */
+    public void setLyrics(ArrayList<LyricSymbol> value) {
+        lyrics = value;
+        ClearPictures();
+    }
+
+    /** Draw the lyrics, copying the text from the atlas if not null */
+    private void DrawLyrics(Canvas canvas, Paint paint, GlyphAtlas atlas) {
         /* Skip the left side Clef symbol and key signature */
         int xpos = keysigWidth;
         int ypos = height - SheetMusic.NoteHeight * 3/2;
 
         for (LyricSymbol lyric : lyrics) {
-            canvas.drawText(lyric.getText(),
-                            xpos + lyric.getX(),
-                            ypos,
-                            paint);
+            if (atlas != null) {
+                atlas.DrawText(canvas, paint, lyric.getText(), xpos + lyric.getX(), ypos);
+            }
+            else {
+                canvas.drawText(lyric.getText(),
+                                xpos + lyric.getX(),
+                                ypos,
+                                paint);
+            }
         }
     }
 
 
-    /** Draw the measure numbers for each measure */
-    private void DrawMeasureNumbers(Canvas canvas, Paint paint) {
+    /** Draw the measure numbers for each measure, copying the
+     *  numbers from the atlas if not null.
+     */
+    private void DrawMeasureNumbers(Canvas canvas, Paint paint, GlyphAtlas atlas) {
         /* Skip the left side Clef symbol and key signature */
         int xpos = keysigWidth;
         int ypos = ytop - SheetMusic.NoteHeight * 3;
@@ -278,10 +441,15 @@ public class Staff {
         for (MusicSymbol s : symbols) {
             if (s instanceof BarSymbol) {
                 int measure = 1 + s.getStartTime() / measureLength;
-                canvas.drawText("" + measure,
-                                xpos + SheetMusic.NoteWidth/2,
-                                ypos,
-                                paint);
+                if (atlas != null) {
+                    atlas.DrawText(canvas, paint, "" + measure, xpos + SheetMusic.NoteWidth/2, ypos);
+                }
+                else {
+                    canvas.drawText("" + measure,
+                                    xpos + SheetMusic.NoteWidth/2,
+                                    ypos,
+                                    paint);
+                }
             }
             xpos += s.getWidth();
         }
@@ -330,19 +498,26 @@ public class Staff {
 
     /** Draw this staff. Only draw the symbols inside the clip area */
     public void Draw(Canvas canvas, Rect clip, Paint paint) {
+        Draw(canvas, clip, paint, null);
+    }
+
+    /** Draw this staff, copying the glyphs from the atlas if not null.
+     *  Only draw the symbols inside the clip area.
+     */
+    public void Draw(Canvas canvas, Rect clip, Paint paint, GlyphAtlas atlas) {
         paint.setColor(Color.BLACK);
         int xpos = SheetMusic.LeftMargin + 5;
 
         /* Draw the left side Clef symbol */
         canvas.translate(xpos, 0);
-        clefsym.Draw(canvas, paint, ytop);
+        clefsym.Draw(canvas, paint, ytop, atlas);
         canvas.translate(-xpos, 0);
         xpos += clefsym.getWidth();
 
         /* Draw the key signature */
         for (AccidSymbol a : keys) {
             canvas.translate(xpos, 0);
-            a.Draw(canvas, paint, ytop);
+            a.Draw(canvas, paint, ytop, atlas);
             canvas.translate(-xpos, 0);
             xpos += a.getWidth();
         }
@@ -352,46 +527,138 @@ public class Staff {
          * x position of the next symbol.
          *
          * For fast performance, only draw symbols that are in the clip area.
+         * Use the symbol x positions to find the first symbol in the clip area.
          */
-        for (MusicSymbol s : symbols) {
-            if ((xpos <= clip.left + clip.width() + 50) && (xpos + s.getWidth() + 50 >= clip.left)) {
-                canvas.translate(xpos, 0);
-                s.Draw(canvas, paint, ytop);
-                canvas.translate(-xpos, 0);
+        int offset = xpos - keysigWidth;
+        for (int i = FirstSymbolEndingAt(clip.left - 50 - offset); i < symbols.size(); i++) {
+            xpos = symbolx[i] + offset;
+            if (xpos > clip.left + clip.width() + 50) {
+                break;
             }
-            xpos += s.getWidth();
+            canvas.translate(xpos, 0);
+            symbols.get(i).Draw(canvas, paint, ytop, atlas);
+            canvas.translate(-xpos, 0);
         }
         paint.setColor(Color.BLACK);
         DrawHorizLines(canvas, paint);
         DrawEndLines(canvas, paint);
 
         if (showMeasures) {
-            DrawMeasureNumbers(canvas, paint);
+            DrawMeasureNumbers(canvas, paint, atlas);
         }
         if (lyrics != null) {
-            DrawLyrics(canvas, paint);
+            DrawLyrics(canvas, paint, atlas);
+        }
+
+    }
+
+    /** Draw this staff by playing back the recorded drawing of the
+     *  parts of the staff inside the clip area.  The staff is split into
+     *  parts PictureWidth pixels wide, so that a long staff (when scrolling
+     *  horizontally) is not played back in full for every tile.
+     *
+     *  Each part is recorded with Draw() the first time it is needed.
+     *  The recording is in unzoomed pixels, and copies the glyph bitmaps
+     *  of the given atlas (or draws the glyphs, if the atlas is null).
+     *  So it can be played back at any zoom level, but is only sharp up
+     *  to the atlas zoom level.  The recordings of the last
+     *  MaxPictureZooms atlas zoom levels are kept, so the tiles drawn
+     *  at the old and new zoom levels while zooming do not record the
+     *  staff again and again.  The recordings are discarded after the
+     *  colors change (see ClearPictures).
+     */
+    public void DrawRecorded(Canvas canvas, Rect clip, Paint paint, GlyphAtlas atlas) {
+        int first = Math.max(0, clip.left / PictureWidth);
+        int last = Math.min((width - 1) / PictureWidth, clip.right / PictureWidth);
+        for (int part = first; part <= last; part++) {
+            Picture picture = GetPicture(part, paint, atlas);
+            canvas.save();
+            canvas.clipRect(part * PictureWidth, 0, (part+1) * PictureWidth, height);
+            canvas.drawPicture(picture);
+            canvas.restore();
+        }
+    }
+
+    /** Return the recorded drawing of the given part of the staff,
+     *  recording it with a copy of the given paint and the given atlas
+     *  if needed.  The staffs are drawn on several threads, so this is
+     *  synchronized.
+     */
+    private synchronized Picture GetPicture(int part, Paint paint, GlyphAtlas atlas) {
+        if (pictures == null) {
+            pictures = new LinkedHashMap<>(4, 0.75f, true);
+        }
+        float zoom = (atlas == null) ? 0 : atlas.getZoom();
+        Picture[] parts = pictures.get(zoom);
+        if (parts == null) {
+            parts = new Picture[Math.max(1, (width + PictureWidth - 1) / PictureWidth)];
+            pictures.put(zoom, parts);
+            Iterator<Picture[]> it = pictures.values().iterator();
+            while (pictures.size() > MaxPictureZooms) {
+                it.next();
+                it.remove();
+            }
         }
+        if (parts[part] == null) {
+            Picture picture = new Picture();
+            Canvas canvas = picture.beginRecording((part+1) * PictureWidth, height);
+            Rect clip = new Rect(part * PictureWidth, 0, (part+1) * PictureWidth, height);
+            Draw(canvas, clip, new Paint(paint), atlas);
+            picture.endRecording();
+            parts[part] = picture;
+        }
+        return parts[part];
+    }
 
+    /** Discard the recorded drawing, after the staff or colors have changed */
+    public synchronized void ClearPictures() {
+        pictures = null;
     }
 
+    /** Return the first chord starting at or after the given time,
+     *  or null if there is none.
+     */
     public MusicSymbol getCurrentNote(int currentPulseTime) {
-        for (int i = 0; i < symbols.size(); ++i) {
-            MusicSymbol cur = symbols.get(i);
-            if (cur instanceof ChordSymbol) {
-                if (cur.getStartTime() >= currentPulseTime) {
-                    return cur;
-                }
+        int low = 0;
+        int high = chords.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (symbolstart[chords[mid]] < currentPulseTime) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
             }
         }
-        return null;
+        return (low < chords.length) ? symbols.get(chords[low]) : null;
+    }
+
+    /** Return the start time of the last chord, or -1 if there are no chords */
+    public int getLastChordTime() {
+        return (chords.length > 0) ? symbolstart[chords[chords.length-1]] : -1;
     }
 
-    /** Shade all the chords played in the given time.
-     *  Un-shade any chords shaded in the previous pulse time.
-     *  Store the x coordinate location where the shade was drawn.
+    /** Add the times when the shading of this staff changes to the
+     *  list: the start time of each symbol that is shaded (every symbol
+     *  except the bars, see ShadeNotes), and the end time of the staff.
      */
-    public int ShadeNotes(Canvas canvas, Paint paint, int shade,
-                           int currentPulseTime, int prevPulseTime, int x_shade) {
+    public void AddShadeTimes(ListInt times) {
+        for (int i = 0; i < symbols.size(); i++) {
+            if (!(symbols.get(i) instanceof BarSymbol)) {
+                times.add(symbolstart[i]);
+            }
+        }
+        times.add(endtime);
+    }
+
+    /** Find the chords played in the current and previous time, which
+     *  need to be shaded and un-shaded.  Add the area behind those chords
+     *  (relative to the top-left corner of the staff) to the dirty
+     *  rectangle.  Return the x coordinate location of the shade.
+     *  The chords are drawn by DrawShade().
+     */
+    public int ShadeNotes(int currentPulseTime, int prevPulseTime, int x_shade,
+                          Rect dirty) {
 
         /* If there's nothing to unshade, or shade, return */
         if ((starttime > prevPulseTime || endtime < prevPulseTime) &&
@@ -399,122 +666,115 @@ public class Staff {
             return x_shade;
         }
 
-        /* Skip the left side Clef symbol and key signature */
-        int xpos = keysigWidth;
+        /* Find the symbols where start <= prevPulseTime < end,
+         * and start <= currentPulseTime < end.
+         */
+        int prevIndex = SymbolAtTime(prevPulseTime);
+        int currIndex = SymbolAtTime(currentPulseTime);
 
-        MusicSymbol curr = null;
-        ChordSymbol prevChord = null;
-        int prev_xpos = 0;
+        /* If shaded notes are the same, we're done */
+        if (currIndex != -1 && currIndex == prevIndex) {
+            return symbolx[currIndex];
+        }
 
-        /* Loop through the symbols. 
-         * Unshade symbols where start <= prevPulseTime < end
-         * Shade symbols where start <= currentPulseTime < end
-         */ 
-        for (int i = 0; i < symbols.size(); i++) {
-            curr = symbols.get(i);
-            if (curr instanceof BarSymbol) {
-                xpos += curr.getWidth();
-                continue;
-            }
+        if (currIndex != -1) {
+            x_shade = symbolx[currIndex];
+            AddDirtySymbol(dirty, currIndex);
+        }
+        if (prevIndex != -1) {
+            AddDirtySymbol(dirty, prevIndex);
+        }
 
-            int start = curr.getStartTime();
-            int end = 0;
-            if (i+2 < symbols.size() && symbols.get(i+1) instanceof BarSymbol) {
-                end = symbols.get(i+2).getStartTime();
+        /* If nothing is shaded yet, use the first symbol (not a bar)
+         * after both the previous and current times.
+         */
+        if (x_shade == 0) {
+            int index = FirstSymbolAfter(Math.max(prevPulseTime, currentPulseTime));
+            while (index < symbols.size() && symbols.get(index) instanceof BarSymbol) {
+                index++;
             }
-            else if (i+1 < symbols.size()) {
-                end = symbols.get(i+1).getStartTime();
+            if (index < symbols.size()) {
+                x_shade = symbolx[index];
             }
-            else {
-                end = endtime;
-            }
-
-
-            /* If we've past the previous and current times, we're done. */
-            if ((start > prevPulseTime) && (start > currentPulseTime)) {
-                if (x_shade == 0) {
-                    x_shade = xpos;
-                }
-                return x_shade;
-            }
-            /* If shaded notes are the same, we're done */
-            if ((start <= currentPulseTime) && (currentPulseTime < end) &&
-                (start <= prevPulseTime) && (prevPulseTime < end)) {
+        }
+        return x_shade;
+    }
 
-                x_shade = xpos;
-                return x_shade;
-            }
+    /** Add the area behind the given symbol, where the shaded background
+     *  is drawn, to the dirty rectangle.  The symbols and lines redrawn
+     *  outside this area are unchanged.
+     */
+    private void AddDirtySymbol(Rect dirty, int index) {
+        dirty.union(symbolx[index] - 2, -2, symbolx[index+1] + 2, height + 2);
+    }
 
-            boolean redrawLines = false;
-
-            /* If symbol is in the previous time, draw a white background */
-            if ((start <= prevPulseTime) && (prevPulseTime < end)) {
-                canvas.translate(xpos-2, -2);
-                paint.setStyle(Paint.Style.FILL);
-                paint.setColor(Color.WHITE);
-                canvas.drawRect(0, 0, curr.getWidth()+4, this.getHeight()+4, paint);
-                paint.setStyle(Paint.Style.STROKE);
-                paint.setColor(Color.BLACK);
-                canvas.translate(-(xpos-2), 2);
-                canvas.translate(xpos, 0);
-                curr.Draw(canvas, paint, ytop);
-                canvas.translate(-xpos, 0);
-
-                redrawLines = true;
-            }
+    /** Draw a shaded background behind the chord played at the given
+     *  time, if any, and redraw the chord on top of it, copying the
+     *  glyphs from the atlas if not null.  The staff itself must already
+     *  be drawn (unshaded) on the canvas.
+     */
+    public void DrawShade(Canvas canvas, Paint paint, int shade, int pulseTime, GlyphAtlas atlas) {
+        if (starttime > pulseTime || endtime < pulseTime) {
+            return;
+        }
+        int index = SymbolAtTime(pulseTime);
+        if (index != -1) {
+            ShadeSymbol(canvas, paint, shade, index, atlas);
+        }
+    }
 
-            /* If symbol is in the current time, draw a shaded background */
-            if ((start <= currentPulseTime) && (currentPulseTime < end)) {
-                x_shade = xpos;
-                canvas.translate(xpos, 0);
-                paint.setStyle(Paint.Style.FILL);
-                paint.setColor(shade);
-                canvas.drawRect(0, 0, curr.getWidth(), this.getHeight(), paint);
-                paint.setStyle(Paint.Style.STROKE);
-                paint.setColor(Color.BLACK);
-                curr.Draw(canvas, paint, ytop);
-                canvas.translate(-xpos, 0);
-                redrawLines = true;
-            }
+    /** Draw a shaded background behind the given symbol, and redraw it */
+    private void ShadeSymbol(Canvas canvas, Paint paint, int shade, int index, GlyphAtlas atlas) {
+        MusicSymbol curr = symbols.get(index);
+        int xpos = symbolx[index];
+        canvas.translate(xpos, 0);
+        paint.setStyle(Paint.Style.FILL);
+        paint.setColor(shade);
+        canvas.drawRect(0, 0, curr.getWidth(), this.getHeight(), paint);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setColor(Color.BLACK);
+        curr.Draw(canvas, paint, ytop, atlas);
+        canvas.translate(-xpos, 0);
+        RedrawLines(canvas, paint, index, atlas);
+    }
 
-            /* If either a gray or white background was drawn, we need to redraw
-             * the horizontal staff lines, and redraw the stem of the previous chord.
-             */
-            if (redrawLines) {
-                int line = 1;
-                int y = ytop - SheetMusic.LineWidth;
-                paint.setStyle(Paint.Style.STROKE);
-                paint.setColor(Color.BLACK);
-                paint.setStrokeWidth(1);
-                canvas.translate(xpos-2, 0);
-                for (line = 1; line <= 5; line++) {
-                    canvas.drawLine(0, y, curr.getWidth()+4, y, paint);
-                    y += SheetMusic.LineWidth + SheetMusic.LineSpace;
-                }
-                canvas.translate(-(xpos-2), 0);
+    /** After a shaded background was drawn behind the given
+     *  symbol, redraw the horizontal staff lines, and redraw the stem of
+     *  the previous chord (the closest chord to the left whose stem is
+     *  not joined to an earlier chord by a beam).
+     */
+    private void RedrawLines(Canvas canvas, Paint paint, int index, GlyphAtlas atlas) {
+        MusicSymbol curr = symbols.get(index);
+        int xpos = symbolx[index];
+        int line = 1;
+        int y = ytop - SheetMusic.LineWidth;
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setColor(Color.BLACK);
+        paint.setStrokeWidth(1);
+        canvas.translate(xpos-2, 0);
+        for (line = 1; line <= 5; line++) {
+            canvas.drawLine(0, y, curr.getWidth()+4, y, paint);
+            y += SheetMusic.LineWidth + SheetMusic.LineSpace;
+        }
+        canvas.translate(-(xpos-2), 0);
 
-                if (prevChord != null) {
-                    canvas.translate(prev_xpos, 0);
-                    prevChord.Draw(canvas, paint, ytop);
-                    canvas.translate(-prev_xpos, 0);
-                }
-                if (showMeasures) {
-                    DrawMeasureNumbers(canvas, paint);
-                }
-                if (lyrics != null) {
-                    DrawLyrics(canvas, paint);
-                }
-            }
-            if (curr instanceof ChordSymbol) {
-                ChordSymbol chord = (ChordSymbol) curr;
+        for (int i = index-1; i >= 0; i--) {
+            if (symbols.get(i) instanceof ChordSymbol) {
+                ChordSymbol chord = (ChordSymbol) symbols.get(i);
                 if (chord.getStem() != null && !chord.getStem().getReceiver()) {
-                    prevChord = (ChordSymbol) curr;
-                    prev_xpos = xpos;
+                    canvas.translate(symbolx[i], 0);
+                    chord.Draw(canvas, paint, ytop, atlas);
+                    canvas.translate(-symbolx[i], 0);
+                    break;
                 }
             }
-            xpos += curr.getWidth();
         }
-        return x_shade;
+        if (showMeasures) {
+            DrawMeasureNumbers(canvas, paint, atlas);
+        }
+        if (lyrics != null) {
+            DrawLyrics(canvas, paint, atlas);
+        }
     }
 
     /** Return the pulse time corresponding to the given point.
@@ -522,17 +782,11 @@ public class Staff {
      *  and return the startTime (pulseTime) of the symbol.
      */
     public int PulseTimeForPoint(Point point) {
-
-        int xpos = keysigWidth;
-        int pulseTime = starttime;
-        for (MusicSymbol sym : symbols) {
-            pulseTime = sym.getStartTime();
-            if (point.x <= xpos + sym.getWidth()) {
-                return pulseTime;
-            }
-            xpos += sym.getWidth();
+        if (symbols.size() == 0) {
+            return starttime;
         }
-        return pulseTime;
+        int index = Math.min(FirstSymbolEndingAt(point.x), symbols.size()-1);
+        return symbolstart[index];
     }
 
 
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic.sheets;
+
+import java.util.*;
+
+import com.midisheetmusic.collections.ListInt;
+
+
+/** @class StaffIndex
+ * The StaffIndex is used to find the staffs at a given y position or
+ * time, without looping through all the staffs.
+ *
+ * The staffs of the different tracks are interleaved (see
+ * SheetMusic.MeasureStaffs), so the staffs are not sorted by time.
+ * But the staffs of a single track are sorted by time: the end time
+ * of each staff is the start time of the next one.  So for each track,
+ * we store the staff numbers, start times, and end times of its staffs,
+ * and use a binary search within each track.
+ *
+ * The y positions are the sum of the staff heights, so the staff heights
+ * must not change after the index is created.
+ */
+public class StaffIndex {
+    private int[] ypos;            /** The y pixel of each staff, and of the bottom of the last staff */
+    private int[][] staffnums;     /** The staff numbers of each track */
+    private int[][] starttimes;    /** The start time of each staff, per track */
+    private int[][] endtimes;      /** The end time of each staff, per track */
+    private int[][] heights;       /** The sum of the staff heights before each staff, per track */
+    private int[][] lastchords;    /** The latest chord start time in each staff or the staffs before it, per track */
+
+    /** Create the index for the staffs with the given metrics, with the
+     *  given number of tracks.
+     */
+    public StaffIndex(StaffMetrics metrics, int numtracks) {
+        int n = metrics.size();
+        ypos = new int[n+1];
+        int[] count = new int[numtracks];
+        for (int i = 0; i < n; i++) {
+            ypos[i+1] = ypos[i] + metrics.getHeight(i);
+            count[metrics.getTrack(i)]++;
+        }
+
+        staffnums = new int[numtracks][];
+        starttimes = new int[numtracks][];
+        endtimes = new int[numtracks][];
+        heights = new int[numtracks][];
+        lastchords = new int[numtracks][];
+        for (int track = 0; track < numtracks; track++) {
+            staffnums[track] = new int[count[track]];
+            starttimes[track] = new int[count[track]];
+            endtimes[track] = new int[count[track]];
+            heights[track] = new int[count[track] + 1];
+            lastchords[track] = new int[count[track]];
+            count[track] = 0;
+        }
+        for (int i = 0; i < n; i++) {
+            int track = metrics.getTrack(i);
+            int j = count[track]++;
+            staffnums[track][j] = i;
+            starttimes[track][j] = metrics.getStartTime(i);
+            endtimes[track][j] = metrics.getEndTime(i);
+            heights[track][j+1] = heights[track][j] + metrics.getHeight(i);
+            lastchords[track][j] = metrics.getLastChordTime(i);
+            if (lastchords[track][j] == -1) {
+                lastchords[track][j] = Integer.MIN_VALUE;
+            }
+            if (j > 0 && lastchords[track][j] < lastchords[track][j-1]) {
+                lastchords[track][j] = lastchords[track][j-1];
+            }
+        }
+    }
+
+    /** Return the y pixel of the top of the given staff */
+    public int getY(int staffnum) {
+        return ypos[staffnum];
+    }
+
+    /** Return the staff containing the given y pixel, or -1 if there is none.
+     *  A y pixel on the border of two staffs belongs to the upper staff.
+     */
+    public int StaffAtY(int y) {
+        int low = 0;
+        int high = ypos.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ypos[mid+1] < y) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        if (low < ypos.length - 1 && ypos[low] <= y) {
+            return low;
+        }
+        return -1;
+    }
+
+    /** Return the index of the first value greater than the given time */
+    private static int FirstAfter(int[] times, int time) {
+        int low = 0;
+        int high = times.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] <= time) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** Return the staffs where (start time <= time <= end time), for
+     *  either of the two given times.  These are the only staffs that
+     *  shade or unshade notes for those times.  The staff numbers are
+     *  returned in increasing order, without duplicates.
+     */
+    public ListInt StaffsAtTimes(int time1, int time2) {
+        ListInt result = new ListInt(4);
+        for (int track = 0; track < staffnums.length; track++) {
+            AddStaffsAtTime(track, time1, result);
+            if (time2 != time1) {
+                AddStaffsAtTime(track, time2, result);
+            }
+        }
+        result.sort();
+        result.distinct();
+        return result;
+    }
+
+    /** Add the staffs of the given track containing the given time.
+     *  Since the end time of a staff is the start time of the next one,
+     *  there are at most two such staffs.
+     */
+    private void AddStaffsAtTime(int track, int time, ListInt result) {
+        int j = FirstAfter(starttimes[track], time) - 1;
+        while (j >= 0 && endtimes[track][j] >= time) {
+            result.add(staffnums[track][j]);
+            j--;
+        }
+    }
+
+    /** Return the total height of the staffs that end at or before the given time */
+    public int HeightEndingBy(int time) {
+        int total = 0;
+        for (int track = 0; track < staffnums.length; track++) {
+            total += heights[track][FirstAfter(endtimes[track], time)];
+        }
+        return total;
+    }
+
+    /** Return the first staff that has a chord starting at or after the
+     *  given time, or -1 if there is none.
+     */
+    public int FirstStaffWithChord(int time) {
+        int result = -1;
+        for (int track = 0; track < staffnums.length; track++) {
+            int[] times = lastchords[track];
+            int j = 0;
+            int high = times.length;
+            while (j < high) {
+                int mid = (j + high) >>> 1;
+                if (times[mid] < time) {
+                    j = mid + 1;
+                }
+                else {
+                    high = mid;
+                }
+            }
+            if (j < staffnums[track].length &&
+                (result == -1 || staffnums[track][j] < result)) {
+                result = staffnums[track][j];
+            }
+        }
+        return result;
+    }
+}
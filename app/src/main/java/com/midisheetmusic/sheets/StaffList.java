@@ -0,0 +1,400 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic.sheets;
+
+import java.util.*;
+
+import com.midisheetmusic.KeySignature;
+import com.midisheetmusic.LayoutCounters;
+import com.midisheetmusic.MidiOptions;
+import com.midisheetmusic.ScoreLayout;
+import com.midisheetmusic.SheetMusic;
+import com.midisheetmusic.collections.ListInt;
+
+
+/** @class StaffList
+ * The StaffList holds the staffs of the sheet music, from top to bottom.
+ *
+ * For long songs, the music symbols of all the staffs take a lot of
+ * memory, but only the staffs near the screen and the shaded notes are
+ * drawn.  So the StaffList does not keep the staffs created by the
+ * layout.  It creates each staff from the ScoreLayout when the staff is
+ * first needed, and keeps the staffs in the window around the screen
+ * (see setWindow), plus the few staffs outside the window used most
+ * recently (at most MaxOutsideWindow).  The other staffs are dropped.
+ *
+ * The width, height, times and lyrics of every staff are kept in the
+ * StaffMetrics, so the size of the sheet music and the note start times
+ * are known without creating the staffs.
+ *
+ * To create a staff again, its symbols are created with their aligned
+ * widths, and the beams in the staff are created again.  A beam can
+ * connect chords in two staffs (when a measure is wider than a staff),
+ * and two beams can share a chord.  So the beams of each track are
+ * grouped into clusters of overlapping beams, and the symbols of the
+ * clusters touching the staff are created along with the staff symbols.
+ *
+ * When a SheetMusic is released (for example, because the options changed),
+ * its StaffList keeps the staffs that were in memory.  If the new options
+ * do not change the staffs (see LayoutStages), the new SheetMusic creates
+ * its StaffList from the previous one, and takes these staffs instead of
+ * creating their symbols again.
+ */
+public class StaffList {
+    public static final int MaxOutsideWindow = 8;
+
+    private ScoreLayout layout;       /** The layout to create the staffs from, or null if there are none */
+    private KeySignature mainkey;     /** The main key signature */
+    private MidiOptions options;      /** The options the staffs were created with */
+    private SheetMusic sheet;         /** The sheet music the chords belong to */
+    private int numtracks;            /** The number of tracks */
+
+    private StaffMetrics metrics;     /** The track, size, times and lyrics of each staff */
+    private ListInt shadetimes;       /** The sorted, distinct times the shading changes */
+    private StaffIndex index;         /** The index of the staffs */
+
+    private int[] symstart;           /** The index of the first symbol of each staff in its track */
+    private int[] symend;             /** The index after the last symbol of each staff */
+    private int[] beamstart;          /** The first symbol to create, including the beams */
+    private int[] beamend;            /** The symbol after the last symbol to create */
+    private int[] notestart;          /** The first note of the first chord at or after beamstart */
+    private int[][] beamoffsets;      /** The offsets of the beams to create, for each staff */
+
+    private LinkedHashMap<Integer, Staff> resident; /** The staffs in memory, least recently used first */
+    private int windowStart;          /** The first staff in the window around the screen */
+    private int windowEnd;            /** The staff after the last staff in the window */
+    private HashMap<Integer, Staff> released; /** The staffs to re-use, or null */
+
+    /** Create the list of the staffs with the given metrics, laid out in
+     *  the given layout, with the given number of tracks.  The layout can
+     *  only be null if there are no staffs.
+     */
+    public StaffList(StaffMetrics metrics, int numtracks, ScoreLayout layout,
+                     KeySignature mainkey, MidiOptions options, SheetMusic sheet) {
+        this.layout = layout;
+        this.mainkey = mainkey;
+        this.options = options;
+        this.sheet = sheet;
+        this.numtracks = numtracks;
+        this.metrics = metrics;
+        shadetimes = metrics.getShadeTimes();
+        index = new StaffIndex(metrics, numtracks);
+        if (layout != null) {
+            FindSymbolRanges();
+        }
+        resident = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /** Create the list of the same staffs as the given list, for the
+     *  given sheet music.  The staffs released by the previous list
+     *  (see Release) are re-used.
+     */
+    public StaffList(StaffList previous, SheetMusic sheet) {
+        layout = previous.layout;
+        mainkey = previous.mainkey;
+        options = previous.options;
+        this.sheet = sheet;
+        numtracks = previous.numtracks;
+        metrics = previous.metrics;
+        shadetimes = previous.shadetimes;
+        index = previous.index;
+        symstart = previous.symstart;
+        symend = previous.symend;
+        beamstart = previous.beamstart;
+        beamend = previous.beamend;
+        notestart = previous.notestart;
+        beamoffsets = previous.beamoffsets;
+        windowStart = previous.windowStart;
+        windowEnd = previous.windowEnd;
+        resident = new LinkedHashMap<>(16, 0.75f, true);
+        released = previous.TakeReleased();
+    }
+
+    /** Find the symbols of each staff, and the beams and symbols needed
+     *  to create the staff again (see the class comment).
+     */
+    private void FindSymbolRanges() {
+        int n = metrics.size();
+        symstart = new int[n];
+        symend = new int[n];
+        beamstart = new int[n];
+        beamend = new int[n];
+        notestart = new int[n];
+        beamoffsets = new int[n][];
+
+        /* The staffs of each track are in order, and the breaks give
+         * the number of symbols in each staff.
+         */
+        ListInt[] trackstaffs = new ListInt[numtracks];
+        int[] symcount = new int[numtracks];
+        for (int track = 0; track < numtracks; track++) {
+            trackstaffs[track] = new ListInt();
+        }
+        for (int i = 0; i < n; i++) {
+            int track = metrics.getTrack(i);
+            ListInt breaks = layout.getBreaks(track);
+            symstart[i] = symcount[track];
+            symcount[track] += breaks.get(trackstaffs[track].size());
+            symend[i] = symcount[track];
+            beamstart[i] = symstart[i];
+            beamend[i] = symend[i];
+            trackstaffs[track].add(i);
+        }
+
+        /* Merge the overlapping beams of each track into clusters,
+         * sorted by their first symbol.
+         */
+        ListInt beams = layout.getBeams();
+        ListInt[] trackbeams = new ListInt[numtracks];
+        for (int track = 0; track < numtracks; track++) {
+            trackbeams[track] = new ListInt();
+        }
+        for (int offset = 0; offset < beams.size(); offset = layout.NextBeam(offset)) {
+            trackbeams[beams.get(offset)].add(offset);
+        }
+        ListInt[] beamlists = new ListInt[n];
+        for (int track = 0; track < numtracks; track++) {
+            ListInt offsets = trackbeams[track];
+            long[] intervals = new long[offsets.size()];
+            for (int b = 0; b < offsets.size(); b++) {
+                int offset = offsets.get(b);
+                intervals[b] = ((long)FirstChord(beams, offset) << 32) | LastChord(beams, offset);
+            }
+            Arrays.sort(intervals);
+            ListInt clusterstart = new ListInt();
+            ListInt clusterend = new ListInt();
+            for (long interval : intervals) {
+                int first = (int)(interval >> 32);
+                int last = (int)interval;
+                int c = clusterend.size() - 1;
+                if (c >= 0 && first <= clusterend.get(c)) {
+                    clusterend.set(c, Math.max(last, clusterend.get(c)));
+                }
+                else {
+                    clusterstart.add(first);
+                    clusterend.add(last);
+                }
+            }
+
+            /* Extend each staff to the clusters it touches */
+            ListInt staffnums = trackstaffs[track];
+            for (int c = 0; c < clusterstart.size(); c++) {
+                for (int j = FirstStaffEndingAfter(staffnums, clusterstart.get(c));
+                     j < staffnums.size() && symstart[staffnums.get(j)] <= clusterend.get(c); j++) {
+                    int i = staffnums.get(j);
+                    beamstart[i] = Math.min(beamstart[i], clusterstart.get(c));
+                    beamend[i] = Math.max(beamend[i], clusterend.get(c) + 1);
+                }
+            }
+
+            /* Each staff creates all the beams in the clusters it
+             * touches, in the order they were created.
+             */
+            for (int b = 0; b < offsets.size(); b++) {
+                int offset = offsets.get(b);
+                int c = ClusterOf(clusterstart, FirstChord(beams, offset));
+                for (int j = FirstStaffEndingAfter(staffnums, clusterstart.get(c));
+                     j < staffnums.size() && symstart[staffnums.get(j)] <= clusterend.get(c); j++) {
+                    int i = staffnums.get(j);
+                    if (beamlists[i] == null) {
+                        beamlists[i] = new ListInt(4);
+                    }
+                    beamlists[i].add(offset);
+                }
+            }
+
+            int[] starts = new int[staffnums.size()];
+            for (int j = 0; j < staffnums.size(); j++) {
+                starts[j] = beamstart[staffnums.get(j)];
+            }
+            int[] notes = layout.FirstNoteIndexes(track, starts);
+            for (int j = 0; j < staffnums.size(); j++) {
+                notestart[staffnums.get(j)] = notes[j];
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            beamoffsets[i] = (beamlists[i] == null) ? new int[0] : beamlists[i].toArray();
+        }
+    }
+
+    /** Return the symbol index of the first chord in the beam at the given offset */
+    private static int FirstChord(ListInt beams, int offset) {
+        return beams.get(offset+2);
+    }
+
+    /** Return the symbol index of the last chord in the beam at the given offset */
+    private static int LastChord(ListInt beams, int offset) {
+        return beams.get(offset+1+beams.get(offset+1));
+    }
+
+    /** Return the cluster containing the given symbol index, the last
+     *  cluster starting at or before it.
+     */
+    private static int ClusterOf(ListInt clusterstart, int symbolindex) {
+        int low = 0;
+        int high = clusterstart.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (clusterstart.get(mid) <= symbolindex) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+
+    /** Given the staffs of a track, return the index of the first one
+     *  ending after the given symbol index.
+     */
+    private int FirstStaffEndingAfter(ListInt staffnums, int symbolindex) {
+        int low = 0;
+        int high = staffnums.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (symend[staffnums.get(mid)] <= symbolindex) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** Create the given staff from the layout.  This is done in the same
+     *  order as SheetMusic.MeasureStaffs(): create the symbols and the
+     *  staff, then the beams, then add the lyrics and calculate the height.
+     */
+    private Staff CreateStaff(int i) {
+        int track = metrics.getTrack(i);
+        ArrayList<MusicSymbol> symbols =
+            layout.CreateSymbols(track, layout.getTrackKey(track), sheet,
+                                 beamstart[i], beamend[i], notestart[i]);
+        ArrayList<MusicSymbol> staffSymbols = new ArrayList<>(
+            symbols.subList(symstart[i] - beamstart[i], symend[i] - beamstart[i]));
+        Staff staff = new Staff(staffSymbols, mainkey, options, track, numtracks);
+        staff.setEndTime(metrics.getEndTime(i));
+        for (int offset : beamoffsets[i]) {
+            layout.CreateBeam(offset, symbols, beamstart[i]);
+        }
+        staff.setLyrics(metrics.getLyrics(i));
+        staff.CalculateHeight();
+        return staff;
+    }
+
+    /** Return the given staff, creating it if it is not in memory.
+     *  The staffs are drawn on several threads, so this is synchronized.
+     */
+    public synchronized Staff get(int i) {
+        Staff staff = resident.get(i);
+        if (staff != null) {
+            return staff;
+        }
+        if (released != null) {
+            staff = released.remove(i);
+        }
+        if (staff != null) {
+            staff.setSheetMusic(sheet);
+            LayoutCounters.AddReusedStaffs(1);
+        }
+        else {
+            staff = CreateStaff(i);
+            LayoutCounters.AddStaffs(1);
+        }
+        resident.put(i, staff);
+        Trim();
+        return staff;
+    }
+
+    /** The sheet music using this list is no longer shown.  Keep the
+     *  staffs in memory, so that the next StaffList for the same staffs
+     *  can re-use them.  This has no effect if there are no staffs.
+     */
+    public synchronized void Release() {
+        if (layout == null) {
+            return;
+        }
+        if (released == null) {
+            released = new HashMap<>();
+        }
+        released.putAll(resident);
+        resident.clear();
+    }
+
+    /** Return the released staffs, and stop keeping them */
+    private synchronized HashMap<Integer, Staff> TakeReleased() {
+        HashMap<Integer, Staff> result = released;
+        released = null;
+        return result;
+    }
+
+    /** Set the window of staffs [start, end) around the screen.  The
+     *  staffs in the window are kept in memory once they are created.
+     */
+    public synchronized void setWindow(int start, int end) {
+        if (start == windowStart && end == windowEnd) {
+            return;
+        }
+        windowStart = start;
+        windowEnd = end;
+        Trim();
+    }
+
+    /** Discard the recorded drawing of the staffs in memory, after
+     *  the colors have changed (see Staff.DrawRecorded).
+     */
+    public synchronized void ClearPictures() {
+        for (Staff staff : resident.values()) {
+            staff.ClearPictures();
+        }
+    }
+
+    /** Drop the least recently used staffs outside the window, above
+     *  MaxOutsideWindow.
+     */
+    private void Trim() {
+        int outside = 0;
+        for (int i : resident.keySet()) {
+            if (i < windowStart || i >= windowEnd) {
+                outside++;
+            }
+        }
+        Iterator<Integer> it = resident.keySet().iterator();
+        while (outside > MaxOutsideWindow && it.hasNext()) {
+            int i = it.next();
+            if (i < windowStart || i >= windowEnd) {
+                it.remove();
+                outside--;
+            }
+        }
+    }
+
+    public int size() { return metrics.size(); }
+    public int getNumTracks() { return numtracks; }
+    public KeySignature getMainKey() { return mainkey; }
+    public StaffIndex getIndex() { return index; }
+    public int getTrack(int i) { return metrics.getTrack(i); }
+    public int getWidth(int i) { return metrics.getWidth(i); }
+    public int getHeight(int i) { return metrics.getHeight(i); }
+
+    /** Return a new list of the sorted, distinct times when the
+     *  shading of the staffs changes (see Staff.AddShadeTimes).
+     */
+    public ListInt getShadeTimes() {
+        ListInt result = new ListInt(shadetimes.size() + 1);
+        result.addAll(shadetimes);
+        return result;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic.sheets;
+
+import java.util.*;
+
+import com.midisheetmusic.collections.ListInt;
+
+
+/** @class StaffMetrics
+ * The StaffMetrics holds what the sheet music needs to know about each
+ * staff without drawing it: the track, size, times, lyrics, and the
+ * times its shading changes.  The layout measures each staff as it is
+ * created, and then drops the staff.  The StaffList keeps the metrics,
+ * and creates the staffs again when they are drawn.
+ *
+ * The staffs are measured on several threads, each setting the metrics
+ * of different staffs.
+ */
+public class StaffMetrics {
+    private int[] tracks;             /** The track of each staff */
+    private int[] widths;             /** The width of each staff */
+    private int[] heights;            /** The height of each staff */
+    private int[] starttimes;         /** The start time of each staff */
+    private int[] endtimes;           /** The end time of each staff */
+    private int[] lastchords;         /** The start time of the last chord in each staff, or -1 */
+    private ArrayList<ArrayList<LyricSymbol>> lyrics; /** The lyrics of each staff (can be null) */
+    private ListInt[] shadetimes;     /** The times the shading of each staff changes */
+
+    /** Create the metrics of the given number of staffs */
+    public StaffMetrics(int size) {
+        tracks = new int[size];
+        widths = new int[size];
+        heights = new int[size];
+        starttimes = new int[size];
+        endtimes = new int[size];
+        lastchords = new int[size];
+        lyrics = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            lyrics.add(null);
+        }
+        shadetimes = new ListInt[size];
+    }
+
+    /** Record the metrics of the given staff, as staff number i.  The
+     *  staff must have its end time and lyrics.  The height is set later
+     *  (see setHeight), once the beams are created.
+     */
+    public void Measure(int i, Staff staff) {
+        tracks[i] = staff.getTrack();
+        widths[i] = staff.getWidth();
+        heights[i] = staff.getHeight();
+        starttimes[i] = staff.getStartTime();
+        endtimes[i] = staff.getEndTime();
+        lastchords[i] = staff.getLastChordTime();
+        lyrics.set(i, staff.getLyrics());
+        shadetimes[i] = new ListInt();
+        staff.AddShadeTimes(shadetimes[i]);
+    }
+
+    /** Return new metrics with the given staffs, in the given order */
+    public StaffMetrics Select(ListInt staffnums) {
+        StaffMetrics result = new StaffMetrics(staffnums.size());
+        for (int j = 0; j < staffnums.size(); j++) {
+            result.Copy(j, this, staffnums.get(j));
+        }
+        return result;
+    }
+
+    /** Return new metrics with these staffs, followed by the given staffs */
+    public StaffMetrics Append(StaffMetrics rest) {
+        int n = size();
+        StaffMetrics result = new StaffMetrics(n + rest.size());
+        for (int i = 0; i < n; i++) {
+            result.Copy(i, this, i);
+        }
+        for (int i = 0; i < rest.size(); i++) {
+            result.Copy(n + i, rest, i);
+        }
+        return result;
+    }
+
+    /** Copy the metrics of staff number from, as staff number i */
+    private void Copy(int i, StaffMetrics metrics, int from) {
+        tracks[i] = metrics.tracks[from];
+        widths[i] = metrics.widths[from];
+        heights[i] = metrics.heights[from];
+        starttimes[i] = metrics.starttimes[from];
+        endtimes[i] = metrics.endtimes[from];
+        lastchords[i] = metrics.lastchords[from];
+        lyrics.set(i, metrics.lyrics.get(from));
+        shadetimes[i] = metrics.shadetimes[from];
+    }
+
+    /** Return the sorted, distinct times when the shading of the staffs changes */
+    public ListInt getShadeTimes() {
+        ListInt result = new ListInt();
+        for (ListInt times : shadetimes) {
+            result.addAll(times);
+        }
+        result.sort();
+        result.distinct();
+        return result;
+    }
+
+    public int size() { return tracks.length; }
+    public int getTrack(int i) { return tracks[i]; }
+    public int getWidth(int i) { return widths[i]; }
+    public int getHeight(int i) { return heights[i]; }
+    public void setHeight(int i, int value) { heights[i] = value; }
+    public int getStartTime(int i) { return starttimes[i]; }
+    public int getEndTime(int i) { return endtimes[i]; }
+    public int getLastChordTime(int i) { return lastchords[i]; }
+    public ArrayList<LyricSymbol> getLyrics(int i) { return lyrics.get(i); }
+}
@@ -15,6 +15,9 @@ package com.midisheetmusic.sheets;
 
 import java.util.*;
 
+import com.midisheetmusic.collections.DictInt;
+import com.midisheetmusic.collections.ListInt;
+
 /** @class SymbolWidths
  * The SymbolWidths class is used to vertically align notes in different
  * tracks that occur at the same time (that have the same starttime).
@@ -50,16 +53,34 @@ public class SymbolWidths {
         for (int track = 0; track < tracks.size(); track++) {
             widths[track] = GetTrackWidths(tracks.get(track));
         }
-        maxwidths = new DictInt();
 
-        /* Calculate the maximum symbol widths */
+        /* Create the map of maximum widths with all the start times at
+         * once, instead of inserting the start times one at a time.
+         */
+        ListInt times = new ListInt();
         for (DictInt dict : widths) {
             for (int i = 0; i < dict.count(); i++) {
-                int time = dict.getKey(i);
-                if (!maxwidths.contains(time) ||
-                    (maxwidths.get(time) < dict.get(time)) ) {
+                times.add(dict.getKey(i));
+            }
+        }
+        if (tracklyrics != null) {
+            for (ArrayList<LyricSymbol> lyrics : tracklyrics) {
+                if (lyrics == null) {
+                    continue;
+                }
+                for (LyricSymbol lyric : lyrics) {
+                    times.add(lyric.getStartTime());
+                }
+            }
+        }
+        maxwidths = DictInt.Build(times);
 
-                    maxwidths.set(time, dict.get(time));
+        /* Calculate the maximum symbol widths */
+        for (DictInt dict : widths) {
+            for (int i = 0; i < dict.count(); i++) {
+                int index = maxwidths.indexOf(dict.getKey(i));
+                if (maxwidths.getValue(index) < dict.getValue(i)) {
+                    maxwidths.setValue(index, dict.getValue(i));
                 }
             }
         }
@@ -70,24 +91,20 @@ public class SymbolWidths {
                     continue;
                 }
                 for (LyricSymbol lyric : lyrics) {
+                    int index = maxwidths.indexOf(lyric.getStartTime());
                     int width = lyric.getMinWidth();
-                    int time = lyric.getStartTime();
-                    if (!maxwidths.contains(time) ||
-                        (maxwidths.get(time) < width) ) {
-
-                        maxwidths.set(time, width);
+                    if (maxwidths.getValue(index) < width) {
+                        maxwidths.setValue(index, width);
                     }
                 }
             }
         }
 
-        /* Store all the start times to the starttime array */
+        /* Store all the start times to the starttime array (already sorted) */
         starttimes = new int[ maxwidths.count() ];
         for (int i = 0; i < maxwidths.count(); i++) {
-            int key = maxwidths.getKey(i);
-            starttimes[i] = key;
+            starttimes[i] = maxwidths.getKey(i);
         }
-        Arrays.sort(starttimes); 
     }
 
     /** Create a table of the symbol widths for each starttime in the track. */
@@ -101,11 +118,12 @@ public class SymbolWidths {
             if (m instanceof BarSymbol) {
                 continue;
             }
-            else if (widths.contains(start)) {
-                widths.set(start, widths.get(start) + w);
+            int index = widths.indexOf(start);
+            if (index >= 0) {
+                widths.setValue(index, widths.getValue(index) + w);
             }
             else {
-                widths.set(start, w);
+                widths.add(start, w);
             }
         }
         return widths;
@@ -115,11 +133,7 @@ public class SymbolWidths {
      * the symbols for that start time align with the other tracks.
      */
     public int GetExtraWidth(int track, int start) {
-        if (!widths[track].contains(start)) {
-            return maxwidths.get(start);
-        } else {
-            return maxwidths.get(start) - widths[track].get(start);
-        }
+        return maxwidths.get(start) - widths[track].get(start);
     }
 
     /** Return an array of all the start times in all the tracks */
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic;
+
+import static org.junit.Assert.*;
+
+import android.app.Activity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/** Lay out the same song more than once, re-using the layout stages
+ *  of the previous SheetMusic, and check with the LayoutCounters which
+ *  symbols and staffs are created again.
+ *
+ *  The song is short enough that all its staffs stay in memory
+ *  (see StaffList.MaxOutsideWindow), so all of them can be re-used.
+ */
+public class LayoutCountersTest {
+    static final int ScreenWidth = 800;
+    static final int ScreenHeight = 480;
+
+    Activity activity;
+    MidiFile midifile;
+
+    @Before
+    public void setUp() {
+        /* The images are not loaded in the unit tests, so the time
+         * signature is not drawn.  That does not change the staffs.
+         */
+        activity = new Activity();
+        TimeSigSymbol.LoadImages(activity);
+        MidiFileBuilder builder = new MidiFileBuilder(480).Track();
+        for (int i = 0; i < 32; i++) {
+            builder.Note(0, 0, 60 + (i % 8), 100, 480);
+        }
+        midifile = new MidiFile(builder.toByteArray(), "layout.mid");
+        LayoutCounters.Reset();
+    }
+
+    /** Lay out the song, re-using the previous stages (if not null),
+     *  and get every staff.  Return the sheet music.
+     */
+    SheetMusic LayOut(MidiOptions options, LayoutStages previous) {
+        SheetMusic sheet = new SheetMusic(activity, ScreenWidth, ScreenHeight);
+        sheet.init(midifile, options, null, 0, previous);
+        sheet.WaitForLayout();
+        assertNotNull(sheet.getLayoutStages());
+        sheet.toString();
+        return sheet;
+    }
+
+    @Test
+    public void testSameSongTwice() {
+        MidiOptions options = new MidiOptions(midifile);
+        SheetMusic first = LayOut(options, null);
+        long symbols = LayoutCounters.getSymbols();
+        long staffs = LayoutCounters.getStaffs();
+        assertTrue(symbols > 0);
+        assertTrue(staffs > 0);
+        assertEquals(0, LayoutCounters.getReusedStaffs());
+
+        /* Only a color changed, so the staffs are re-used */
+        first.Release();
+        MidiOptions colors = options.copy();
+        colors.shade1Color = options.shade1Color + 1;
+        SheetMusic second = LayOut(colors, first.getLayoutStages());
+        assertEquals(symbols, LayoutCounters.getSymbols());
+        assertEquals(staffs, LayoutCounters.getStaffs());
+        long reused = LayoutCounters.getReusedStaffs();
+        assertTrue(reused > 0);
+
+        /* The bars change the staffs, so the symbols are created again */
+        second.Release();
+        MidiOptions measures = colors.copy();
+        measures.showMeasures = !colors.showMeasures;
+        LayOut(measures, second.getLayoutStages());
+        assertTrue(LayoutCounters.getSymbols() > symbols);
+        assertTrue(LayoutCounters.getStaffs() > staffs);
+        assertEquals(reused, LayoutCounters.getReusedStaffs());
+    }
+}
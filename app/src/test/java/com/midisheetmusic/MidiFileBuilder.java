@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic;
+
+import java.io.ByteArrayOutputStream;
+
+/** @class MidiFileBuilder
+ * Creates the bytes of a small format 1 midi file for the tests.
+ * Each event is given as its delta time (in pulses) followed by its
+ * bytes, and an end of track event is added to each track.
+ */
+class MidiFileBuilder {
+    private int quarter;                  /** The pulses per quarter note */
+    private int numtracks;                /** The number of tracks */
+    private ByteArrayOutputStream tracks; /** The finished tracks */
+    private ByteArrayOutputStream track;  /** The events of the current track */
+
+    MidiFileBuilder(int quarter) {
+        this.quarter = quarter;
+        tracks = new ByteArrayOutputStream();
+    }
+
+    /** Start a new track */
+    MidiFileBuilder Track() {
+        EndTrack();
+        track = new ByteArrayOutputStream();
+        numtracks++;
+        return this;
+    }
+
+    /** Add an event with the given delta time and bytes */
+    MidiFileBuilder Event(int delta, int... data) {
+        WriteVarlen(track, delta);
+        for (int b : data) {
+            track.write(b);
+        }
+        return this;
+    }
+
+    /** Add a tempo event, in microseconds per quarter note */
+    MidiFileBuilder Tempo(int delta, int tempo) {
+        return Event(delta, 0xFF, 0x51, 3, tempo >> 16, (tempo >> 8) & 0xFF, tempo & 0xFF);
+    }
+
+    /** Add a NoteOn and its NoteOff, duration pulses later */
+    MidiFileBuilder Note(int delta, int channel, int number, int velocity, int duration) {
+        Event(delta, 0x90 | channel, number, velocity);
+        return Event(duration, 0x80 | channel, number, 0);
+    }
+
+    /** Return the bytes of the midi file */
+    byte[] toByteArray() {
+        EndTrack();
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        WriteBytes(result, "MThd", 6);
+        result.write(0);
+        result.write(1);
+        result.write(numtracks >> 8);
+        result.write(numtracks);
+        result.write(quarter >> 8);
+        result.write(quarter);
+        byte[] data = tracks.toByteArray();
+        result.write(data, 0, data.length);
+        return result.toByteArray();
+    }
+
+    /** Add the end of track event, and move the current track to the tracks */
+    private void EndTrack() {
+        if (track == null) {
+            return;
+        }
+        Event(0, 0xFF, 0x2F, 0);
+        byte[] data = track.toByteArray();
+        WriteBytes(tracks, "MTrk", data.length);
+        tracks.write(data, 0, data.length);
+        track = null;
+    }
+
+    private static void WriteBytes(ByteArrayOutputStream out, String id, int length) {
+        for (int i = 0; i < 4; i++) {
+            out.write(id.charAt(i));
+        }
+        out.write(length >> 24);
+        out.write(length >> 16);
+        out.write(length >> 8);
+        out.write(length);
+    }
+
+    private static void WriteVarlen(ByteArrayOutputStream out, int value) {
+        int shift = 21;
+        while (shift > 0 && (value >> shift) == 0) {
+            shift -= 7;
+        }
+        for (; shift > 0; shift -= 7) {
+            out.write(0x80 | ((value >> shift) & 0x7F));
+        }
+        out.write(value & 0x7F);
+    }
+}
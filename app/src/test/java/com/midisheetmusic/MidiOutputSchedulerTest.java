@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/** Test the timing of the MidiOutputScheduler with a fake clock and a
+ *  RecordingMidiSink.  Instead of starting the thread, the test calls
+ *  SendDue() and moves the clock to the time it returns, as the thread
+ *  would after waiting.
+ *
+ *  The song has 480 pulses per quarter note.  A quarter note is 500 msec
+ *  until pulse 960, where the tempo doubles to 250 msec per quarter note.
+ */
+public class MidiOutputSchedulerTest {
+    static final int Start = 10000;
+
+    static final int ProgramChange = 0xC0;
+    static final int NoteOn = 0x90;
+    static final int NoteOff = 0x80;
+
+    static class FakeClock implements PlaybackScheduler.Clock {
+        long now = Start;
+        public long uptimeMillis() { return now; }
+    }
+
+    FakeClock clock;
+    MidiFile midifile;
+    MidiOptions options;
+    PlaybackScheduler scheduler;
+    RecordingMidiSink sink;
+    MidiOutputScheduler output;
+
+    @Before
+    public void setUp() {
+        byte[] data = new MidiFileBuilder(480)
+            .Track()
+            .Tempo(0, 500000)
+            .Event(0, ProgramChange, 5)
+            .Note(0, 0, 60, 100, 480)
+            .Note(0, 0, 62, 100, 480)
+            .Tempo(0, 250000)
+            .Note(0, 0, 64, 100, 4)
+            .Note(0, 0, 65, 100, 476)
+            .toByteArray();
+        midifile = new MidiFile(data, "test.mid");
+        options = new MidiOptions(midifile);
+        clock = new FakeClock();
+        scheduler = new PlaybackScheduler(clock);
+        sink = new RecordingMidiSink(clock);
+        output = new MidiOutputScheduler(midifile, scheduler, sink,
+                                         MidiOutputScheduler.DefaultLookahead);
+        output.SetOptions(options);
+    }
+
+    /** Start playing at the pause time and speed, and send all the
+     *  events, waking up late by the given msec each time.
+     */
+    void Play(int pauseTime, double speed, int late) {
+        scheduler.Start(midifile.getTempoMap(), speed, 0, pauseTime, midifile.getTotalPulses());
+        output.Seek(pauseTime);
+        long next;
+        while ((next = output.SendDue()) != -1) {
+            assertTrue(next > clock.now);
+            clock.now = next + late;
+        }
+    }
+
+    /** Check the intended time and message of the given event */
+    void CheckEvent(int index, long time, int status, int data1, int data2) {
+        assertEquals("time of event " + index, time, sink.getTime(index));
+        assertEquals("message of event " + index,
+                     (status << 16) | (data1 << 8) | data2, sink.getMessage(index));
+    }
+
+    /** The events are sent at the clock time of their pulse time, following
+     *  the tempo change, and the events within the lookahead window are
+     *  sent in the same batch.
+     */
+    @Test
+    public void testEventTimes() {
+        Play(0, 1.0, 0);
+        assertEquals(9, sink.size());
+        CheckEvent(0, Start, ProgramChange, 5, 0);
+        CheckEvent(1, Start, NoteOn, 60, 100);
+        CheckEvent(2, Start + 500, NoteOff, 60, 0);
+        CheckEvent(3, Start + 500, NoteOn, 62, 100);
+        CheckEvent(4, Start + 1000, NoteOff, 62, 0);
+        CheckEvent(5, Start + 1000, NoteOn, 64, 100);
+        CheckEvent(6, Start + 1003, NoteOff, 64, 0);
+        CheckEvent(7, Start + 1003, NoteOn, 65, 100);
+        CheckEvent(8, Start + 1250, NoteOff, 65, 0);
+    }
+
+    /** Waking up on time gives no jitter, except for the events sent
+     *  early, within the lookahead window.
+     */
+    @Test
+    public void testJitter() {
+        Play(0, 1.0, 0);
+        for (int i = 0; i < sink.size(); i++) {
+            int expected = (i == 6 || i == 7) ? -3 : 0;
+            assertEquals("jitter of event " + i, expected, sink.getJitter(i));
+        }
+        assertEquals(0, sink.getMaxJitter());
+    }
+
+    /** Waking up late delays the flush, but not the intended times */
+    @Test
+    public void testLateWakeup() {
+        Play(0, 1.0, 2);
+        CheckEvent(2, Start + 500, NoteOff, 60, 0);
+        CheckEvent(8, Start + 1250, NoteOff, 65, 0);
+        assertEquals(2, sink.getMaxJitter());
+        assertEquals(2, sink.getJitter(2));
+        assertEquals(-1, sink.getJitter(6));
+    }
+
+    /** Starting at a pause time sends the program first, skips the
+     *  NoteOff of the note that was not played, and follows the speed.
+     */
+    @Test
+    public void testPauseTimeAndSpeed() {
+        Play(480, 2.0, 0);
+        CheckEvent(0, Start, ProgramChange, 5, 0);
+        CheckEvent(1, Start, NoteOn, 62, 100);
+        CheckEvent(2, Start + 250, NoteOff, 62, 0);
+        CheckEvent(3, Start + 250, NoteOn, 64, 100);
+        CheckEvent(sink.size() - 1, Start + 375, NoteOff, 65, 0);
+        for (int i = 0; i < sink.size(); i++) {
+            assertNotEquals((NoteOff << 16) | (60 << 8), sink.getMessage(i));
+        }
+    }
+
+    /** A note transposed while playing is turned off with the number it
+     *  was played with, and Stop() turns off the notes still playing.
+     */
+    @Test
+    public void testTransposeAndStop() {
+        scheduler.Start(midifile.getTempoMap(), 1.0, 0, 0, midifile.getTotalPulses());
+        output.Seek(0);
+        clock.now = output.SendDue();
+        assertEquals(Start + 500, clock.now);
+        options.transpose = 2;
+        output.SetOptions(options);
+        assertEquals(Start + 1000, output.SendDue());
+        CheckEvent(2, Start + 500, NoteOff, 60, 0);
+        CheckEvent(3, Start + 500, NoteOn, 64, 100);
+
+        clock.now += 100;
+        output.Stop();
+        CheckEvent(sink.size() - 1, Start + 600, NoteOff, 64, 0);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.midisheetmusic.collections.ListInt;
+
+/** Test the PlaybackScheduler with a fake clock, at 480 pulses per
+ *  quarter note and the default tempo, so a quarter note is 500 msec.
+ */
+public class PlaybackSchedulerTest {
+
+    /** A clock that only moves when the test advances it */
+    static class FakeClock implements PlaybackScheduler.Clock {
+        long now = 10000;
+        public long uptimeMillis() { return now; }
+    }
+
+    FakeClock clock;
+    PlaybackScheduler scheduler;
+    TempoMap tempomap;
+
+    @Before
+    public void setUp() {
+        clock = new FakeClock();
+        scheduler = new PlaybackScheduler(clock);
+        tempomap = new TempoMap(480, new ListInt(), new ListInt());
+    }
+
+    static ListInt List(int... values) {
+        ListInt result = new ListInt();
+        for (int v : values) {
+            result.add(v);
+        }
+        return result;
+    }
+
+    /** Run the timer loop of the MidiPlayer until the given pulse time:
+     *  sleep for NextDelay(), and redraw if an onset was crossed.
+     *  Return the pulse times of the redraws.
+     */
+    ListInt RunTimer(double startPulseTime, int endPulseTime) {
+        ListInt redraws = new ListInt();
+        double current = startPulseTime;
+        while (current <= endPulseTime) {
+            long delay = scheduler.NextDelay(false);
+            assertTrue(delay >= PlaybackScheduler.MinDelay);
+            assertTrue(delay <= PlaybackScheduler.MaxDelay);
+            clock.now += delay;
+            double pulseTime = scheduler.getPulseTime();
+            if (scheduler.OnsetBetween(current, pulseTime)) {
+                redraws.add((int)pulseTime);
+            }
+            current = pulseTime;
+        }
+        return redraws;
+    }
+
+    /** The redraws happen right after each onset: the chord at 0 is
+     *  un-shaded on the piano at 240, a rest starts at 480, the chord at
+     *  960 ends at 1200, and the staff ends at 1920.
+     */
+    @Test
+    public void testRedrawAtOnsetsAndEnds() {
+        int[] onsets = { 0, 240, 480, 960, 1200, 1920 };
+        scheduler.SetOnsets(List(onsets));
+        scheduler.Start(tempomap, 1.0, 0, 0, 1921);
+
+        ListInt redraws = RunTimer(0, 1920);
+        assertEquals(onsets.length - 1, redraws.size());
+        for (int i = 1; i < onsets.length; i++) {
+            int pulseTime = redraws.get(i-1);
+            assertTrue("redraw " + pulseTime + " before " + onsets[i], pulseTime >= onsets[i]);
+            assertTrue("redraw " + pulseTime + " after " + onsets[i], pulseTime <= onsets[i] + 3);
+        }
+    }
+
+    /** The onsets are followed at half speed, and after a tempo change */
+    @Test
+    public void testSpeedAndTempoChange() {
+        tempomap = new TempoMap(480, List(960), List(250000));
+        scheduler.SetOnsets(List(480, 960, 1440, 1920));
+        scheduler.Start(tempomap, 0.5, 0, 480, 1921);
+
+        assertEquals(1000, scheduler.MillisAt(960), 0.001);
+        assertEquals(1500, scheduler.MillisAt(1440), 0.001);
+        ListInt redraws = RunTimer(480, 1920);
+        assertEquals(3, redraws.size());
+        assertTrue(redraws.get(0) >= 960 && redraws.get(0) <= 962);
+        assertTrue(redraws.get(1) >= 1440 && redraws.get(1) <= 1444);
+        assertTrue(redraws.get(2) >= 1920 && redraws.get(2) <= 1924);
+    }
+
+    /** Without onsets, the timer still wakes up at the end time */
+    @Test
+    public void testWakeAtEnd() {
+        scheduler.SetOnsets(new ListInt());
+        scheduler.Start(tempomap, 1.0, 0, 0, 720);
+        assertEquals(PlaybackScheduler.MaxDelay, scheduler.NextDelay(false));
+        clock.now += 500;
+        assertEquals(251, scheduler.NextDelay(false));
+        assertEquals(PlaybackScheduler.FrameDelay, scheduler.NextDelay(true));
+    }
+
+    /** The elapsed time is moved to the player position, once per
+     *  CorrectInterval, when it drifts by more than MaxDrift.
+     */
+    @Test
+    public void testDriftCorrection() {
+        scheduler.SetOnsets(List(0, 960));
+        scheduler.Start(tempomap, 1.0, 0, 0, 1921);
+
+        /* Too soon to check the drift */
+        clock.now += 500;
+        assertFalse(scheduler.Correct(400));
+        assertEquals(500, scheduler.getElapsed());
+
+        /* The player is 50 msec behind the clock */
+        clock.now += 500;
+        assertTrue(scheduler.Correct(950));
+        assertEquals(950, scheduler.getElapsed());
+        assertEquals(50, scheduler.getTotalDrift());
+        assertEquals(912, (int)scheduler.getPulseTime());
+
+        /* The next onset (960 pulses, 1000 msec) is now 50 msec away */
+        assertEquals(51, scheduler.NextDelay(false));
+
+        /* A drift within MaxDrift is not corrected */
+        clock.now += 1000;
+        assertFalse(scheduler.Correct(1950 - PlaybackScheduler.MaxDrift));
+        assertEquals(1950, scheduler.getElapsed());
+
+        /* The player is 30 msec ahead of the clock */
+        clock.now += 1000;
+        assertTrue(scheduler.Correct(2980));
+        assertEquals(2980, scheduler.getElapsed());
+        assertEquals(20, scheduler.getTotalDrift());
+    }
+}
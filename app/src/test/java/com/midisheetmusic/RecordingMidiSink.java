@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic;
+
+import com.midisheetmusic.collections.ListInt;
+
+/** @class RecordingMidiSink
+ * A MidiSink that records the events it receives, instead of playing
+ * them.  It is used to check the MidiOutputScheduler without a Midi
+ * device.  For each event, the jitter is the clock time when Flush()
+ * was called, minus the time the event was intended to play at.
+ * A positive jitter means the event was late.
+ */
+public class RecordingMidiSink implements MidiSink {
+    private PlaybackScheduler.Clock clock;  /** The clock used to measure the jitter */
+    private ListInt times;      /** The intended time of each event */
+    private ListInt messages;   /** The status, data1, data2 of each event, packed in an int */
+    private ListInt jitters;    /** The jitter of each event, in msec */
+    private int pending;        /** The number of events not flushed yet */
+    private int batches;        /** The number of batches flushed */
+
+    public RecordingMidiSink(PlaybackScheduler.Clock clock) {
+        this.clock = clock;
+        times = new ListInt();
+        messages = new ListInt();
+        jitters = new ListInt();
+    }
+
+    public synchronized void Send(long time, int status, int data1, int data2) {
+        times.add((int)time);
+        messages.add((status << 16) | (data1 << 8) | data2);
+        pending++;
+    }
+
+    public synchronized void SendSysex(long time, byte[] data) {
+        Send(time, MidiFile.SysexEvent1 & 0xFF, 0, 0);
+    }
+
+    public synchronized void Flush() {
+        long now = clock.uptimeMillis();
+        for (int i = times.size() - pending; i < times.size(); i++) {
+            jitters.add((int)(now - times.get(i)));
+        }
+        pending = 0;
+        batches++;
+    }
+
+    /** Return the number of events received */
+    public synchronized int size() { return times.size(); }
+
+    /** Return the number of batches flushed */
+    public synchronized int getBatches() { return batches; }
+
+    /** Return the intended time of the given event */
+    public synchronized long getTime(int index) { return times.get(index); }
+
+    /** Return the status, data1, and data2 of the given event,
+     *  packed as (status << 16 | data1 << 8 | data2).
+     */
+    public synchronized int getMessage(int index) { return messages.get(index); }
+
+    /** Return the jitter (in msec) of the given flushed event */
+    public synchronized int getJitter(int index) { return jitters.get(index); }
+
+    /** Return the average jitter, in msec */
+    public synchronized double getMeanJitter() {
+        if (jitters.size() == 0) {
+            return 0;
+        }
+        double total = 0;
+        for (int i = 0; i < jitters.size(); i++) {
+            total += jitters.get(i);
+        }
+        return total / jitters.size();
+    }
+
+    /** Return the largest (latest) jitter, in msec */
+    public synchronized int getMaxJitter() {
+        int result = 0;
+        for (int i = 0; i < jitters.size(); i++) {
+            result = Math.max(result, jitters.get(i));
+        }
+        return result;
+    }
+
+    /** Return the standard deviation of the jitter, in msec */
+    public synchronized double getJitterDeviation() {
+        if (jitters.size() == 0) {
+            return 0;
+        }
+        double mean = getMeanJitter();
+        double total = 0;
+        for (int i = 0; i < jitters.size(); i++) {
+            double diff = jitters.get(i) - mean;
+            total += diff * diff;
+        }
+        return Math.sqrt(total / jitters.size());
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(java.util.Locale.US,
+                             "RecordingMidiSink events=%d batches=%d jitter mean=%.2f max=%d dev=%.2f",
+                             size(), batches, getMeanJitter(), getMaxJitter(), getJitterDeviation());
+    }
+}
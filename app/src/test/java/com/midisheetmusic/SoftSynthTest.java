@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/** Render a small song with the SoftSynth to a WAV file, and compare
+ *  the samples against a known checksum.  The song has a piano track,
+ *  a string track, and a drum track, with a tempo change, so the
+ *  wavetables, the envelopes, the percussion noise, and the tempo map
+ *  are all used.  If the synthesizer is changed on purpose, update the
+ *  checksum.
+ */
+public class SoftSynthTest {
+    static final long Checksum = 146318575L;
+    static final int HeaderSize = 44;
+
+    MidiFile midifile;
+    MidiOptions options;
+
+    @Before
+    public void setUp() {
+        MidiFileBuilder builder = new MidiFileBuilder(480);
+        builder.Track()
+            .Tempo(0, 500000)
+            .Event(0, 0xC0, 0)
+            .Note(0, 0, 60, 90, 240)
+            .Note(0, 0, 64, 90, 240)
+            .Note(0, 0, 67, 90, 240)
+            .Tempo(0, 400000)
+            .Event(0, 0x90, 60, 80)
+            .Event(0, 0x90, 64, 80)
+            .Event(0, 0x90, 67, 80)
+            .Event(960, 0x80, 60, 0)
+            .Event(0, 0x80, 64, 0)
+            .Event(0, 0x80, 67, 0);
+        builder.Track()
+            .Event(0, 0xC1, 40)
+            .Note(240, 1, 72, 100, 720)
+            .Note(0, 1, 71, 100, 480)
+            .Note(0, 1, 72, 100, 480);
+        builder.Track()
+            .Note(0, 9, 36, 110, 120)
+            .Note(360, 9, 42, 70, 120)
+            .Note(360, 9, 38, 100, 120)
+            .Note(360, 9, 42, 70, 120);
+        midifile = new MidiFile(builder.toByteArray(), "synth.mid");
+        options = new MidiOptions(midifile);
+    }
+
+    byte[] Render() throws IOException {
+        SoftSynth synth = new SoftSynth();
+        synth.SetSong(midifile, options);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int frames = synth.RenderToWav(out);
+        byte[] wav = out.toByteArray();
+        assertEquals(HeaderSize + frames * 2, wav.length);
+        return wav;
+    }
+
+    static int LittleInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | ((data[offset+1] & 0xFF) << 8) |
+               ((data[offset+2] & 0xFF) << 16) | ((data[offset+3] & 0xFF) << 24);
+    }
+
+    static long Checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+
+    /** The WAV header describes 16-bit mono PCM at the sample rate */
+    @Test
+    public void testHeader() throws IOException {
+        byte[] wav = Render();
+        assertEquals("RIFF", new String(wav, 0, 4, "US-ASCII"));
+        assertEquals(wav.length - 8, LittleInt(wav, 4));
+        assertEquals("WAVEfmt ", new String(wav, 8, 8, "US-ASCII"));
+        assertEquals(SoftSynth.SampleRate, LittleInt(wav, 24));
+        assertEquals("data", new String(wav, 36, 4, "US-ASCII"));
+        assertEquals(wav.length - HeaderSize, LittleInt(wav, 40));
+    }
+
+    /** The song lasts until the last note is released: the notes end at
+     *  1920 pulses, the first 720 at 500 msec per quarter note and the
+     *  rest at 400 msec, so 1.75 seconds.
+     */
+    @Test
+    public void testLength() throws IOException {
+        byte[] wav = Render();
+        int frames = (wav.length - HeaderSize) / 2;
+        int expected = (int)(1.75 * SoftSynth.SampleRate);
+        assertTrue(frames >= expected);
+        assertTrue(frames < expected + SoftSynth.SampleRate);
+    }
+
+    /** Rendering twice gives the same samples, which match the checksum */
+    @Test
+    public void testChecksum() throws IOException {
+        byte[] wav = Render();
+        assertArrayEquals(wav, Render());
+        assertEquals(Checksum, Checksum(wav));
+    }
+
+    /** Muting all the tracks renders silence */
+    @Test
+    public void testMute() throws IOException {
+        for (int i = 0; i < options.mute.length; i++) {
+            options.mute[i] = true;
+        }
+        byte[] wav = Render();
+        for (int i = HeaderSize; i < wav.length; i++) {
+            assertEquals(0, wav[i]);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic.collections;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/** Test the DictInt, which keeps its keys in a sorted array */
+public class DictIntTest {
+
+    static ListInt List(int... values) {
+        ListInt result = new ListInt();
+        for (int v : values) {
+            result.add(v);
+        }
+        return result;
+    }
+
+    /** Check that the keys are sorted and distinct */
+    static void CheckSorted(DictInt dict) {
+        for (int i = 1; i < dict.count(); i++) {
+            assertTrue(dict.getKey(i-1) < dict.getKey(i));
+        }
+    }
+
+    @Test
+    public void testAddInOrderGrows() {
+        DictInt dict = new DictInt(1);
+        for (int i = 0; i < 100; i++) {
+            dict.add(i * 3, i);
+        }
+        assertEquals(100, dict.count());
+        CheckSorted(dict);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, dict.get(i * 3));
+        }
+    }
+
+    @Test
+    public void testAddOutOfOrder() {
+        DictInt dict = new DictInt(2);
+        int[] keys = { 50, 10, 40, -5, 30, 20, 60, 0 };
+        for (int key : keys) {
+            dict.add(key, key + 1);
+        }
+        assertEquals(keys.length, dict.count());
+        CheckSorted(dict);
+        for (int key : keys) {
+            assertEquals(key + 1, dict.get(key));
+        }
+        assertEquals(-5, dict.getKey(0));
+        assertEquals(60, dict.getKey(dict.count() - 1));
+    }
+
+    @Test
+    public void testAddDuplicateKeyReplacesValue() {
+        DictInt dict = new DictInt(4);
+        dict.add(10, 1);
+        dict.add(20, 2);
+        dict.add(30, 3);
+
+        /* The last key, and a key before it */
+        dict.add(30, 33);
+        dict.add(10, 11);
+        assertEquals(3, dict.count());
+        CheckSorted(dict);
+        assertEquals(11, dict.get(10));
+        assertEquals(2, dict.get(20));
+        assertEquals(33, dict.get(30));
+
+        /* A duplicate key must not grow a full dictionary */
+        dict.add(40, 4);
+        dict.add(20, 22);
+        assertEquals(4, dict.count());
+        assertEquals(22, dict.get(20));
+    }
+
+    @Test
+    public void testSet() {
+        DictInt dict = new DictInt();
+        dict.set(5, 1);
+        dict.set(2, 2);
+        dict.set(5, 3);
+        assertEquals(2, dict.count());
+        assertEquals(3, dict.get(5));
+        assertEquals(2, dict.get(2));
+    }
+
+    @Test
+    public void testMissingKey() {
+        DictInt dict = new DictInt();
+        assertFalse(dict.contains(7));
+        assertEquals(0, dict.get(7));
+        assertEquals(-1, dict.indexOf(7));
+
+        dict.add(10, 1);
+        dict.add(30, 3);
+        assertFalse(dict.contains(20));
+        assertEquals(0, dict.get(20));
+        assertEquals(-2, dict.indexOf(20));
+        assertEquals(-3, dict.indexOf(40));
+        assertTrue(dict.contains(30));
+    }
+
+    @Test
+    public void testBuildUnsorted() {
+        DictInt dict = DictInt.Build(List(40, 10, 30, 10, -20, 40, 0, 30));
+        assertEquals(5, dict.count());
+        CheckSorted(dict);
+        int[] expected = { -20, 0, 10, 30, 40 };
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], dict.getKey(i));
+            assertEquals(0, dict.getValue(i));
+        }
+
+        /* The built dictionary can still grow */
+        dict.add(50, 5);
+        dict.add(20, 2);
+        assertEquals(7, dict.count());
+        CheckSorted(dict);
+        assertEquals(2, dict.get(20));
+        assertEquals(5, dict.get(50));
+    }
+
+    @Test
+    public void testBuildEmpty() {
+        DictInt dict = DictInt.Build(new ListInt());
+        assertEquals(0, dict.count());
+        dict.add(3, 1);
+        assertEquals(1, dict.get(3));
+    }
+
+    @Test
+    public void testSetValue() {
+        DictInt dict = DictInt.Build(List(3, 1, 2));
+        int index = dict.indexOf(2);
+        dict.setValue(index, 9);
+        assertEquals(9, dict.get(2));
+        assertEquals(9, dict.getValue(index));
+    }
+}
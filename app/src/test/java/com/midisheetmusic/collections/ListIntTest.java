@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic.collections;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/** Test the ListInt and PairInt */
+public class ListIntTest {
+
+    static ListInt List(int... values) {
+        ListInt result = new ListInt();
+        for (int v : values) {
+            result.add(v);
+        }
+        return result;
+    }
+
+    @Test
+    public void testGrowth() {
+        ListInt list = new ListInt(0);
+        for (int i = 0; i < 100; i++) {
+            list.add(i);
+        }
+        assertEquals(100, list.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, list.get(i));
+        }
+    }
+
+    @Test
+    public void testAddAll() {
+        ListInt list = new ListInt(1);
+        list.add(1);
+        list.addAll(List(2, 3, 4, 5, 6));
+        list.addAll(new ListInt());
+        list.addAll(List(7));
+        assertArrayEquals(new int[] { 1, 2, 3, 4, 5, 6, 7 }, list.toArray());
+    }
+
+    @Test
+    public void testSortDistinct() {
+        ListInt list = List(5, 3, 5, -1, 3, 3, 9, -1);
+        list.sort();
+        list.distinct();
+        assertArrayEquals(new int[] { -1, 3, 5, 9 }, list.toArray());
+
+        ListInt empty = new ListInt();
+        empty.sort();
+        empty.distinct();
+        assertEquals(0, empty.size());
+    }
+
+    @Test
+    public void testContains() {
+        ListInt list = List(4, 8, 15);
+        assertTrue(list.contains(8));
+        assertFalse(list.contains(16));
+    }
+
+    @Test
+    public void testSetAndClear() {
+        ListInt list = List(1, 2, 3);
+        list.set(1, 20);
+        assertEquals(20, list.get(1));
+        list.clear();
+        assertEquals(0, list.size());
+        assertFalse(list.contains(20));
+        list.add(4);
+        assertArrayEquals(new int[] { 4 }, list.toArray());
+    }
+
+    @Test
+    public void testPairInt() {
+        PairInt pair = new PairInt();
+        pair.set(3, 8);
+        assertEquals(3, pair.low);
+        assertEquals(8, pair.high);
+        pair.set(-1, 0);
+        assertEquals(-1, pair.low);
+        assertEquals(0, pair.high);
+    }
+}
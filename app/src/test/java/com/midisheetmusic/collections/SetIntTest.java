@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2007-2012 Madhav Vaidyanathan
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License version 2.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ */
+
+package com.midisheetmusic.collections;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/** Test the SetInt, a hash table with open addressing */
+public class SetIntTest {
+
+    @Test
+    public void testAddAndContains() {
+        SetInt set = new SetInt();
+        assertTrue(set.add(5));
+        assertTrue(set.add(-5));
+        assertTrue(set.add(0));
+        assertEquals(3, set.size());
+        assertTrue(set.contains(5));
+        assertTrue(set.contains(-5));
+        assertTrue(set.contains(0));
+    }
+
+    @Test
+    public void testMissingValue() {
+        SetInt set = new SetInt();
+        assertFalse(set.contains(0));
+        assertFalse(set.contains(Integer.MIN_VALUE));
+        set.add(1);
+        assertFalse(set.contains(2));
+    }
+
+    @Test
+    public void testDuplicates() {
+        SetInt set = new SetInt();
+        assertTrue(set.add(7));
+        assertFalse(set.add(7));
+        assertTrue(set.add(Integer.MIN_VALUE));
+        assertFalse(set.add(Integer.MIN_VALUE));
+        assertEquals(2, set.size());
+    }
+
+    /** The values i << 28 hash to the same slot in a small table, so
+     *  they are found by probing past each other, wrapping around the
+     *  end of the table.  Integer.MIN_VALUE (the empty slot marker) is
+     *  one of them.
+     */
+    @Test
+    public void testCollisions() {
+        SetInt set = new SetInt(4);
+        for (int i = 1; i < 16; i++) {
+            assertTrue(set.add(i << 28));
+        }
+        assertEquals(15, set.size());
+        for (int i = 1; i < 16; i++) {
+            assertTrue(set.contains(i << 28));
+            assertFalse(set.add(i << 28));
+        }
+        assertFalse(set.contains(0));
+        assertFalse(set.contains(1 << 27));
+    }
+
+    @Test
+    public void testGrowth() {
+        SetInt set = new SetInt(1);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(set.add(i * 7919));
+        }
+        assertEquals(1000, set.size());
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(set.contains(i * 7919));
+        }
+        assertFalse(set.contains(1));
+    }
+
+    @Test
+    public void testClear() {
+        SetInt set = new SetInt();
+        set.add(3);
+        set.add(Integer.MIN_VALUE);
+        set.clear();
+        assertEquals(0, set.size());
+        assertFalse(set.contains(3));
+        assertFalse(set.contains(Integer.MIN_VALUE));
+        assertTrue(set.add(3));
+    }
+}